@@ -25,23 +25,28 @@ import static android.support.test.espresso.matcher.ViewMatchers.withId;
 
 import static org.hamcrest.Matchers.not;
 import static org.hamcrest.core.AllOf.allOf;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
 import android.content.pm.ActivityInfo;
 import android.support.test.InstrumentationRegistry;
+import android.support.test.espresso.Espresso;
 import android.support.test.espresso.UiController;
 import android.support.test.espresso.ViewAction;
 import android.support.test.rule.ActivityTestRule;
 import android.support.test.runner.AndroidJUnit4;
 import android.view.View;
+import android.view.ViewTreeObserver;
 
 import com.example.android.pictureinpicture.widget.MovieView;
 
 import org.hamcrest.Description;
 import org.hamcrest.Matcher;
 import org.hamcrest.TypeSafeMatcher;
+import org.junit.After;
+import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -53,6 +58,22 @@ public class MainActivityTest {
     @Rule
     public ActivityTestRule<MainActivity> rule = new ActivityTestRule<>(MainActivity.class);
 
+    private MovieViewIdlingResource mIdlingResource;
+
+    @Before
+    public void registerIdlingResource() {
+        // The video is prepared asynchronously
+        mIdlingResource =
+                new MovieViewIdlingResource(
+                        (MovieView) rule.getActivity().findViewById(R.id.movie));
+        Espresso.registerIdlingResources(mIdlingResource);
+    }
+
+    @After
+    public void unregisterIdlingResource() {
+        Espresso.unregisterIdlingResources(mIdlingResource);
+    }
+
     @Test
     public void movie_playingOnPip() throws Throwable {
         // The movie should be playing on start
@@ -72,6 +93,10 @@ public class MainActivityTest {
                 assertNotNull(view);
                 // The video should still be playing
                 assertTrue(view.isPlaying());
+                // The controls were hidden at once, without fading out
+                final View controls = view.findViewById(R.id.controls);
+                assertEquals(View.INVISIBLE, controls.getVisibility());
+                assertEquals(0f, controls.getAlpha(), 0f);
             }
         });
     }
@@ -90,6 +115,38 @@ public class MainActivityTest {
         onView(withId(R.id.movie)).check(matches(isPlaying()));
     }
 
+    @Test
+    public void letterbox_takesSingleLayoutPass() throws Throwable {
+        onView(withId(R.id.movie)).check(matches(allOf(isDisplayed(), isPlaying())));
+        final int[] layoutPasses = new int[1];
+        final ViewTreeObserver.OnGlobalLayoutListener counter =
+                new ViewTreeObserver.OnGlobalLayoutListener() {
+                    @Override
+                    public void onGlobalLayout() {
+                        layoutPasses[0]++;
+                    }
+                };
+        rule.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                final MovieView view = rule.getActivity().findViewById(R.id.movie);
+                view.getViewTreeObserver().addOnGlobalLayoutListener(counter);
+                // Switch to black bars
+                view.setAdjustViewBounds(false);
+            }
+        });
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+        rule.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                final MovieView view = rule.getActivity().findViewById(R.id.movie);
+                view.getViewTreeObserver().removeOnGlobalLayoutListener(counter);
+                // Measuring must not request another layout.
+                assertEquals(1, layoutPasses[0]);
+            }
+        });
+    }
+
     @Test
     public void fullscreen_enabledOnLandscape() throws Throwable {
         rule.runOnUiThread(new Runnable() {
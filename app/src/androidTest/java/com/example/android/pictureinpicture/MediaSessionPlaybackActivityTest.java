@@ -18,7 +18,9 @@ package com.example.android.pictureinpicture;
 
 import android.content.pm.ActivityInfo;
 import android.media.session.PlaybackState;
+import android.os.Looper;
 import android.support.test.InstrumentationRegistry;
+import android.support.test.espresso.Espresso;
 import android.support.test.espresso.UiController;
 import android.support.test.espresso.ViewAction;
 import android.support.test.rule.ActivityTestRule;
@@ -31,6 +33,8 @@ import com.example.android.pictureinpicture.widget.MovieView;
 import org.hamcrest.Description;
 import org.hamcrest.Matcher;
 import org.hamcrest.TypeSafeMatcher;
+import org.junit.After;
+import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -57,6 +61,22 @@ public class MediaSessionPlaybackActivityTest {
     public ActivityTestRule<MediaSessionPlaybackActivity> rule =
             new ActivityTestRule<>(MediaSessionPlaybackActivity.class);
 
+    private MovieViewIdlingResource mIdlingResource;
+
+    @Before
+    public void registerIdlingResource() {
+        // The video is prepared asynchronously
+        mIdlingResource =
+                new MovieViewIdlingResource(
+                        (MovieView) rule.getActivity().findViewById(R.id.movie));
+        Espresso.registerIdlingResources(mIdlingResource);
+    }
+
+    @After
+    public void unregisterIdlingResource() {
+        Espresso.unregisterIdlingResources(mIdlingResource);
+    }
+
     @Test
     public void movie_playingOnPip() throws Throwable {
         // The movie should be playing on start
@@ -142,7 +162,19 @@ public class MediaSessionPlaybackActivityTest {
     }
 
     private void assertMediaStateIs(@PlaybackStateCompat.State int expectedState) {
-        PlaybackState state = rule.getActivity().getMediaController().getPlaybackState();
+        // The activity publishes the state at the next frame; publish it now.
+        final MediaSessionPlaybackActivity activity = rule.getActivity();
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            activity.flushPlaybackState();
+        } else {
+            InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    activity.flushPlaybackState();
+                }
+            });
+        }
+        PlaybackState state = activity.getMediaController().getPlaybackState();
         assertNotNull(state);
         assertThat(
                 "MediaSession is not in the correct state",
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture;
+
+import android.support.test.espresso.IdlingResource;
+
+import com.example.android.pictureinpicture.widget.MovieView;
+
+/** Keeps Espresso waiting while the {@link MovieView} is preparing its video. */
+class MovieViewIdlingResource implements IdlingResource {
+
+    private static final long POLL_INTERVAL = 16; // ms
+
+    private final MovieView mMovieView;
+
+    private ResourceCallback mCallback;
+
+    private final Runnable mCheck =
+            new Runnable() {
+                @Override
+                public void run() {
+                    isIdleNow();
+                }
+            };
+
+    MovieViewIdlingResource(MovieView movieView) {
+        mMovieView = movieView;
+    }
+
+    @Override
+    public String getName() {
+        return "MovieView";
+    }
+
+    @Override
+    public boolean isIdleNow() {
+        if (mMovieView.getState() == MovieView.STATE_PREPARING) {
+            // Only one check is pending at a time, however often Espresso asks.
+            mMovieView.removeCallbacks(mCheck);
+            mMovieView.postDelayed(mCheck, POLL_INTERVAL);
+            return false;
+        }
+        if (mCallback != null) {
+            mCallback.onTransitionToIdle();
+        }
+        return true;
+    }
+
+    @Override
+    public void registerIdleTransitionCallback(ResourceCallback callback) {
+        mCallback = callback;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import android.view.ViewGroup;
+
+import com.example.android.pictureinpicture.widget.LatencyHistogram;
+import com.example.android.pictureinpicture.widget.MovieView;
+import com.example.android.pictureinpicture.widget.PlaybackMetrics;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Locale;
+
+/**
+ * Compares the rendering backends of {@link MovieView} while the view is detached, reattached and
+ * resized. The results are logged under the tag of this class.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RendererBenchmarkTest {
+
+    private static final String TAG = "RendererBenchmark";
+
+    private static final int ITERATIONS = 5;
+
+    private static final long TIMEOUT = 10000; // ms
+
+    @Rule
+    public ActivityTestRule<MainActivity> rule = new ActivityTestRule<>(MainActivity.class);
+
+    @Test
+    public void surfaceView() throws Throwable {
+        final Result result = run(MovieView.RENDERER_SURFACE_VIEW);
+        // Detaching the view always destroys its surface.
+        assertTrue(result.surfaceRecreations >= ITERATIONS);
+    }
+
+    @Test
+    public void textureView() throws Throwable {
+        final Result result = run(MovieView.RENDERER_TEXTURE_VIEW);
+        assertEquals(0, result.surfaceRecreations);
+    }
+
+    private Result run(@MovieView.Renderer final int renderer) throws Throwable {
+        final MovieView view = rule.getActivity().findViewById(R.id.movie);
+        final PlaybackMetrics metrics = new PlaybackMetrics();
+        rule.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                view.setPlaybackMetrics(metrics);
+                view.setRenderer(renderer);
+            }
+        });
+        waitUntilPlaying(view);
+
+        long totalResumeMs = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            final long start = SystemClock.elapsedRealtime();
+            rule.runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    // Move the view out of the hierarchy and back, as a reparenting would.
+                    final ViewGroup parent = (ViewGroup) view.getParent();
+                    final int index = parent.indexOfChild(view);
+                    final ViewGroup.LayoutParams params = view.getLayoutParams();
+                    parent.removeView(view);
+                    parent.addView(view, index, params);
+                    // Then resize it, as entering Picture-in-Picture mode would.
+                    params.height = parent.getHeight() / (2 + index % 2);
+                    view.setLayoutParams(params);
+                }
+            });
+            waitUntilPlaying(view);
+            totalResumeMs += SystemClock.elapsedRealtime() - start;
+        }
+
+        final LatencyHistogram recreate =
+                metrics.getHistogram(PlaybackMetrics.METRIC_SURFACE_RECREATE);
+        final LatencyHistogram firstFrame =
+                metrics.getHistogram(PlaybackMetrics.METRIC_FIRST_FRAME);
+        final Result result = new Result();
+        result.surfaceRecreations = (int) recreate.getCount();
+        Log.i(TAG, String.format(Locale.US,
+                "renderer=%d surface_recreations=%d first_frames=%d first_frame_p50=%.1fms"
+                        + " first_frame_max=%.1fms mean_resume=%dms",
+                renderer,
+                recreate.getCount(),
+                firstFrame.getCount(),
+                firstFrame.getPercentile(50) / 1000.0,
+                firstFrame.getMax() / 1000.0,
+                totalResumeMs / ITERATIONS));
+        return result;
+    }
+
+    /** Waits until the video plays, resuming it once it is prepared if it came back paused. */
+    private static void waitUntilPlaying(final MovieView view) {
+        final long deadline = SystemClock.elapsedRealtime() + TIMEOUT;
+        final boolean[] playing = new boolean[1];
+        while (SystemClock.elapsedRealtime() < deadline) {
+            InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    if (!view.isPlaying() && view.getState() == MovieView.STATE_PREPARED) {
+                        view.play();
+                    }
+                    playing[0] = view.isPlaying();
+                }
+            });
+            if (playing[0]) {
+                return;
+            }
+            SystemClock.sleep(5);
+        }
+        assertTrue("The video did not resume", playing[0]);
+    }
+
+    private static class Result {
+        int surfaceRecreations;
+    }
+}
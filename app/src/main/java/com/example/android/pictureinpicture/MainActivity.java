@@ -20,22 +20,29 @@ import android.app.PendingIntent;
 import android.app.PictureInPictureParams;
 import android.app.RemoteAction;
 import android.content.BroadcastReceiver;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.ServiceConnection;
 import android.content.res.Configuration;
 import android.graphics.drawable.Icon;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.IBinder;
 import android.support.annotation.DrawableRes;
 import android.support.v7.app.AppCompatActivity;
-import android.util.Rational;
 import android.view.View;
 import android.widget.Button;
 import android.widget.ScrollView;
 
+import com.example.android.pictureinpicture.widget.FrameStats;
 import com.example.android.pictureinpicture.widget.MovieView;
+import com.example.android.pictureinpicture.widget.PlaybackMetrics;
+import com.example.android.pictureinpicture.widget.PlaybackSession;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 
 /** Demonstrates usage of Picture-in-Picture mode on phones and tablets. */
@@ -62,21 +69,56 @@ public class MainActivity extends AppCompatActivity {
     /** The intent extra value for pause action. */
     private static final int CONTROL_TYPE_PAUSE = 2;
 
-    /** The arguments to be used for Picture-in-Picture mode. */
-    private final PictureInPictureParams.Builder mPictureInPictureParamsBuilder =
-            new PictureInPictureParams.Builder();
-
     /** This shows the video. */
     private MovieView mMovieView;
 
-    /** The bottom half of the screen; hidden on landscape */
-    private ScrollView mScrollView;
+    /** Manages Picture-in-Picture mode and full screen. */
+    private PipController mPipController;
+
+    /** How smoothly the video was shown during the last stay in Picture-in-Picture mode. */
+    private FrameStats mPipFrameStats;
+
+    /** Hands the player of {@link PlaybackService} to {@link #mMovieView}. */
+    private final ServiceConnection mConnection =
+            new ServiceConnection() {
+                @Override
+                public void onServiceConnected(ComponentName name, IBinder binder) {
+                    final PlaybackService service =
+                            ((PlaybackService.LocalBinder) binder).getService();
+                    mMovieView.setPlaybackSession(service.getPlaybackSession());
+                }
+
+                @Override
+                public void onServiceDisconnected(ComponentName name) {}
+            };
 
     /** A {@link BroadcastReceiver} to receive action item events from Picture-in-Picture mode. */
-    private BroadcastReceiver mReceiver;
+    private final BroadcastReceiver mReceiver =
+            new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    if (intent == null || !ACTION_MEDIA_CONTROL.equals(intent.getAction())) {
+                        return;
+                    }
 
-    private String mPlay;
-    private String mPause;
+                    // This is where we are called back from Picture-in-Picture action items.
+                    final int controlType = intent.getIntExtra(EXTRA_CONTROL_TYPE, 0);
+                    switch (controlType) {
+                        case CONTROL_TYPE_PLAY:
+                            mMovieView.play();
+                            break;
+                        case CONTROL_TYPE_PAUSE:
+                            mMovieView.pause();
+                            break;
+                    }
+                }
+            };
+
+    /** The Picture-in-Picture actions while the video is stopped; built once in onCreate. */
+    private PictureInPictureParams mPlayActionParams;
+
+    /** The Picture-in-Picture actions while the video is playing; built once in onCreate. */
+    private PictureInPictureParams mPauseActionParams;
 
     private final View.OnClickListener mOnClickListener =
             new View.OnClickListener() {
@@ -84,7 +126,7 @@ public class MainActivity extends AppCompatActivity {
                 public void onClick(View view) {
                     switch (view.getId()) {
                         case R.id.pip:
-                            minimize();
+                            mPipController.minimize();
                             break;
                     }
                 }
@@ -99,36 +141,63 @@ public class MainActivity extends AppCompatActivity {
                     // We are playing the video now. In PiP mode, we want to show an action item to
                     // pause
                     // the video.
-                    updatePictureInPictureActions(
-                            R.drawable.ic_pause_24dp, mPause, CONTROL_TYPE_PAUSE, REQUEST_PAUSE);
+                    updatePictureInPictureActions(CONTROL_TYPE_PAUSE);
                 }
 
                 @Override
                 public void onMovieStopped() {
                     // The video stopped or reached its end. In PiP mode, we want to show an action
                     // item to play the video.
-                    updatePictureInPictureActions(
-                            R.drawable.ic_play_arrow_24dp, mPlay, CONTROL_TYPE_PLAY, REQUEST_PLAY);
+                    updatePictureInPictureActions(CONTROL_TYPE_PLAY);
                 }
 
                 @Override
                 public void onMovieMinimized() {
                     // The MovieView wants us to minimize it. We enter Picture-in-Picture mode now.
-                    minimize();
+                    mPipController.minimize();
+                }
+
+                @Override
+                public void onVideoSizeChanged(int width, int height) {
+                    mPipController.onVideoSizeChanged(width, height);
+                }
+
+                @Override
+                public void onFrameStats(FrameStats stats) {
+                    // The PiP window was closed or expanded; see dump().
+                    mPipFrameStats = stats;
                 }
             };
 
     /**
      * Update the state of pause/resume action item in Picture-in-Picture mode.
      *
+     * @param controlType The type of the action. either {@link #CONTROL_TYPE_PLAY} or {@link
+     *     #CONTROL_TYPE_PAUSE}.
+     */
+    void updatePictureInPictureActions(int controlType) {
+        // This is how you can update action items for Picture-in-Picture mode. It does nothing
+        // if the system already has these actions.
+        mPipController.setActions(
+                controlType == CONTROL_TYPE_PLAY ? mPlayActionParams : mPauseActionParams);
+    }
+
+    /**
+     * Builds the Picture-in-Picture actions for one state of the pause/resume action item.
+     *
      * @param iconId The icon to be used.
      * @param title The title text.
      * @param controlType The type of the action. either {@link #CONTROL_TYPE_PLAY} or {@link
      *     #CONTROL_TYPE_PAUSE}.
      * @param requestCode The request code for the {@link PendingIntent}.
+     * @param infoAction The fixed action item shown next to the pause/resume one.
      */
-    void updatePictureInPictureActions(
-            @DrawableRes int iconId, String title, int controlType, int requestCode) {
+    private PictureInPictureParams buildActionParams(
+            @DrawableRes int iconId,
+            String title,
+            int controlType,
+            int requestCode,
+            RemoteAction infoAction) {
         final ArrayList<RemoteAction> actions = new ArrayList<>();
 
         // This is the PendingIntent that is invoked when a user clicks on the action item.
@@ -142,9 +211,19 @@ public class MainActivity extends AppCompatActivity {
                         0);
         final Icon icon = Icon.createWithResource(MainActivity.this, iconId);
         actions.add(new RemoteAction(icon, title, title, intent));
+        actions.add(infoAction);
+
+        return new PictureInPictureParams.Builder().setActions(actions).build();
+    }
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_main);
 
-        // Another action item. This is a fixed action.
-        actions.add(
+        // Prepare the Picture-in-Picture actions for both states of the video, so that toggling
+        // it does not allocate anything. This is a fixed action in both of them.
+        final RemoteAction infoAction =
                 new RemoteAction(
                         Icon.createWithResource(MainActivity.this, R.drawable.ic_info_24dp),
                         getString(R.string.info),
@@ -155,28 +234,28 @@ public class MainActivity extends AppCompatActivity {
                                 new Intent(
                                         Intent.ACTION_VIEW,
                                         Uri.parse(getString(R.string.info_uri))),
-                                0)));
-
-        mPictureInPictureParamsBuilder.setActions(actions);
-
-        // This is how you can update action items (or aspect ratio) for Picture-in-Picture mode.
-        // Note this call can happen even when the app is not in PiP mode. In that case, the
-        // arguments will be used for at the next call of #enterPictureInPictureMode.
-        setPictureInPictureParams(mPictureInPictureParamsBuilder.build());
-    }
-
-    @Override
-    protected void onCreate(Bundle savedInstanceState) {
-        super.onCreate(savedInstanceState);
-        setContentView(R.layout.activity_main);
-
-        // Prepare string resources for Picture-in-Picture actions.
-        mPlay = getString(R.string.play);
-        mPause = getString(R.string.pause);
+                                0));
+        mPlayActionParams =
+                buildActionParams(
+                        R.drawable.ic_play_arrow_24dp,
+                        getString(R.string.play),
+                        CONTROL_TYPE_PLAY,
+                        REQUEST_PLAY,
+                        infoAction);
+        mPauseActionParams =
+                buildActionParams(
+                        R.drawable.ic_pause_24dp,
+                        getString(R.string.pause),
+                        CONTROL_TYPE_PAUSE,
+                        REQUEST_PAUSE,
+                        infoAction);
 
         // View references
         mMovieView = findViewById(R.id.movie);
-        mScrollView = findViewById(R.id.scroll);
+        // The bottom half of the screen is hidden on landscape.
+        final ScrollView scrollView = findViewById(R.id.scroll);
+        mPipController = new PipController(this, mMovieView, scrollView);
+        mPipController.setActionReceiver(mReceiver, new IntentFilter(ACTION_MEDIA_CONTROL));
 
         Button switchExampleButton = findViewById(R.id.switch_example);
         switchExampleButton.setText(getString(R.string.switch_media_session));
@@ -185,114 +264,65 @@ public class MainActivity extends AppCompatActivity {
         // Set up the video; it automatically starts.
         mMovieView.setMovieListener(mMovieListener);
         findViewById(R.id.pip).setOnClickListener(mOnClickListener);
+
+        // The player lives in the service, so that it survives this activity.
+        bindService(new Intent(this, PlaybackService.class), mConnection, BIND_AUTO_CREATE);
     }
 
     @Override
     protected void onStop() {
         // On entering Picture-in-Picture mode, onPause is called, but not onStop.
         // For this reason, this is the place where we should pause the video playback.
-        mMovieView.pause();
+        // When switching to the other example, the video goes on there.
+        if (!isFinishing()) {
+            mMovieView.pause();
+        }
         super.onStop();
     }
 
     @Override
-    protected void onRestart() {
-        super.onRestart();
-        if (!isInPictureInPictureMode()) {
-            // Show the video controls so the video can be easily resumed.
-            mMovieView.showControls();
-        }
+    protected void onDestroy() {
+        unbindService(mConnection);
+        super.onDestroy();
     }
 
     @Override
     public void onConfigurationChanged(Configuration newConfig) {
         super.onConfigurationChanged(newConfig);
-        adjustFullScreen(newConfig);
+        mPipController.onConfigurationChanged(newConfig);
     }
 
     @Override
     public void onWindowFocusChanged(boolean hasFocus) {
         super.onWindowFocusChanged(hasFocus);
-        if (hasFocus) {
-            adjustFullScreen(getResources().getConfiguration());
-        }
+        mPipController.onWindowFocusChanged(hasFocus);
     }
 
     @Override
     public void onPictureInPictureModeChanged(
             boolean isInPictureInPictureMode, Configuration configuration) {
         super.onPictureInPictureModeChanged(isInPictureInPictureMode, configuration);
-        if (isInPictureInPictureMode) {
-            // Starts receiving events from action items in PiP mode.
-            mReceiver =
-                    new BroadcastReceiver() {
-                        @Override
-                        public void onReceive(Context context, Intent intent) {
-                            if (intent == null
-                                    || !ACTION_MEDIA_CONTROL.equals(intent.getAction())) {
-                                return;
-                            }
-
-                            // This is where we are called back from Picture-in-Picture action
-                            // items.
-                            final int controlType = intent.getIntExtra(EXTRA_CONTROL_TYPE, 0);
-                            switch (controlType) {
-                                case CONTROL_TYPE_PLAY:
-                                    mMovieView.play();
-                                    break;
-                                case CONTROL_TYPE_PAUSE:
-                                    mMovieView.pause();
-                                    break;
-                            }
-                        }
-                    };
-            registerReceiver(mReceiver, new IntentFilter(ACTION_MEDIA_CONTROL));
-        } else {
-            // We are out of PiP mode. We can stop receiving events from it.
-            unregisterReceiver(mReceiver);
-            mReceiver = null;
-            // Show the video controls if the video is not playing
-            if (mMovieView != null && !mMovieView.isPlaying()) {
-                mMovieView.showControls();
-            }
-        }
+        mPipController.onPictureInPictureModeChanged(isInPictureInPictureMode);
     }
 
-    /** Enters Picture-in-Picture mode. */
-    void minimize() {
-        if (mMovieView == null) {
-            return;
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        // Printed by "adb shell dumpsys activity" for this activity
+        final PlaybackMetrics metrics = mMovieView.getPlaybackMetrics();
+        if (metrics != null) {
+            writer.print(prefix);
+            writer.println("Playback metrics:");
+            metrics.dump(writer, prefix + "  ");
         }
-        // Hide the controls in picture-in-picture mode.
-        mMovieView.hideControls();
-        // Calculate the aspect ratio of the PiP screen.
-        Rational aspectRatio = new Rational(mMovieView.getWidth(), mMovieView.getHeight());
-        mPictureInPictureParamsBuilder.setAspectRatio(aspectRatio).build();
-        enterPictureInPictureMode(mPictureInPictureParamsBuilder.build());
-    }
-
-    /**
-     * Adjusts immersive full-screen flags depending on the screen orientation.
-     *
-     * @param config The current {@link Configuration}.
-     */
-    private void adjustFullScreen(Configuration config) {
-        final View decorView = getWindow().getDecorView();
-        if (config.orientation == Configuration.ORIENTATION_LANDSCAPE) {
-            decorView.setSystemUiVisibility(
-                    View.SYSTEM_UI_FLAG_LAYOUT_STABLE
-                            | View.SYSTEM_UI_FLAG_LAYOUT_HIDE_NAVIGATION
-                            | View.SYSTEM_UI_FLAG_LAYOUT_FULLSCREEN
-                            | View.SYSTEM_UI_FLAG_HIDE_NAVIGATION
-                            | View.SYSTEM_UI_FLAG_FULLSCREEN
-                            | View.SYSTEM_UI_FLAG_IMMERSIVE_STICKY);
-            mScrollView.setVisibility(View.GONE);
-            mMovieView.setAdjustViewBounds(false);
-        } else {
-            decorView.setSystemUiVisibility(View.SYSTEM_UI_FLAG_LAYOUT_STABLE);
-            mScrollView.setVisibility(View.VISIBLE);
-            mMovieView.setAdjustViewBounds(true);
+        if (mPipFrameStats != null) {
+            writer.print(prefix);
+            writer.println("Last Picture-in-Picture frames:");
+            mPipFrameStats.dump(writer, prefix + "  ");
         }
+        writer.print(prefix);
+        writer.println("Players:");
+        PlaybackSession.dumpPlayerPool(writer, prefix + "  ");
     }
 
     /** Launches {@link MediaSessionPlaybackActivity} and closes this activity. */
@@ -16,21 +16,34 @@
 
 package com.example.android.pictureinpicture;
 
-import android.app.PictureInPictureParams;
+import android.arch.lifecycle.Lifecycle;
+import android.content.ComponentName;
 import android.content.Intent;
+import android.content.ServiceConnection;
 import android.content.res.Configuration;
+import android.content.res.TypedArray;
+import android.net.Uri;
 import android.os.Bundle;
+import android.os.IBinder;
+import android.support.annotation.VisibleForTesting;
 import android.support.v4.media.MediaMetadataCompat;
 import android.support.v4.media.session.MediaControllerCompat;
 import android.support.v4.media.session.MediaSessionCompat;
 import android.support.v4.media.session.PlaybackStateCompat;
 import android.support.v7.app.AppCompatActivity;
-import android.util.Rational;
 import android.view.View;
 import android.widget.Button;
 import android.widget.ScrollView;
 
+import com.example.android.pictureinpicture.widget.FrameStats;
 import com.example.android.pictureinpicture.widget.MovieView;
+import com.example.android.pictureinpicture.widget.PlaybackMetrics;
+import com.example.android.pictureinpicture.widget.PlaybackSession;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Demonstrates usage of Picture-in-Picture when using {@link
@@ -38,8 +51,6 @@ import com.example.android.pictureinpicture.widget.MovieView;
  */
 public class MediaSessionPlaybackActivity extends AppCompatActivity {
 
-    private static final String TAG = "MediaSessionPlaybackActivity";
-
     public static final long MEDIA_ACTIONS_PLAY_PAUSE =
             PlaybackStateCompat.ACTION_PLAY
                     | PlaybackStateCompat.ACTION_PAUSE
@@ -50,17 +61,76 @@ public class MediaSessionPlaybackActivity extends AppCompatActivity {
                     | PlaybackStateCompat.ACTION_SKIP_TO_NEXT
                     | PlaybackStateCompat.ACTION_SKIP_TO_PREVIOUS;
 
+    /** How many upcoming videos of the playlist are prepared in advance. */
+    private static final int PLAYLIST_LOOK_AHEAD = 1;
+
+    private final PlaylistActions mPlaylistActions =
+            new PlaylistActions(
+                    MEDIA_ACTIONS_PLAY_PAUSE,
+                    PlaybackStateCompat.ACTION_SKIP_TO_NEXT,
+                    PlaybackStateCompat.ACTION_SKIP_TO_PREVIOUS);
+
+    /** The media session of {@link PlaybackService}, while this activity is started. */
     private MediaSessionCompat mSession;
 
-    /** The arguments to be used for Picture-in-Picture mode. */
-    private final PictureInPictureParams.Builder mPictureInPictureParamsBuilder =
-            new PictureInPictureParams.Builder();
+    /** The service owning the player and the media session, once it is connected. */
+    private PlaybackService mService;
+
+    /** Hands the player of {@link PlaybackService} to {@link #mMovieView}. */
+    private final ServiceConnection mConnection =
+            new ServiceConnection() {
+                @Override
+                public void onServiceConnected(ComponentName name, IBinder binder) {
+                    mService = ((PlaybackService.LocalBinder) binder).getService();
+                    mMovieView.setPlaybackSession(mService.getPlaybackSession());
+                    if (getLifecycle().getCurrentState().isAtLeast(Lifecycle.State.STARTED)) {
+                        initializeMediaSession();
+                    }
+                }
+
+                @Override
+                public void onServiceDisconnected(ComponentName name) {
+                    mService = null;
+                }
+            };
+
+    /** Reused to build the playback states of {@link #mSession}. */
+    private final PlaybackStateCompat.Builder mPlaybackStateBuilder =
+            new PlaybackStateCompat.Builder();
+
+    /** Sends the playback state to {@link #mSession}, at most once per frame. */
+    private final PlaybackStatePublisher mStatePublisher =
+            new PlaybackStatePublisher(
+                    new PlaybackStatePublisher.Sink() {
+                        @Override
+                        public boolean publish(
+                                int state, long actions, int position, long mediaId) {
+                            if (mSession == null) {
+                                return false;
+                            }
+                            mPlaybackStateBuilder
+                                    .setActions(actions)
+                                    .setActiveQueueItemId(mediaId)
+                                    .setState(state, position, 1.0f);
+                            mSession.setPlaybackState(mPlaybackStateBuilder.build());
+                            return true;
+                        }
+                    },
+                    new PlaybackStatePublisher.Scheduler() {
+                        @Override
+                        public void schedule(Runnable task) {
+                            getWindow().getDecorView().postOnAnimation(task);
+                        }
+                    });
 
     /** This shows the video. */
     private MovieView mMovieView;
 
-    /** The bottom half of the screen; hidden on landscape */
-    private ScrollView mScrollView;
+    /** Manages Picture-in-Picture mode and full screen. */
+    private PipController mPipController;
+
+    /** How smoothly the video was shown during the last stay in Picture-in-Picture mode. */
+    private FrameStats mPipFrameStats;
 
     private final View.OnClickListener mOnClickListener =
             new View.OnClickListener() {
@@ -68,7 +138,7 @@ public class MediaSessionPlaybackActivity extends AppCompatActivity {
                 public void onClick(View view) {
                     switch (view.getId()) {
                         case R.id.pip:
-                            minimize();
+                            mPipController.minimize();
                             break;
                     }
                 }
@@ -86,7 +156,7 @@ public class MediaSessionPlaybackActivity extends AppCompatActivity {
                     updatePlaybackState(
                             PlaybackStateCompat.STATE_PLAYING,
                             mMovieView.getCurrentPosition(),
-                            mMovieView.getVideoResourceId());
+                            mMovieView.getPlaylistIndex());
                 }
 
                 @Override
@@ -97,13 +167,34 @@ public class MediaSessionPlaybackActivity extends AppCompatActivity {
                     updatePlaybackState(
                             PlaybackStateCompat.STATE_PAUSED,
                             mMovieView.getCurrentPosition(),
-                            mMovieView.getVideoResourceId());
+                            mMovieView.getPlaylistIndex());
                 }
 
                 @Override
                 public void onMovieMinimized() {
                     // The MovieView wants us to minimize it. We enter Picture-in-Picture mode now.
-                    minimize();
+                    mPipController.minimize();
+                }
+
+                @Override
+                public void onVideoSizeChanged(int width, int height) {
+                    mPipController.onVideoSizeChanged(width, height);
+                }
+
+                @Override
+                public void onFrameStats(FrameStats stats) {
+                    // The PiP window was closed or expanded; see dump().
+                    mPipFrameStats = stats;
+                }
+
+                @Override
+                public void onPlaylistIndexChanged(int index) {
+                    // Skipping is only possible where there is a video to skip to.
+                    updatePlaybackState(
+                            PlaybackStateCompat.STATE_PLAYING,
+                            getAvailableActions(),
+                            mMovieView.getCurrentPosition(),
+                            index);
                 }
             };
 
@@ -114,27 +205,34 @@ public class MediaSessionPlaybackActivity extends AppCompatActivity {
 
         // View references
         mMovieView = findViewById(R.id.movie);
-        mScrollView = findViewById(R.id.scroll);
+        // The bottom half of the screen is hidden on landscape.
+        final ScrollView scrollView = findViewById(R.id.scroll);
+        mPipController = new PipController(this, mMovieView, scrollView);
         Button switchExampleButton = findViewById(R.id.switch_example);
         switchExampleButton.setText(getString(R.string.switch_custom));
         switchExampleButton.setOnClickListener(new SwitchActivityOnClick());
 
-        // Set up the video; it automatically starts.
+        // Set up the playlist; it automatically starts.
+        mMovieView.setPlaylist(loadPlaylist());
+        mMovieView.setLookAhead(PLAYLIST_LOOK_AHEAD);
         mMovieView.setMovieListener(mMovieListener);
         findViewById(R.id.pip).setOnClickListener(mOnClickListener);
+
+        // The player and the media session live in the service, so that they survive this
+        // activity.
+        bindService(new Intent(this, PlaybackService.class), mConnection, BIND_AUTO_CREATE);
     }
 
     @Override
     protected void onStart() {
         super.onStart();
-        initializeMediaSession();
+        if (mService != null) {
+            initializeMediaSession();
+        }
     }
 
     private void initializeMediaSession() {
-        mSession = new MediaSessionCompat(this, TAG);
-        mSession.setFlags(
-                MediaSessionCompat.FLAG_HANDLES_MEDIA_BUTTONS
-                        | MediaSessionCompat.FLAG_HANDLES_TRANSPORT_CONTROLS);
+        mSession = mService.getMediaSession();
         mSession.setActive(true);
         MediaControllerCompat.setMediaController(this, mSession.getController());
 
@@ -152,9 +250,27 @@ public class MediaSessionPlaybackActivity extends AppCompatActivity {
                         : PlaybackStateCompat.STATE_PAUSED;
         updatePlaybackState(
                 state,
-                MEDIA_ACTIONS_ALL,
+                getAvailableActions(),
                 mMovieView.getCurrentPosition(),
-                mMovieView.getVideoResourceId());
+                mMovieView.getPlaylistIndex());
+        // The new session has no state yet; do not wait for the next frame.
+        mStatePublisher.flush();
+    }
+
+    /** Reads the videos of the playlist from resources. */
+    private List<Uri> loadPlaylist() {
+        final TypedArray playlist = getResources().obtainTypedArray(R.array.playlist);
+        final List<Uri> videos = new ArrayList<>(playlist.length());
+        for (int i = 0; i < playlist.length(); i++) {
+            videos.add(MovieView.getRawResourceUri(this, playlist.getResourceId(i, 0)));
+        }
+        playlist.recycle();
+        return videos;
+    }
+
+    /** Computes the media actions available at the current position in the playlist. */
+    private long getAvailableActions() {
+        return mPlaylistActions.get(mMovieView.hasPrevious(), mMovieView.hasNext());
     }
 
     @Override
@@ -162,81 +278,75 @@ public class MediaSessionPlaybackActivity extends AppCompatActivity {
         super.onStop();
         // On entering Picture-in-Picture mode, onPause is called, but not onStop.
         // For this reason, this is the place where we should pause the video playback.
-        mMovieView.pause();
-        mSession.release();
-        mSession = null;
+        // When switching to the other example, the video goes on there.
+        if (!isFinishing()) {
+            mMovieView.pause();
+        }
+        mStatePublisher.reset();
+        if (mSession != null) {
+            // The session belongs to the service; it is only released with it.
+            mSession.setCallback(null);
+            mSession.setActive(false);
+            mSession = null;
+        }
     }
 
     @Override
-    protected void onRestart() {
-        super.onRestart();
-        if (!isInPictureInPictureMode()) {
-            // Show the video controls so the video can be easily resumed.
-            mMovieView.showControls();
-        }
+    protected void onDestroy() {
+        unbindService(mConnection);
+        super.onDestroy();
     }
 
     @Override
     public void onConfigurationChanged(Configuration newConfig) {
         super.onConfigurationChanged(newConfig);
-        adjustFullScreen(newConfig);
+        mPipController.onConfigurationChanged(newConfig);
     }
 
     @Override
     public void onWindowFocusChanged(boolean hasFocus) {
         super.onWindowFocusChanged(hasFocus);
-        if (hasFocus) {
-            adjustFullScreen(getResources().getConfiguration());
-        }
+        mPipController.onWindowFocusChanged(hasFocus);
     }
 
     @Override
     public void onPictureInPictureModeChanged(
             boolean isInPictureInPictureMode, Configuration configuration) {
         super.onPictureInPictureModeChanged(isInPictureInPictureMode, configuration);
-        if (!isInPictureInPictureMode) {
-            // Show the video controls if the video is not playing
-            if (mMovieView != null && !mMovieView.isPlaying()) {
-                mMovieView.showControls();
-            }
-        }
+        mPipController.onPictureInPictureModeChanged(isInPictureInPictureMode);
     }
 
-    /** Enters Picture-in-Picture mode. */
-    void minimize() {
-        if (mMovieView == null) {
-            return;
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        // Printed by "adb shell dumpsys activity" for this activity
+        final PlaybackMetrics metrics = mMovieView.getPlaybackMetrics();
+        if (metrics != null) {
+            writer.print(prefix);
+            writer.println("Playback metrics:");
+            metrics.dump(writer, prefix + "  ");
         }
-        // Hide the controls in picture-in-picture mode.
-        mMovieView.hideControls();
-        // Calculate the aspect ratio of the PiP screen.
-        Rational aspectRatio = new Rational(mMovieView.getWidth(), mMovieView.getHeight());
-        mPictureInPictureParamsBuilder.setAspectRatio(aspectRatio).build();
-        enterPictureInPictureMode(mPictureInPictureParamsBuilder.build());
+        if (mPipFrameStats != null) {
+            writer.print(prefix);
+            writer.println("Last Picture-in-Picture frames:");
+            mPipFrameStats.dump(writer, prefix + "  ");
+        }
+        writer.print(prefix);
+        writer.println("Players:");
+        PlaybackSession.dumpPlayerPool(writer, prefix + "  ");
+        writer.print(prefix);
+        writer.print("Playback states: requested=");
+        writer.print(mStatePublisher.getRequestCount());
+        writer.print(" published=");
+        writer.print(mStatePublisher.getPublishCount());
+        writer.print(" saved=");
+        writer.println(mStatePublisher.getSavedCount());
     }
 
-    /**
-     * Adjusts immersive full-screen flags depending on the screen orientation.
-     *
-     * @param config The current {@link Configuration}.
-     */
-    private void adjustFullScreen(Configuration config) {
-        final View decorView = getWindow().getDecorView();
-        if (config.orientation == Configuration.ORIENTATION_LANDSCAPE) {
-            decorView.setSystemUiVisibility(
-                    View.SYSTEM_UI_FLAG_LAYOUT_STABLE
-                            | View.SYSTEM_UI_FLAG_LAYOUT_HIDE_NAVIGATION
-                            | View.SYSTEM_UI_FLAG_LAYOUT_FULLSCREEN
-                            | View.SYSTEM_UI_FLAG_HIDE_NAVIGATION
-                            | View.SYSTEM_UI_FLAG_FULLSCREEN
-                            | View.SYSTEM_UI_FLAG_IMMERSIVE_STICKY);
-            mScrollView.setVisibility(View.GONE);
-            mMovieView.setAdjustViewBounds(false);
-        } else {
-            decorView.setSystemUiVisibility(View.SYSTEM_UI_FLAG_LAYOUT_STABLE);
-            mScrollView.setVisibility(View.VISIBLE);
-            mMovieView.setAdjustViewBounds(true);
-        }
+    /** Publishes the pending playback state without waiting for the next frame. */
+    @VisibleForTesting
+    void flushPlaybackState() {
+        mStatePublisher.flush();
     }
 
     /**
@@ -248,35 +358,25 @@ public class MediaSessionPlaybackActivity extends AppCompatActivity {
      */
     private void updatePlaybackState(
             @PlaybackStateCompat.State int state, int position, int mediaId) {
-        long actions = mSession.getController().getPlaybackState().getActions();
-        updatePlaybackState(state, actions, position, mediaId);
+        mStatePublisher.update(state, position, mediaId);
     }
 
     private void updatePlaybackState(
             @PlaybackStateCompat.State int state, long playbackActions, int position, int mediaId) {
-        PlaybackStateCompat.Builder builder =
-                new PlaybackStateCompat.Builder()
-                        .setActions(playbackActions)
-                        .setActiveQueueItemId(mediaId)
-                        .setState(state, position, 1.0f);
-        mSession.setPlaybackState(builder.build());
+        mStatePublisher.update(state, playbackActions, position, mediaId);
     }
 
     /**
      * Updates the {@link MovieView} based on the callback actions. <br>
-     * Simulates a playlist that will disable actions when you cannot skip through the playlist in a
-     * certain direction.
+     * Skipping moves through the playlist of the {@link MovieView}; the actions are updated when
+     * the current video changes.
      */
     private class MediaSessionCallback extends MediaSessionCompat.Callback {
 
-        private static final int PLAYLIST_SIZE = 2;
-
         private MovieView movieView;
-        private int indexInPlaylist;
 
         public MediaSessionCallback(MovieView movieView) {
             this.movieView = movieView;
-            indexInPlaylist = 1;
         }
 
         @Override
@@ -294,45 +394,13 @@ public class MediaSessionPlaybackActivity extends AppCompatActivity {
         @Override
         public void onSkipToNext() {
             super.onSkipToNext();
-            movieView.startVideo();
-            if (indexInPlaylist < PLAYLIST_SIZE) {
-                indexInPlaylist++;
-                if (indexInPlaylist >= PLAYLIST_SIZE) {
-                    updatePlaybackState(
-                            PlaybackStateCompat.STATE_PLAYING,
-                            MEDIA_ACTIONS_PLAY_PAUSE | PlaybackStateCompat.ACTION_SKIP_TO_PREVIOUS,
-                            movieView.getCurrentPosition(),
-                            movieView.getVideoResourceId());
-                } else {
-                    updatePlaybackState(
-                            PlaybackStateCompat.STATE_PLAYING,
-                            MEDIA_ACTIONS_ALL,
-                            movieView.getCurrentPosition(),
-                            movieView.getVideoResourceId());
-                }
-            }
+            movieView.skipToNext();
         }
 
         @Override
         public void onSkipToPrevious() {
             super.onSkipToPrevious();
-            movieView.startVideo();
-            if (indexInPlaylist > 0) {
-                indexInPlaylist--;
-                if (indexInPlaylist <= 0) {
-                    updatePlaybackState(
-                            PlaybackStateCompat.STATE_PLAYING,
-                            MEDIA_ACTIONS_PLAY_PAUSE | PlaybackStateCompat.ACTION_SKIP_TO_NEXT,
-                            movieView.getCurrentPosition(),
-                            movieView.getVideoResourceId());
-                } else {
-                    updatePlaybackState(
-                            PlaybackStateCompat.STATE_PLAYING,
-                            MEDIA_ACTIONS_ALL,
-                            movieView.getCurrentPosition(),
-                            movieView.getVideoResourceId());
-                }
-            }
+            movieView.skipToPrevious();
         }
     }
 
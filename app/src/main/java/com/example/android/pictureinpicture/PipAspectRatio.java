@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture;
+
+/**
+ * The aspect ratio of the Picture-in-Picture window for a video, reduced and clamped to the range
+ * the system accepts. A ratio outside of that range makes {@code enterPictureInPictureMode} throw.
+ *
+ * <p>{@link #update(int, int)} tells whether the ratio has changed, so that the params are only
+ * published again when they would make a difference.
+ */
+final class PipAspectRatio {
+
+    /** The widest ratio allowed, 2.39:1. */
+    static final int MAX_NUMERATOR = 239;
+
+    static final int MAX_DENOMINATOR = 100;
+
+    private int mNumerator;
+
+    private int mDenominator;
+
+    /**
+     * Computes the ratio for a video.
+     *
+     * @param width The width of the video.
+     * @param height The height of the video.
+     * @return {@code true} if the ratio has changed. An unknown size changes nothing.
+     */
+    boolean update(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            return false;
+        }
+        int numerator;
+        int denominator;
+        if ((long) width * MAX_DENOMINATOR > (long) height * MAX_NUMERATOR) {
+            numerator = MAX_NUMERATOR;
+            denominator = MAX_DENOMINATOR;
+        } else if ((long) height * MAX_DENOMINATOR > (long) width * MAX_NUMERATOR) {
+            numerator = MAX_DENOMINATOR;
+            denominator = MAX_NUMERATOR;
+        } else {
+            final int gcd = gcd(width, height);
+            numerator = width / gcd;
+            denominator = height / gcd;
+        }
+        if (numerator == mNumerator && denominator == mDenominator) {
+            return false;
+        }
+        mNumerator = numerator;
+        mDenominator = denominator;
+        return true;
+    }
+
+    /** Whether a ratio has been computed yet. */
+    boolean isValid() {
+        return mDenominator != 0;
+    }
+
+    int getNumerator() {
+        return mNumerator;
+    }
+
+    int getDenominator() {
+        return mDenominator;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            final int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture;
+
+import android.app.PictureInPictureParams;
+import android.arch.lifecycle.Lifecycle;
+import android.arch.lifecycle.LifecycleObserver;
+import android.arch.lifecycle.OnLifecycleEvent;
+import android.content.BroadcastReceiver;
+import android.content.IntentFilter;
+import android.content.res.Configuration;
+import android.graphics.Rect;
+import android.support.v7.app.AppCompatActivity;
+import android.util.Rational;
+import android.view.View;
+
+import com.example.android.pictureinpicture.widget.MovieView;
+import com.example.android.pictureinpicture.widget.PlaybackMetrics;
+
+/**
+ * Manages Picture-in-Picture mode for an activity that plays a video in a {@link MovieView}.
+ *
+ * <p>This builds the {@link PictureInPictureParams} and only publishes them when they change,
+ * registers the receiver of the PiP action items while in PiP mode, and switches the activity
+ * between full screen and the regular layout.
+ *
+ * <p>The controller follows the lifecycle of the activity on its own. The activity forwards the
+ * callbacks that are not part of the lifecycle: {@link #onConfigurationChanged(Configuration)},
+ * {@link #onWindowFocusChanged(boolean)} and {@link #onPictureInPictureModeChanged(boolean)}.
+ */
+final class PipController implements LifecycleObserver {
+
+    private final AppCompatActivity mActivity;
+
+    private final MovieView mMovieView;
+
+    /** The rest of the content, hidden when the video is full screen. */
+    private final View mContent;
+
+    /** The arguments to be used for Picture-in-Picture mode. */
+    private final PictureInPictureParams.Builder mParamsBuilder =
+            new PictureInPictureParams.Builder();
+
+    /** The aspect ratio of the Picture-in-Picture window, following the video. */
+    private final PipAspectRatio mAspectRatio = new PipAspectRatio();
+
+    /** Where the video is in the window; reused on every entry to Picture-in-Picture mode. */
+    private final Rect mSourceRectHint = new Rect();
+
+    /** The actions last passed to {@link AppCompatActivity#setPictureInPictureParams}. */
+    private PictureInPictureParams mCurrentActions;
+
+    private BroadcastReceiver mReceiver;
+
+    private IntentFilter mReceiverFilter;
+
+    private boolean mReceiverRegistered;
+
+    /** Whether the activity has been stopped since it was last started. */
+    private boolean mStopped;
+
+    /**
+     * @param activity The activity showing the video.
+     * @param movieView The view playing the video.
+     * @param content The rest of the content, hidden when the video is full screen.
+     */
+    PipController(AppCompatActivity activity, MovieView movieView, View content) {
+        mActivity = activity;
+        mMovieView = movieView;
+        mContent = content;
+        activity.getLifecycle().addObserver(this);
+    }
+
+    /**
+     * Sets the receiver of the PiP action items. It is only registered while the activity is in
+     * Picture-in-Picture mode.
+     */
+    void setActionReceiver(BroadcastReceiver receiver, IntentFilter filter) {
+        mReceiver = receiver;
+        mReceiverFilter = filter;
+    }
+
+    /**
+     * Sets the action items of the Picture-in-Picture window.
+     *
+     * <p>This can be called even when the activity is not in PiP mode. In that case, the actions
+     * will be used at the next entry to PiP mode. Only the fields that are set in the params are
+     * updated, so the aspect ratio is kept.
+     *
+     * @param actions Params with only the actions set. They are compared by identity, so build
+     *     them once and reuse them.
+     */
+    void setActions(PictureInPictureParams actions) {
+        if (actions == mCurrentActions) {
+            // The system already has these actions.
+            return;
+        }
+        mCurrentActions = actions;
+        mActivity.setPictureInPictureParams(actions);
+    }
+
+    /** Enters Picture-in-Picture mode. */
+    void minimize() {
+        final PlaybackMetrics metrics = mMovieView.getPlaybackMetrics();
+        if (metrics != null) {
+            metrics.begin(PlaybackMetrics.METRIC_ENTER_PIP);
+        }
+        // Hide the controls in picture-in-picture mode. Do not fade them out; the window is
+        // about to shrink anyway.
+        mMovieView.hideControls(false);
+        // Calculate the aspect ratio of the PiP screen from the video, without the black bars
+        // around it. Fall back to the view until the size of the video is known.
+        final int videoWidth = mMovieView.getVideoWidth();
+        final int videoHeight = mMovieView.getVideoHeight();
+        if (videoWidth != 0 && videoHeight != 0) {
+            mAspectRatio.update(videoWidth, videoHeight);
+        } else {
+            mAspectRatio.update(mMovieView.getWidth(), mMovieView.getHeight());
+        }
+        // The system animates from this area of the window into the PiP window.
+        mMovieView.getVideoRect(mSourceRectHint);
+        mParamsBuilder.setSourceRectHint(mSourceRectHint);
+        if (mAspectRatio.isValid()) {
+            mParamsBuilder.setAspectRatio(getAspectRatio());
+        }
+        // Otherwise nothing has been laid out yet; a ratio of 0:0 would be rejected, so the system
+        // picks one.
+        mActivity.enterPictureInPictureMode(mParamsBuilder.build());
+    }
+
+    /** To be called when the size of the video changes. */
+    void onVideoSizeChanged(int width, int height) {
+        // The next video of the playlist may have another shape. Resize the PiP window only if
+        // its aspect ratio actually changes; otherwise it is picked up at the next #minimize.
+        if (mActivity.isInPictureInPictureMode() && mAspectRatio.update(width, height)) {
+            mActivity.setPictureInPictureParams(
+                    new PictureInPictureParams.Builder().setAspectRatio(getAspectRatio()).build());
+        }
+    }
+
+    void onConfigurationChanged(Configuration newConfig) {
+        adjustFullScreen(newConfig);
+    }
+
+    void onWindowFocusChanged(boolean hasFocus) {
+        if (hasFocus) {
+            adjustFullScreen(mActivity.getResources().getConfiguration());
+        }
+    }
+
+    void onPictureInPictureModeChanged(boolean isInPictureInPictureMode) {
+        if (isInPictureInPictureMode) {
+            final PlaybackMetrics metrics = mMovieView.getPlaybackMetrics();
+            if (metrics != null) {
+                metrics.end(PlaybackMetrics.METRIC_ENTER_PIP);
+            }
+            // Starts receiving events from action items in PiP mode.
+            registerReceiver();
+            // Small windows on low-end devices are where frames get dropped.
+            mMovieView.startFrameMonitor();
+        } else {
+            mMovieView.stopFrameMonitor();
+            // We are out of PiP mode. We can stop receiving events from it.
+            unregisterReceiver();
+            // Show the video controls if the video is not playing
+            if (!mMovieView.isPlaying()) {
+                mMovieView.showControls();
+            }
+        }
+    }
+
+    @OnLifecycleEvent(Lifecycle.Event.ON_START)
+    void onStart() {
+        if (mStopped && !mActivity.isInPictureInPictureMode()) {
+            // Show the video controls so the video can be easily resumed.
+            mMovieView.showControls();
+        }
+        mStopped = false;
+    }
+
+    @OnLifecycleEvent(Lifecycle.Event.ON_STOP)
+    void onStop() {
+        mStopped = true;
+    }
+
+    @OnLifecycleEvent(Lifecycle.Event.ON_DESTROY)
+    void onDestroy() {
+        // The activity can be destroyed while it is still in PiP mode.
+        unregisterReceiver();
+    }
+
+    private void registerReceiver() {
+        if (mReceiver != null && !mReceiverRegistered) {
+            mActivity.registerReceiver(mReceiver, mReceiverFilter);
+            mReceiverRegistered = true;
+        }
+    }
+
+    private void unregisterReceiver() {
+        if (mReceiverRegistered) {
+            mActivity.unregisterReceiver(mReceiver);
+            mReceiverRegistered = false;
+        }
+    }
+
+    private Rational getAspectRatio() {
+        return new Rational(mAspectRatio.getNumerator(), mAspectRatio.getDenominator());
+    }
+
+    /**
+     * Adjusts immersive full-screen flags depending on the screen orientation.
+     *
+     * @param config The current {@link Configuration}.
+     */
+    private void adjustFullScreen(Configuration config) {
+        final View decorView = mActivity.getWindow().getDecorView();
+        if (config.orientation == Configuration.ORIENTATION_LANDSCAPE) {
+            decorView.setSystemUiVisibility(
+                    View.SYSTEM_UI_FLAG_LAYOUT_STABLE
+                            | View.SYSTEM_UI_FLAG_LAYOUT_HIDE_NAVIGATION
+                            | View.SYSTEM_UI_FLAG_LAYOUT_FULLSCREEN
+                            | View.SYSTEM_UI_FLAG_HIDE_NAVIGATION
+                            | View.SYSTEM_UI_FLAG_FULLSCREEN
+                            | View.SYSTEM_UI_FLAG_IMMERSIVE_STICKY);
+            mContent.setVisibility(View.GONE);
+            mMovieView.setAdjustViewBounds(false);
+        } else {
+            decorView.setSystemUiVisibility(View.SYSTEM_UI_FLAG_LAYOUT_STABLE);
+            mContent.setVisibility(View.VISIBLE);
+            mMovieView.setAdjustViewBounds(true);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture;
+
+import android.app.Service;
+import android.content.Intent;
+import android.os.Binder;
+import android.os.IBinder;
+import android.support.v4.media.session.MediaSessionCompat;
+
+import com.example.android.pictureinpicture.widget.MovieView;
+import com.example.android.pictureinpicture.widget.PlaybackSession;
+
+/**
+ * Owns the player and the media session, so that the playback survives the activities showing
+ * it. An activity binds to this service and hands its {@link PlaybackSession} to its {@link
+ * MovieView}, which only attaches its surface to the player. When the activity is recreated or
+ * replaced by another one, the video goes on without being prepared again.
+ *
+ * <p>The service lives as long as an activity is bound to it.
+ */
+public class PlaybackService extends Service {
+
+    private static final String TAG = "PlaybackService";
+
+    /** Gives the activities of this process direct access to the service. */
+    public class LocalBinder extends Binder {
+
+        PlaybackService getService() {
+            return PlaybackService.this;
+        }
+    }
+
+    private final IBinder mBinder = new LocalBinder();
+
+    private PlaybackSession mPlaybackSession;
+
+    private MediaSessionCompat mMediaSession;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mPlaybackSession = new PlaybackSession(this);
+        mMediaSession = new MediaSessionCompat(this, TAG);
+        mMediaSession.setFlags(
+                MediaSessionCompat.FLAG_HANDLES_MEDIA_BUTTONS
+                        | MediaSessionCompat.FLAG_HANDLES_TRANSPORT_CONTROLS);
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return mBinder;
+    }
+
+    @Override
+    public void onDestroy() {
+        mMediaSession.release();
+        mPlaybackSession.release();
+        super.onDestroy();
+    }
+
+    /** The player, shared by the {@link MovieView}s of the activities. */
+    PlaybackSession getPlaybackSession() {
+        return mPlaybackSession;
+    }
+
+    /**
+     * The media session. The activity in the foreground activates it and sets its callback, and
+     * deactivates it when it stops.
+     */
+    MediaSessionCompat getMediaSession() {
+        return mMediaSession;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture;
+
+/**
+ * Publishes the playback state of a media session with as few binder calls as possible.
+ *
+ * <p>The last requested actions are cached here, so updating the state does not need to read them
+ * back from the session. Updates requested in a burst (e.g. rapid skip presses) are coalesced into
+ * one publication per frame, and a state identical to the last published one is not published
+ * again.
+ */
+final class PlaybackStatePublisher {
+
+    /** Sends a playback state to the media session. */
+    interface Sink {
+        /**
+         * @return {@code true} if the state was delivered, {@code false} if there is no media
+         *     session to deliver it to.
+         */
+        boolean publish(int state, long actions, int position, long mediaId);
+    }
+
+    /** Runs a task once, at the next frame. */
+    interface Scheduler {
+        void schedule(Runnable task);
+    }
+
+    private final Sink mSink;
+
+    private final Scheduler mScheduler;
+
+    private final Runnable mPublishTask =
+            new Runnable() {
+                @Override
+                public void run() {
+                    mScheduled = false;
+                    flush();
+                }
+            };
+
+    private boolean mScheduled;
+
+    private boolean mHasPending;
+    private int mPendingState;
+    private long mPendingActions;
+    private int mPendingPosition;
+    private long mPendingMediaId;
+
+    private boolean mHasPublished;
+    private int mPublishedState;
+    private long mPublishedActions;
+    private int mPublishedPosition;
+    private long mPublishedMediaId;
+
+    private int mRequestCount;
+    private int mPublishCount;
+    private int mSavedCount;
+
+    PlaybackStatePublisher(Sink sink, Scheduler scheduler) {
+        mSink = sink;
+        mScheduler = scheduler;
+    }
+
+    /**
+     * Requests a new state, keeping the actions of the previous request.
+     *
+     * @param state The state of the video, e.g. playing, paused, etc.
+     * @param position The position of playback in the video.
+     * @param mediaId The media id related to the video in the media session.
+     */
+    void update(int state, int position, long mediaId) {
+        update(state, mHasPending ? mPendingActions : mPublishedActions, position, mediaId);
+    }
+
+    /**
+     * Requests a new state. It is published at the next frame, together with whatever else is
+     * requested until then.
+     *
+     * @param state The state of the video, e.g. playing, paused, etc.
+     * @param actions The media actions available in this state.
+     * @param position The position of playback in the video.
+     * @param mediaId The media id related to the video in the media session.
+     */
+    void update(int state, long actions, int position, long mediaId) {
+        mRequestCount++;
+        if (mHasPending) {
+            // Coalesced with the pending one
+            mSavedCount++;
+        }
+        mHasPending = true;
+        mPendingState = state;
+        mPendingActions = actions;
+        mPendingPosition = position;
+        mPendingMediaId = mediaId;
+        if (!mScheduled) {
+            mScheduled = true;
+            mScheduler.schedule(mPublishTask);
+        }
+    }
+
+    /**
+     * Publishes the pending state right away, unless it is what was published last. A state that
+     * the sink could not deliver stays pending until the next flush.
+     */
+    void flush() {
+        if (!mHasPending) {
+            return;
+        }
+        if (mHasPublished
+                && mPendingState == mPublishedState
+                && mPendingActions == mPublishedActions
+                && mPendingPosition == mPublishedPosition
+                && mPendingMediaId == mPublishedMediaId) {
+            mHasPending = false;
+            mSavedCount++;
+            return;
+        }
+        if (!mSink.publish(mPendingState, mPendingActions, mPendingPosition, mPendingMediaId)) {
+            return;
+        }
+        mHasPending = false;
+        mHasPublished = true;
+        mPublishedState = mPendingState;
+        mPublishedActions = mPendingActions;
+        mPublishedPosition = mPendingPosition;
+        mPublishedMediaId = mPendingMediaId;
+        mPublishCount++;
+    }
+
+    /**
+     * Forgets the pending and the last published state, e.g. when the media session is replaced.
+     * A task that is already scheduled does nothing when it runs.
+     */
+    void reset() {
+        mHasPending = false;
+        mHasPublished = false;
+    }
+
+    /** Returns the number of states requested so far. */
+    int getRequestCount() {
+        return mRequestCount;
+    }
+
+    /** Returns the number of states actually sent to the media session. */
+    int getPublishCount() {
+        return mPublishCount;
+    }
+
+    /** Returns the number of binder calls that were saved by coalescing and deduplication. */
+    int getSavedCount() {
+        return mSavedCount;
+    }
+}
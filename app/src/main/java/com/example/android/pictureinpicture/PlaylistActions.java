@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture;
+
+/**
+ * Computes the media actions available at a position in a playlist. Skipping is only offered where
+ * there is a video to skip to.
+ *
+ * <p>The action bits are passed in, so this does not depend on the media session classes.
+ */
+final class PlaylistActions {
+
+    private final long mBase;
+
+    private final long mSkipToNext;
+
+    private final long mSkipToPrevious;
+
+    /**
+     * @param base The actions that are always available.
+     * @param skipToNext The action to skip to the next video.
+     * @param skipToPrevious The action to skip to the previous video.
+     */
+    PlaylistActions(long base, long skipToNext, long skipToPrevious) {
+        mBase = base;
+        mSkipToNext = skipToNext;
+        mSkipToPrevious = skipToPrevious;
+    }
+
+    /**
+     * @param hasPrevious Whether there is a video before the current one.
+     * @param hasNext Whether there is a video after the current one.
+     * @return The available actions.
+     */
+    long get(boolean hasPrevious, boolean hasNext) {
+        long actions = mBase;
+        if (hasNext) {
+            actions |= mSkipToNext;
+        }
+        if (hasPrevious) {
+            actions |= mSkipToPrevious;
+        }
+        return actions;
+    }
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import android.support.annotation.WorkerThread;
+
+/** Finds out which videos the device can decode. */
+interface CodecProbe {
+
+    /**
+     * Lists the video decoders of the device. This can take a while and must not be called on the
+     * UI thread.
+     */
+    @WorkerThread
+    DecoderCapabilities probe();
+}
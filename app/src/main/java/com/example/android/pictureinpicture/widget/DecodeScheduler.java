@@ -0,0 +1,336 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Moves the samples of one track through a decoder, and releases the decoded buffers when the
+ * {@link MediaClock} reaches them. Video frames are rendered a little ahead of their time, so
+ * that the display shows them on time, or dropped when they are too late. Audio is written to
+ * an {@link AudioSink} as fast as it takes it.
+ *
+ * <p>The decoder hands out buffers by index. The pending output buffers are kept in rings of
+ * primitive arrays, so that nothing is allocated per frame. This class is not thread-safe; it is
+ * meant to be driven from the thread that receives the callbacks of the decoder, except for the
+ * counters, which can be read from any thread.
+ */
+final class DecodeScheduler {
+
+    /** The decoder of a track, such as a {@link android.media.MediaCodec}. */
+    interface Codec {
+
+        ByteBuffer getInputBuffer(int index);
+
+        void queueInputBuffer(int index, int size, long timeUs, boolean endOfStream);
+
+        ByteBuffer getOutputBuffer(int index);
+
+        /**
+         * Gives an output buffer back to the decoder.
+         *
+         * @param render Whether the buffer should be shown on the output surface.
+         * @param renderTimeNs When the buffer should be shown, as a {@link System#nanoTime()}.
+         */
+        void releaseOutputBuffer(int index, boolean render, long renderTimeNs);
+    }
+
+    /** The samples of a track, such as a {@link android.media.MediaExtractor}. */
+    interface SampleSource {
+
+        /**
+         * Copies the current sample into a buffer.
+         *
+         * @return The size of the sample, or -1 at the end of the track.
+         */
+        int readSampleData(ByteBuffer buffer);
+
+        long getSampleTime();
+
+        /** Moves on to the next sample. */
+        void advance();
+    }
+
+    /** Where the decoded audio goes, such as an {@link android.media.AudioTrack}. */
+    interface AudioSink {
+
+        /**
+         * Writes as much of a buffer as fits, without blocking.
+         *
+         * @return The number of bytes written.
+         */
+        int write(ByteBuffer buffer, int size);
+    }
+
+    interface Listener {
+
+        /** Called when the first buffer after a {@link #flush()} has been released. */
+        void onFirstOutput(long timeUs);
+
+        /** Called when the last buffer of the track has been released. */
+        void onEndOfStream();
+    }
+
+    /** How far ahead of its time a frame is handed to the display. */
+    static final long RENDER_LEAD_NS = 20000000;
+
+    /** How late a frame can be before it is dropped. */
+    static final long LATE_THRESHOLD_NS = 30000000;
+
+    /** How long to wait before writing audio again when the sink is full. */
+    static final long AUDIO_RETRY_NS = 10000000;
+
+    /** Returned by {@link #render(long)} when there is nothing to wait for. */
+    static final long IDLE = -1;
+
+    /** More than a decoder ever hands out at once. */
+    private static final int MAX_PENDING_OUTPUTS = 64;
+
+    private final Codec mCodec;
+
+    private final SampleSource mSource;
+
+    private final MediaClock mClock;
+
+    private final AudioSink mAudioSink;
+
+    private final Listener mListener;
+
+    // The pending output buffers
+    private final int[] mOutputIndices = new int[MAX_PENDING_OUTPUTS];
+    private final int[] mOutputOffsets = new int[MAX_PENDING_OUTPUTS];
+    private final int[] mOutputSizes = new int[MAX_PENDING_OUTPUTS];
+    private final long[] mOutputTimesUs = new long[MAX_PENDING_OUTPUTS];
+    private final long[] mOutputArrivalsNs = new long[MAX_PENDING_OUTPUTS];
+    private int mHead;
+    private int mPendingCount;
+
+    /** How much of the buffer at the head has been written to the audio sink. */
+    private int mWrittenBytes;
+
+    private final LatencyHistogram mQueueLatency = new LatencyHistogram();
+
+    private boolean mInputEnded;
+
+    private boolean mOutputEnded;
+
+    private boolean mEndReported;
+
+    /** Whether the next buffer is the first one since the last flush. */
+    private boolean mFirstOutput = true;
+
+    /** Whether frames are shown at all, i.e. whether the decoder has a surface to show them on. */
+    private boolean mRenderEnabled = true;
+
+    /** Buffers before this time are decoded but not shown, after a precise seek. */
+    private long mSkipUntilUs = -1;
+
+    private volatile int mRenderedCount;
+
+    private volatile int mDroppedCount;
+
+    private volatile int mSkippedCount;
+
+    /**
+     * @param audioSink Where the decoded audio goes, or {@code null} for a video track.
+     */
+    DecodeScheduler(
+            Codec codec,
+            SampleSource source,
+            MediaClock clock,
+            AudioSink audioSink,
+            Listener listener) {
+        mCodec = codec;
+        mSource = source;
+        mClock = clock;
+        mAudioSink = audioSink;
+        mListener = listener;
+    }
+
+    /** Fills an input buffer with the next sample, or marks the end of the track. */
+    void onInputBufferAvailable(int index) {
+        if (mInputEnded) {
+            return;
+        }
+        final ByteBuffer buffer = mCodec.getInputBuffer(index);
+        final int size = mSource.readSampleData(buffer);
+        if (size < 0) {
+            mCodec.queueInputBuffer(index, 0, 0, true);
+            mInputEnded = true;
+            return;
+        }
+        mCodec.queueInputBuffer(index, size, mSource.getSampleTime(), false);
+        mSource.advance();
+    }
+
+    /** Holds on to a decoded buffer until it is due. */
+    void onOutputBufferAvailable(
+            int index, int offset, int size, long timeUs, boolean endOfStream, long nowNs) {
+        if (endOfStream) {
+            mOutputEnded = true;
+        }
+        if (size == 0 || (timeUs < mSkipUntilUs && !endOfStream)) {
+            // Nothing to show, or decoded only to reach the target of a precise seek.
+            mCodec.releaseOutputBuffer(index, false, 0);
+            if (size != 0) {
+                mSkippedCount++;
+            }
+            return;
+        }
+        if (mPendingCount == MAX_PENDING_OUTPUTS) {
+            // Does not happen with a real decoder, but the oldest buffer has to go then.
+            dropHead();
+        }
+        final int slot = (mHead + mPendingCount) % MAX_PENDING_OUTPUTS;
+        mOutputIndices[slot] = index;
+        mOutputOffsets[slot] = offset;
+        mOutputSizes[slot] = size;
+        mOutputTimesUs[slot] = timeUs;
+        mOutputArrivalsNs[slot] = nowNs;
+        mPendingCount++;
+    }
+
+    /**
+     * Releases the buffers that are due.
+     *
+     * @return How long to wait before calling this again, in nanoseconds, or {@link #IDLE} if
+     *     there is nothing to do until another buffer is decoded.
+     */
+    long render(long nowNs) {
+        final long delayNs = mAudioSink == null ? renderVideo(nowNs) : renderAudio(nowNs);
+        if (mPendingCount == 0 && mOutputEnded && !mEndReported) {
+            mEndReported = true;
+            mListener.onEndOfStream();
+        }
+        return delayNs;
+    }
+
+    private long renderVideo(long nowNs) {
+        while (mPendingCount > 0) {
+            if (mFirstOutput) {
+                // The first frame is shown right away, even while paused, so that there is
+                // something on the screen after a seek. The clock starts from it.
+                releaseHead(true, nowNs, nowNs);
+                continue;
+            }
+            if (!mClock.isRunning()) {
+                return IDLE;
+            }
+            final long dueNs = mClock.toSystemNanos(mOutputTimesUs[mHead], nowNs);
+            if (dueNs - nowNs > RENDER_LEAD_NS) {
+                return dueNs - nowNs - RENDER_LEAD_NS;
+            }
+            if (nowNs - dueNs > LATE_THRESHOLD_NS) {
+                dropHead();
+            } else {
+                releaseHead(true, dueNs, nowNs);
+            }
+        }
+        return IDLE;
+    }
+
+    private long renderAudio(long nowNs) {
+        while (mPendingCount > 0 && mClock.isRunning()) {
+            final ByteBuffer buffer = mCodec.getOutputBuffer(mOutputIndices[mHead]);
+            final int start = mOutputOffsets[mHead] + mWrittenBytes;
+            final int remaining = mOutputSizes[mHead] - mWrittenBytes;
+            buffer.limit(start + remaining);
+            buffer.position(start);
+            mWrittenBytes += mAudioSink.write(buffer, remaining);
+            if (mWrittenBytes < mOutputSizes[mHead]) {
+                return AUDIO_RETRY_NS;
+            }
+            releaseHead(false, nowNs, nowNs);
+        }
+        return IDLE;
+    }
+
+    private void releaseHead(boolean render, long renderTimeNs, long nowNs) {
+        final long timeUs = mOutputTimesUs[mHead];
+        mCodec.releaseOutputBuffer(mOutputIndices[mHead], render && mRenderEnabled, renderTimeNs);
+        mQueueLatency.record((nowNs - mOutputArrivalsNs[mHead]) / 1000);
+        pop();
+        if (mAudioSink == null) {
+            mRenderedCount++;
+        }
+        if (mFirstOutput) {
+            mFirstOutput = false;
+            mListener.onFirstOutput(timeUs);
+        }
+    }
+
+    private void dropHead() {
+        mCodec.releaseOutputBuffer(mOutputIndices[mHead], false, 0);
+        pop();
+        mDroppedCount++;
+    }
+
+    private void pop() {
+        mHead = (mHead + 1) % MAX_PENDING_OUTPUTS;
+        mPendingCount--;
+        mWrittenBytes = 0;
+    }
+
+    /**
+     * Forgets about all the buffers, after the decoder has been flushed. The decoder takes its
+     * buffers back itself, so none of them is released.
+     */
+    void flush() {
+        mHead = 0;
+        mPendingCount = 0;
+        mWrittenBytes = 0;
+        mInputEnded = false;
+        mOutputEnded = false;
+        mEndReported = false;
+        mFirstOutput = true;
+        mSkipUntilUs = -1;
+    }
+
+    /** Decodes but does not show the buffers before a time, until the next {@link #flush()}. */
+    void setSkipUntil(long timeUs) {
+        mSkipUntilUs = timeUs;
+    }
+
+    /** Sets whether frames are shown; they are still scheduled and counted either way. */
+    void setRenderEnabled(boolean enabled) {
+        mRenderEnabled = enabled;
+    }
+
+    int getPendingCount() {
+        return mPendingCount;
+    }
+
+    /** The number of frames that were shown, or that would have been without a surface. */
+    int getRenderedCount() {
+        return mRenderedCount;
+    }
+
+    /** The number of buffers that were too late to be shown. */
+    int getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /** The number of buffers that were skipped to reach the target of a precise seek. */
+    int getSkippedCount() {
+        return mSkippedCount;
+    }
+
+    /** How long the decoded buffers waited before they were released, in microseconds. */
+    LatencyHistogram getQueueLatency() {
+        return mQueueLatency;
+    }
+}
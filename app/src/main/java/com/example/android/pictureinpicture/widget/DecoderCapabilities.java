@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import android.support.annotation.Nullable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The video decoders of the device, and the largest videos they can decode. This is probed once by
+ * a {@link CodecProbe} and then cached on disk.
+ *
+ * <p>This tells in advance which videos would fail to prepare, and which of the renditions of a
+ * video is the best one the device can play. Only the format and the size of the videos are
+ * checked; their profile and level are not known before they are prepared.
+ */
+final class DecoderCapabilities {
+
+    /** The maximum number of decoders that are remembered. */
+    static final int MAX_DECODERS = 256;
+
+    /** A decoder, for one MIME type. */
+    static final class Decoder {
+
+        final String name;
+        final String mimeType;
+        final int maxWidth;
+        final int maxHeight;
+
+        /**
+         * The largest frame, in pixels. Decoders limit the number of blocks of a frame, so this is
+         * usually less than {@code maxWidth * maxHeight}.
+         */
+        final int maxPixels;
+
+        /** Whether this is backed by hardware, rather than by a software implementation. */
+        final boolean hardware;
+
+        Decoder(
+                String name,
+                String mimeType,
+                int maxWidth,
+                int maxHeight,
+                int maxPixels,
+                boolean hardware) {
+            this.name = name;
+            this.mimeType = mimeType;
+            this.maxWidth = maxWidth;
+            this.maxHeight = maxHeight;
+            this.maxPixels = maxPixels;
+            this.hardware = hardware;
+        }
+
+        /** Whether a video of this size fits, in either orientation. */
+        boolean fits(int width, int height) {
+            if ((long) width * height > maxPixels) {
+                return false;
+            }
+            return (width <= maxWidth && height <= maxHeight)
+                    || (height <= maxWidth && width <= maxHeight);
+        }
+    }
+
+    private final List<Decoder> mDecoders;
+
+    DecoderCapabilities(List<Decoder> decoders) {
+        mDecoders = Collections.unmodifiableList(new ArrayList<>(decoders));
+    }
+
+    List<Decoder> getDecoders() {
+        return mDecoders;
+    }
+
+    /**
+     * Finds a decoder for a video, preferring hardware ones.
+     *
+     * @return The decoder, or {@code null} if there is none.
+     */
+    @Nullable
+    Decoder findDecoder(String mimeType, int width, int height) {
+        Decoder found = null;
+        for (int i = 0, size = mDecoders.size(); i < size; i++) {
+            final Decoder decoder = mDecoders.get(i);
+            if (decoder.mimeType.equalsIgnoreCase(mimeType) && decoder.fits(width, height)) {
+                if (decoder.hardware) {
+                    return decoder;
+                }
+                if (found == null) {
+                    found = decoder;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Whether a video can be decoded. A video of an unknown format is given the benefit of the
+     * doubt.
+     */
+    boolean isSupported(VideoMetadata metadata) {
+        final String mimeType = metadata.getMimeType();
+        return mimeType == null
+                || findDecoder(mimeType, metadata.getWidth(), metadata.getHeight()) != null;
+    }
+
+    /**
+     * Picks the rendition of a video to play: the first one that a hardware decoder can decode, or
+     * else the first one that any decoder can decode.
+     *
+     * @param renditions The metadata of the renditions, the best first. The ones that are not
+     *     known yet are {@code null}, and skipped.
+     * @return The index of the rendition, or -1 if none is known to be decodable.
+     */
+    int pickRendition(List<VideoMetadata> renditions) {
+        int fallback = -1;
+        for (int i = 0, size = renditions.size(); i < size; i++) {
+            final VideoMetadata metadata = renditions.get(i);
+            if (metadata == null || metadata.getMimeType() == null) {
+                continue;
+            }
+            final Decoder decoder =
+                    findDecoder(metadata.getMimeType(), metadata.getWidth(), metadata.getHeight());
+            if (decoder == null) {
+                continue;
+            }
+            if (decoder.hardware) {
+                return i;
+            }
+            if (fallback < 0) {
+                fallback = i;
+            }
+        }
+        return fallback;
+    }
+
+    /** Writes this to a stream, to be read back by {@link #readFrom(DataInput)}. */
+    void writeTo(DataOutput out) throws IOException {
+        out.writeInt(mDecoders.size());
+        for (Decoder decoder : mDecoders) {
+            out.writeUTF(decoder.name);
+            out.writeUTF(decoder.mimeType);
+            out.writeInt(decoder.maxWidth);
+            out.writeInt(decoder.maxHeight);
+            out.writeInt(decoder.maxPixels);
+            out.writeBoolean(decoder.hardware);
+        }
+    }
+
+    /** Reads what was written by {@link #writeTo(DataOutput)}. */
+    static DecoderCapabilities readFrom(DataInput in) throws IOException {
+        final int count = in.readInt();
+        if (count < 0 || count > MAX_DECODERS) {
+            throw new IOException("Invalid number of decoders: " + count);
+        }
+        final List<Decoder> decoders = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            decoders.add(
+                    new Decoder(
+                            in.readUTF(),
+                            in.readUTF(),
+                            in.readInt(),
+                            in.readInt(),
+                            in.readInt(),
+                            in.readBoolean()));
+        }
+        return new DecoderCapabilities(decoders);
+    }
+}
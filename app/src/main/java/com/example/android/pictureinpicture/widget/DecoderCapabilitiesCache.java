@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Stores the {@link DecoderCapabilities} of the device on disk, so that the decoders are only
+ * probed once.
+ *
+ * <p>The entry is stamped with a key identifying the system, e.g. its build fingerprint. The
+ * decoders can only change with the system, so an entry written under another key is probed
+ * again. All the methods do disk I/O and must not be called on the UI thread.
+ */
+final class DecoderCapabilitiesCache {
+
+    /** Bumped whenever the file format changes. */
+    private static final int FORMAT_VERSION = 2;
+
+    private final File mFile;
+
+    private final String mVersionKey;
+
+    /**
+     * @param file Where the entry is stored.
+     * @param versionKey Identifies the version of the system.
+     */
+    DecoderCapabilitiesCache(File file, String versionKey) {
+        mFile = file;
+        mVersionKey = versionKey;
+    }
+
+    /**
+     * Returns the capabilities from the disk, or probes them if there is no valid entry.
+     *
+     * @param probe Finds out the capabilities when they are not on disk.
+     */
+    @WorkerThread
+    DecoderCapabilities get(CodecProbe probe) {
+        DecoderCapabilities capabilities = load();
+        if (capabilities == null) {
+            capabilities = probe.probe();
+            store(capabilities);
+        }
+        return capabilities;
+    }
+
+    /**
+     * Reads the entry.
+     *
+     * @return The capabilities, or {@code null} if there is no valid entry.
+     */
+    @WorkerThread
+    @Nullable
+    DecoderCapabilities load() {
+        if (!mFile.exists()) {
+            return null;
+        }
+        try (DataInputStream in =
+                new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)))) {
+            if (in.readInt() == FORMAT_VERSION && mVersionKey.equals(in.readUTF())) {
+                return DecoderCapabilities.readFrom(in);
+            }
+        } catch (IOException e) {
+            // Fall through; the decoders are probed again.
+        }
+        // Stale or corrupt
+        mFile.delete();
+        return null;
+    }
+
+    /**
+     * Writes the entry. A partially written entry is never visible to {@link #load()}.
+     *
+     * @return {@code true} if the entry was written.
+     */
+    @WorkerThread
+    boolean store(DecoderCapabilities capabilities) {
+        final File directory = mFile.getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            return false;
+        }
+        final File temp = new File(mFile.getPath() + ".tmp");
+        try (DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(mVersionKey);
+            capabilities.writeTo(out);
+        } catch (IOException e) {
+            temp.delete();
+            return false;
+        }
+        return temp.renameTo(mFile);
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.MainThread;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Provides the {@link DecoderCapabilities} of the device without blocking the UI thread. The
+ * decoders are probed once per system version; afterwards, they are read from the disk.
+ */
+final class DecoderCapabilitiesLoader {
+
+    private static final Executor sExecutor = Executors.newSingleThreadExecutor();
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    /** This is only accessed on the UI thread. */
+    private static DecoderCapabilities sCapabilities;
+
+    /** This is only accessed on the UI thread. */
+    private static boolean sLoading;
+
+    private DecoderCapabilitiesLoader() {}
+
+    /**
+     * Returns the capabilities if they have already been loaded.
+     *
+     * @return The capabilities, or {@code null} if they are not in memory yet.
+     */
+    @MainThread
+    @Nullable
+    static DecoderCapabilities get() {
+        return sCapabilities;
+    }
+
+    /** Loads the capabilities in the background, if they are not in memory yet. */
+    @MainThread
+    static void load(Context context) {
+        if (sCapabilities != null || sLoading) {
+            return;
+        }
+        sLoading = true;
+        final Context appContext = context.getApplicationContext();
+        sExecutor.execute(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        final DecoderCapabilitiesCache cache =
+                                new DecoderCapabilitiesCache(
+                                        new File(appContext.getCacheDir(), "decoder_capabilities"),
+                                        Build.FINGERPRINT);
+                        final DecoderCapabilities capabilities = cache.get(new MediaCodecProbe());
+                        sMainHandler.post(
+                                new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        sLoading = false;
+                                        sCapabilities = capabilities;
+                                    }
+                                });
+                    }
+                });
+    }
+}
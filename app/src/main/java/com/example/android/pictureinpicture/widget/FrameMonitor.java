@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+/**
+ * Counts the frames of the UI thread and of the video during a monitoring session, and the ones
+ * that were dropped.
+ *
+ * <p>The UI thread is expected to draw once per display refresh. An interval between two frames
+ * that spans several refreshes counts the missed ones as dropped. The intervals are kept in a
+ * {@link LatencyHistogram}, so a session of any length takes the same memory.
+ */
+final class FrameMonitor {
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    /** Assumed when the display does not tell its refresh rate. */
+    private static final float DEFAULT_REFRESH_RATE = 60f;
+
+    private boolean mRunning;
+
+    private long mFramePeriodNanos;
+
+    private long mStartNanos;
+
+    /** The time of the last frame, or -1 before the first one. */
+    private long mLastFrameNanos;
+
+    private LatencyHistogram mIntervals;
+
+    private long mFrameCount;
+
+    private long mDroppedFrameCount;
+
+    /** The number of video frames, or -1 if they are not counted. */
+    private long mVideoFrameCount;
+
+    /** The number of video frames the player had dropped at the start, or -1 if unknown. */
+    private long mStartDroppedVideoFrames;
+
+    /**
+     * Starts a session.
+     *
+     * @param nowNanos The current time, in the time base of the frames.
+     * @param refreshRate The refresh rate of the display in Hz, or 0 if unknown.
+     * @param countsVideoFrames Whether {@link #onVideoFrame()} is called for every video frame.
+     * @param droppedVideoFrames The number of video frames the player has dropped so far, or -1 if
+     *     it does not tell.
+     */
+    void start(
+            long nowNanos, float refreshRate, boolean countsVideoFrames, long droppedVideoFrames) {
+        mRunning = true;
+        mFramePeriodNanos =
+                (long) (NANOS_PER_SECOND / (refreshRate > 0 ? refreshRate : DEFAULT_REFRESH_RATE));
+        mStartNanos = nowNanos;
+        mLastFrameNanos = -1;
+        mIntervals = new LatencyHistogram();
+        mFrameCount = 0;
+        mDroppedFrameCount = 0;
+        mVideoFrameCount = countsVideoFrames ? 0 : -1;
+        mStartDroppedVideoFrames = droppedVideoFrames;
+    }
+
+    boolean isRunning() {
+        return mRunning;
+    }
+
+    /** Called on every frame of the UI thread, with the time of its vsync. */
+    void onFrame(long frameTimeNanos) {
+        if (!mRunning) {
+            return;
+        }
+        mFrameCount++;
+        if (mLastFrameNanos >= 0) {
+            final long interval = frameTimeNanos - mLastFrameNanos;
+            mIntervals.record(interval / 1000);
+            final long periods = (interval + mFramePeriodNanos / 2) / mFramePeriodNanos;
+            if (periods > 1) {
+                mDroppedFrameCount += periods - 1;
+            }
+        }
+        mLastFrameNanos = frameTimeNanos;
+    }
+
+    /** Called when a video frame reaches the view. */
+    void onVideoFrame() {
+        if (mRunning && mVideoFrameCount >= 0) {
+            mVideoFrameCount++;
+        }
+    }
+
+    /**
+     * Ends the session.
+     *
+     * @param nowNanos The current time, in the time base of the frames.
+     * @param droppedVideoFrames The number of video frames the player has dropped so far, or -1 if
+     *     it does not tell.
+     * @return The stats of the session, or {@code null} if none was running.
+     */
+    FrameStats stop(long nowNanos, long droppedVideoFrames) {
+        if (!mRunning) {
+            return null;
+        }
+        mRunning = false;
+        // The player may have been replaced in the meantime, restarting its count.
+        final long droppedVideo =
+                mStartDroppedVideoFrames < 0 || droppedVideoFrames < mStartDroppedVideoFrames
+                        ? -1
+                        : droppedVideoFrames - mStartDroppedVideoFrames;
+        return new FrameStats(
+                (nowNanos - mStartNanos) / 1000000,
+                mFrameCount,
+                mDroppedFrameCount,
+                mVideoFrameCount,
+                droppedVideo,
+                mIntervals);
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+
+/**
+ * How smoothly a {@link MovieView} was drawn during one monitoring session, e.g. one stay in
+ * Picture-in-Picture mode. See {@link MovieView#startFrameMonitor()}.
+ */
+public final class FrameStats {
+
+    private final long mDurationMs;
+
+    private final long mFrameCount;
+
+    private final long mDroppedFrameCount;
+
+    private final long mVideoFrameCount;
+
+    private final long mDroppedVideoFrameCount;
+
+    private final LatencyHistogram mFrameIntervals;
+
+    FrameStats(
+            long durationMs,
+            long frameCount,
+            long droppedFrameCount,
+            long videoFrameCount,
+            long droppedVideoFrameCount,
+            LatencyHistogram frameIntervals) {
+        mDurationMs = durationMs;
+        mFrameCount = frameCount;
+        mDroppedFrameCount = droppedFrameCount;
+        mVideoFrameCount = videoFrameCount;
+        mDroppedVideoFrameCount = droppedVideoFrameCount;
+        mFrameIntervals = frameIntervals;
+    }
+
+    /** Returns how long the session lasted in milliseconds. */
+    public long getDurationMs() {
+        return mDurationMs;
+    }
+
+    /** Returns the number of frames drawn by the UI thread. */
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    /** Returns the number of display refreshes the UI thread missed between its frames. */
+    public long getDroppedFrameCount() {
+        return mDroppedFrameCount;
+    }
+
+    /**
+     * Returns the number of video frames that reached the view, or -1 if the renderer does not
+     * tell; only {@link MovieView#RENDERER_TEXTURE_VIEW} does.
+     */
+    public long getVideoFrameCount() {
+        return mVideoFrameCount;
+    }
+
+    /** Returns the number of video frames the player dropped, or -1 if it does not tell. */
+    public long getDroppedVideoFrameCount() {
+        return mDroppedVideoFrameCount;
+    }
+
+    /** Returns the intervals between the frames of the UI thread, in microseconds. */
+    public LatencyHistogram getFrameIntervals() {
+        return mFrameIntervals;
+    }
+
+    /** Prints the stats on one line, e.g. for {@code dumpsys}. */
+    public void dump(PrintWriter writer, String prefix) {
+        writer.print(prefix);
+        writer.println(
+                String.format(
+                        Locale.US,
+                        "duration=%dms frames=%d dropped=%d interval_p50=%.1fms"
+                                + " interval_p99=%.1fms video_frames=%d video_dropped=%d",
+                        mDurationMs,
+                        mFrameCount,
+                        mDroppedFrameCount,
+                        mFrameIntervals.getPercentile(50) / 1000f,
+                        mFrameIntervals.getPercentile(99) / 1000f,
+                        mVideoFrameCount,
+                        mDroppedVideoFrameCount));
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Streams a video over HTTP through a {@link VideoCache}. The bytes already in the cache are read
+ * from disk; the others are requested from the server by range, and added to the cache as they
+ * arrive.
+ *
+ * <p>A request keeps being read for as long as the reads move forward; the bytes it carries past
+ * short cached runs go into the cache too. Reading elsewhere, as after a seek, makes a new request
+ * from there. A server that answers a range request with the whole video still gets the bytes
+ * before the range into the cache.
+ *
+ * <p>Every response is checked against the validator of the cached bytes, so that the bytes of a
+ * video that changed on the server are dropped rather than mixed with the new ones.
+ */
+final class HttpVideoStream implements VideoStream {
+
+    private static final int TIMEOUT_MS = 10000;
+
+    /** Reading past this many bytes of an open request is still cheaper than a new request. */
+    private static final int MAX_SKIP_BYTES = 256 * 1024;
+
+    /** How many bytes are copied at once from a response to the cache. */
+    private static final int COPY_BUFFER_BYTES = 16 * 1024;
+
+    private final URL mUrl;
+
+    private final String mKey;
+
+    private final VideoCache mCache;
+
+    /** The size of the video, or -1 until it is known. */
+    private long mSize = -1;
+
+    /** Whether the video has been marked as played in the cache. */
+    private boolean mTouched;
+
+    private HttpURLConnection mConnection;
+
+    /** The body of {@link #mConnection}. This is null when no request is open. */
+    private InputStream mInput;
+
+    /** The position in the video of the next byte of {@link #mInput}. */
+    private long mInputPosition;
+
+    /** The number of requests made to the server. */
+    private int mRequestCount;
+
+    private boolean mClosed;
+
+    /** Whether the videos at URIs with this scheme are streamed by this class. */
+    static boolean supports(String scheme) {
+        return "http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme);
+    }
+
+    /**
+     * @param url The video.
+     * @param cache The cache. The video is kept in it for as long as this stream is open.
+     */
+    HttpVideoStream(URL url, VideoCache cache) {
+        mUrl = url;
+        mKey = url.toString();
+        mCache = cache;
+        cache.lock(mKey);
+    }
+
+    @Override
+    public synchronized long getSize() throws IOException {
+        checkNotClosed();
+        if (mSize < 0) {
+            mSize = mCache.getLength(mKey);
+        }
+        if (mSize < 0 && mInput == null) {
+            // The response to the first read tells the size.
+            connect(0);
+        }
+        return mSize;
+    }
+
+    @Override
+    public synchronized int readAt(long position, byte[] buffer, int offset, int size)
+            throws IOException {
+        checkNotClosed();
+        if (!mTouched) {
+            mCache.touch(mKey);
+            mTouched = true;
+        }
+        if (mSize < 0) {
+            mSize = mCache.getLength(mKey);
+        }
+        if (mSize >= 0 && position >= mSize) {
+            return -1;
+        }
+        if (size == 0) {
+            return 0;
+        }
+        final int cached = mCache.read(mKey, position, buffer, offset, size);
+        if (cached > 0) {
+            return cached;
+        }
+        // Download up to the next cached byte.
+        int length = size;
+        final long next = mCache.nextCachedPosition(mKey, position);
+        if (next >= 0) {
+            length = (int) Math.min(length, next - position);
+        }
+        if (mInput != null
+                && position > mInputPosition
+                && position - mInputPosition <= MAX_SKIP_BYTES) {
+            // Cheaper than a new request, and the bytes in between are cached on the way.
+            cacheRange(mInput, mInputPosition, position);
+            mInputPosition = position;
+        }
+        if (mInput == null || mInputPosition != position) {
+            connect(position);
+        }
+        final int read = mInput.read(buffer, offset, length);
+        if (read < 0) {
+            disconnect();
+            return -1;
+        }
+        mInputPosition += read;
+        mCache.write(mKey, mSize, position, buffer, offset, read);
+        return read;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        disconnect();
+        mCache.unlock(mKey);
+    }
+
+    /** The number of requests made to the server. */
+    synchronized int getRequestCount() {
+        return mRequestCount;
+    }
+
+    /** Requests the video from a position to its end. */
+    private void connect(long position) throws IOException {
+        disconnect();
+        final HttpURLConnection connection = (HttpURLConnection) mUrl.openConnection();
+        connection.setConnectTimeout(TIMEOUT_MS);
+        connection.setReadTimeout(TIMEOUT_MS);
+        if (position > 0) {
+            connection.setRequestProperty("Range", "bytes=" + position + "-");
+            final String validator = mCache.getValidator(mKey);
+            if (validator != null) {
+                // A video that changed comes whole, instead of a range of the new one.
+                connection.setRequestProperty("If-Range", validator);
+            }
+        }
+        mConnection = connection;
+        mRequestCount++;
+        final int code = connection.getResponseCode();
+        if (code != HttpURLConnection.HTTP_PARTIAL && code != HttpURLConnection.HTTP_OK) {
+            disconnect();
+            throw new IOException("HTTP " + code + " for " + mUrl);
+        }
+        if (!mCache.validate(mKey, getValidator(connection))) {
+            // The size was of the previous version.
+            mSize = -1;
+        }
+        final InputStream input = connection.getInputStream();
+        if (code == HttpURLConnection.HTTP_PARTIAL) {
+            mSize = parseContentRangeSize(connection.getHeaderField("Content-Range"), mSize);
+        } else {
+            // The server ignored the range, or none was asked for, or the video changed.
+            final long length = connection.getContentLengthLong();
+            if (length >= 0) {
+                mSize = length;
+            }
+            cacheRange(input, 0, position);
+        }
+        mInput = input;
+        mInputPosition = position;
+    }
+
+    /**
+     * Reads a response from one position of the video to another, adding the bytes that are not
+     * cached yet to the cache. The cached runs are skipped.
+     *
+     * @param start The position of the next byte of the response.
+     */
+    private void cacheRange(InputStream input, long start, long end) throws IOException {
+        final byte[] buffer = new byte[COPY_BUFFER_BYTES];
+        long current = start;
+        while (current < end) {
+            final long cachedEnd = Math.min(end, mCache.getCachedEnd(mKey, current));
+            if (cachedEnd > current) {
+                skipFully(input, cachedEnd - current);
+                current = cachedEnd;
+                continue;
+            }
+            int length = (int) Math.min(buffer.length, end - current);
+            // Stop at the next cached run, which is skipped.
+            final long next = mCache.nextCachedPosition(mKey, current);
+            if (next >= 0) {
+                length = (int) Math.min(length, next - current);
+            }
+            final int read = input.read(buffer, 0, length);
+            if (read < 0) {
+                throw new IOException("Unexpected end of the response");
+            }
+            mCache.write(mKey, mSize, current, buffer, 0, read);
+            current += read;
+        }
+    }
+
+    /** @return The ETag of the response, or its time of modification, or null if neither. */
+    private static String getValidator(HttpURLConnection connection) {
+        final String etag = connection.getHeaderField("ETag");
+        return etag != null ? etag : connection.getHeaderField("Last-Modified");
+    }
+
+    private void disconnect() {
+        if (mInput != null) {
+            try {
+                mInput.close();
+            } catch (IOException e) {
+                // Nothing more to read from it anyway
+            }
+            mInput = null;
+        }
+        if (mConnection != null) {
+            mConnection.disconnect();
+            mConnection = null;
+        }
+    }
+
+    private void checkNotClosed() throws IOException {
+        if (mClosed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    private static void skipFully(InputStream input, long count) throws IOException {
+        long remaining = count;
+        while (remaining > 0) {
+            final long skipped = input.skip(remaining);
+            if (skipped <= 0) {
+                if (input.read() < 0) {
+                    throw new IOException("Unexpected end of the response");
+                }
+                remaining--;
+            } else {
+                remaining -= skipped;
+            }
+        }
+    }
+
+    /**
+     * Reads the size of the whole video from a header like {@code bytes 200-999/1000}.
+     *
+     * @return The size, or {@code fallback} if the header does not tell it.
+     */
+    static long parseContentRangeSize(String contentRange, long fallback) {
+        if (contentRange == null) {
+            return fallback;
+        }
+        final int slash = contentRange.lastIndexOf('/');
+        if (slash < 0) {
+            return fallback;
+        }
+        try {
+            return Long.parseLong(contentRange.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            // "*" when the server does not know
+            return fallback;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+/**
+ * Runs a task once there has been no interaction for a while, e.g. to hide the controls.
+ *
+ * <p>An interaction only records a new deadline. At most one callback is pending at any time; when
+ * it runs before the deadline, it is posted again for the remaining time. A burst of interactions
+ * therefore costs a field write each, instead of removing and posting a message each.
+ */
+final class IdleTimeout {
+
+    /** Provides the time and runs the delayed callback. */
+    interface Scheduler {
+        long uptimeMillis();
+
+        void postDelayed(Runnable task, long delayMs);
+
+        void removeCallbacks(Runnable task);
+    }
+
+    private final Scheduler mScheduler;
+
+    private final Runnable mTask;
+
+    private final long mTimeoutMs;
+
+    private final Runnable mCheck =
+            new Runnable() {
+                @Override
+                public void run() {
+                    mPosted = false;
+                    check();
+                }
+            };
+
+    /** Whether the task runs at {@link #mDeadline}. */
+    private boolean mActive;
+
+    private long mDeadline;
+
+    /** Whether {@link #mCheck} is pending. */
+    private boolean mPosted;
+
+    /** How many times {@link #mCheck} has been posted. */
+    private int mPostCount;
+
+    /**
+     * @param scheduler Provides the time and runs the delayed callback.
+     * @param timeoutMs How long to wait after the last interaction.
+     * @param task What to run once the timeout expires.
+     */
+    IdleTimeout(Scheduler scheduler, long timeoutMs, Runnable task) {
+        mScheduler = scheduler;
+        mTimeoutMs = timeoutMs;
+        mTask = task;
+    }
+
+    /** Records an interaction; the task runs once the timeout has passed since this moment. */
+    void restart() {
+        mDeadline = mScheduler.uptimeMillis() + mTimeoutMs;
+        mActive = true;
+        if (!mPosted) {
+            post(mTimeoutMs);
+        }
+    }
+
+    /**
+     * Prevents the task from running until the next {@link #restart()}. The pending callback, if
+     * any, is left alone and finds nothing to do.
+     */
+    void cancel() {
+        mActive = false;
+    }
+
+    /** Cancels the task and removes the pending callback, e.g. when the view is detached. */
+    void stop() {
+        mActive = false;
+        if (mPosted) {
+            mScheduler.removeCallbacks(mCheck);
+            mPosted = false;
+        }
+    }
+
+    boolean isActive() {
+        return mActive;
+    }
+
+    int getPostCount() {
+        return mPostCount;
+    }
+
+    private void check() {
+        if (!mActive) {
+            return;
+        }
+        final long remaining = mDeadline - mScheduler.uptimeMillis();
+        if (remaining > 0) {
+            post(remaining);
+            return;
+        }
+        mActive = false;
+        mTask.run();
+    }
+
+    private void post(long delayMs) {
+        mPosted = true;
+        mPostCount++;
+        mScheduler.postDelayed(mCheck, delayMs);
+    }
+}
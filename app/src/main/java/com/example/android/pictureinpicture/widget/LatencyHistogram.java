@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size histogram of latencies in microseconds.
+ *
+ * <p>Values are counted in log-linear buckets: every power of two is split into {@link
+ * #SUB_BUCKETS} equal buckets, which keeps the relative error of percentiles under 12.5%.
+ * Recording is lock-free and does not allocate, so it can be called from any thread on hot paths.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+
+    /** The number of buckets each power of two is split into. */
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /** Values above this (about 12.7 days) are counted as this. */
+    static final long MAX_VALUE_US = (1L << 40) - 1;
+
+    static final int BUCKET_COUNT = bucketFor(MAX_VALUE_US) + 1;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+
+    private final AtomicLong mCount = new AtomicLong();
+
+    private final AtomicLong mSum = new AtomicLong();
+
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * Records a value.
+     *
+     * @param valueUs The latency in microseconds. Negative values are counted as 0.
+     */
+    public void record(long valueUs) {
+        final long value = Math.max(0, Math.min(valueUs, MAX_VALUE_US));
+        mBuckets.incrementAndGet(bucketFor(value));
+        mCount.incrementAndGet();
+        mSum.addAndGet(value);
+        long max;
+        do {
+            max = mMax.get();
+        } while (value > max && !mMax.compareAndSet(max, value));
+    }
+
+    /** Returns the number of recorded values. */
+    public long getCount() {
+        return mCount.get();
+    }
+
+    /** Returns the largest recorded value in microseconds. */
+    public long getMax() {
+        return mMax.get();
+    }
+
+    /** Returns the mean of the recorded values in microseconds, or 0 if there are none. */
+    public long getMean() {
+        final long count = mCount.get();
+        return count == 0 ? 0 : mSum.get() / count;
+    }
+
+    /**
+     * Returns an estimate of the specified percentile.
+     *
+     * @param percentile The percentile, between 0 and 100.
+     * @return The value in microseconds, or 0 if nothing was recorded.
+     */
+    public long getPercentile(double percentile) {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            total += mBuckets.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mBuckets.get(i);
+            if (seen >= rank) {
+                // The middle of the bucket, but never above what was actually recorded
+                return Math.min((lowerBound(i) + lowerBound(i + 1) - 1) / 2, mMax.get());
+            }
+        }
+        return mMax.get();
+    }
+
+    /** Forgets all the recorded values. */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mBuckets.set(i, 0);
+        }
+        mCount.set(0);
+        mSum.set(0);
+        mMax.set(0);
+    }
+
+    static int bucketFor(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        final int sub = (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+        return (shift + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long lowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        final int shift = bucket / SUB_BUCKETS - 1;
+        final int sub = bucket % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + sub) << shift;
+    }
+}
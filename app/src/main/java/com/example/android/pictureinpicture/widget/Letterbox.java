@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+/**
+ * Fits a video into a view while keeping its aspect ratio. The area of the view outside of the
+ * video is left for black bars.
+ *
+ * <p>The result is only computed again when the size of the view or of the video changes.
+ */
+final class Letterbox {
+
+    private int mViewWidth = -1;
+    private int mViewHeight = -1;
+    private int mVideoWidth = -1;
+    private int mVideoHeight = -1;
+
+    private int mLeft;
+    private int mTop;
+    private int mWidth;
+    private int mHeight;
+
+    /** How many times the letterbox has been computed. */
+    private int mComputeCount;
+
+    /**
+     * Fits the video into the view.
+     *
+     * @return {@code true} if the letterbox has changed.
+     */
+    boolean update(int viewWidth, int viewHeight, int videoWidth, int videoHeight) {
+        if (viewWidth == mViewWidth
+                && viewHeight == mViewHeight
+                && videoWidth == mVideoWidth
+                && videoHeight == mVideoHeight) {
+            return false;
+        }
+        mViewWidth = viewWidth;
+        mViewHeight = viewHeight;
+        mVideoWidth = videoWidth;
+        mVideoHeight = videoHeight;
+        mComputeCount++;
+        mLeft = 0;
+        mTop = 0;
+        mWidth = viewWidth;
+        mHeight = viewHeight;
+        if (videoWidth <= 0 || videoHeight <= 0 || viewWidth <= 0 || viewHeight <= 0) {
+            return true;
+        }
+        final float aspectRatio = (float) videoHeight / videoWidth;
+        final float viewRatio = (float) viewHeight / viewWidth;
+        if (aspectRatio > viewRatio) {
+            // Bars on the sides
+            mLeft = (int) ((viewWidth - viewHeight / aspectRatio) / 2);
+            mWidth = viewWidth - mLeft * 2;
+        } else {
+            // Bars on the top and the bottom
+            mTop = (int) ((viewHeight - viewWidth * aspectRatio) / 2);
+            mHeight = viewHeight - mTop * 2;
+        }
+        return true;
+    }
+
+    /** The offset of the video from the left edge of the view. */
+    int getLeft() {
+        return mLeft;
+    }
+
+    /** The offset of the video from the top edge of the view. */
+    int getTop() {
+        return mTop;
+    }
+
+    int getWidth() {
+        return mWidth;
+    }
+
+    int getHeight() {
+        return mHeight;
+    }
+
+    int getComputeCount() {
+        return mComputeCount;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Keeps engines prepared, without a surface, for the items following the current one in a {@link
+ * Playlist}. Skipping to one of them is then only a matter of handing it the surface.
+ */
+final class LookAheadQueue {
+
+    private static final String TAG = "LookAheadQueue";
+
+    /** Sets the data source of an engine to an item of the playlist. */
+    interface Binder {
+        void bind(PlayerEngine engine, int index) throws IOException;
+    }
+
+    /** An engine prepared, or being prepared, for an item of the playlist. */
+    static final class Slot {
+
+        final int index;
+        final PlayerEngine engine;
+        boolean prepared;
+
+        Slot(int index, PlayerEngine engine) {
+            this.index = index;
+            this.engine = engine;
+        }
+    }
+
+    private final ArrayList<Slot> mSlots = new ArrayList<>();
+
+    /**
+     * Makes sure that the {@code depth} items after the current one have an engine, and releases
+     * the engines of the items that are no longer upcoming.
+     */
+    void update(Playlist<?> playlist, int depth, PlayerEngine.Factory factory, Binder binder) {
+        for (int i = mSlots.size() - 1; i >= 0; i--) {
+            final int offset = mSlots.get(i).index - playlist.getCurrentIndex();
+            if (offset < 1 || offset > depth) {
+                mSlots.remove(i).engine.release();
+            }
+        }
+        for (int offset = 1; offset <= depth; offset++) {
+            final int index = playlist.peekIndex(offset);
+            if (index < 0) {
+                break;
+            }
+            if (find(index) < 0) {
+                prepare(index, factory, binder);
+            }
+        }
+    }
+
+    /**
+     * Removes and returns the slot for the specified item.
+     *
+     * @return The slot, or {@code null} if there is no engine for the item.
+     */
+    Slot take(int index) {
+        final int i = find(index);
+        return i < 0 ? null : mSlots.remove(i);
+    }
+
+    /** Returns the number of engines held, prepared or not. */
+    int size() {
+        return mSlots.size();
+    }
+
+    /** Releases all the engines. */
+    void clear() {
+        for (int i = 0, size = mSlots.size(); i < size; i++) {
+            mSlots.get(i).engine.release();
+        }
+        mSlots.clear();
+    }
+
+    private void prepare(int index, PlayerEngine.Factory factory, Binder binder) {
+        final PlayerEngine engine = factory.create();
+        if (engine == null) {
+            return;
+        }
+        final Slot slot = new Slot(index, engine);
+        engine.setListener(
+                new PlayerEngine.Listener() {
+                    @Override
+                    public void onPrepared(PlayerEngine engine) {
+                        slot.prepared = true;
+                    }
+
+                    @Override
+                    public boolean onError(PlayerEngine engine, int what, int extra) {
+                        // Forget about it; the item is prepared on demand when it is reached.
+                        if (mSlots.remove(slot)) {
+                            engine.release();
+                        }
+                        return true;
+                    }
+                });
+        try {
+            binder.bind(engine, index);
+        } catch (IOException e) {
+            engine.release();
+            return;
+        } catch (RuntimeException e) {
+            // Bad URIs and denied permissions end up here. The engine must go back to the pool.
+            Log.e(TAG, "Failed to open video " + index, e);
+            engine.release();
+            return;
+        }
+        engine.prepareAsync();
+        mSlots.add(slot);
+    }
+
+    private int find(int index) {
+        for (int i = 0, size = mSlots.size(); i < size; i++) {
+            if (mSlots.get(i).index == index) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
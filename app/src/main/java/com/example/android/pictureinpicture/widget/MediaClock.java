@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+/**
+ * The playback position of a video, as it advances with the time of the system. The video frames
+ * are scheduled against it, and it follows the audio output when there is one, so that both stay
+ * in sync.
+ *
+ * <p>The clock is anchored at a media position and a system time, and runs from there while it is
+ * started. All the times are passed in, so that it does not depend on the system clock. It can be
+ * read from any thread.
+ */
+final class MediaClock {
+
+    /** How far the clock may drift from the audio output before it follows it. */
+    static final long MAX_DRIFT_US = 20000;
+
+    private long mAnchorPositionUs;
+
+    private long mAnchorSystemNs;
+
+    private boolean mRunning;
+
+    /** Starts advancing the position from where it is. */
+    synchronized void start(long nowNs) {
+        if (mRunning) {
+            return;
+        }
+        mAnchorSystemNs = nowNs;
+        mRunning = true;
+    }
+
+    /** Stops advancing the position. */
+    synchronized void pause(long nowNs) {
+        if (!mRunning) {
+            return;
+        }
+        mAnchorPositionUs = getPositionUs(nowNs);
+        mRunning = false;
+    }
+
+    synchronized boolean isRunning() {
+        return mRunning;
+    }
+
+    /** Moves the position, e.g. after a seek. */
+    synchronized void setPositionUs(long positionUs, long nowNs) {
+        mAnchorPositionUs = positionUs;
+        mAnchorSystemNs = nowNs;
+    }
+
+    /**
+     * Follows the position of the audio output, if the clock has drifted too far from it. Small
+     * differences are ignored, as the audio position is only known coarsely.
+     *
+     * @return {@code true} if the clock was moved.
+     */
+    synchronized boolean sync(long audioPositionUs, long nowNs) {
+        if (!mRunning || Math.abs(getPositionUs(nowNs) - audioPositionUs) <= MAX_DRIFT_US) {
+            return false;
+        }
+        setPositionUs(audioPositionUs, nowNs);
+        return true;
+    }
+
+    synchronized long getPositionUs(long nowNs) {
+        return mRunning
+                ? mAnchorPositionUs + (nowNs - mAnchorSystemNs) / 1000
+                : mAnchorPositionUs;
+    }
+
+    /**
+     * Returns when a position is reached, as long as the clock keeps running.
+     *
+     * @return The system time in nanoseconds.
+     */
+    synchronized long toSystemNanos(long positionUs, long nowNs) {
+        final long anchorNs = mRunning ? mAnchorSystemNs : nowNs;
+        return anchorNs + (positionUs - mAnchorPositionUs) * 1000;
+    }
+}
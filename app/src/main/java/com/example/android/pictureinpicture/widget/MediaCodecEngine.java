@@ -0,0 +1,893 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import android.content.res.AssetFileDescriptor;
+import android.graphics.SurfaceTexture;
+import android.media.AudioAttributes;
+import android.media.AudioFormat;
+import android.media.AudioTrack;
+import android.media.MediaCodec;
+import android.media.MediaDataSource;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaPlayer;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.view.Surface;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link PlayerEngine} that decodes with {@link MediaCodec} directly, instead of going through
+ * {@link MediaPlayer}. Each track is read by its own {@link MediaExtractor} and decoded in the
+ * asynchronous mode of {@link MediaCodec}. A {@link DecodeScheduler} releases the decoded buffers
+ * against a {@link MediaClock}, which follows the audio output while there is some.
+ *
+ * <p>The decoders, the extractors and the audio output all live on a thread of their own, and the
+ * events are reported on the main thread. Nothing is allocated per frame.
+ */
+public class MediaCodecEngine implements PlayerEngine {
+
+    /** Creates {@link MediaCodecEngine} instances. */
+    public static final Factory FACTORY =
+            new Factory() {
+                @Override
+                public PlayerEngine create() {
+                    return new MediaCodecEngine();
+                }
+            };
+
+    private static final String TAG = "MediaCodecEngine";
+
+    private static final int EVENT_PREPARED = 1;
+    private static final int EVENT_VIDEO_SIZE_CHANGED = 2;
+    private static final int EVENT_RENDERING_START = 3;
+    private static final int EVENT_SEEK_COMPLETE = 4;
+    private static final int EVENT_COMPLETION = 5;
+    private static final int EVENT_ERROR = 6;
+
+    private final HandlerThread mThread;
+
+    /** Runs everything but the calls of {@link PlayerEngine}. */
+    private final Handler mHandler;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final MediaClock mClock = new MediaClock();
+
+    // These are only touched on the main thread.
+
+    private Listener mListener;
+
+    private ParcelFileDescriptor mFd;
+    private long mFdOffset;
+    private long mFdLength;
+
+    private VideoStream mStream;
+
+    /** Incremented on every reset, so that the events of an earlier video are dropped. */
+    private int mGeneration;
+
+    private boolean mPlaying;
+
+    private int mDuration;
+    private int mVideoWidth;
+    private int mVideoHeight;
+
+    /** The scheduler of the video track, for its counters. */
+    private volatile DecodeScheduler mVideoScheduler;
+
+    // These are only touched on the thread of the decoders.
+
+    private int mPreparedGeneration;
+
+    private Track mVideo;
+
+    private Track mAudio;
+
+    private AudioTrack mAudioTrack;
+
+    private int mAudioSampleRate;
+
+    /** The time of the first audio written since the last seek. */
+    private long mAudioStartUs;
+
+    private boolean mAudioStarted;
+
+    private boolean mAudioEnded;
+
+    private Surface mSurface;
+
+    /** Where frames go while there is no surface, as a decoder cannot be left without one. */
+    private SurfaceTexture mPlaceholderTexture;
+    private Surface mPlaceholder;
+
+    /** Whether playback has been started, as opposed to being paused. */
+    private boolean mStarted;
+
+    /** Whether a frame has been shown since the last seek. The clock waits for it. */
+    private boolean mFrameShown;
+
+    private boolean mRenderingStartReported;
+
+    private boolean mSeekPending;
+
+    private boolean mEnded;
+
+    /** Whether playback has failed. Nothing happens until the engine is reset. */
+    private boolean mFailed;
+
+    private final Runnable mTick =
+            new Runnable() {
+                @Override
+                public void run() {
+                    tick();
+                }
+            };
+
+    private final Runnable mReleaseTracks =
+            new Runnable() {
+                @Override
+                public void run() {
+                    releaseTracks();
+                }
+            };
+
+    private final DecodeScheduler.AudioSink mAudioSink =
+            new DecodeScheduler.AudioSink() {
+                @Override
+                public int write(ByteBuffer buffer, int size) {
+                    if (mAudioTrack == null) {
+                        // The audio cannot be played, so it is skipped.
+                        return size;
+                    }
+                    return Math.max(
+                            0, mAudioTrack.write(buffer, size, AudioTrack.WRITE_NON_BLOCKING));
+                }
+            };
+
+    private final DecodeScheduler.Listener mVideoListener =
+            new DecodeScheduler.Listener() {
+                @Override
+                public void onFirstOutput(long timeUs) {
+                    final long nowNs = System.nanoTime();
+                    mFrameShown = true;
+                    mClock.setPositionUs(timeUs, nowNs);
+                    if (mStarted) {
+                        resume(nowNs);
+                    }
+                    if (!mRenderingStartReported) {
+                        mRenderingStartReported = true;
+                        postEvent(EVENT_RENDERING_START, 0, 0);
+                    }
+                    if (mSeekPending) {
+                        mSeekPending = false;
+                        postEvent(EVENT_SEEK_COMPLETE, 0, 0);
+                    }
+                }
+
+                @Override
+                public void onEndOfStream() {
+                    if (mSeekPending) {
+                        mSeekPending = false;
+                        postEvent(EVENT_SEEK_COMPLETE, 0, 0);
+                    }
+                    mEnded = true;
+                    mStarted = false;
+                    mClock.pause(System.nanoTime());
+                    if (mAudioTrack != null) {
+                        mAudioTrack.pause();
+                    }
+                    postEvent(EVENT_COMPLETION, 0, 0);
+                }
+            };
+
+    private final DecodeScheduler.Listener mAudioListener =
+            new DecodeScheduler.Listener() {
+                @Override
+                public void onFirstOutput(long timeUs) {
+                    mAudioStartUs = timeUs;
+                    mAudioStarted = true;
+                }
+
+                @Override
+                public void onEndOfStream() {
+                    // The clock runs on its own from here.
+                    mAudioEnded = true;
+                }
+            };
+
+    public MediaCodecEngine() {
+        mThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_AUDIO);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    @Override
+    public void setListener(@Nullable Listener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public void setSurface(@Nullable final Surface surface) {
+        mHandler.post(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        mSurface = surface;
+                        if (mVideo == null) {
+                            return;
+                        }
+                        try {
+                            mVideo.mCodec.setOutputSurface(outputSurface());
+                        } catch (IllegalArgumentException | IllegalStateException e) {
+                            Log.w(TAG, "Cannot switch the output surface", e);
+                            return;
+                        }
+                        mVideo.mScheduler.setRenderEnabled(surface != null);
+                    }
+                });
+    }
+
+    @Override
+    public void setDataSource(AssetFileDescriptor fd) throws IOException {
+        // The caller closes its descriptor once this returns, but the extractors open it later.
+        mFd = ParcelFileDescriptor.dup(fd.getFileDescriptor());
+        mFdOffset = fd.getStartOffset();
+        mFdLength = fd.getDeclaredLength();
+    }
+
+    @Override
+    public void setDataSource(VideoStream stream) {
+        mStream = stream;
+    }
+
+    @Override
+    public void prepareAsync() {
+        final int generation = mGeneration;
+        final ParcelFileDescriptor fd = mFd;
+        final long offset = mFdOffset;
+        final long length = mFdLength;
+        final VideoStream stream = mStream;
+        mHandler.post(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        prepare(generation, fd, offset, length, stream);
+                    }
+                });
+    }
+
+    @Override
+    public void start() {
+        mPlaying = true;
+        mHandler.post(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mVideo == null) {
+                            return;
+                        }
+                        if (mEnded) {
+                            // Like MediaPlayer, start over once the end has been reached.
+                            seek(0, SEEK_CLOSEST_SYNC, false);
+                        }
+                        mStarted = true;
+                        if (mFrameShown) {
+                            resume(System.nanoTime());
+                            tick();
+                        }
+                    }
+                });
+    }
+
+    @Override
+    public void pause() {
+        mPlaying = false;
+        mHandler.post(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        mStarted = false;
+                        mClock.pause(System.nanoTime());
+                        if (mAudioTrack != null) {
+                            mAudioTrack.pause();
+                        }
+                    }
+                });
+    }
+
+    @Override
+    public void seekTo(final int msec, @SeekMode final int mode) {
+        mHandler.post(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        seek(msec * 1000L, mode, true);
+                    }
+                });
+    }
+
+    @Override
+    public boolean isPlaying() {
+        return mPlaying;
+    }
+
+    @Override
+    public int getCurrentPosition() {
+        final int position = (int) (mClock.getPositionUs(System.nanoTime()) / 1000);
+        return mDuration > 0 ? Math.min(position, mDuration) : position;
+    }
+
+    @Override
+    public int getDuration() {
+        return mDuration;
+    }
+
+    @Override
+    public int getVideoWidth() {
+        return mVideoWidth;
+    }
+
+    @Override
+    public int getVideoHeight() {
+        return mVideoHeight;
+    }
+
+    @Override
+    public long getDroppedVideoFrameCount() {
+        final DecodeScheduler scheduler = mVideoScheduler;
+        return scheduler == null ? -1 : scheduler.getDroppedCount();
+    }
+
+    @Override
+    public void reset() {
+        mGeneration++;
+        mPlaying = false;
+        mDuration = 0;
+        mVideoWidth = 0;
+        mVideoHeight = 0;
+        final ParcelFileDescriptor fd = mFd;
+        final VideoStream stream = mStream;
+        mFd = null;
+        mStream = null;
+        mHandler.post(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        releaseTracks();
+                        closeQuietly(fd, stream);
+                    }
+                });
+    }
+
+    @Override
+    public void release() {
+        mListener = null;
+        reset();
+        mHandler.post(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mPlaceholder != null) {
+                            mPlaceholder.release();
+                            mPlaceholderTexture.release();
+                        }
+                    }
+                });
+        mThread.quitSafely();
+    }
+
+    private void prepare(
+            int generation,
+            ParcelFileDescriptor fd,
+            long offset,
+            long length,
+            VideoStream stream) {
+        mPreparedGeneration = generation;
+        final MediaDataSource dataSource = stream == null ? null : new StreamDataSource(stream);
+        try {
+            final MediaExtractor videoExtractor = newExtractor(fd, offset, length, dataSource);
+            final MediaFormat videoFormat = selectTrack(videoExtractor, "video/");
+            if (videoFormat == null) {
+                videoExtractor.release();
+                throw new IOException("No video track");
+            }
+            try {
+                mVideo =
+                        new Track(
+                                videoExtractor, videoFormat, outputSurface(), null, mVideoListener);
+            } catch (IOException | RuntimeException e) {
+                videoExtractor.release();
+                throw e;
+            }
+            mVideo.mScheduler.setRenderEnabled(mSurface != null);
+            mAudio = newAudioTrack(fd, offset, length, dataSource);
+
+            mVideoScheduler = mVideo.mScheduler;
+            mClock.setPositionUs(0, System.nanoTime());
+            mVideo.mCodec.start();
+            if (mAudio != null) {
+                mAudio.mCodec.start();
+            }
+
+            int width = videoFormat.getInteger(MediaFormat.KEY_WIDTH);
+            int height = videoFormat.getInteger(MediaFormat.KEY_HEIGHT);
+            if (videoFormat.containsKey(MediaFormat.KEY_ROTATION)
+                    && videoFormat.getInteger(MediaFormat.KEY_ROTATION) % 180 != 0) {
+                final int swap = width;
+                width = height;
+                height = swap;
+            }
+            final long durationUs =
+                    videoFormat.containsKey(MediaFormat.KEY_DURATION)
+                            ? videoFormat.getLong(MediaFormat.KEY_DURATION)
+                            : 0;
+            postEvent(EVENT_VIDEO_SIZE_CHANGED, width, height);
+            postEvent(EVENT_PREPARED, (int) (durationUs / 1000), 0);
+        } catch (IOException | RuntimeException e) {
+            fail(e, MediaPlayer.MEDIA_ERROR_IO);
+        }
+    }
+
+    /** Opens the audio, if there is some that can be played. Its absence is not an error. */
+    private Track newAudioTrack(
+            ParcelFileDescriptor fd, long offset, long length, MediaDataSource dataSource) {
+        MediaExtractor extractor = null;
+        try {
+            extractor = newExtractor(fd, offset, length, dataSource);
+            final MediaFormat format = selectTrack(extractor, "audio/");
+            if (format != null) {
+                return new Track(extractor, format, null, mAudioSink, mAudioListener);
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Playing without audio", e);
+        }
+        if (extractor != null) {
+            extractor.release();
+        }
+        return null;
+    }
+
+    private static MediaExtractor newExtractor(
+            ParcelFileDescriptor fd, long offset, long length, MediaDataSource dataSource)
+            throws IOException {
+        final MediaExtractor extractor = new MediaExtractor();
+        try {
+            if (dataSource != null) {
+                extractor.setDataSource(dataSource);
+            } else if (length < 0) {
+                extractor.setDataSource(fd.getFileDescriptor());
+            } else {
+                extractor.setDataSource(fd.getFileDescriptor(), offset, length);
+            }
+        } catch (IOException | RuntimeException e) {
+            extractor.release();
+            throw e;
+        }
+        return extractor;
+    }
+
+    /** Selects the first track of a kind, and returns its format. */
+    @Nullable
+    private static MediaFormat selectTrack(MediaExtractor extractor, String mimePrefix) {
+        for (int i = 0; i < extractor.getTrackCount(); i++) {
+            final MediaFormat format = extractor.getTrackFormat(i);
+            final String mime = format.getString(MediaFormat.KEY_MIME);
+            if (mime != null && mime.startsWith(mimePrefix)) {
+                extractor.selectTrack(i);
+                return format;
+            }
+        }
+        return null;
+    }
+
+    private Surface outputSurface() {
+        if (mSurface != null) {
+            return mSurface;
+        }
+        if (mPlaceholder == null) {
+            mPlaceholderTexture = new SurfaceTexture(false);
+            mPlaceholder = new Surface(mPlaceholderTexture);
+        }
+        return mPlaceholder;
+    }
+
+    /**
+     * Moves both tracks to a time. The clock stands still until the first frame there is shown.
+     *
+     * @param report Whether to report the seek once it is complete.
+     */
+    private void seek(long timeUs, int mode, boolean report) {
+        if (mVideo == null) {
+            return;
+        }
+        final long nowNs = System.nanoTime();
+        mClock.pause(nowNs);
+        mFrameShown = false;
+        mEnded = false;
+        mSeekPending = report;
+        mVideo.mExtractor.seekTo(
+                timeUs,
+                mode == SEEK_CLOSEST_SYNC
+                        ? MediaExtractor.SEEK_TO_CLOSEST_SYNC
+                        : MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+        // A precise seek decodes from the previous sync frame, but only shows the target.
+        final long startUs =
+                mode == SEEK_CLOSEST
+                        ? timeUs
+                        : Math.max(0, mVideo.mExtractor.getSampleTime());
+        mVideo.flush(mode == SEEK_CLOSEST ? timeUs : -1);
+        if (mAudio != null) {
+            if (mAudioTrack != null) {
+                mAudioTrack.pause();
+                mAudioTrack.flush();
+            }
+            mAudio.mExtractor.seekTo(startUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+            mAudio.flush(startUs);
+            mAudioStarted = false;
+            mAudioEnded = false;
+        }
+        mClock.setPositionUs(startUs, nowNs);
+    }
+
+    private void resume(long nowNs) {
+        mClock.start(nowNs);
+        if (mAudioTrack != null) {
+            mAudioTrack.play();
+        }
+    }
+
+    /** Releases what is due on both tracks, and comes back when more is. */
+    private void tick() {
+        mHandler.removeCallbacks(mTick);
+        if (mVideo == null || mFailed) {
+            return;
+        }
+        final long nowNs = System.nanoTime();
+        if (mAudioTrack != null && mAudioStarted && !mAudioEnded) {
+            final int frames = mAudioTrack.getPlaybackHeadPosition();
+            if (frames > 0) {
+                mClock.sync(mAudioStartUs + frames * 1000000L / mAudioSampleRate, nowNs);
+            }
+        }
+        long delayNs = mVideo.mScheduler.render(nowNs);
+        if (mAudio != null) {
+            final long audioDelayNs = mAudio.mScheduler.render(nowNs);
+            if (delayNs == DecodeScheduler.IDLE
+                    || (audioDelayNs != DecodeScheduler.IDLE && audioDelayNs < delayNs)) {
+                delayNs = audioDelayNs;
+            }
+        }
+        if (delayNs != DecodeScheduler.IDLE) {
+            mHandler.postDelayed(mTick, Math.max(1, delayNs / 1000000));
+        }
+    }
+
+    /** Follows the format of the decoded audio, which is only known for sure once decoding. */
+    private void configureAudioOutput(MediaFormat format) {
+        if (mAudioTrack != null) {
+            mAudioTrack.release();
+        }
+        mAudioSampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+        final int channelCount = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+        final AudioFormat audioFormat =
+                new AudioFormat.Builder()
+                        .setEncoding(AudioFormat.ENCODING_PCM_16BIT)
+                        .setSampleRate(mAudioSampleRate)
+                        .setChannelIndexMask((1 << channelCount) - 1)
+                        .build();
+        mAudioTrack =
+                new AudioTrack.Builder()
+                        .setAudioAttributes(
+                                new AudioAttributes.Builder()
+                                        .setUsage(AudioAttributes.USAGE_MEDIA)
+                                        .setContentType(AudioAttributes.CONTENT_TYPE_MOVIE)
+                                        .build())
+                        .setAudioFormat(audioFormat)
+                        .setTransferMode(AudioTrack.MODE_STREAM)
+                        .build();
+        if (mStarted && mFrameShown) {
+            mAudioTrack.play();
+        }
+    }
+
+    private void releaseTracks() {
+        mHandler.removeCallbacks(mTick);
+        mVideoScheduler = null;
+        if (mVideo != null) {
+            mVideo.release();
+            mVideo = null;
+        }
+        if (mAudio != null) {
+            mAudio.release();
+            mAudio = null;
+        }
+        if (mAudioTrack != null) {
+            mAudioTrack.release();
+            mAudioTrack = null;
+        }
+        mStarted = false;
+        mFrameShown = false;
+        mRenderingStartReported = false;
+        mSeekPending = false;
+        mEnded = false;
+        mFailed = false;
+        mAudioStarted = false;
+        mAudioEnded = false;
+        final long nowNs = System.nanoTime();
+        mClock.pause(nowNs);
+        mClock.setPositionUs(0, nowNs);
+    }
+
+    private void fail(Exception e, int extra) {
+        if (mFailed) {
+            return;
+        }
+        Log.e(TAG, "Playback failed", e);
+        mFailed = true;
+        mHandler.removeCallbacks(mTick);
+        // This may be a callback of a decoder, which cannot be released from there.
+        mHandler.post(mReleaseTracks);
+        postEvent(EVENT_ERROR, MediaPlayer.MEDIA_ERROR_UNKNOWN, extra);
+    }
+
+    private static void closeQuietly(ParcelFileDescriptor fd, VideoStream stream) {
+        try {
+            if (fd != null) {
+                fd.close();
+            }
+            if (stream != null) {
+                stream.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot close the video", e);
+        }
+    }
+
+    /** Reports an event on the main thread, unless the engine has been reset in the meantime. */
+    private void postEvent(final int event, final int arg1, final int arg2) {
+        final int generation = mPreparedGeneration;
+        mMainHandler.post(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation == mGeneration) {
+                            dispatchEvent(event, arg1, arg2);
+                        }
+                    }
+                });
+    }
+
+    private void dispatchEvent(int event, int arg1, int arg2) {
+        switch (event) {
+            case EVENT_PREPARED:
+                mDuration = arg1;
+                break;
+            case EVENT_VIDEO_SIZE_CHANGED:
+                mVideoWidth = arg1;
+                mVideoHeight = arg2;
+                break;
+            case EVENT_COMPLETION:
+            case EVENT_ERROR:
+                mPlaying = false;
+                break;
+        }
+        final Listener listener = mListener;
+        if (listener == null) {
+            return;
+        }
+        switch (event) {
+            case EVENT_PREPARED:
+                listener.onPrepared(this);
+                break;
+            case EVENT_VIDEO_SIZE_CHANGED:
+                listener.onVideoSizeChanged(this, arg1, arg2);
+                break;
+            case EVENT_RENDERING_START:
+                listener.onRenderingStart(this);
+                break;
+            case EVENT_SEEK_COMPLETE:
+                listener.onSeekComplete(this);
+                break;
+            case EVENT_COMPLETION:
+                listener.onCompletion(this);
+                break;
+            case EVENT_ERROR:
+                listener.onError(this, arg1, arg2);
+                break;
+        }
+    }
+
+    /**
+     * One track, from its extractor through its decoder. The callbacks of the decoder are
+     * received on the thread of the engine.
+     */
+    private final class Track extends MediaCodec.Callback
+            implements DecodeScheduler.Codec, DecodeScheduler.SampleSource {
+
+        final MediaExtractor mExtractor;
+
+        final MediaCodec mCodec;
+
+        final DecodeScheduler mScheduler;
+
+        Track(
+                MediaExtractor extractor,
+                MediaFormat format,
+                @Nullable Surface surface,
+                @Nullable DecodeScheduler.AudioSink audioSink,
+                DecodeScheduler.Listener listener)
+                throws IOException {
+            mExtractor = extractor;
+            mCodec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+            mScheduler = new DecodeScheduler(this, this, mClock, audioSink, listener);
+            try {
+                mCodec.setCallback(this, mHandler);
+                mCodec.configure(format, surface, null, 0);
+            } catch (RuntimeException e) {
+                mCodec.release();
+                throw e;
+            }
+        }
+
+        /**
+         * Drops everything in the decoder, after the extractor has moved.
+         *
+         * @param skipUntilUs Buffers before this time are not shown, or -1.
+         */
+        void flush(long skipUntilUs) {
+            mCodec.flush();
+            mScheduler.flush();
+            mScheduler.setSkipUntil(skipUntilUs);
+            // The asynchronous mode stops on a flush.
+            mCodec.start();
+        }
+
+        void release() {
+            mCodec.release();
+            mExtractor.release();
+        }
+
+        /** Whether this is still in use. The decoder can call back after it is released. */
+        private boolean isCurrent() {
+            return !mFailed && (this == mVideo || this == mAudio);
+        }
+
+        @Override
+        public ByteBuffer getInputBuffer(int index) {
+            return mCodec.getInputBuffer(index);
+        }
+
+        @Override
+        public void queueInputBuffer(int index, int size, long timeUs, boolean endOfStream) {
+            mCodec.queueInputBuffer(
+                    index, 0, size, timeUs, endOfStream ? MediaCodec.BUFFER_FLAG_END_OF_STREAM : 0);
+        }
+
+        @Override
+        public ByteBuffer getOutputBuffer(int index) {
+            return mCodec.getOutputBuffer(index);
+        }
+
+        @Override
+        public void releaseOutputBuffer(int index, boolean render, long renderTimeNs) {
+            if (render) {
+                mCodec.releaseOutputBuffer(index, renderTimeNs);
+            } else {
+                mCodec.releaseOutputBuffer(index, false);
+            }
+        }
+
+        @Override
+        public int readSampleData(ByteBuffer buffer) {
+            return mExtractor.readSampleData(buffer, 0);
+        }
+
+        @Override
+        public long getSampleTime() {
+            return mExtractor.getSampleTime();
+        }
+
+        @Override
+        public void advance() {
+            mExtractor.advance();
+        }
+
+        @Override
+        public void onInputBufferAvailable(MediaCodec mediaCodec, int index) {
+            if (!isCurrent()) {
+                return;
+            }
+            try {
+                mScheduler.onInputBufferAvailable(index);
+            } catch (IllegalStateException e) {
+                fail(e, MediaPlayer.MEDIA_ERROR_MALFORMED);
+            }
+        }
+
+        @Override
+        public void onOutputBufferAvailable(
+                MediaCodec mediaCodec, int index, MediaCodec.BufferInfo info) {
+            if (!isCurrent()) {
+                return;
+            }
+            try {
+                mScheduler.onOutputBufferAvailable(
+                        index,
+                        info.offset,
+                        info.size,
+                        info.presentationTimeUs,
+                        (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0,
+                        System.nanoTime());
+                tick();
+            } catch (IllegalStateException e) {
+                fail(e, MediaPlayer.MEDIA_ERROR_MALFORMED);
+            }
+        }
+
+        @Override
+        public void onError(MediaCodec mediaCodec, MediaCodec.CodecException e) {
+            if (isCurrent()) {
+                fail(e, MediaPlayer.MEDIA_ERROR_MALFORMED);
+            }
+        }
+
+        @Override
+        public void onOutputFormatChanged(MediaCodec mediaCodec, MediaFormat format) {
+            if (isCurrent() && this == mAudio) {
+                try {
+                    configureAudioOutput(format);
+                } catch (IllegalArgumentException | UnsupportedOperationException e) {
+                    Log.w(TAG, "Cannot play the audio", e);
+                }
+            }
+        }
+    }
+
+    /** Shares a stream between the extractors of the tracks, which all run on the same thread. */
+    private static class StreamDataSource extends MediaDataSource {
+
+        private final VideoStream mStream;
+
+        StreamDataSource(VideoStream stream) {
+            mStream = stream;
+        }
+
+        @Override
+        public int readAt(long position, byte[] buffer, int offset, int size) throws IOException {
+            return mStream.readAt(position, buffer, offset, size);
+        }
+
+        @Override
+        public long getSize() throws IOException {
+            return mStream.getSize();
+        }
+
+        @Override
+        public void close() {
+            // Each extractor closes it, so the engine does once it is done with all of them.
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/** A {@link CodecProbe} backed by {@link MediaCodecList}. */
+final class MediaCodecProbe implements CodecProbe {
+
+    /** The widths at which the largest frame of a decoder is looked for, besides its widest. */
+    private static final int[] PROBED_WIDTHS = {640, 1280, 1920, 2560, 3840, 4096};
+
+    @Override
+    public DecoderCapabilities probe() {
+        final List<DecoderCapabilities.Decoder> decoders = new ArrayList<>();
+        final MediaCodecList list = new MediaCodecList(MediaCodecList.REGULAR_CODECS);
+        for (MediaCodecInfo info : list.getCodecInfos()) {
+            if (info.isEncoder()) {
+                continue;
+            }
+            for (String type : info.getSupportedTypes()) {
+                if (!type.startsWith("video/")
+                        || decoders.size() == DecoderCapabilities.MAX_DECODERS) {
+                    continue;
+                }
+                final MediaCodecInfo.VideoCapabilities video;
+                try {
+                    video = info.getCapabilitiesForType(type).getVideoCapabilities();
+                } catch (IllegalArgumentException e) {
+                    // Some vendor decoders list types they cannot describe.
+                    continue;
+                }
+                if (video == null) {
+                    continue;
+                }
+                decoders.add(
+                        new DecoderCapabilities.Decoder(
+                                info.getName(),
+                                type,
+                                video.getSupportedWidths().getUpper(),
+                                video.getSupportedHeights().getUpper(),
+                                getMaxPixels(video),
+                                isHardware(info.getName())));
+            }
+        }
+        return new DecoderCapabilities(decoders);
+    }
+
+    /**
+     * Returns the largest frame a decoder takes, in pixels. The widest and the tallest frames are
+     * not both supported at once when the decoder limits the number of blocks of a frame; the
+     * tallest frame at a few widths tells what the limit is.
+     */
+    private static int getMaxPixels(MediaCodecInfo.VideoCapabilities video) {
+        final int maxWidth = video.getSupportedWidths().getUpper();
+        int maxPixels = getMaxPixels(video, maxWidth);
+        for (int width : PROBED_WIDTHS) {
+            if (width < maxWidth) {
+                maxPixels = Math.max(maxPixels, getMaxPixels(video, width));
+            }
+        }
+        // Nothing to go by; only the largest width and height are checked then.
+        return maxPixels > 0 ? maxPixels : maxWidth * video.getSupportedHeights().getUpper();
+    }
+
+    /** Returns the largest frame of a width a decoder takes, in pixels, or 0 if it takes none. */
+    private static int getMaxPixels(MediaCodecInfo.VideoCapabilities video, int width) {
+        try {
+            return width * video.getSupportedHeightsFor(width).getUpper();
+        } catch (IllegalArgumentException e) {
+            // The width is not supported, e.g. because of its alignment.
+            return 0;
+        }
+    }
+
+    /** Before API 29, only the names of the decoders tell the software ones apart. */
+    private static boolean isHardware(String name) {
+        final String lowerCase = name.toLowerCase(Locale.US);
+        return !lowerCase.startsWith("omx.google.")
+                && !lowerCase.startsWith("c2.android.")
+                && !lowerCase.startsWith("omx.ffmpeg.")
+                && !lowerCase.contains(".sw.")
+                && !lowerCase.endsWith(".sw");
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import android.content.res.AssetFileDescriptor;
+import android.media.MediaDataSource;
+import android.media.MediaPlayer;
+import android.os.PersistableBundle;
+import android.support.annotation.Nullable;
+import android.view.Surface;
+
+import java.io.IOException;
+
+/** A {@link PlayerEngine} backed by {@link MediaPlayer}. */
+public class MediaPlayerEngine
+        implements PlayerEngine,
+                MediaPlayer.OnPreparedListener,
+                MediaPlayer.OnCompletionListener,
+                MediaPlayer.OnSeekCompleteListener,
+                MediaPlayer.OnVideoSizeChangedListener,
+                MediaPlayer.OnInfoListener,
+                MediaPlayer.OnErrorListener {
+
+    /** Creates {@link MediaPlayerEngine} instances. */
+    public static final Factory FACTORY =
+            new Factory() {
+                @Override
+                public PlayerEngine create() {
+                    return new MediaPlayerEngine();
+                }
+            };
+
+    /**
+     * The key of the dropped frame count in {@link MediaPlayer#getMetrics()}. This is the value of
+     * {@code MediaPlayer.MetricsConstants.FRAMES_DROPPED}, which is only public from API 28.
+     */
+    private static final String METRIC_FRAMES_DROPPED = "android.media.mediaplayer.dropped";
+
+    private final MediaPlayer mMediaPlayer;
+
+    private Listener mListener;
+
+    public MediaPlayerEngine() {
+        mMediaPlayer = new MediaPlayer();
+        mMediaPlayer.setOnPreparedListener(this);
+        mMediaPlayer.setOnCompletionListener(this);
+        mMediaPlayer.setOnSeekCompleteListener(this);
+        mMediaPlayer.setOnVideoSizeChangedListener(this);
+        mMediaPlayer.setOnInfoListener(this);
+        mMediaPlayer.setOnErrorListener(this);
+    }
+
+    @Override
+    public void setListener(@Nullable Listener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public void setSurface(@Nullable Surface surface) {
+        mMediaPlayer.setSurface(surface);
+    }
+
+    @Override
+    public void setDataSource(AssetFileDescriptor fd) throws IOException {
+        mMediaPlayer.setDataSource(fd);
+    }
+
+    @Override
+    public void setDataSource(final VideoStream stream) {
+        // The player closes the source when it is reset or released.
+        mMediaPlayer.setDataSource(
+                new MediaDataSource() {
+                    @Override
+                    public int readAt(long position, byte[] buffer, int offset, int size)
+                            throws IOException {
+                        return stream.readAt(position, buffer, offset, size);
+                    }
+
+                    @Override
+                    public long getSize() throws IOException {
+                        return stream.getSize();
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        stream.close();
+                    }
+                });
+    }
+
+    @Override
+    public void prepareAsync() {
+        mMediaPlayer.prepareAsync();
+    }
+
+    @Override
+    public void start() {
+        mMediaPlayer.start();
+    }
+
+    @Override
+    public void pause() {
+        mMediaPlayer.pause();
+    }
+
+    @Override
+    public void seekTo(int msec, @SeekMode int mode) {
+        mMediaPlayer.seekTo(msec, mode);
+    }
+
+    @Override
+    public boolean isPlaying() {
+        return mMediaPlayer.isPlaying();
+    }
+
+    @Override
+    public int getCurrentPosition() {
+        return mMediaPlayer.getCurrentPosition();
+    }
+
+    @Override
+    public int getDuration() {
+        return mMediaPlayer.getDuration();
+    }
+
+    @Override
+    public int getVideoWidth() {
+        return mMediaPlayer.getVideoWidth();
+    }
+
+    @Override
+    public int getVideoHeight() {
+        return mMediaPlayer.getVideoHeight();
+    }
+
+    @Override
+    public long getDroppedVideoFrameCount() {
+        final PersistableBundle metrics = mMediaPlayer.getMetrics();
+        return metrics == null ? -1 : metrics.getInt(METRIC_FRAMES_DROPPED, -1);
+    }
+
+    @Override
+    public void reset() {
+        mMediaPlayer.reset();
+    }
+
+    @Override
+    public void release() {
+        mListener = null;
+        mMediaPlayer.release();
+    }
+
+    @Override
+    public void onPrepared(MediaPlayer mediaPlayer) {
+        if (mListener != null) {
+            mListener.onPrepared(this);
+        }
+    }
+
+    @Override
+    public void onCompletion(MediaPlayer mediaPlayer) {
+        if (mListener != null) {
+            mListener.onCompletion(this);
+        }
+    }
+
+    @Override
+    public void onSeekComplete(MediaPlayer mediaPlayer) {
+        if (mListener != null) {
+            mListener.onSeekComplete(this);
+        }
+    }
+
+    @Override
+    public void onVideoSizeChanged(MediaPlayer mediaPlayer, int width, int height) {
+        if (mListener != null) {
+            mListener.onVideoSizeChanged(this, width, height);
+        }
+    }
+
+    @Override
+    public boolean onInfo(MediaPlayer mediaPlayer, int what, int extra) {
+        if (what == MediaPlayer.MEDIA_INFO_VIDEO_RENDERING_START && mListener != null) {
+            mListener.onRenderingStart(this);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean onError(MediaPlayer mediaPlayer, int what, int extra) {
+        return mListener != null && mListener.onError(this, what, extra);
+    }
+}
@@ -16,29 +16,41 @@
 
 package com.example.android.pictureinpicture.widget;
 
+import android.content.ContentResolver;
 import android.content.Context;
-import android.content.res.AssetFileDescriptor;
 import android.content.res.TypedArray;
+import android.graphics.Bitmap;
 import android.graphics.Color;
-import android.media.MediaPlayer;
+import android.graphics.Rect;
+import android.net.Uri;
 import android.os.Handler;
-import android.os.Message;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.IntDef;
 import android.support.annotation.Nullable;
 import android.support.annotation.RawRes;
-import android.transition.TransitionManager;
 import android.util.AttributeSet;
 import android.util.Log;
+import android.view.Choreographer;
+import android.view.Display;
+import android.view.PixelCopy;
 import android.view.Surface;
-import android.view.SurfaceHolder;
 import android.view.SurfaceView;
+import android.view.TextureView;
 import android.view.View;
+import android.view.ViewGroup;
 import android.widget.ImageButton;
+import android.widget.ImageView;
 import android.widget.RelativeLayout;
+import android.widget.SeekBar;
 
 import com.example.android.pictureinpicture.R;
 
-import java.io.IOException;
-import java.lang.ref.WeakReference;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Provides video playback. There is nothing directly related to Picture-in-Picture here.
@@ -59,8 +71,62 @@ public class MovieView extends RelativeLayout {
 
         /** Called when this view should be minimized. */
         public void onMovieMinimized() {}
+
+        /** Called when another video of the playlist becomes the current one. */
+        public void onPlaylistIndexChanged(int index) {}
+
+        /**
+         * Called when the video has finished seeking. Seeks requested in a quick succession are
+         * reported once, when the last one completes.
+         *
+         * @param position The position the video ended up at, in milliseconds.
+         */
+        public void onSeekComplete(int position) {}
+
+        /**
+         * Called when the size of the video is known or has changed, e.g. when another video of
+         * the playlist becomes the current one.
+         */
+        public void onVideoSizeChanged(int width, int height) {}
+
+        /**
+         * Called when a session of the frame monitor ends, with how smoothly the video was shown
+         * during it. See {@link #startFrameMonitor()}.
+         */
+        public void onFrameStats(FrameStats stats) {}
     }
 
+    /** No video is loaded, or the video has been closed. */
+    public static final int STATE_IDLE = PrepareStateMachine.STATE_IDLE;
+
+    /** The video is being prepared without blocking the UI thread. */
+    public static final int STATE_PREPARING = PrepareStateMachine.STATE_PREPARING;
+
+    /** The video is ready to be played. */
+    public static final int STATE_PREPARED = PrepareStateMachine.STATE_PREPARED;
+
+    /** The video failed to open or to prepare. */
+    public static final int STATE_ERROR = PrepareStateMachine.STATE_ERROR;
+
+    /** The preparation state of the video. */
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({STATE_IDLE, STATE_PREPARING, STATE_PREPARED, STATE_ERROR})
+    public @interface State {}
+
+    /** Renders the video to a {@link SurfaceView}. */
+    public static final int RENDERER_SURFACE_VIEW = 0;
+
+    /**
+     * Renders the video to a {@link TextureView} through a texture owned by this view. The
+     * surface survives this view being detached and reattached.
+     */
+    public static final int RENDERER_TEXTURE_VIEW = 1;
+
+    /** Where the video is rendered. */
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({RENDERER_SURFACE_VIEW, RENDERER_TEXTURE_VIEW})
+    public @interface Renderer {}
+
     private static final String TAG = "MovieView";
 
     /** The amount of time we are stepping forward or backward for fast-forward and fast-rewind. */
@@ -69,18 +135,93 @@ public class MovieView extends RelativeLayout {
     /** The amount of time until we fade out the controls. */
     private static final int TIMEOUT_CONTROLS = 3000; // ms
 
+    /** How often the scrub bar follows the playback while the controls are shown. */
+    private static final int INTERVAL_PROGRESS = 1000; // ms
+
+    /** The maximum width of the posters taken when the video is paused. */
+    private static final int MAX_POSTER_WIDTH = 960; // px
+
+    /**
+     * How long a detached view keeps its player and texture, in case it is attached again, e.g.
+     * when it is moved to another parent.
+     */
+    private static final int TIMEOUT_DETACHED_RELEASE = 1000; // ms
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
     /** Shows the video playback. */
-    private final SurfaceView mSurfaceView;
+    private RenderTarget mRenderTarget;
+
+    @Renderer private int mRenderer = RENDERER_SURFACE_VIEW;
 
     // Controls
+    /** Holds all the controls, so that they fade in and out as one layer. */
+    private final View mControls;
     private final ImageButton mToggle;
-    private final View mShade;
     private final ImageButton mFastForward;
     private final ImageButton mFastRewind;
     private final ImageButton mMinimize;
+    private final SeekBar mScrubBar;
+    private final ImageView mPreview;
+
+    /** Shows the poster of the video until its first frame is drawn. */
+    private final ImageView mPoster;
 
-    /** This plays the video. This will be null when no video is set. */
-    MediaPlayer mMediaPlayer;
+    /** Whether nothing has been drawn on the surface since it was created or the video opened. */
+    private boolean mAwaitingFrame;
+
+    /** Shows the poster of the current video if it is still needed once it is loaded. */
+    private final PosterLoader.Callback mPosterCallback =
+            new PosterLoader.Callback() {
+                @Override
+                public void onPosterLoaded(Uri uri, Bitmap poster) {
+                    if (mAwaitingFrame && uri.equals(getCurrentUri())) {
+                        mPoster.setImageBitmap(poster);
+                        mPoster.setVisibility(View.VISIBLE);
+                    }
+                }
+            };
+
+    /** How long the controls take to fade in or out. */
+    private final long mControlsFadeDuration;
+
+    /** Whether the controls are shown, or being shown. */
+    private boolean mControlsVisible;
+
+    /** Whether the scrub bar is being dragged. */
+    private boolean mScrubbing;
+
+    /** Takes the frames shown above the scrub bar while it is being dragged. */
+    private final ThumbnailGenerator mThumbnails;
+
+    private final Runnable mUpdateProgress =
+            new Runnable() {
+                @Override
+                public void run() {
+                    updateProgress();
+                    sMainHandler.postDelayed(this, INTERVAL_PROGRESS);
+                }
+            };
+
+    private final Runnable mOnControlsHidden =
+            new Runnable() {
+                @Override
+                public void run() {
+                    mControls.setVisibility(View.INVISIBLE);
+                }
+            };
+
+    /** The player and the videos; our own unless a shared one has been set. */
+    private PlaybackSession mSession;
+
+    /** Whether {@link #mSession} was created by and for this view only. */
+    private boolean mOwnsSession = true;
+
+    /** This plays the video; the controller of {@link #mSession}. */
+    PlaybackController mController;
+
+    /** Reflects the playback state of {@link #mSession} on this view. */
+    private final ControllerCallback mControllerCallback = new ControllerCallback();
 
     /** The resource ID for the video to play. */
     @RawRes private int mVideoResourceId;
@@ -91,14 +232,130 @@ public class MovieView extends RelativeLayout {
     /** Whether we adjust our view bounds or we fill the remaining area with black bars */
     private boolean mAdjustViewBounds;
 
-    /** Handles timeout for media controls. */
-    TimeoutHandler mTimeoutHandler;
+    /** Where the video goes when we fill the remaining area with black bars. */
+    private final Letterbox mLetterbox = new Letterbox();
+
+    /** Whether the last measure pass put the content in {@link #mLetterbox}. */
+    private boolean mLetterboxed;
+
+    /** Reused by {@link #getVideoRect(Rect)}. */
+    private final int[] mLocationInWindow = new int[2];
+
+    /** Lays out the video as soon as its size is known, even before it is prepared. */
+    private final VideoMetadataLoader.Callback mMetadataCallback =
+            new VideoMetadataLoader.Callback() {
+                @Override
+                public void onMetadataLoaded(Uri uri, VideoMetadata metadata) {
+                    final Playlist<Uri> playlist = mSession.getPlaylist();
+                    if (playlist != null
+                            && uri.equals(playlist.getCurrent())
+                            && !mController.isInPlaybackState()) {
+                        requestLayout();
+                    }
+                }
+            };
+
+    /** Opens the video or hands the new surface to the player. */
+    private final RenderTarget.Callback mRenderTargetCallback =
+            new RenderTarget.Callback() {
+                @Override
+                public void onSurfaceCreated(Surface surface) {
+                    if (!isCurrentView()) {
+                        // Another view shows the shared session now.
+                        return;
+                    }
+                    final PlaybackMetrics metrics = mController.getMetrics();
+                    if (metrics != null) {
+                        metrics.end(PlaybackMetrics.METRIC_SURFACE_RECREATE);
+                    }
+                    if (!mController.attachSurface(surface)) {
+                        openVideo(surface);
+                    } else if (!isPlaying()) {
+                        // Drawn again by a seek in place
+                        showPoster();
+                    }
+                }
+
+                @Override
+                public void onSurfaceDestroyed() {
+                    if (!isCurrentView()) {
+                        return;
+                    }
+                    final PlaybackMetrics metrics = mController.getMetrics();
+                    if (metrics != null) {
+                        metrics.begin(PlaybackMetrics.METRIC_SURFACE_RECREATE);
+                    }
+                    mController.detachSurface();
+                }
+
+                @Override
+                public void onVideoFrame() {
+                    if (mAwaitingFrame) {
+                        hidePoster();
+                    }
+                    mFrameMonitor.onVideoFrame();
+                }
+            };
+
+    /** Counts the frames, and the dropped ones, while it runs. */
+    private final FrameMonitor mFrameMonitor = new FrameMonitor();
+
+    /** Feeds every frame of the UI thread to {@link #mFrameMonitor} while it runs. */
+    private final Choreographer.FrameCallback mFrameCallback =
+            new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    mFrameMonitor.onFrame(frameTimeNanos);
+                    if (mFrameMonitor.isRunning()) {
+                        Choreographer.getInstance().postFrameCallback(this);
+                    }
+                }
+            };
+
+    /** Releases the player of a view that has not been attached again in time. */
+    private final Runnable mReleaseDetached =
+            new Runnable() {
+                @Override
+                public void run() {
+                    releasePlayer();
+                    mRenderTarget.release();
+                    leaveSharedSession();
+                }
+            };
+
+    /** Shows or hides the controls, and controls the playback. */
+    private final OnClickListener mOnClickListener;
+
+    /** Hides the controls once they have not been touched for a while. */
+    private final IdleTimeout mControlsTimeout =
+            new IdleTimeout(
+                    new IdleTimeout.Scheduler() {
+                        @Override
+                        public long uptimeMillis() {
+                            return SystemClock.uptimeMillis();
+                        }
+
+                        @Override
+                        public void postDelayed(Runnable task, long delayMs) {
+                            sMainHandler.postDelayed(task, delayMs);
+                        }
+
+                        @Override
+                        public void removeCallbacks(Runnable task) {
+                            sMainHandler.removeCallbacks(task);
+                        }
+                    },
+                    TIMEOUT_CONTROLS,
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            hideControls();
+                        }
+                    });
 
     /** The listener for all the events we publish. */
     MovieListener mMovieListener;
 
-    private int mSavedCurrentPosition;
-
     public MovieView(Context context) {
         this(context, null);
     }
@@ -113,27 +370,33 @@ public class MovieView extends RelativeLayout {
 
         // Inflate the content
         inflate(context, R.layout.view_movie, this);
-        mSurfaceView = findViewById(R.id.surface);
-        mShade = findViewById(R.id.shade);
+        mControls = findViewById(R.id.controls);
+        mControlsFadeDuration =
+                getResources().getInteger(android.R.integer.config_shortAnimTime);
         mToggle = findViewById(R.id.toggle);
         mFastForward = findViewById(R.id.fast_forward);
         mFastRewind = findViewById(R.id.fast_rewind);
         mMinimize = findViewById(R.id.minimize);
-
-        final TypedArray attributes =
-                context.obtainStyledAttributes(
-                        attrs,
-                        R.styleable.MovieView,
-                        defStyleAttr,
-                        R.style.Widget_PictureInPicture_MovieView);
-        setVideoResourceId(attributes.getResourceId(R.styleable.MovieView_android_src, 0));
-        setAdjustViewBounds(
-                attributes.getBoolean(R.styleable.MovieView_android_adjustViewBounds, false));
-        setTitle(attributes.getString(R.styleable.MovieView_android_title));
-        attributes.recycle();
+        mScrubBar = findViewById(R.id.scrub);
+        mPreview = findViewById(R.id.preview);
+        mPoster = findViewById(R.id.poster);
+        mThumbnails =
+                new ThumbnailGenerator(
+                        context,
+                        new ThumbnailGenerator.Listener() {
+                            @Override
+                            public void onThumbnailReady(int positionMs) {
+                                if (mScrubbing) {
+                                    showPreview(mScrubBar.getProgress());
+                                }
+                            }
+                        });
+        mSession = new PlaybackSession(context);
+        mSession.setCallback(mControllerCallback);
+        mController = mSession.getController();
 
         // Bind view events
-        final OnClickListener listener =
+        mOnClickListener =
                 new OnClickListener() {
                     @Override
                     public void onClick(View view) {
@@ -157,105 +420,343 @@ public class MovieView extends RelativeLayout {
                                 break;
                         }
                         // Start or reset the timeout to hide controls
-                        if (mMediaPlayer != null) {
-                            if (mTimeoutHandler == null) {
-                                mTimeoutHandler = new TimeoutHandler(MovieView.this);
-                            }
-                            mTimeoutHandler.removeMessages(TimeoutHandler.MESSAGE_HIDE_CONTROLS);
-                            if (mMediaPlayer.isPlaying()) {
-                                mTimeoutHandler.sendEmptyMessageDelayed(
-                                        TimeoutHandler.MESSAGE_HIDE_CONTROLS, TIMEOUT_CONTROLS);
+                        if (mController.isOpen()) {
+                            if (isPlaying()) {
+                                mControlsTimeout.restart();
+                            } else {
+                                mControlsTimeout.cancel();
                             }
                         }
                     }
                 };
-        mSurfaceView.setOnClickListener(listener);
-        mToggle.setOnClickListener(listener);
-        mFastForward.setOnClickListener(listener);
-        mFastRewind.setOnClickListener(listener);
-        mMinimize.setOnClickListener(listener);
-
-        // Prepare video playback
-        mSurfaceView
-                .getHolder()
-                .addCallback(
-                        new SurfaceHolder.Callback() {
-                            @Override
-                            public void surfaceCreated(SurfaceHolder holder) {
-                                openVideo(holder.getSurface());
-                            }
 
-                            @Override
-                            public void surfaceChanged(
-                                    SurfaceHolder holder, int format, int width, int height) {
-                                // Do nothing
-                            }
+        final TypedArray attributes =
+                context.obtainStyledAttributes(
+                        attrs,
+                        R.styleable.MovieView,
+                        defStyleAttr,
+                        R.style.Widget_PictureInPicture_MovieView);
+        setRenderer(attributes.getInt(R.styleable.MovieView_renderer, RENDERER_SURFACE_VIEW));
+        setVideoResourceId(attributes.getResourceId(R.styleable.MovieView_android_src, 0));
+        setAdjustViewBounds(
+                attributes.getBoolean(R.styleable.MovieView_android_adjustViewBounds, false));
+        setTitle(attributes.getString(R.styleable.MovieView_android_title));
+        attributes.recycle();
 
-                            @Override
-                            public void surfaceDestroyed(SurfaceHolder holder) {
-                                if (mMediaPlayer != null) {
-                                    mSavedCurrentPosition = mMediaPlayer.getCurrentPosition();
-                                }
-                                closeVideo();
-                            }
-                        });
+        mToggle.setOnClickListener(mOnClickListener);
+        mFastForward.setOnClickListener(mOnClickListener);
+        mFastRewind.setOnClickListener(mOnClickListener);
+        mMinimize.setOnClickListener(mOnClickListener);
+        mScrubBar.setOnSeekBarChangeListener(
+                new SeekBar.OnSeekBarChangeListener() {
+                    @Override
+                    public void onStartTrackingTouch(SeekBar seekBar) {
+                        mScrubbing = true;
+                        mControlsTimeout.cancel();
+                        showPreview(seekBar.getProgress());
+                    }
+
+                    @Override
+                    public void onProgressChanged(
+                            SeekBar seekBar, int progress, boolean fromUser) {
+                        if (fromUser) {
+                            // Sync frames only; the seeks of a drag collapse into the last one.
+                            mController.seekTo(progress, PlayerEngine.SEEK_CLOSEST_SYNC);
+                            showPreview(progress);
+                        }
+                    }
+
+                    @Override
+                    public void onStopTrackingTouch(SeekBar seekBar) {
+                        mScrubbing = false;
+                        mPreview.setVisibility(View.INVISIBLE);
+                        if (isPlaying()) {
+                            mControlsTimeout.restart();
+                        }
+                    }
+                });
     }
 
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
-        if (mMediaPlayer != null) {
-            final int videoWidth = mMediaPlayer.getVideoWidth();
-            final int videoHeight = mMediaPlayer.getVideoHeight();
-            if (videoWidth != 0 && videoHeight != 0) {
-                final float aspectRatio = (float) videoHeight / videoWidth;
-                final int width = MeasureSpec.getSize(widthMeasureSpec);
-                final int widthMode = MeasureSpec.getMode(widthMeasureSpec);
-                final int height = MeasureSpec.getSize(heightMeasureSpec);
-                final int heightMode = MeasureSpec.getMode(heightMeasureSpec);
-                if (mAdjustViewBounds) {
-                    if (widthMode == MeasureSpec.EXACTLY && heightMode != MeasureSpec.EXACTLY) {
-                        super.onMeasure(
-                                widthMeasureSpec,
-                                MeasureSpec.makeMeasureSpec(
-                                        (int) (width * aspectRatio), MeasureSpec.EXACTLY));
-                    } else if (widthMode != MeasureSpec.EXACTLY
-                            && heightMode == MeasureSpec.EXACTLY) {
-                        super.onMeasure(
-                                MeasureSpec.makeMeasureSpec(
-                                        (int) (height / aspectRatio), MeasureSpec.EXACTLY),
-                                heightMeasureSpec);
-                    } else {
-                        super.onMeasure(
-                                widthMeasureSpec,
-                                MeasureSpec.makeMeasureSpec(
-                                        (int) (width * aspectRatio), MeasureSpec.EXACTLY));
-                    }
+        // This is cached by the controller; before the video is prepared, it comes from the
+        // cached metadata if there is one.
+        final int videoWidth = mController.getVideoWidth();
+        final int videoHeight = mController.getVideoHeight();
+        mLetterboxed = false;
+        if (videoWidth != 0 && videoHeight != 0) {
+            final float aspectRatio = (float) videoHeight / videoWidth;
+            final int width = MeasureSpec.getSize(widthMeasureSpec);
+            final int widthMode = MeasureSpec.getMode(widthMeasureSpec);
+            final int height = MeasureSpec.getSize(heightMeasureSpec);
+            final int heightMode = MeasureSpec.getMode(heightMeasureSpec);
+            if (mAdjustViewBounds) {
+                if (widthMode == MeasureSpec.EXACTLY && heightMode != MeasureSpec.EXACTLY) {
+                    super.onMeasure(
+                            widthMeasureSpec,
+                            MeasureSpec.makeMeasureSpec(
+                                    (int) (width * aspectRatio), MeasureSpec.EXACTLY));
+                } else if (widthMode != MeasureSpec.EXACTLY
+                        && heightMode == MeasureSpec.EXACTLY) {
+                    super.onMeasure(
+                            MeasureSpec.makeMeasureSpec(
+                                    (int) (height / aspectRatio), MeasureSpec.EXACTLY),
+                            heightMeasureSpec);
                 } else {
-                    final float viewRatio = (float) height / width;
-                    if (aspectRatio > viewRatio) {
-                        int padding = (int) ((width - height / aspectRatio) / 2);
-                        setPadding(padding, 0, padding, 0);
-                    } else {
-                        int padding = (int) ((height - width * aspectRatio) / 2);
-                        setPadding(0, padding, 0, padding);
-                    }
-                    super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+                    super.onMeasure(
+                            widthMeasureSpec,
+                            MeasureSpec.makeMeasureSpec(
+                                    (int) (width * aspectRatio), MeasureSpec.EXACTLY));
                 }
-                return;
+            } else {
+                // Measure the content in the letterbox, and keep the whole area for ourselves;
+                // the bars are our background. Changing the padding here would request another
+                // layout pass.
+                mLetterbox.update(width, height, videoWidth, videoHeight);
+                super.onMeasure(
+                        MeasureSpec.makeMeasureSpec(mLetterbox.getWidth(), MeasureSpec.EXACTLY),
+                        MeasureSpec.makeMeasureSpec(mLetterbox.getHeight(), MeasureSpec.EXACTLY));
+                setMeasuredDimension(width, height);
+                mLetterboxed = true;
             }
+            return;
         }
         super.onMeasure(widthMeasureSpec, heightMeasureSpec);
     }
 
+    @Override
+    protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
+        super.onLayout(changed, left, top, right, bottom);
+        if (mLetterboxed) {
+            // The content was laid out at the origin; move it into the letterbox.
+            final int offsetX = mLetterbox.getLeft();
+            final int offsetY = mLetterbox.getTop();
+            for (int i = 0, count = getChildCount(); i < count; i++) {
+                final View child = getChildAt(i);
+                child.offsetLeftAndRight(offsetX);
+                child.offsetTopAndBottom(offsetY);
+            }
+        }
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        sMainHandler.removeCallbacks(mReleaseDetached);
+        // The most recently attached view shows a shared session.
+        mSession.setCallback(mControllerCallback);
+        mRenderTarget.onAttachedToWindow();
+    }
+
     @Override
     protected void onDetachedFromWindow() {
-        if (mTimeoutHandler != null) {
-            mTimeoutHandler.removeMessages(TimeoutHandler.MESSAGE_HIDE_CONTROLS);
-            mTimeoutHandler = null;
+        mControlsTimeout.stop();
+        sMainHandler.removeCallbacks(mUpdateProgress);
+        mThumbnails.stop();
+        stopFrameMonitor();
+        if (mRenderTarget.isRetainedAcrossDetach()) {
+            // Keep the player and the texture for a moment, in case we are attached again.
+            sMainHandler.postDelayed(mReleaseDetached, TIMEOUT_DETACHED_RELEASE);
+        } else {
+            // The player may have outlived the surface; this is where it finally goes away.
+            releasePlayer();
+            leaveSharedSession();
         }
         super.onDetachedFromWindow();
     }
 
+    /**
+     * Plays the videos of a session that outlives this view, e.g. one owned by a service. A video
+     * that the session is already playing goes on without being prepared again; this view only
+     * attaches its surface to it.
+     *
+     * <p>The videos set on this view so far are handed to the session. If the session is playing
+     * one of them, it goes on from there.
+     *
+     * @param session The session. It is not released by this view.
+     */
+    public void setPlaybackSession(PlaybackSession session) {
+        if (session == mSession) {
+            return;
+        }
+        final Playlist<Uri> playlist = mSession.getPlaylist();
+        releasePlayer();
+        leaveSharedSession();
+        mSession = session;
+        mOwnsSession = false;
+        mController = session.getController();
+        if (isAttachedToWindow()) {
+            session.setCallback(mControllerCallback);
+        }
+        if (playlist != null && !session.switchPlaylist(playlist)) {
+            // The session was playing something else.
+            closeVideo();
+        }
+        final Surface surface = mRenderTarget.getSurface();
+        if (isCurrentView() && surface != null && surface.isValid()) {
+            if (!mController.attachSurface(surface)) {
+                openVideo(surface);
+            }
+        }
+        adjustToggleState();
+        requestLayout();
+    }
+
+    /** Whether this view receives the results of the playback operations of its session. */
+    private boolean isCurrentView() {
+        return mSession.getCallback() == mControllerCallback;
+    }
+
+    /**
+     * Lets go of the player. Our own session is closed, remembering the position. A shared session
+     * only stops rendering to our surface, and keeps playing for the next view.
+     */
+    private void releasePlayer() {
+        if (mOwnsSession) {
+            mController.savePosition();
+            closeVideo();
+        } else if (isCurrentView()) {
+            mController.detachSurface();
+        }
+    }
+
+    /** Stops receiving the results of a shared session, once this view no longer shows it. */
+    private void leaveSharedSession() {
+        if (!mOwnsSession && isCurrentView()) {
+            mSession.setCallback(null);
+        }
+    }
+
+    /**
+     * Sets where the video is rendered. Changing it while a video is open reopens the video at the
+     * same position.
+     *
+     * @param renderer Either {@link #RENDERER_SURFACE_VIEW} or {@link #RENDERER_TEXTURE_VIEW}.
+     */
+    public void setRenderer(@Renderer int renderer) {
+        if (mRenderTarget != null && renderer == mRenderer) {
+            return;
+        }
+        mRenderer = renderer;
+        final View current;
+        if (mRenderTarget == null) {
+            // The SurfaceView from the layout
+            current = findViewById(R.id.surface);
+        } else {
+            current = mRenderTarget.getView();
+            releasePlayer();
+            mRenderTarget.release();
+        }
+        final View view;
+        if (renderer == RENDERER_TEXTURE_VIEW) {
+            final TextureView textureView = new TextureView(getContext());
+            mRenderTarget = new TextureViewRenderTarget(textureView, mRenderTargetCallback);
+            view = textureView;
+        } else {
+            final SurfaceView surfaceView =
+                    mRenderTarget == null ? (SurfaceView) current : new SurfaceView(getContext());
+            mRenderTarget = new SurfaceViewRenderTarget(surfaceView, mRenderTargetCallback);
+            view = surfaceView;
+        }
+        if (view != current) {
+            view.setId(R.id.surface);
+            final int index = indexOfChild(current);
+            final ViewGroup.LayoutParams params = current.getLayoutParams();
+            removeViewAt(index);
+            addView(view, index, params);
+        }
+        view.setOnClickListener(mOnClickListener);
+    }
+
+    /** Returns where the video is rendered. */
+    @Renderer
+    public int getRenderer() {
+        return mRenderer;
+    }
+
+    /**
+     * Sets the factory of the {@link PlayerEngine} used to play videos. By default, videos are
+     * played with {@link MediaPlayerEngine}; {@link MediaCodecEngine#FACTORY} decodes them with
+     * {@link android.media.MediaCodec} directly instead. This takes effect the next time a video
+     * is opened.
+     *
+     * <p>Like the other playback settings, this belongs to the {@link PlaybackSession} of this view
+     * and applies to every view showing it.
+     *
+     * @param factory The factory to be set.
+     */
+    public void setPlayerEngineFactory(PlayerEngine.Factory factory) {
+        mSession.setPlayerEngineFactory(factory);
+    }
+
+    /**
+     * Sets whether the player is kept prepared while the surface is gone, for example during
+     * Picture-in-Picture transitions. This is enabled by default. When disabled, the player is
+     * released with the surface and the video is prepared again from the saved position.
+     *
+     * <p>Like the other playback settings, this belongs to the {@link PlaybackSession} of this view
+     * and applies to every view showing it.
+     *
+     * @param retainPlayer Whether to keep the player.
+     */
+    public void setRetainPlayer(boolean retainPlayer) {
+        mController.setRetainEngine(retainPlayer);
+    }
+
+    /**
+     * Sets where the latencies of the playback transitions are recorded. Metrics are disabled by
+     * default unless the {@code PlaybackMetrics} log tag is enabled at DEBUG level.
+     *
+     * @param metrics The metrics, or {@code null} to disable them.
+     */
+    public void setPlaybackMetrics(@Nullable PlaybackMetrics metrics) {
+        mController.setMetrics(metrics);
+    }
+
+    /**
+     * Returns the metrics of the playback transitions.
+     *
+     * @return The metrics, or {@code null} if they are disabled.
+     */
+    @Nullable
+    public PlaybackMetrics getPlaybackMetrics() {
+        return mController.getMetrics();
+    }
+
+    /**
+     * Starts counting the frames of this view, and the ones that are dropped, e.g. while in
+     * Picture-in-Picture mode. This keeps the UI thread awake on every display refresh, so it is
+     * meant for short sessions. Does nothing if the monitor is already running.
+     */
+    public void startFrameMonitor() {
+        if (mFrameMonitor.isRunning()) {
+            return;
+        }
+        final Display display = getDisplay();
+        mFrameMonitor.start(
+                System.nanoTime(),
+                display != null ? display.getRefreshRate() : 0,
+                mRenderTarget.reportsVideoFrames(),
+                mController.getDroppedVideoFrameCount());
+        Choreographer.getInstance().postFrameCallback(mFrameCallback);
+    }
+
+    /**
+     * Stops the frame monitor, and reports the stats of its session to {@link
+     * MovieListener#onFrameStats(FrameStats)}. Does nothing if the monitor is not running.
+     */
+    public void stopFrameMonitor() {
+        final FrameStats stats =
+                mFrameMonitor.stop(System.nanoTime(), mController.getDroppedVideoFrameCount());
+        if (stats == null) {
+            return;
+        }
+        Choreographer.getInstance().removeFrameCallback(mFrameCallback);
+        if (mMovieListener != null) {
+            mMovieListener.onFrameStats(stats);
+        }
+    }
+
     /**
      * Sets the listener to monitor movie events.
      *
@@ -302,7 +803,127 @@ public class MovieView extends RelativeLayout {
             return;
         }
         mVideoResourceId = id;
-        Surface surface = mSurfaceView.getHolder().getSurface();
+        applyPlaylist(
+                id == 0
+                        ? null
+                        : new Playlist<>(
+                                Collections.singletonList(getRawResourceUri(getContext(), id))));
+    }
+
+    /**
+     * Sets the video to play. Remote videos are streamed through a disk cache, so that playing one
+     * again reads it from there.
+     *
+     * @param uri The URI of the video: a {@code file://}, {@code content://}, {@code http://} or
+     *     {@code https://} URI, or one returned by {@link #getRawResourceUri(Context, int)}.
+     */
+    public void setVideoUri(@Nullable Uri uri) {
+        mVideoResourceId = 0;
+        applyPlaylist(uri == null ? null : new Playlist<>(Collections.singletonList(uri)));
+    }
+
+    /**
+     * Sets the video to play, in several renditions, e.g. of decreasing resolutions or in other
+     * formats. The first one that the device can decode with a hardware decoder is played, or else
+     * the first one it can decode at all. Only local renditions are told apart: nothing is known
+     * of {@code http://} and {@code https://} ones until they are streamed, so they pass for
+     * decodable.
+     *
+     * @param renditions The URIs of the renditions, the best first, any that {@link
+     *     #setVideoUri(Uri)} accepts. No video is set if this is null or empty.
+     */
+    public void setVideoRenditions(@Nullable List<Uri> renditions) {
+        if (renditions == null || renditions.isEmpty()) {
+            setVideoUri(null);
+            return;
+        }
+        mVideoResourceId = 0;
+        mSession.setRenditions(renditions);
+        // What each of them needs to be decoded
+        VideoMetadataLoader.load(getContext(), renditions, mMetadataCallback);
+        applyPlaylist(new Playlist<>(Collections.singletonList(renditions.get(0))));
+    }
+
+    /**
+     * Sets the videos to play in order. Playback starts with the first one.
+     *
+     * @param videos The URIs of the videos, any that {@link #setVideoUri(Uri)} accepts.
+     */
+    public void setPlaylist(@Nullable List<Uri> videos) {
+        mVideoResourceId = 0;
+        applyPlaylist(videos == null || videos.isEmpty() ? null : new Playlist<>(videos));
+    }
+
+    /**
+     * Returns the index of the current video in the playlist.
+     *
+     * @return The index, or -1 if no video is set.
+     */
+    public int getPlaylistIndex() {
+        final Playlist<Uri> playlist = mSession.getPlaylist();
+        return playlist == null ? -1 : playlist.getCurrentIndex();
+    }
+
+    /** Whether there is a video after the current one in the playlist. */
+    public boolean hasNext() {
+        final Playlist<Uri> playlist = mSession.getPlaylist();
+        return playlist != null && playlist.hasNext();
+    }
+
+    /** Whether there is a video before the current one in the playlist. */
+    public boolean hasPrevious() {
+        final Playlist<Uri> playlist = mSession.getPlaylist();
+        return playlist != null && playlist.hasPrevious();
+    }
+
+    /** Starts playing the next video in the playlist. */
+    public void skipToNext() {
+        mController.skipToNext();
+    }
+
+    /** Starts playing the previous video in the playlist. */
+    public void skipToPrevious() {
+        mController.skipToPrevious();
+    }
+
+    /**
+     * Sets how many of the upcoming videos in the playlist are prepared in advance, so that
+     * skipping to them does not wait for a prepare. Each of them holds a decoder. The default is 1;
+     * 0 disables it.
+     *
+     * @param depth The number of videos to prepare in advance.
+     */
+    public void setLookAhead(int depth) {
+        mController.setLookAheadDepth(depth);
+    }
+
+    /**
+     * Returns the URI of a raw resource, to be used in {@link #setPlaylist(List)}.
+     *
+     * @param context The context of the application containing the resource.
+     * @param id The raw resource ID.
+     * @return The URI.
+     */
+    public static Uri getRawResourceUri(Context context, @RawRes int id) {
+        return new Uri.Builder()
+                .scheme(ContentResolver.SCHEME_ANDROID_RESOURCE)
+                .authority(context.getPackageName())
+                .appendPath(Integer.toString(id))
+                .build();
+    }
+
+    private void applyPlaylist(@Nullable Playlist<Uri> playlist) {
+        mSession.setPlaylist(playlist);
+        if (playlist != null) {
+            final List<Uri> videos = new ArrayList<>(playlist.size());
+            for (int i = 0; i < playlist.size(); i++) {
+                videos.add(playlist.get(i));
+            }
+            VideoMetadataLoader.load(getContext(), videos, mMetadataCallback);
+            // So that it is in memory by the time the surface is created
+            PosterLoader.load(getContext(), playlist.getCurrent(), mPosterCallback);
+        }
+        Surface surface = mRenderTarget.getSurface();
         if (surface != null && surface.isValid()) {
             closeVideo();
             openVideo(surface);
@@ -324,38 +945,124 @@ public class MovieView extends RelativeLayout {
 
     /** Shows all the controls. */
     public void showControls() {
-        TransitionManager.beginDelayedTransition(this);
-        mShade.setVisibility(View.VISIBLE);
-        mToggle.setVisibility(View.VISIBLE);
-        mFastForward.setVisibility(View.VISIBLE);
-        mFastRewind.setVisibility(View.VISIBLE);
-        mMinimize.setVisibility(View.VISIBLE);
+        mControlsVisible = true;
+        mControls.setVisibility(View.VISIBLE);
+        // Starting a new animation of the alpha cancels a fade out in progress, and its end
+        // action.
+        mControls.animate().alpha(1f).setDuration(mControlsFadeDuration).withLayer();
+        sMainHandler.removeCallbacks(mUpdateProgress);
+        mUpdateProgress.run();
+        startThumbnails();
     }
 
     /** Hides all the controls. */
     public void hideControls() {
-        TransitionManager.beginDelayedTransition(this);
-        mShade.setVisibility(View.INVISIBLE);
-        mToggle.setVisibility(View.INVISIBLE);
-        mFastForward.setVisibility(View.INVISIBLE);
-        mFastRewind.setVisibility(View.INVISIBLE);
-        mMinimize.setVisibility(View.INVISIBLE);
+        hideControls(true);
     }
 
-    /** Fast-forward the video. */
-    public void fastForward() {
-        if (mMediaPlayer == null) {
-            return;
+    /**
+     * Hides all the controls.
+     *
+     * @param animate Whether to fade them out. Pass {@code false} when the view is about to be
+     *     resized, e.g. when entering Picture-in-Picture mode, so nothing is animated in the
+     *     meantime.
+     */
+    public void hideControls(boolean animate) {
+        mControlsVisible = false;
+        sMainHandler.removeCallbacks(mUpdateProgress);
+        if (animate) {
+            mControls
+                    .animate()
+                    .alpha(0f)
+                    .setDuration(mControlsFadeDuration)
+                    .withLayer()
+                    .withEndAction(mOnControlsHidden);
+        } else {
+            mControls.animate().cancel();
+            mControls.setAlpha(0f);
+            mControls.setVisibility(View.INVISIBLE);
         }
-        mMediaPlayer.seekTo(mMediaPlayer.getCurrentPosition() + FAST_FORWARD_REWIND_INTERVAL);
     }
 
-    /** Fast-rewind the video. */
+    /**
+     * Returns the preparation state of the video.
+     *
+     * @return One of {@link #STATE_IDLE}, {@link #STATE_PREPARING}, {@link #STATE_PREPARED} or
+     *     {@link #STATE_ERROR}.
+     */
+    @State
+    public int getState() {
+        return mController.getState();
+    }
+
+    /** Fast-forward the video. This snaps to a sync frame, so repeated taps stay responsive. */
+    public void fastForward() {
+        mController.seekBy(FAST_FORWARD_REWIND_INTERVAL, PlayerEngine.SEEK_CLOSEST_SYNC);
+    }
+
+    /** Fast-rewind the video. This snaps to a sync frame, so repeated taps stay responsive. */
     public void fastRewind() {
-        if (mMediaPlayer == null) {
-            return;
+        mController.seekBy(-FAST_FORWARD_REWIND_INTERVAL, PlayerEngine.SEEK_CLOSEST_SYNC);
+    }
+
+    /**
+     * Seeks to the exact specified position. The position is clamped to the duration of the
+     * video.
+     *
+     * @param position The position in milliseconds.
+     */
+    public void seekTo(int position) {
+        mController.seekTo(position, PlayerEngine.SEEK_CLOSEST);
+    }
+
+    /**
+     * Returns the duration of the video. Before the video is prepared, this comes from its cached
+     * metadata.
+     *
+     * @return The duration in milliseconds, or 0 if it is not known yet.
+     */
+    public int getDuration() {
+        return mController.getDuration();
+    }
+
+    /**
+     * Returns the width of the video, as soon as it is known from the player or from the cached
+     * metadata.
+     *
+     * @return The width in pixels, or 0 if it is not known yet.
+     */
+    public int getVideoWidth() {
+        return mController.getVideoWidth();
+    }
+
+    /**
+     * Returns the height of the video, as soon as it is known from the player or from the cached
+     * metadata.
+     *
+     * @return The height in pixels, or 0 if it is not known yet.
+     */
+    public int getVideoHeight() {
+        return mController.getVideoHeight();
+    }
+
+    /**
+     * Returns where the video is drawn, without the black bars around it.
+     *
+     * @param outRect Receives the bounds of the video, in window coordinates.
+     */
+    public void getVideoRect(Rect outRect) {
+        getLocationInWindow(mLocationInWindow);
+        final int left = mLocationInWindow[0];
+        final int top = mLocationInWindow[1];
+        if (mLetterboxed) {
+            outRect.set(
+                    left + mLetterbox.getLeft(),
+                    top + mLetterbox.getTop(),
+                    left + mLetterbox.getLeft() + mLetterbox.getWidth(),
+                    top + mLetterbox.getTop() + mLetterbox.getHeight());
+        } else {
+            outRect.set(left, top, left + getWidth(), top + getHeight());
         }
-        mMediaPlayer.seekTo(mMediaPlayer.getCurrentPosition() - FAST_FORWARD_REWIND_INTERVAL);
     }
 
     /**
@@ -365,115 +1072,181 @@ public class MovieView extends RelativeLayout {
      * @return The current position of the video.
      */
     public int getCurrentPosition() {
-        if (mMediaPlayer == null) {
-            return 0;
-        }
-        return mMediaPlayer.getCurrentPosition();
+        return mController.getCurrentPosition();
     }
 
     public boolean isPlaying() {
-        return mMediaPlayer != null && mMediaPlayer.isPlaying();
+        return mController.isPlaying();
     }
 
     public void play() {
-        if (mMediaPlayer == null) {
-            return;
-        }
-        mMediaPlayer.start();
-        adjustToggleState();
-        setKeepScreenOn(true);
-        if (mMovieListener != null) {
-            mMovieListener.onMovieStarted();
-        }
+        mController.play();
     }
 
     public void pause() {
-        if (mMediaPlayer == null) {
+        if (!mController.pause()) {
             adjustToggleState();
-            return;
-        }
-        mMediaPlayer.pause();
-        adjustToggleState();
-        setKeepScreenOn(false);
-        if (mMovieListener != null) {
-            mMovieListener.onMovieStopped();
         }
     }
 
     void openVideo(Surface surface) {
-        if (mVideoResourceId == 0) {
+        if (mSession.getPlaylist() == null) {
             return;
         }
-        mMediaPlayer = new MediaPlayer();
-        mMediaPlayer.setSurface(surface);
+        mController.open(surface);
         startVideo();
+        showPoster();
     }
 
-    /** Restarts playback of the video. */
+    /**
+     * Restarts playback of the video.
+     *
+     * <p>This does not block the UI thread; the video is prepared asynchronously and starts
+     * automatically once it is ready. Use {@link #getState()} to find out where it is.
+     */
     public void startVideo() {
-        mMediaPlayer.reset();
-        try (AssetFileDescriptor fd = getResources().openRawResourceFd(mVideoResourceId)) {
-            mMediaPlayer.setDataSource(fd);
-            mMediaPlayer.setOnPreparedListener(
-                    new MediaPlayer.OnPreparedListener() {
-                        @Override
-                        public void onPrepared(MediaPlayer mediaPlayer) {
-                            // Adjust the aspect ratio of this view
-                            requestLayout();
-                            if (mSavedCurrentPosition > 0) {
-                                mediaPlayer.seekTo(mSavedCurrentPosition);
-                                mSavedCurrentPosition = 0;
-                            } else {
-                                // Start automatically
-                                play();
-                            }
-                        }
-                    });
-            mMediaPlayer.setOnCompletionListener(
-                    new MediaPlayer.OnCompletionListener() {
-                        @Override
-                        public void onCompletion(MediaPlayer mediaPlayer) {
-                            adjustToggleState();
-                            setKeepScreenOn(false);
-                            if (mMovieListener != null) {
-                                mMovieListener.onMovieStopped();
-                            }
-                        }
-                    });
-            mMediaPlayer.prepare();
-        } catch (IOException e) {
-            Log.e(TAG, "Failed to open video", e);
-        }
+        mController.startVideo();
     }
 
     void closeVideo() {
-        if (mMediaPlayer != null) {
-            mMediaPlayer.release();
-            mMediaPlayer = null;
-        }
+        mController.close();
     }
 
     void toggle() {
-        if (mMediaPlayer == null) {
-            return;
-        }
-        if (mMediaPlayer.isPlaying()) {
-            pause();
-        } else {
-            play();
-        }
+        mController.toggle();
     }
 
     void toggleControls() {
-        if (mShade.getVisibility() == View.VISIBLE) {
+        if (mControlsVisible) {
             hideControls();
         } else {
             showControls();
         }
     }
 
+    /** Moves the scrub bar to the current position, unless it is being dragged. */
+    void updateProgress() {
+        if (mScrubbing) {
+            return;
+        }
+        mScrubBar.setMax(mController.getDuration());
+        mScrubBar.setProgress(mController.getCurrentPosition());
+    }
+
+    /**
+     * Starts taking the thumbnails of the current video, if it is not done already. This waits
+     * until the scrub bar is first shown, as most videos are never scrubbed.
+     */
+    private void startThumbnails() {
+        final Uri uri = getCurrentUri();
+        if (uri == null || HttpVideoStream.supports(uri.getScheme())) {
+            // Remote videos would be downloaded for the thumbnails alone.
+            return;
+        }
+        VideoMetadata metadata = VideoMetadataLoader.get(uri);
+        if (metadata == null) {
+            final int duration = mController.getDuration();
+            if (duration <= 0) {
+                // Tried again when the controls are shown next.
+                return;
+            }
+            metadata =
+                    new VideoMetadata(duration, getVideoWidth(), getVideoHeight(), new int[0]);
+        }
+        mThumbnails.start(uri, metadata);
+    }
+
+    @Nullable
+    private Uri getCurrentUri() {
+        final Playlist<Uri> playlist = mSession.getPlaylist();
+        return playlist == null ? null : playlist.getCurrent();
+    }
+
+    /** Covers the surface with the poster of the current video until a frame is drawn on it. */
+    private void showPoster() {
+        final Uri uri = getCurrentUri();
+        if (uri == null) {
+            return;
+        }
+        mAwaitingFrame = true;
+        final Bitmap poster = PosterLoader.get(uri);
+        if (poster != null) {
+            mPoster.setImageBitmap(poster);
+            mPoster.setVisibility(View.VISIBLE);
+        } else {
+            mPoster.setVisibility(View.GONE);
+            PosterLoader.load(getContext(), uri, mPosterCallback);
+        }
+    }
+
+    private void hidePoster() {
+        mAwaitingFrame = false;
+        mPoster.setVisibility(View.GONE);
+        mPoster.setImageDrawable(null);
+    }
+
+    /** Keeps the frame on the surface as the poster of the current video. */
+    private void capturePoster() {
+        final Uri uri = getCurrentUri();
+        final Surface surface = mRenderTarget.getSurface();
+        if (uri == null || surface == null || mAwaitingFrame) {
+            return;
+        }
+        final int duration = mController.getDuration();
+        if (duration > 0
+                && getCurrentPosition() >= duration - PlaybackController.RESUME_END_MARGIN_MS) {
+            // It starts over from the first frame next time.
+            PosterLoader.remove(getContext(), uri);
+            return;
+        }
+        int width = getVideoWidth();
+        int height = getVideoHeight();
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        if (width > MAX_POSTER_WIDTH) {
+            height = height * MAX_POSTER_WIDTH / width;
+            width = MAX_POSTER_WIDTH;
+        }
+        final Bitmap poster = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
+        final Context context = getContext();
+        PixelCopy.request(
+                surface,
+                poster,
+                new PixelCopy.OnPixelCopyFinishedListener() {
+                    @Override
+                    public void onPixelCopyFinished(int result) {
+                        if (result == PixelCopy.SUCCESS) {
+                            PosterLoader.store(context, uri, poster);
+                        }
+                    }
+                },
+                sMainHandler);
+    }
+
+    /** Shows the thumbnail closest to a position over the thumb of the scrub bar. */
+    private void showPreview(int positionMs) {
+        final Bitmap thumbnail = mThumbnails.getClosest(positionMs);
+        if (thumbnail == null) {
+            mPreview.setVisibility(View.INVISIBLE);
+            return;
+        }
+        mPreview.setImageBitmap(thumbnail);
+        mPreview.setVisibility(View.VISIBLE);
+        final int max = mScrubBar.getMax();
+        final int track =
+                mScrubBar.getWidth() - mScrubBar.getPaddingLeft() - mScrubBar.getPaddingRight();
+        final float thumbX =
+                mScrubBar.getLeft()
+                        + mScrubBar.getPaddingLeft()
+                        + (max > 0 ? track * (float) positionMs / max : 0);
+        final float x = thumbX - mPreview.getWidth() / 2f;
+        mPreview.setTranslationX(
+                Math.max(0, Math.min(x, mControls.getWidth() - mPreview.getWidth())));
+    }
+
     void adjustToggleState() {
-        if (mMediaPlayer != null && mMediaPlayer.isPlaying()) {
+        if (isPlaying()) {
             mToggle.setContentDescription(getResources().getString(R.string.pause));
             mToggle.setImageResource(R.drawable.ic_pause_64dp);
         } else {
@@ -482,28 +1255,77 @@ public class MovieView extends RelativeLayout {
         }
     }
 
-    private static class TimeoutHandler extends Handler {
+    /** Reflects the playback state on the controls and on the listener. */
+    private class ControllerCallback implements PlaybackController.Callback {
+
+        @Override
+        public void onPrepared() {
+            adjustToggleState();
+            updateProgress();
+        }
+
+        @Override
+        public void onVideoSizeChanged(int width, int height) {
+            // Adjust the aspect ratio of this view
+            requestLayout();
+            if (mMovieListener != null) {
+                mMovieListener.onVideoSizeChanged(width, height);
+            }
+        }
+
+        @Override
+        public void onStarted() {
+            adjustToggleState();
+            setKeepScreenOn(true);
+            if (mMovieListener != null) {
+                mMovieListener.onMovieStarted();
+            }
+        }
 
-        static final int MESSAGE_HIDE_CONTROLS = 1;
+        @Override
+        public void onStopped() {
+            adjustToggleState();
+            capturePoster();
+            setKeepScreenOn(false);
+            if (mMovieListener != null) {
+                mMovieListener.onMovieStopped();
+            }
+        }
 
-        private final WeakReference<MovieView> mMovieViewRef;
+        @Override
+        public void onError(int what, int extra) {
+            Log.e(TAG, "Failed to play video: what=" + what + ", extra=" + extra);
+            hidePoster();
+            adjustToggleState();
+            setKeepScreenOn(false);
+        }
 
-        TimeoutHandler(MovieView view) {
-            mMovieViewRef = new WeakReference<>(view);
+        @Override
+        public void onPlaylistIndexChanged(int index) {
+            mThumbnails.stop();
+            if (mControlsVisible) {
+                startThumbnails();
+            }
+            if (mMovieListener != null) {
+                mMovieListener.onPlaylistIndexChanged(index);
+            }
         }
 
         @Override
-        public void handleMessage(Message msg) {
-            switch (msg.what) {
-                case MESSAGE_HIDE_CONTROLS:
-                    MovieView movieView = mMovieViewRef.get();
-                    if (movieView != null) {
-                        movieView.hideControls();
-                    }
-                    break;
-                default:
-                    super.handleMessage(msg);
+        public void onSeekComplete(int positionMs) {
+            updateProgress();
+            if (mAwaitingFrame && !isPlaying()) {
+                // The frame at the new position is drawn.
+                hidePoster();
+            }
+            if (mMovieListener != null) {
+                mMovieListener.onSeekComplete(positionMs);
             }
         }
+
+        @Override
+        public void onFirstFrame() {
+            hidePoster();
+        }
     }
 }
@@ -0,0 +1,883 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import android.content.res.AssetFileDescriptor;
+import android.view.Surface;
+
+import java.io.IOException;
+
+/**
+ * Drives a {@link PlayerEngine} on behalf of {@link MovieView}.
+ *
+ * <p>This holds all the playback logic of {@link MovieView} that does not depend on views, so it
+ * can be exercised on a plain JVM with a fake engine.
+ */
+final class PlaybackController {
+
+    /** Receives the results of the playback operations. */
+    interface Callback {
+
+        /** Called when the video is prepared and its size is known. */
+        void onPrepared();
+
+        /** Called when the video is started or resumed. */
+        void onStarted();
+
+        /** Called when the video is paused or finished. */
+        void onStopped();
+
+        /** Called when the video failed to open or to play. */
+        void onError(int what, int extra);
+
+        /**
+         * Called when the size returned by {@link #getVideoWidth()} and {@link #getVideoHeight()}
+         * has changed, and only then.
+         */
+        void onVideoSizeChanged(int width, int height);
+
+        /** Called when another item of the playlist becomes the current one. */
+        void onPlaylistIndexChanged(int index);
+
+        /**
+         * Called when all the requested seeks have completed.
+         *
+         * @param positionMs The position the video ended up at.
+         */
+        void onSeekComplete(int positionMs);
+
+        /** Called when the first frame of the video has been rendered after starting it. */
+        void onFirstFrame();
+    }
+
+    /** Opens the items of the playlist as files. */
+    interface VideoOpener {
+
+        /**
+         * Opens an item of the playlist.
+         *
+         * @param index The index of the item in the playlist.
+         * @return The file descriptor of the video. The caller closes it.
+         * @throws IOException If the video cannot be opened.
+         */
+        AssetFileDescriptor openVideo(int index) throws IOException;
+    }
+
+    /** Looks up what is known about the items of the playlist before they are prepared. */
+    interface MetadataSource {
+
+        /**
+         * @param index The index of the item in the playlist.
+         * @return The metadata, or {@code null} if it is not known yet.
+         */
+        VideoMetadata getMetadata(int index);
+    }
+
+    /** Opens the items of the playlist that are read as they play, instead of as files. */
+    interface StreamSource {
+
+        /**
+         * @param index The index of the item in the playlist.
+         * @return The stream, or {@code null} to open the item with {@link
+         *     VideoOpener#openVideo(int)}.
+         * @throws IOException If the video cannot be opened.
+         */
+        VideoStream openStream(int index) throws IOException;
+    }
+
+    /**
+     * Remembers where the items of the playlist were left, across sessions. Items of the same video
+     * may share their position; it is only restored when playback starts or resumes, never on a
+     * skip.
+     */
+    interface PositionStore {
+
+        /**
+         * @param index The index of the item in the playlist.
+         * @return The position to resume at in milliseconds, or 0 to start from the beginning.
+         */
+        int getPosition(int index);
+
+        /**
+         * @param index The index of the item in the playlist.
+         * @param positionMs The position in milliseconds, or 0 to forget it.
+         */
+        void setPosition(int index, int positionMs);
+    }
+
+    /** Tells in advance whether the device can decode the items of the playlist. */
+    interface FormatSupport {
+
+        /**
+         * @param index The index of the item in the playlist.
+         * @return {@code false} if the item is known not to be decodable; {@code true} if it is,
+         *     or if it is not known.
+         */
+        boolean isSupported(int index);
+    }
+
+    /** Limits how many engines may hold a decoder at the same time. */
+    interface DecoderBudget {
+
+        /**
+         * @return How many more engines may be prepared, beyond the ones in use; 0 if the budget
+         *     is used up.
+         */
+        int getAvailableDecoders();
+
+        /**
+         * Tells whether an engine in use may be taken back, to make room for one that is needed
+         * more. It is then released, and its listener gets an error.
+         */
+        void setPreemptible(PlayerEngine engine, boolean preemptible);
+    }
+
+    /** Reported to {@link Callback#onError(int, int)} when the video cannot be opened. */
+    static final int ERROR_OPEN = -1004; // Same as MediaPlayer.MEDIA_ERROR_IO
+
+    /**
+     * Reported to {@link Callback#onError(int, int)} when the device is known not to be able to
+     * decode the video.
+     */
+    static final int ERROR_UNSUPPORTED = -1010; // Same as MediaPlayer.MEDIA_ERROR_UNSUPPORTED
+
+    /** A video left this close to its end starts from the beginning next time. */
+    static final int RESUME_END_MARGIN_MS = 1000;
+
+    private final VideoOpener mVideoOpener;
+
+    private final Callback mCallback;
+
+    private final PlayerEngine.Factory mEngineFactory;
+
+    /** Creates the engines of {@link #mLookAhead}, which give way to a current item. */
+    private final PlayerEngine.Factory mLookAheadFactory =
+            new PlayerEngine.Factory() {
+                @Override
+                public PlayerEngine create() {
+                    final PlayerEngine engine = mEngineFactory.create();
+                    if (engine != null && mDecoderBudget != null) {
+                        mDecoderBudget.setPreemptible(engine, true);
+                    }
+                    return engine;
+                }
+            };
+
+    /** This plays the video. This will be null when no video is open. */
+    private PlayerEngine mEngine;
+
+    /** Tracks the asynchronous preparation of {@link #mEngine}. */
+    private final PrepareStateMachine mPrepareState = new PrepareStateMachine();
+
+    /** Issues the seeks of {@link #mEngine}, collapsing the ones requested in a burst. */
+    private final SeekController mSeeker = new SeekController();
+
+    /** Whether the video should start as soon as it is prepared. */
+    private boolean mPlayWhenPrepared;
+
+    private int mSavedCurrentPosition;
+
+    /** The size of the video as reported by {@link #mEngine}, or 0 until it is known. */
+    private int mVideoWidth;
+
+    private int mVideoHeight;
+
+    /** Whether the engine is kept prepared while there is no surface to render to. */
+    private boolean mRetainEngine = true;
+
+    /** The surface {@link #mEngine} renders to. */
+    private Surface mSurface;
+
+    /** The videos to play. This will be null when no video is set. */
+    private Playlist<?> mPlaylist;
+
+    /** The engines prepared for the upcoming items of {@link #mPlaylist}. */
+    private final LookAheadQueue mLookAhead = new LookAheadQueue();
+
+    /** How many upcoming items are prepared in advance. */
+    private int mLookAheadDepth = 1;
+
+    /** Provides the size, duration and sync frames of the videos. This may be null. */
+    private MetadataSource mMetadataSource;
+
+    /** Opens the videos that are not files, e.g. remote ones. This may be null. */
+    private StreamSource mStreamSource;
+
+    /** Remembers the positions of the videos across sessions. This may be null. */
+    private PositionStore mPositionStore;
+
+    /** Keeps the videos the device cannot decode from being prepared. This may be null. */
+    private FormatSupport mFormatSupport;
+
+    /** Limits the engines prepared in advance. This may be null. */
+    private DecoderBudget mDecoderBudget;
+
+    /** Collects the latencies of the playback transitions. This is null unless enabled. */
+    private PlaybackMetrics mMetrics;
+
+    private final LookAheadQueue.Binder mBinder =
+            new LookAheadQueue.Binder() {
+                @Override
+                public void bind(PlayerEngine engine, int index) throws IOException {
+                    if (mFormatSupport != null && !mFormatSupport.isSupported(index)) {
+                        throw new IOException("Cannot decode item " + index);
+                    }
+                    final VideoStream stream =
+                            mStreamSource == null ? null : mStreamSource.openStream(index);
+                    if (stream != null) {
+                        try {
+                            engine.setDataSource(stream);
+                        } catch (IOException | RuntimeException e) {
+                            stream.close();
+                            throw e;
+                        }
+                        return;
+                    }
+                    try (AssetFileDescriptor fd = mVideoOpener.openVideo(index)) {
+                        engine.setDataSource(fd);
+                    }
+                }
+            };
+
+    PlaybackController(
+            PlayerEngine.Factory engineFactory, VideoOpener videoOpener, Callback callback) {
+        mEngineFactory = engineFactory;
+        mVideoOpener = videoOpener;
+        mCallback = callback;
+    }
+
+    /**
+     * Sets whether the engine survives the loss of its surface. When enabled, {@link
+     * #detachSurface()} only unhooks the surface, and {@link #attachSurface(Surface)} hooks the new
+     * one to the same prepared engine. When disabled, the engine is released and the video has to
+     * be prepared again.
+     */
+    void setRetainEngine(boolean retainEngine) {
+        mRetainEngine = retainEngine;
+    }
+
+    /**
+     * Sets where the latencies of the playback transitions are recorded.
+     *
+     * @param metrics The metrics, or {@code null} to stop recording.
+     */
+    void setMetrics(PlaybackMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    PlaybackMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Sets where the metadata of the videos is looked up. It answers size and duration queries
+     * before the video is prepared, and picks the sync frames to seek to.
+     *
+     * @param source The source, or {@code null} to rely on the engine only.
+     */
+    void setMetadataSource(MetadataSource source) {
+        mMetadataSource = source;
+    }
+
+    /**
+     * Sets how the videos that are not files are opened, e.g. the ones streamed over the network.
+     *
+     * @param source The source, or {@code null} to open every video as a file.
+     */
+    void setStreamSource(StreamSource source) {
+        mStreamSource = source;
+    }
+
+    /**
+     * Sets where the positions of the videos are remembered, so that a video started again in a
+     * later session resumes where it was left.
+     *
+     * @param store The store, or {@code null} to always start from the beginning.
+     */
+    void setPositionStore(PositionStore store) {
+        mPositionStore = store;
+    }
+
+    /**
+     * Sets the videos to play. This takes effect the next time {@link #startVideo()} is called.
+     *
+     * @param playlist The playlist, or {@code null} to play nothing.
+     */
+    void setPlaylist(Playlist<?> playlist) {
+        mLookAhead.clear();
+        mPlaylist = playlist;
+    }
+
+    /**
+     * Replaces the playlist without interrupting the open video, if the new playlist contains it.
+     * The new playlist moves to the first occurrence of the video.
+     *
+     * @param playlist The new playlist.
+     * @return {@code true} if the open video goes on; {@code false} if there was nothing to keep,
+     *     in which case this is the same as {@link #setPlaylist(Playlist)}.
+     */
+    boolean switchPlaylist(Playlist<?> playlist) {
+        final int index =
+                mEngine == null || mPlaylist == null || playlist == null
+                        ? -1
+                        : playlist.indexOf(mPlaylist.getCurrent());
+        if (index == -1) {
+            setPlaylist(playlist);
+            return false;
+        }
+        playlist.moveTo(index);
+        final boolean indexChanged = index != mPlaylist.getCurrentIndex();
+        setPlaylist(playlist);
+        if (isInPlaybackState()) {
+            updateLookAhead();
+        }
+        if (indexChanged) {
+            mCallback.onPlaylistIndexChanged(index);
+        }
+        return true;
+    }
+
+    Playlist<?> getPlaylist() {
+        return mPlaylist;
+    }
+
+    /**
+     * Sets what tells in advance whether the videos can be decoded. A video that cannot fails right
+     * away with {@link #ERROR_UNSUPPORTED}, instead of after a prepare, and is never prepared in
+     * advance.
+     *
+     * @param support The check, or {@code null} to prepare every video.
+     */
+    void setFormatSupport(FormatSupport support) {
+        mFormatSupport = support;
+    }
+
+    /**
+     * Sets the budget of decoders shared with other controllers. The upcoming items are only
+     * prepared in advance while there are decoders left, and their engines give way to the current
+     * item of any controller.
+     *
+     * @param budget The budget, or {@code null} to only be limited by the look-ahead depth.
+     */
+    void setDecoderBudget(DecoderBudget budget) {
+        mDecoderBudget = budget;
+    }
+
+    /**
+     * Sets how many upcoming items of the playlist are prepared in advance. Each of them holds a
+     * decoder, so this should be kept small. 0 disables the look-ahead.
+     */
+    void setLookAheadDepth(int depth) {
+        mLookAheadDepth = Math.max(0, depth);
+        if (isInPlaybackState()) {
+            updateLookAhead();
+        }
+    }
+
+    /**
+     * Renders the open video to a new surface without preparing it again.
+     *
+     * @param surface The new surface.
+     * @return {@code true} if the engine was reused; {@code false} if there is no usable engine and
+     *     the video has to be opened with {@link #open(Surface)}.
+     */
+    boolean attachSurface(Surface surface) {
+        final int state = mPrepareState.getState();
+        if (mEngine == null
+                || state == PrepareStateMachine.STATE_IDLE
+                || state == PrepareStateMachine.STATE_ERROR) {
+            return false;
+        }
+        mSurface = surface;
+        mEngine.setSurface(surface);
+        if (isInPlaybackState() && !mEngine.isPlaying()) {
+            // Nothing is decoded while paused; seek in place to draw the current frame.
+            seek(mEngine.getCurrentPosition(), PlayerEngine.SEEK_CLOSEST);
+        }
+        return true;
+    }
+
+    /**
+     * Called when the surface is going away. The engine is either kept prepared without a surface,
+     * or released after remembering the current position.
+     */
+    void detachSurface() {
+        if (mRetainEngine
+                && mEngine != null
+                && mPrepareState.getState() != PrepareStateMachine.STATE_ERROR) {
+            mSurface = null;
+            mEngine.setSurface(null);
+            return;
+        }
+        savePosition();
+        close();
+    }
+
+    /** Creates a new engine rendering to the specified surface. */
+    void open(Surface surface) {
+        mSurface = surface;
+        mEngine = mEngineFactory.create();
+        if (mEngine == null) {
+            // Every decoder is playing something else.
+            mCallback.onError(ERROR_OPEN, 0);
+            return;
+        }
+        mEngine.setSurface(surface);
+    }
+
+    /** Releases the engine, and the ones prepared in advance. */
+    void close() {
+        mPrepareState.reset();
+        mSeeker.reset();
+        mLookAhead.clear();
+        mSurface = null;
+        mVideoWidth = 0;
+        mVideoHeight = 0;
+        if (mEngine != null) {
+            mEngine.release();
+            mEngine = null;
+        }
+    }
+
+    /**
+     * Restarts playback of the current item of the playlist. This does not block; the video starts
+     * as soon as it is prepared unless {@link #pause()} is called in the meantime.
+     */
+    void startVideo() {
+        startVideo(true);
+    }
+
+    /**
+     * @param resume Whether to carry on from the position stored for the item, if it is not
+     *     resuming from a saved position already.
+     */
+    private void startVideo(boolean resume) {
+        if (mEngine == null || mPlaylist == null) {
+            return;
+        }
+        mEngine.reset();
+        mSeeker.reset();
+        final int token = mPrepareState.begin();
+        if (mMetrics != null) {
+            mMetrics.begin(PlaybackMetrics.METRIC_PREPARE);
+        }
+        // Start automatically unless we are resuming from a saved position
+        mPlayWhenPrepared = mSavedCurrentPosition <= 0;
+        if (mPlayWhenPrepared && resume) {
+            // Carry on from where an earlier session left the video, if anywhere.
+            mSavedCurrentPosition = getStoredPosition();
+        }
+        mEngine.setListener(new CurrentEngineListener(token));
+        if (mFormatSupport != null && !mFormatSupport.isSupported(mPlaylist.getCurrentIndex())) {
+            // Preparing it would only fail, after a while.
+            onCurrentFailed(token);
+            mCallback.onError(ERROR_UNSUPPORTED, 0);
+            return;
+        }
+        try {
+            mBinder.bind(mEngine, mPlaylist.getCurrentIndex());
+        } catch (IOException | RuntimeException e) {
+            // Bad URIs and denied permissions throw unchecked exceptions.
+            onCurrentFailed(token);
+            mCallback.onError(ERROR_OPEN, 0);
+            return;
+        }
+        mEngine.prepareAsync();
+    }
+
+    /**
+     * Makes the specified item of the playlist the current one and starts playing it from the
+     * start. If an engine was prepared in advance for it, it takes over the surface right away.
+     *
+     * <p>The stored position is not restored here: it is stored by video, and the same video may
+     * be at several places in the playlist.
+     *
+     * @param index The index of the item in the playlist.
+     */
+    void skipTo(int index) {
+        if (mEngine == null || mPlaylist == null) {
+            return;
+        }
+        persistPosition();
+        mPlaylist.moveTo(index);
+        mSavedCurrentPosition = 0;
+        // The size of the previous item no longer applies; the new one is read once it is prepared.
+        setVideoSize(0, 0);
+        final LookAheadQueue.Slot slot = mLookAhead.take(index);
+        if (slot == null) {
+            // This opens the prepare span.
+            startVideo(false);
+        } else {
+            if (mMetrics != null) {
+                mMetrics.begin(PlaybackMetrics.METRIC_PREPARE);
+            }
+            final PlayerEngine previous = mEngine;
+            previous.setListener(null);
+            previous.setSurface(null);
+            previous.release();
+            mEngine = slot.engine;
+            if (mDecoderBudget != null) {
+                mDecoderBudget.setPreemptible(mEngine, false);
+            }
+            mEngine.setSurface(mSurface);
+            mSeeker.reset();
+            final int token = mPrepareState.begin();
+            mPlayWhenPrepared = true;
+            mEngine.setListener(new CurrentEngineListener(token));
+            if (slot.prepared) {
+                onCurrentPrepared(token);
+            }
+        }
+        mCallback.onPlaylistIndexChanged(index);
+    }
+
+    /** Skips to the next item of the playlist, if there is one. */
+    void skipToNext() {
+        if (mPlaylist != null && mPlaylist.hasNext()) {
+            skipTo(mPlaylist.getCurrentIndex() + 1);
+        }
+    }
+
+    /** Skips to the previous item of the playlist, if there is one. */
+    void skipToPrevious() {
+        if (mPlaylist != null && mPlaylist.hasPrevious()) {
+            skipTo(mPlaylist.getCurrentIndex() - 1);
+        }
+    }
+
+    /** Returns the number of engines currently prepared, or being prepared, in advance. */
+    int getLookAheadSize() {
+        return mLookAhead.size();
+    }
+
+    /** Remembers the current position so that the video resumes from there when reopened. */
+    void savePosition() {
+        if (isInPlaybackState()) {
+            mSavedCurrentPosition = mEngine.getCurrentPosition();
+            persistPosition();
+        }
+    }
+
+    void play() {
+        if (mEngine == null) {
+            return;
+        }
+        if (!mPrepareState.isPrepared()) {
+            // Start as soon as the video is ready.
+            mPlayWhenPrepared = true;
+            return;
+        }
+        if (mMetrics != null) {
+            mMetrics.begin(PlaybackMetrics.METRIC_FIRST_FRAME);
+        }
+        mEngine.start();
+        mCallback.onStarted();
+    }
+
+    /**
+     * Pauses the video.
+     *
+     * @return {@code true} if the engine was paused; {@code false} if there was nothing to pause.
+     */
+    boolean pause() {
+        mPlayWhenPrepared = false;
+        if (!isInPlaybackState()) {
+            return false;
+        }
+        if (mMetrics != null) {
+            mMetrics.cancel(PlaybackMetrics.METRIC_FIRST_FRAME);
+        }
+        mEngine.pause();
+        mCallback.onStopped();
+        persistPosition();
+        return true;
+    }
+
+    void toggle() {
+        if (mEngine == null) {
+            return;
+        }
+        if (isPlaying()) {
+            pause();
+        } else {
+            play();
+        }
+    }
+
+    /**
+     * Moves the playback position to the specified one, clamped to the duration of the video.
+     *
+     * @param positionMs The position in milliseconds.
+     * @param mode Either {@link PlayerEngine#SEEK_CLOSEST_SYNC} for scrubbing, or {@link
+     *     PlayerEngine#SEEK_CLOSEST} for precision.
+     */
+    void seekTo(int positionMs, @PlayerEngine.SeekMode int mode) {
+        if (!isInPlaybackState()) {
+            return;
+        }
+        seek(positionMs, mode);
+    }
+
+    /**
+     * Moves the playback position relative to the current one. Repeated calls add up, even when
+     * the previous seeks have not completed yet.
+     *
+     * @param deltaMs The amount of milliseconds to move by; negative to go back.
+     * @param mode Either {@link PlayerEngine#SEEK_CLOSEST_SYNC} for scrubbing, or {@link
+     *     PlayerEngine#SEEK_CLOSEST} for precision.
+     */
+    void seekBy(int deltaMs, @PlayerEngine.SeekMode int mode) {
+        if (!isInPlaybackState()) {
+            return;
+        }
+        final int from = mSeeker.getTargetPosition(mEngine);
+        int target = from + deltaMs;
+        if (mode == PlayerEngine.SEEK_CLOSEST_SYNC) {
+            final VideoMetadata metadata = getCurrentMetadata();
+            if (metadata != null) {
+                // Land exactly on a sync frame, so that the move is never swallowed by snapping
+                // back to the frame we started from.
+                target = metadata.snapToKeyframe(from, target);
+            }
+        }
+        seek(target, mode);
+    }
+
+    /** Returns the number of seeks that were skipped because a later one replaced them. */
+    int getCollapsedSeekCount() {
+        return mSeeker.getCollapsedCount();
+    }
+
+    /**
+     * Returns the current position, or the position the video is seeking to while seeks are in
+     * flight.
+     */
+    int getCurrentPosition() {
+        if (!isInPlaybackState()) {
+            return 0;
+        }
+        return mSeeker.getTargetPosition(mEngine);
+    }
+
+    boolean isPlaying() {
+        return isInPlaybackState() && mEngine.isPlaying();
+    }
+
+    /**
+     * Returns the width of the video as last reported by the engine, or from its metadata if the
+     * engine has not reported it yet. This does not call into the engine.
+     */
+    int getVideoWidth() {
+        if (mVideoWidth != 0 && mVideoHeight != 0) {
+            return mVideoWidth;
+        }
+        final VideoMetadata metadata = getCurrentMetadata();
+        return metadata != null ? metadata.getWidth() : 0;
+    }
+
+    /**
+     * Returns the height of the video as last reported by the engine, or from its metadata if the
+     * engine has not reported it yet. This does not call into the engine.
+     */
+    int getVideoHeight() {
+        if (mVideoWidth != 0 && mVideoHeight != 0) {
+            return mVideoHeight;
+        }
+        final VideoMetadata metadata = getCurrentMetadata();
+        return metadata != null ? metadata.getHeight() : 0;
+    }
+
+    /** Returns how many frames the engine dropped, or -1 if there is none or it cannot tell. */
+    long getDroppedVideoFrameCount() {
+        return mEngine == null ? -1 : mEngine.getDroppedVideoFrameCount();
+    }
+
+    /** Returns the duration of the video, from its metadata if it is not prepared yet. */
+    int getDuration() {
+        if (isInPlaybackState()) {
+            return mEngine.getDuration();
+        }
+        final VideoMetadata metadata = getCurrentMetadata();
+        return metadata != null ? metadata.getDurationMs() : 0;
+    }
+
+    int getState() {
+        return mPrepareState.getState();
+    }
+
+    /** Whether a video is open, regardless of whether it has been prepared. */
+    boolean isOpen() {
+        return mEngine != null;
+    }
+
+    /** Whether the engine is prepared and can be controlled. */
+    boolean isInPlaybackState() {
+        return mEngine != null && mPrepareState.isPrepared();
+    }
+
+    /**
+     * Moves the current item to the error state, and drops its prepare span.
+     *
+     * @return {@code false} if the item was restarted or closed in the meantime.
+     */
+    private boolean onCurrentFailed(int token) {
+        if (!mPrepareState.fail(token)) {
+            return false;
+        }
+        if (mMetrics != null) {
+            mMetrics.cancel(PlaybackMetrics.METRIC_PREPARE);
+        }
+        return true;
+    }
+
+    private void onCurrentPrepared(int token) {
+        if (!mPrepareState.complete(token)) {
+            // The video was restarted or closed in the meantime.
+            return;
+        }
+        if (mMetrics != null) {
+            mMetrics.end(PlaybackMetrics.METRIC_PREPARE);
+        }
+        // An engine prepared in advance may have reported its size to the look-ahead queue only.
+        setVideoSize(mEngine.getVideoWidth(), mEngine.getVideoHeight());
+        mCallback.onPrepared();
+        if (mSavedCurrentPosition > 0) {
+            seek(mSavedCurrentPosition, PlayerEngine.SEEK_CLOSEST);
+            mSavedCurrentPosition = 0;
+        }
+        if (mPlayWhenPrepared) {
+            play();
+        }
+        updateLookAhead();
+    }
+
+    private void seek(int positionMs, @PlayerEngine.SeekMode int mode) {
+        if (mMetrics != null && !mSeeker.isSeeking()) {
+            // A burst of seeks is measured as a whole, until the last one completes.
+            mMetrics.begin(PlaybackMetrics.METRIC_SEEK);
+        }
+        mSeeker.seekTo(mEngine, positionMs, mode);
+    }
+
+    private void setVideoSize(int width, int height) {
+        final int oldWidth = getVideoWidth();
+        final int oldHeight = getVideoHeight();
+        mVideoWidth = width;
+        mVideoHeight = height;
+        final int newWidth = getVideoWidth();
+        final int newHeight = getVideoHeight();
+        if (newWidth != oldWidth || newHeight != oldHeight) {
+            mCallback.onVideoSizeChanged(newWidth, newHeight);
+        }
+    }
+
+    /** Remembers the position of the current item in {@link #mPositionStore}. */
+    private void persistPosition() {
+        if (mPositionStore == null || !isInPlaybackState()) {
+            return;
+        }
+        final int position = mEngine.getCurrentPosition();
+        final int duration = getDuration();
+        // A video watched to its end starts over next time.
+        final boolean finished = duration > 0 && position >= duration - RESUME_END_MARGIN_MS;
+        mPositionStore.setPosition(mPlaylist.getCurrentIndex(), finished ? 0 : position);
+    }
+
+    private int getStoredPosition() {
+        return mPositionStore == null ? 0 : mPositionStore.getPosition(mPlaylist.getCurrentIndex());
+    }
+
+    private VideoMetadata getCurrentMetadata() {
+        if (mMetadataSource == null || mPlaylist == null) {
+            return null;
+        }
+        return mMetadataSource.getMetadata(mPlaylist.getCurrentIndex());
+    }
+
+    private void updateLookAhead() {
+        if (mPlaylist != null) {
+            int depth = mLookAheadDepth;
+            if (mDecoderBudget != null) {
+                // The engines held by the queue already count against the budget.
+                depth =
+                        Math.min(
+                                depth, mLookAhead.size() + mDecoderBudget.getAvailableDecoders());
+            }
+            mLookAhead.update(mPlaylist, depth, mLookAheadFactory, mBinder);
+        }
+    }
+
+    /** Listens to the engine playing the current item. */
+    private class CurrentEngineListener extends PlayerEngine.Listener {
+
+        private final int mToken;
+
+        CurrentEngineListener(int token) {
+            mToken = token;
+        }
+
+        @Override
+        public void onPrepared(PlayerEngine engine) {
+            onCurrentPrepared(mToken);
+        }
+
+        @Override
+        public void onSeekComplete(PlayerEngine engine) {
+            if (!mSeeker.onSeekComplete(engine)) {
+                return;
+            }
+            if (mMetrics != null) {
+                mMetrics.end(PlaybackMetrics.METRIC_SEEK);
+            }
+            mCallback.onSeekComplete(engine.getCurrentPosition());
+        }
+
+        @Override
+        public void onVideoSizeChanged(PlayerEngine engine, int width, int height) {
+            setVideoSize(width, height);
+        }
+
+        @Override
+        public void onRenderingStart(PlayerEngine engine) {
+            if (mMetrics != null) {
+                mMetrics.end(PlaybackMetrics.METRIC_FIRST_FRAME);
+            }
+            mCallback.onFirstFrame();
+        }
+
+        @Override
+        public void onCompletion(PlayerEngine engine) {
+            persistPosition();
+            if (mPlaylist != null && mPlaylist.hasNext()) {
+                // Continue with the next item, which is most likely prepared already.
+                skipToNext();
+            } else {
+                mCallback.onStopped();
+            }
+        }
+
+        @Override
+        public boolean onError(PlayerEngine engine, int what, int extra) {
+            if (onCurrentFailed(mToken)) {
+                mPlayWhenPrepared = false;
+                mCallback.onError(what, extra);
+            }
+            // Prevent the completion callback from being called
+            return true;
+        }
+    }
+}
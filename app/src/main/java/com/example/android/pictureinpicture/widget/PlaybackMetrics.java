@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long the playback transitions take.
+ *
+ * <p>A span is opened with {@link #begin(int)} and closed with {@link #end(int)}; its duration on
+ * the monotonic clock goes into the {@link LatencyHistogram} of the metric. Only one span per
+ * metric can be open at a time; opening it again restarts it. Spans are opened and closed on the
+ * UI thread, and neither allocates.
+ */
+public final class PlaybackMetrics {
+
+    /** From opening or skipping to a video until it is prepared. */
+    public static final int METRIC_PREPARE = 0;
+
+    /** From starting playback until the first frame is rendered. */
+    public static final int METRIC_FIRST_FRAME = 1;
+
+    /** From a seek request until the seek is complete. */
+    public static final int METRIC_SEEK = 2;
+
+    /** From requesting Picture-in-Picture mode until the activity is in it. */
+    public static final int METRIC_ENTER_PIP = 3;
+
+    /**
+     * From losing the surface until a new one is available. The count of this metric is the number
+     * of times the surface was recreated.
+     */
+    public static final int METRIC_SURFACE_RECREATE = 4;
+
+    private static final String[] NAMES = {
+        "prepare", "first_frame", "seek", "enter_pip", "surface_recreate"
+    };
+
+    private static final int METRIC_COUNT = NAMES.length;
+
+    private static final long NOT_STARTED = -1;
+
+    /** Provides the current time of a monotonic clock. */
+    interface Clock {
+        long nanoTime();
+    }
+
+    private static final Clock SYSTEM_CLOCK =
+            new Clock() {
+                @Override
+                public long nanoTime() {
+                    return System.nanoTime();
+                }
+            };
+
+    private final Clock mClock;
+
+    private final LatencyHistogram[] mHistograms = new LatencyHistogram[METRIC_COUNT];
+
+    private final long[] mStartTimes = new long[METRIC_COUNT];
+
+    public PlaybackMetrics() {
+        this(SYSTEM_CLOCK);
+    }
+
+    PlaybackMetrics(Clock clock) {
+        mClock = clock;
+        for (int i = 0; i < METRIC_COUNT; i++) {
+            mHistograms[i] = new LatencyHistogram();
+            mStartTimes[i] = NOT_STARTED;
+        }
+    }
+
+    /**
+     * Opens a span for the specified metric.
+     *
+     * @param metric One of the {@code METRIC_} constants.
+     */
+    public void begin(int metric) {
+        mStartTimes[metric] = mClock.nanoTime();
+    }
+
+    /**
+     * Closes the span of the specified metric and records its duration. Nothing happens if there
+     * is no open span.
+     *
+     * @param metric One of the {@code METRIC_} constants.
+     */
+    public void end(int metric) {
+        final long start = mStartTimes[metric];
+        if (start == NOT_STARTED) {
+            return;
+        }
+        mStartTimes[metric] = NOT_STARTED;
+        mHistograms[metric].record(TimeUnit.NANOSECONDS.toMicros(mClock.nanoTime() - start));
+    }
+
+    /**
+     * Drops the open span of the specified metric without recording it.
+     *
+     * @param metric One of the {@code METRIC_} constants.
+     */
+    public void cancel(int metric) {
+        mStartTimes[metric] = NOT_STARTED;
+    }
+
+    /**
+     * Returns the histogram of the specified metric.
+     *
+     * @param metric One of the {@code METRIC_} constants.
+     */
+    public LatencyHistogram getHistogram(int metric) {
+        return mHistograms[metric];
+    }
+
+    /** Forgets all the recorded values. */
+    public void reset() {
+        for (int i = 0; i < METRIC_COUNT; i++) {
+            mHistograms[i].reset();
+            mStartTimes[i] = NOT_STARTED;
+        }
+    }
+
+    /**
+     * Prints a summary of all the metrics, in milliseconds.
+     *
+     * @param writer The writer to print to.
+     * @param prefix The prefix of each line.
+     */
+    public void dump(PrintWriter writer, String prefix) {
+        for (int i = 0; i < METRIC_COUNT; i++) {
+            final LatencyHistogram histogram = mHistograms[i];
+            writer.print(prefix);
+            writer.println(
+                    String.format(
+                            Locale.US,
+                            "%-12s count=%d p50=%.1fms p99=%.1fms max=%.1fms",
+                            NAMES[i],
+                            histogram.getCount(),
+                            histogram.getPercentile(50) / 1000f,
+                            histogram.getPercentile(99) / 1000f,
+                            histogram.getMax() / 1000f));
+        }
+    }
+}
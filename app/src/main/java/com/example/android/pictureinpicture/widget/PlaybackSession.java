@@ -0,0 +1,415 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.Configuration;
+import android.net.Uri;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The player behind a {@link MovieView}, with the videos it plays.
+ *
+ * <p>Remote videos are streamed through a disk cache, so that playing one again does not download
+ * it again. Where each video was left is remembered on disk, so that it resumes there when it is
+ * started again, even after the process is gone. The players are recycled across the sessions of
+ * the process, which also share a budget of decoders. The decoders of the device are probed once,
+ * so that a video it cannot decode fails right away, and so that the best rendition it can decode
+ * is played.
+ *
+ * <p>Every {@link MovieView} creates its own session. A session can also be created by a longer
+ * lived component, such as a service, and handed to successive views with {@link
+ * MovieView#setPlaybackSession(PlaybackSession)}. The prepared player then survives the views and
+ * their activities; a new view only attaches its surface.
+ */
+public final class PlaybackSession {
+
+    /**
+     * Playback metrics are collected when this tag is loggable at DEBUG level, e.g. after {@code
+     * adb shell setprop log.tag.PlaybackMetrics DEBUG}.
+     */
+    private static final String METRICS_TAG = "PlaybackMetrics";
+
+    /** Shared by the sessions of the process. This is only accessed on the UI thread. */
+    private static ResumePositionStore sPositionStore;
+
+    /** How many bytes of remote videos are kept on disk. */
+    private static final long VIDEO_CACHE_BYTES = 256 * 1024 * 1024;
+
+    /** Shared by the sessions of the process. This is only accessed on the UI thread. */
+    private static VideoCache sVideoCache;
+
+    /**
+     * How many players may hold decoders at the same time. Hardware decoders are scarce; beyond
+     * this, the upcoming videos are not prepared in advance, and a video is only opened if one of
+     * them gives way. This counts players, not decoders; a {@link MediaCodecEngine} holds two.
+     */
+    private static final int MAX_ACTIVE_PLAYERS = 4;
+
+    /** How many released players are kept to be reused. */
+    private static final int MAX_IDLE_PLAYERS = 2;
+
+    /** Shared by the sessions of the process. This is only accessed on the UI thread. */
+    private static PlayerPool sPlayerPool;
+
+    private final Context mContext;
+
+    private final PlaybackController mController;
+
+    /** The videos to play. This will be null when no video is set. */
+    private Playlist<Uri> mPlaylist;
+
+    /** Creates the players of this session, through {@link #sPlayerPool}. */
+    private PlayerEngine.Factory mEngineFactory = MediaPlayerEngine.FACTORY;
+
+    /** The renditions of the videos that have several, by the URI of the first one. */
+    private final Map<Uri, List<Uri>> mRenditions = new HashMap<>();
+
+    /** The renditions picked for the items opened last, by the URI of the first one. */
+    private final Map<Uri, Uri> mPicked = new HashMap<>();
+
+    /** The view showing this session; it receives the results of the playback operations. */
+    private PlaybackController.Callback mCallback;
+
+    /** Passes the results of the playback operations on to the view showing this session. */
+    private final PlaybackController.Callback mForwarder =
+            new PlaybackController.Callback() {
+                @Override
+                public void onPrepared() {
+                    if (mCallback != null) {
+                        mCallback.onPrepared();
+                    }
+                }
+
+                @Override
+                public void onStarted() {
+                    if (mCallback != null) {
+                        mCallback.onStarted();
+                    }
+                }
+
+                @Override
+                public void onStopped() {
+                    if (mCallback != null) {
+                        mCallback.onStopped();
+                    }
+                }
+
+                @Override
+                public void onError(int what, int extra) {
+                    if (mCallback != null) {
+                        mCallback.onError(what, extra);
+                    }
+                }
+
+                @Override
+                public void onVideoSizeChanged(int width, int height) {
+                    if (mCallback != null) {
+                        mCallback.onVideoSizeChanged(width, height);
+                    }
+                }
+
+                @Override
+                public void onPlaylistIndexChanged(int index) {
+                    if (mCallback != null) {
+                        mCallback.onPlaylistIndexChanged(index);
+                    }
+                }
+
+                @Override
+                public void onSeekComplete(int positionMs) {
+                    if (mCallback != null) {
+                        mCallback.onSeekComplete(positionMs);
+                    }
+                }
+
+                @Override
+                public void onFirstFrame() {
+                    if (mCallback != null) {
+                        mCallback.onFirstFrame();
+                    }
+                }
+            };
+
+    private final PlaybackController.VideoOpener mVideoOpener =
+            new PlaybackController.VideoOpener() {
+                @Override
+                public AssetFileDescriptor openVideo(int index) throws IOException {
+                    return mContext.getContentResolver()
+                            .openAssetFileDescriptor(getPicked(index), "r");
+                }
+            };
+
+    /**
+     * Creates a session with nothing to play.
+     *
+     * @param context Any context; only the application context is kept.
+     */
+    public PlaybackSession(Context context) {
+        mContext = context.getApplicationContext();
+        final PlayerPool players = getPlayerPool(mContext);
+        mController =
+                new PlaybackController(
+                        new PlayerEngine.Factory() {
+                            @Override
+                            public PlayerEngine create() {
+                                return players.create(mEngineFactory);
+                            }
+                        },
+                        mVideoOpener,
+                        mForwarder);
+        mController.setDecoderBudget(players);
+        mController.setMetadataSource(
+                new PlaybackController.MetadataSource() {
+                    @Override
+                    public VideoMetadata getMetadata(int index) {
+                        return mPlaylist == null ? null : VideoMetadataLoader.get(getPicked(index));
+                    }
+                });
+        mController.setStreamSource(
+                new PlaybackController.StreamSource() {
+                    @Override
+                    public VideoStream openStream(int index) throws IOException {
+                        final Uri uri = getPicked(index);
+                        if (!HttpVideoStream.supports(uri.getScheme())) {
+                            return null;
+                        }
+                        return new HttpVideoStream(
+                                new URL(uri.toString()), getVideoCache(mContext));
+                    }
+                });
+        final ResumePositionStore positions = getPositionStore(mContext);
+        mController.setPositionStore(
+                new PlaybackController.PositionStore() {
+                    @Override
+                    public int getPosition(int index) {
+                        return positions.get(mPlaylist.get(index).toString());
+                    }
+
+                    @Override
+                    public void setPosition(int index, int positionMs) {
+                        positions.put(mPlaylist.get(index).toString(), positionMs);
+                    }
+                });
+        mController.setFormatSupport(
+                new PlaybackController.FormatSupport() {
+                    @Override
+                    public boolean isSupported(int index) {
+                        // Asked first whenever an item is opened, so the rendition is picked here
+                        final Uri uri = resolve(index);
+                        mPicked.put(mPlaylist.get(index), uri);
+                        final DecoderCapabilities capabilities = DecoderCapabilitiesLoader.get();
+                        final VideoMetadata metadata = VideoMetadataLoader.get(uri);
+                        return capabilities == null
+                                || metadata == null
+                                || capabilities.isSupported(metadata);
+                    }
+                });
+        // Usually read from the disk well before the first video is opened
+        DecoderCapabilitiesLoader.load(mContext);
+        if (Log.isLoggable(METRICS_TAG, Log.DEBUG)) {
+            mController.setMetrics(new PlaybackMetrics());
+        }
+    }
+
+    /**
+     * Returns the rendition of an item of the playlist to play: the best one the device can
+     * decode, as far as is known yet.
+     */
+    private Uri resolve(int index) {
+        final Uri uri = mPlaylist.get(index);
+        final List<Uri> renditions = mRenditions.get(uri);
+        final DecoderCapabilities capabilities = DecoderCapabilitiesLoader.get();
+        if (renditions == null || capabilities == null) {
+            return uri;
+        }
+        final List<VideoMetadata> metadata = new ArrayList<>(renditions.size());
+        for (Uri rendition : renditions) {
+            metadata.add(VideoMetadataLoader.get(rendition));
+        }
+        final int best = capabilities.pickRendition(metadata);
+        return best < 0 ? uri : renditions.get(best);
+    }
+
+    /** Returns the rendition picked when an item of the playlist was opened last. */
+    private Uri getPicked(int index) {
+        final Uri uri = mPlaylist.get(index);
+        Uri picked = mPicked.get(uri);
+        if (picked == null) {
+            picked = resolve(index);
+            mPicked.put(uri, picked);
+        }
+        return picked;
+    }
+
+    /** The idle players are released when the system runs low on memory. */
+    private static PlayerPool getPlayerPool(Context context) {
+        if (sPlayerPool == null) {
+            final PlayerPool pool =
+                    new PlayerPool(
+                            MediaPlayerEngine.FACTORY, MAX_ACTIVE_PLAYERS, MAX_IDLE_PLAYERS);
+            context.registerComponentCallbacks(
+                    new ComponentCallbacks2() {
+                        @Override
+                        public void onTrimMemory(int level) {
+                            pool.trim(
+                                    level >= TRIM_MEMORY_RUNNING_LOW ? 0 : MAX_IDLE_PLAYERS / 2);
+                        }
+
+                        @Override
+                        public void onLowMemory() {
+                            pool.trim(0);
+                        }
+
+                        @Override
+                        public void onConfigurationChanged(Configuration newConfig) {}
+                    });
+            sPlayerPool = pool;
+        }
+        return sPlayerPool;
+    }
+
+    /**
+     * Prints the counters of the players shared by the sessions, e.g. for {@code dumpsys}.
+     *
+     * @param writer Where to print them.
+     * @param prefix Printed at the start of every line.
+     */
+    public static void dumpPlayerPool(PrintWriter writer, String prefix) {
+        if (sPlayerPool != null) {
+            sPlayerPool.dump(writer, prefix);
+        }
+    }
+
+    /** The store is read in the background as soon as it is created. */
+    private static ResumePositionStore getPositionStore(Context context) {
+        if (sPositionStore == null) {
+            sPositionStore =
+                    new ResumePositionStore(
+                            new File(context.getFilesDir(), "resume_positions"),
+                            new ResumePositionStore.Scheduler() {
+                                private final ScheduledExecutorService mExecutor =
+                                        Executors.newSingleThreadScheduledExecutor();
+
+                                @Override
+                                public void execute(Runnable task) {
+                                    mExecutor.execute(task);
+                                }
+
+                                @Override
+                                public void schedule(Runnable task, long delayMs) {
+                                    mExecutor.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+                                }
+                            });
+        }
+        return sPositionStore;
+    }
+
+    /** The cache is read on the first access to a remote video, in the background. */
+    private static VideoCache getVideoCache(Context context) {
+        if (sVideoCache == null) {
+            sVideoCache =
+                    new VideoCache(
+                            new File(context.getCacheDir(), "video_cache"), VIDEO_CACHE_BYTES);
+        }
+        return sVideoCache;
+    }
+
+    /**
+     * Sets the factory of the players of this session. By default, videos are played with {@link
+     * MediaPlayerEngine}. The players are still recycled and budgeted with the ones of the other
+     * sessions. This takes effect the next time a video is opened.
+     *
+     * @param factory The factory to be set.
+     */
+    public void setPlayerEngineFactory(PlayerEngine.Factory factory) {
+        mEngineFactory = factory;
+    }
+
+    /** Releases the player. The session can be used again; the video is prepared again. */
+    public void release() {
+        mController.close();
+    }
+
+    PlaybackController getController() {
+        return mController;
+    }
+
+    /**
+     * Sets the view receiving the results of the playback operations, replacing the previous one.
+     */
+    void setCallback(@Nullable PlaybackController.Callback callback) {
+        mCallback = callback;
+    }
+
+    PlaybackController.Callback getCallback() {
+        return mCallback;
+    }
+
+    @Nullable
+    Playlist<Uri> getPlaylist() {
+        return mPlaylist;
+    }
+
+    /** Sets the videos to play. This takes effect the next time the video is started. */
+    void setPlaylist(@Nullable Playlist<Uri> playlist) {
+        mPlaylist = playlist;
+        mPicked.clear();
+        mController.setPlaylist(playlist);
+    }
+
+    /**
+     * Sets the renditions of a video, the best first. The video is played from the first one that
+     * the device can decode.
+     *
+     * @param renditions The URIs of the renditions. The first one stands for the video in the
+     *     playlist.
+     * @throws IllegalArgumentException If there are no renditions.
+     */
+    void setRenditions(List<Uri> renditions) {
+        if (renditions.isEmpty()) {
+            throw new IllegalArgumentException("A video needs at least one rendition");
+        }
+        mRenditions.put(renditions.get(0), new ArrayList<>(renditions));
+        mPicked.remove(renditions.get(0));
+    }
+
+    /**
+     * Sets the videos to play, without interrupting the open video if it is one of them.
+     *
+     * @return {@code true} if the open video goes on.
+     */
+    boolean switchPlaylist(Playlist<Uri> playlist) {
+        mPlaylist = playlist;
+        return mController.switchPlaylist(playlist);
+    }
+}
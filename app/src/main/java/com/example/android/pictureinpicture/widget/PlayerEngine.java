@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import android.content.res.AssetFileDescriptor;
+import android.support.annotation.IntDef;
+import android.support.annotation.Nullable;
+import android.view.Surface;
+
+import java.io.IOException;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Decodes and renders a video for {@link MovieView}.
+ *
+ * <p>The contract follows the state machine of {@link android.media.MediaPlayer}: a data source is
+ * set, the engine is prepared asynchronously, and playback can be controlled once {@link
+ * Listener#onPrepared(PlayerEngine)} has been called. All the methods are called on the UI thread,
+ * and the listener must be called back on the UI thread as well.
+ */
+public interface PlayerEngine {
+
+    /**
+     * Seeks to the sync frame closest to the position. This is fast, and meant for scrubbing.
+     * Same as {@link android.media.MediaPlayer#SEEK_CLOSEST_SYNC}.
+     */
+    int SEEK_CLOSEST_SYNC = 2;
+
+    /**
+     * Seeks to the frame closest to the position, decoding from the previous sync frame. This is
+     * precise but slower. Same as {@link android.media.MediaPlayer#SEEK_CLOSEST}.
+     */
+    int SEEK_CLOSEST = 3;
+
+    @IntDef({SEEK_CLOSEST_SYNC, SEEK_CLOSEST})
+    @Retention(RetentionPolicy.SOURCE)
+    @interface SeekMode {}
+
+    /** Creates {@link PlayerEngine} instances, so that the engine can be chosen per device. */
+    interface Factory {
+
+        /**
+         * Creates a new idle engine.
+         *
+         * @return The engine, or {@code null} if no more engines may be used right now, e.g. when
+         *     the decoders are all taken.
+         */
+        @Nullable
+        PlayerEngine create();
+    }
+
+    /** Monitors events from a {@link PlayerEngine}. */
+    abstract class Listener {
+
+        /** Called when the engine is ready to play. */
+        public void onPrepared(PlayerEngine engine) {}
+
+        /** Called when the playback reached the end of the video. */
+        public void onCompletion(PlayerEngine engine) {}
+
+        /** Called when a seek operation has completed. */
+        public void onSeekComplete(PlayerEngine engine) {}
+
+        /** Called when the first frame after preparing or starting has been rendered. */
+        public void onRenderingStart(PlayerEngine engine) {}
+
+        /** Called when the size of the video is known or has changed. */
+        public void onVideoSizeChanged(PlayerEngine engine, int width, int height) {}
+
+        /**
+         * Called when the engine failed to prepare or to play the video.
+         *
+         * @return {@code true} if the error was handled.
+         */
+        public boolean onError(PlayerEngine engine, int what, int extra) {
+            return false;
+        }
+    }
+
+    /**
+     * Sets the listener to monitor events of this engine.
+     *
+     * @param listener The listener to be set, or {@code null} to remove the current one.
+     */
+    void setListener(@Nullable Listener listener);
+
+    /**
+     * Sets the surface the video is rendered to.
+     *
+     * @param surface The surface, or {@code null} to render nowhere.
+     */
+    void setSurface(@Nullable Surface surface);
+
+    /**
+     * Sets the video to play. The engine must be idle.
+     *
+     * @param fd The file descriptor of the video. The caller closes it.
+     * @throws IOException If the video cannot be opened.
+     */
+    void setDataSource(AssetFileDescriptor fd) throws IOException;
+
+    /**
+     * Sets a video to play that is read as it plays. The engine must be idle.
+     *
+     * @param stream The video. The engine closes it when it is done with it.
+     * @throws IOException If the video cannot be opened.
+     */
+    void setDataSource(VideoStream stream) throws IOException;
+
+    /** Starts preparing the video without blocking the caller. */
+    void prepareAsync();
+
+    void start();
+
+    void pause();
+
+    /**
+     * Seeks to the specified position. {@link Listener#onSeekComplete(PlayerEngine)} is called
+     * when it is done.
+     *
+     * @param msec The position in milliseconds.
+     * @param mode Either {@link #SEEK_CLOSEST_SYNC} or {@link #SEEK_CLOSEST}.
+     */
+    void seekTo(int msec, @SeekMode int mode);
+
+    boolean isPlaying();
+
+    /** Returns the current position in milliseconds. */
+    int getCurrentPosition();
+
+    /** Returns the duration of the video in milliseconds. */
+    int getDuration();
+
+    int getVideoWidth();
+
+    int getVideoHeight();
+
+    /**
+     * Returns how many video frames the decoder has dropped since the data source was set, or -1
+     * if the engine does not tell. This may be slow; it is not meant to be called on every frame.
+     */
+    long getDroppedVideoFrameCount();
+
+    /** Goes back to the idle state, so that another data source can be set. */
+    void reset();
+
+    /** Releases all the resources. The engine cannot be used after this. */
+    void release();
+}
@@ -0,0 +1,407 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import android.content.res.AssetFileDescriptor;
+import android.support.annotation.Nullable;
+import android.view.Surface;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Recycles engines instead of creating a new one for every video, and limits how many of them are
+ * in use at the same time.
+ *
+ * <p>An engine released by its user is reset and kept idle, so that the next {@link #create()}
+ * reuses it instead of constructing a player. A reset engine holds no decoder; only the engines in
+ * use count against the decoder budget. The idle ones are released for good by {@link
+ * #trim(int)}, e.g. when the system runs low on memory.
+ *
+ * <p>The budget is never exceeded. When it is used up, the oldest engine marked {@link
+ * #setPreemptible(PlayerEngine, boolean) preemptible}, e.g. one preparing an upcoming video, is
+ * taken back to make room; its listener gets {@link #ERROR_PREEMPTED}. If there is none, no engine
+ * is created.
+ *
+ * <p>Engines of several kinds can share the pool, and its budget. An idle engine is only reused by
+ * {@link #create(PlayerEngine.Factory)} with the factory that created it. The budget counts
+ * engines, not codecs: a {@link MediaCodecEngine}, which holds an audio and a video decoder, counts
+ * as one.
+ *
+ * <p>This is only used on the UI thread.
+ */
+final class PlayerPool implements PlayerEngine.Factory, PlaybackController.DecoderBudget {
+
+    /**
+     * Reported to the listener of an engine taken back to make room for another one. The engine
+     * is already released.
+     */
+    static final int ERROR_PREEMPTED = 100; // Same as MediaPlayer.MEDIA_ERROR_SERVER_DIED
+
+    private final PlayerEngine.Factory mFactory;
+
+    private final int mMaxActive;
+
+    private final int mMaxIdle;
+
+    /** Reset engines, the most recently released last. */
+    private final ArrayDeque<IdleEngine> mIdle = new ArrayDeque<>();
+
+    /** Engines in use that may be taken back, the oldest first. */
+    private final ArrayDeque<PooledEngine> mPreemptible = new ArrayDeque<>();
+
+    /** The number of engines handed out and not released yet. */
+    private int mActiveCount;
+
+    private int mHitCount;
+
+    private int mMissCount;
+
+    private int mEvictionCount;
+
+    private int mPreemptionCount;
+
+    private int mRefusalCount;
+
+    /**
+     * @param factory Creates the engines of {@link #create()} when there is no idle one.
+     * @param maxActive How many engines may hold decoders at the same time, however many each.
+     * @param maxIdle How many released engines are kept to be reused.
+     */
+    PlayerPool(PlayerEngine.Factory factory, int maxActive, int maxIdle) {
+        mFactory = factory;
+        mMaxActive = maxActive;
+        mMaxIdle = maxIdle;
+    }
+
+    /**
+     * Returns an idle engine, or a new one if there is none. When the decoder budget is used up, a
+     * preemptible engine is taken back first; the callers that can do without check {@link
+     * #getAvailableDecoders()} instead.
+     *
+     * @return The engine, or {@code null} if the budget is used up by engines that are not
+     *     preemptible.
+     */
+    @Override
+    @Nullable
+    public PlayerEngine create() {
+        return create(mFactory);
+    }
+
+    /**
+     * Returns an idle engine created by a factory, or a new one from it if there is none. This
+     * counts against the same budget as {@link #create()}.
+     *
+     * @return The engine, or {@code null} if the budget is used up by engines that are not
+     *     preemptible.
+     */
+    @Nullable
+    PlayerEngine create(PlayerEngine.Factory factory) {
+        if (mActiveCount >= mMaxActive) {
+            final PooledEngine preempted = mPreemptible.pollFirst();
+            if (preempted == null) {
+                mRefusalCount++;
+                return null;
+            }
+            preempted.preempt();
+        }
+        PlayerEngine engine = pollIdle(factory);
+        if (engine != null) {
+            mHitCount++;
+        } else {
+            mMissCount++;
+            engine = factory.create();
+        }
+        mActiveCount++;
+        return new PooledEngine(engine, factory);
+    }
+
+    /** Takes the most recently released engine created by a factory out of the idle ones. */
+    @Nullable
+    private PlayerEngine pollIdle(PlayerEngine.Factory factory) {
+        final Iterator<IdleEngine> iterator = mIdle.descendingIterator();
+        while (iterator.hasNext()) {
+            final IdleEngine idle = iterator.next();
+            if (idle.factory == factory) {
+                iterator.remove();
+                return idle.engine;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public int getAvailableDecoders() {
+        return Math.max(0, mMaxActive - mActiveCount);
+    }
+
+    @Override
+    public void setPreemptible(PlayerEngine engine, boolean preemptible) {
+        if (!(engine instanceof PooledEngine)) {
+            return;
+        }
+        final PooledEngine pooled = (PooledEngine) engine;
+        mPreemptible.remove(pooled);
+        if (preemptible && pooled.mEngine != null) {
+            mPreemptible.addLast(pooled);
+        }
+    }
+
+    /**
+     * Releases the idle engines beyond a number, the least recently used first.
+     *
+     * @param maxIdle How many idle engines to keep.
+     */
+    void trim(int maxIdle) {
+        while (mIdle.size() > maxIdle) {
+            mIdle.pollFirst().engine.release();
+            mEvictionCount++;
+        }
+    }
+
+    int getActiveCount() {
+        return mActiveCount;
+    }
+
+    int getIdleCount() {
+        return mIdle.size();
+    }
+
+    /** The number of engines reused instead of created. */
+    int getHitCount() {
+        return mHitCount;
+    }
+
+    /** The number of engines created because there was no idle one. */
+    int getMissCount() {
+        return mMissCount;
+    }
+
+    /** The number of idle engines released for good. */
+    int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    /** The number of engines taken back to make room for another one. */
+    int getPreemptionCount() {
+        return mPreemptionCount;
+    }
+
+    /** The number of engines not created because the budget was used up. */
+    int getRefusalCount() {
+        return mRefusalCount;
+    }
+
+    /** Prints the counters, e.g. for {@code dumpsys}. */
+    void dump(PrintWriter writer, String prefix) {
+        writer.print(prefix);
+        writer.print("active=");
+        writer.print(mActiveCount);
+        writer.print(" idle=");
+        writer.print(mIdle.size());
+        writer.print(" hits=");
+        writer.print(mHitCount);
+        writer.print(" misses=");
+        writer.print(mMissCount);
+        writer.print(" evictions=");
+        writer.print(mEvictionCount);
+        writer.print(" preemptions=");
+        writer.print(mPreemptionCount);
+        writer.print(" refusals=");
+        writer.println(mRefusalCount);
+    }
+
+    private void recycle(PlayerEngine engine, PlayerEngine.Factory factory) {
+        mActiveCount--;
+        engine.setListener(null);
+        engine.setSurface(null);
+        // This releases the decoder and the data source, but keeps the player.
+        engine.reset();
+        mIdle.addLast(new IdleEngine(engine, factory));
+        trim(mMaxIdle);
+    }
+
+    /**
+     * Hands an engine of the pool to its user. Releasing it returns it to the pool; the user never
+     * sees the engine itself, so that it cannot be used once it is given to someone else.
+     */
+    private final class PooledEngine implements PlayerEngine {
+
+        /** This is null once released. */
+        private PlayerEngine mEngine;
+
+        /** Created {@link #mEngine}; the engine is only reused with the same one. */
+        private final PlayerEngine.Factory mFactory;
+
+        /** The listener of the user, told when the engine is preempted. */
+        private Listener mListener;
+
+        PooledEngine(PlayerEngine engine, PlayerEngine.Factory factory) {
+            mEngine = engine;
+            mFactory = factory;
+        }
+
+        @Override
+        public void setListener(@Nullable final Listener listener) {
+            mListener = listener;
+            if (listener == null) {
+                mEngine.setListener(null);
+                return;
+            }
+            // Reports this as the engine, so that the listener may release it.
+            mEngine.setListener(
+                    new Listener() {
+                        @Override
+                        public void onPrepared(PlayerEngine engine) {
+                            listener.onPrepared(PooledEngine.this);
+                        }
+
+                        @Override
+                        public void onCompletion(PlayerEngine engine) {
+                            listener.onCompletion(PooledEngine.this);
+                        }
+
+                        @Override
+                        public void onSeekComplete(PlayerEngine engine) {
+                            listener.onSeekComplete(PooledEngine.this);
+                        }
+
+                        @Override
+                        public void onRenderingStart(PlayerEngine engine) {
+                            listener.onRenderingStart(PooledEngine.this);
+                        }
+
+                        @Override
+                        public void onVideoSizeChanged(PlayerEngine engine, int width, int height) {
+                            listener.onVideoSizeChanged(PooledEngine.this, width, height);
+                        }
+
+                        @Override
+                        public boolean onError(PlayerEngine engine, int what, int extra) {
+                            return listener.onError(PooledEngine.this, what, extra);
+                        }
+                    });
+        }
+
+        @Override
+        public void setSurface(@Nullable Surface surface) {
+            mEngine.setSurface(surface);
+        }
+
+        @Override
+        public void setDataSource(AssetFileDescriptor fd) throws IOException {
+            mEngine.setDataSource(fd);
+        }
+
+        @Override
+        public void setDataSource(VideoStream stream) throws IOException {
+            mEngine.setDataSource(stream);
+        }
+
+        @Override
+        public void prepareAsync() {
+            mEngine.prepareAsync();
+        }
+
+        @Override
+        public void start() {
+            mEngine.start();
+        }
+
+        @Override
+        public void pause() {
+            mEngine.pause();
+        }
+
+        @Override
+        public void seekTo(int msec, @SeekMode int mode) {
+            mEngine.seekTo(msec, mode);
+        }
+
+        @Override
+        public boolean isPlaying() {
+            return mEngine.isPlaying();
+        }
+
+        @Override
+        public int getCurrentPosition() {
+            return mEngine.getCurrentPosition();
+        }
+
+        @Override
+        public int getDuration() {
+            return mEngine.getDuration();
+        }
+
+        @Override
+        public int getVideoWidth() {
+            return mEngine.getVideoWidth();
+        }
+
+        @Override
+        public int getVideoHeight() {
+            return mEngine.getVideoHeight();
+        }
+
+        @Override
+        public long getDroppedVideoFrameCount() {
+            return mEngine.getDroppedVideoFrameCount();
+        }
+
+        @Override
+        public void reset() {
+            mEngine.reset();
+        }
+
+        @Override
+        public void release() {
+            if (mEngine == null) {
+                return;
+            }
+            final PlayerEngine engine = mEngine;
+            mEngine = null;
+            mPreemptible.remove(this);
+            recycle(engine, mFactory);
+        }
+
+        /** Takes the engine back from its user, who is told through its listener. */
+        void preempt() {
+            final Listener listener = mListener;
+            mListener = null;
+            release();
+            mPreemptionCount++;
+            if (listener != null) {
+                listener.onError(this, ERROR_PREEMPTED, 0);
+            }
+        }
+    }
+
+    /** A reset engine, with the factory that created it. */
+    private static final class IdleEngine {
+
+        final PlayerEngine engine;
+
+        final PlayerEngine.Factory factory;
+
+        IdleEngine(PlayerEngine engine, PlayerEngine.Factory factory) {
+            this.engine = engine;
+            this.factory = factory;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An ordered list of videos with a current position.
+ *
+ * @param <T> The type of the items.
+ */
+public final class Playlist<T> {
+
+    private final List<T> mItems;
+
+    private int mIndex;
+
+    /**
+     * Creates a playlist positioned at its first item.
+     *
+     * @param items The items. Must not be empty.
+     */
+    public Playlist(List<T> items) {
+        if (items.isEmpty()) {
+            throw new IllegalArgumentException("A playlist needs at least one item");
+        }
+        mItems = Collections.unmodifiableList(new ArrayList<>(items));
+    }
+
+    public int size() {
+        return mItems.size();
+    }
+
+    public T get(int index) {
+        return mItems.get(index);
+    }
+
+    public int getCurrentIndex() {
+        return mIndex;
+    }
+
+    public T getCurrent() {
+        return mItems.get(mIndex);
+    }
+
+    public boolean hasNext() {
+        return mIndex + 1 < mItems.size();
+    }
+
+    public boolean hasPrevious() {
+        return mIndex > 0;
+    }
+
+    /**
+     * Returns the index of the item {@code offset} positions away from the current one.
+     *
+     * @param offset The distance from the current item; negative to look back.
+     * @return The index, or -1 if it is out of the playlist.
+     */
+    public int peekIndex(int offset) {
+        final int index = mIndex + offset;
+        return index >= 0 && index < mItems.size() ? index : -1;
+    }
+
+    /**
+     * Returns the index of the first occurrence of an item.
+     *
+     * @param item The item to look for.
+     * @return The index, or -1 if it is not in the playlist.
+     */
+    public int indexOf(Object item) {
+        return mItems.indexOf(item);
+    }
+
+    /**
+     * Moves to the specified item.
+     *
+     * @param index The index of the item.
+     */
+    public void moveTo(int index) {
+        if (index < 0 || index >= mItems.size()) {
+            throw new IndexOutOfBoundsException("Index " + index + " of " + mItems.size());
+        }
+        mIndex = index;
+    }
+}
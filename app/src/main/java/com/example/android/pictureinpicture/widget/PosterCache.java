@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Stores the poster frames of videos on disk, so that one can be shown as soon as a video is
+ * opened again, even after a process restart.
+ *
+ * <p>Entries are keyed by the URI of the video and hold an encoded image. Only the most recently
+ * used ones are kept. All the methods do disk I/O and must not be called on the UI thread.
+ */
+final class PosterCache {
+
+    /** Bumped whenever the file format changes. */
+    private static final int FORMAT_VERSION = 1;
+
+    private final File mDirectory;
+
+    private final int mMaxEntries;
+
+    /**
+     * @param directory Where the entries are stored. It is created when needed.
+     * @param maxEntries How many posters are kept.
+     */
+    PosterCache(File directory, int maxEntries) {
+        mDirectory = directory;
+        mMaxEntries = maxEntries;
+    }
+
+    /**
+     * Reads the poster of a video.
+     *
+     * @param key The URI of the video.
+     * @return The encoded image, or {@code null} if there is no valid entry.
+     */
+    @WorkerThread
+    @Nullable
+    byte[] load(String key) {
+        final File file = fileFor(key);
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream in =
+                new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() == FORMAT_VERSION && key.equals(in.readUTF())) {
+                final byte[] image = new byte[in.readInt()];
+                in.readFully(image);
+                // Keeps it from being evicted
+                file.setLastModified(System.currentTimeMillis());
+                return image;
+            }
+        } catch (IOException e) {
+            // Fall through; the entry is rewritten when the video is shown again.
+        }
+        // Corrupt, or another key with the same hash
+        file.delete();
+        return null;
+    }
+
+    /**
+     * Writes the poster of a video, replacing the previous one. A partially written entry is never
+     * visible to {@link #load(String)}.
+     *
+     * @param key The URI of the video.
+     * @param image The encoded image.
+     * @return {@code true} if the entry was written.
+     */
+    @WorkerThread
+    boolean store(String key, byte[] image) {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            return false;
+        }
+        final File file = fileFor(key);
+        final File temp = new File(mDirectory, file.getName() + ".tmp");
+        try (DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(key);
+            out.writeInt(image.length);
+            out.write(image);
+        } catch (IOException e) {
+            temp.delete();
+            return false;
+        }
+        if (!temp.renameTo(file)) {
+            return false;
+        }
+        trim();
+        return true;
+    }
+
+    /** Deletes the poster of a video, e.g. once it has been watched to the end. */
+    @WorkerThread
+    void remove(String key) {
+        fileFor(key).delete();
+    }
+
+    /** Deletes the least recently used posters beyond the maximum. */
+    private void trim() {
+        final File[] files = mDirectory.listFiles();
+        if (files == null || files.length <= mMaxEntries) {
+            return;
+        }
+        Arrays.sort(
+                files,
+                new Comparator<File>() {
+                    @Override
+                    public int compare(File a, File b) {
+                        return Long.compare(b.lastModified(), a.lastModified());
+                    }
+                });
+        for (int i = mMaxEntries; i < files.length; i++) {
+            files[i].delete();
+        }
+    }
+
+    private File fileFor(String key) {
+        return new File(mDirectory, Integer.toHexString(key.hashCode()));
+    }
+}
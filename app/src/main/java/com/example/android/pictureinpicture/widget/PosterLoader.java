@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.MainThread;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Provides the poster frames shown by {@link MovieView} until the first frame of a video is
+ * decoded, without blocking the UI thread.
+ *
+ * <p>The poster of a video is the frame it was last paused at, or its first frame until it has
+ * been paused. Posters are kept in memory for the lifetime of the process, and on disk across
+ * restarts.
+ */
+final class PosterLoader {
+
+    private static final String TAG = "PosterLoader";
+
+    /** How many bytes the posters in memory may take. */
+    private static final int MEMORY_BYTES = 8 * 1024 * 1024;
+
+    /** How many posters are kept on disk. */
+    private static final int MAX_STORED = 32;
+
+    /** The width of the posters taken from the first frame of a video. */
+    private static final int FIRST_FRAME_WIDTH = 960; // px
+
+    private static final int JPEG_QUALITY = 85;
+
+    /** Receives the posters loaded by {@link #load(Context, Uri, Callback)}. */
+    interface Callback {
+        void onPosterLoaded(Uri uri, Bitmap poster);
+    }
+
+    /** Reads and writes the disk cache, one poster at a time. */
+    private static final Executor sExecutor = Executors.newSingleThreadExecutor();
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    /** The posters loaded so far. This is only accessed on the UI thread. */
+    private static final LruCache<Uri, Bitmap> sLoaded =
+            new LruCache<Uri, Bitmap>(MEMORY_BYTES) {
+                @Override
+                protected int sizeOf(Uri uri, Bitmap poster) {
+                    return poster.getAllocationByteCount();
+                }
+            };
+
+    /** The posters being loaded. This is only accessed on the UI thread. */
+    private static final Set<Uri> sLoading = new HashSet<>();
+
+    /** Created on the worker thread when first needed. */
+    private static PosterCache sCache;
+
+    private PosterLoader() {}
+
+    /**
+     * Returns the poster of a video if it has already been loaded.
+     *
+     * @return The poster, or {@code null} if it is not in memory yet.
+     */
+    @MainThread
+    @Nullable
+    static Bitmap get(Uri uri) {
+        return sLoaded.get(uri);
+    }
+
+    /**
+     * Loads the poster of a video if it is not in memory yet.
+     *
+     * @param callback Called on the UI thread once the poster is loaded, if there is one.
+     */
+    @MainThread
+    static void load(Context context, final Uri uri, final Callback callback) {
+        if (sLoaded.get(uri) != null || !sLoading.add(uri)) {
+            return;
+        }
+        final Context appContext = context.getApplicationContext();
+        sExecutor.execute(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        final Bitmap poster = loadInBackground(appContext, uri);
+                        sMainHandler.post(
+                                new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        sLoading.remove(uri);
+                                        if (poster == null) {
+                                            return;
+                                        }
+                                        // A newer one may have been stored in the meantime.
+                                        if (sLoaded.get(uri) == null) {
+                                            sLoaded.put(uri, poster);
+                                        }
+                                        callback.onPosterLoaded(uri, sLoaded.get(uri));
+                                    }
+                                });
+                    }
+                });
+    }
+
+    /** Replaces the poster of a video, e.g. with the frame it was paused at. */
+    @MainThread
+    static void store(Context context, final Uri uri, final Bitmap poster) {
+        sLoaded.put(uri, poster);
+        final Context appContext = context.getApplicationContext();
+        sExecutor.execute(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                        if (poster.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out)) {
+                            getCache(appContext).store(uri.toString(), out.toByteArray());
+                        }
+                    }
+                });
+    }
+
+    /** Drops the poster of a video, so that the next one is taken from its first frame. */
+    @MainThread
+    static void remove(Context context, final Uri uri) {
+        sLoaded.remove(uri);
+        final Context appContext = context.getApplicationContext();
+        sExecutor.execute(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        getCache(appContext).remove(uri.toString());
+                    }
+                });
+    }
+
+    @WorkerThread
+    @Nullable
+    private static Bitmap loadInBackground(Context context, Uri uri) {
+        final PosterCache cache = getCache(context);
+        final String key = uri.toString();
+        final byte[] image = cache.load(key);
+        if (image != null) {
+            final BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inPreferredConfig = Bitmap.Config.RGB_565;
+            final Bitmap poster = BitmapFactory.decodeByteArray(image, 0, image.length, options);
+            if (poster != null) {
+                return poster;
+            }
+        }
+        if (HttpVideoStream.supports(uri.getScheme())) {
+            // Reading a frame would download the video around the cache.
+            return null;
+        }
+        final Bitmap poster = extractFirstFrame(context, uri);
+        if (poster != null) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            if (poster.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out)) {
+                cache.store(key, out.toByteArray());
+            }
+        }
+        return poster;
+    }
+
+    @WorkerThread
+    @Nullable
+    private static Bitmap extractFirstFrame(Context context, Uri uri) {
+        final MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(context, uri);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1) {
+                // Fits in the square, keeping the aspect ratio
+                return retriever.getScaledFrameAtTime(
+                        0,
+                        MediaMetadataRetriever.OPTION_CLOSEST_SYNC,
+                        FIRST_FRAME_WIDTH,
+                        FIRST_FRAME_WIDTH);
+            }
+            final Bitmap frame =
+                    retriever.getFrameAtTime(0, MediaMetadataRetriever.OPTION_CLOSEST_SYNC);
+            if (frame == null || frame.getWidth() <= FIRST_FRAME_WIDTH) {
+                return frame;
+            }
+            final Bitmap poster =
+                    Bitmap.createScaledBitmap(
+                            frame,
+                            FIRST_FRAME_WIDTH,
+                            frame.getHeight() * FIRST_FRAME_WIDTH / frame.getWidth(),
+                            true);
+            frame.recycle();
+            return poster;
+        } catch (RuntimeException e) {
+            // MediaMetadataRetriever reports every failure this way.
+            Log.w(TAG, "Cannot read the first frame of " + uri, e);
+            return null;
+        } finally {
+            retriever.release();
+        }
+    }
+
+    @WorkerThread
+    private static PosterCache getCache(Context context) {
+        if (sCache == null) {
+            sCache = new PosterCache(new File(context.getCacheDir(), "posters"), MAX_STORED);
+        }
+        return sCache;
+    }
+}
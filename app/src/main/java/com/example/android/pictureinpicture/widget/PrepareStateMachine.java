@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+/**
+ * Tracks the preparation state of the player behind {@link MovieView}.
+ *
+ * <p>Every call to {@link #begin()} returns a token identifying that particular preparation.
+ * Completions are reported back with the token, and the ones carrying a stale token (because the
+ * video was restarted or closed while it was still preparing) are ignored.
+ */
+final class PrepareStateMachine {
+
+    /** No video is loaded, or the video has been closed. */
+    static final int STATE_IDLE = 0;
+
+    /** The video is being prepared in the background. */
+    static final int STATE_PREPARING = 1;
+
+    /** The video is ready to be played. */
+    static final int STATE_PREPARED = 2;
+
+    /** The video failed to open or to prepare. */
+    static final int STATE_ERROR = 3;
+
+    private int mState = STATE_IDLE;
+
+    private int mToken;
+
+    /**
+     * Starts a new preparation. Any preparation in flight becomes stale.
+     *
+     * @return The token to be passed to {@link #complete(int)} or {@link #fail(int)}.
+     */
+    int begin() {
+        mState = STATE_PREPARING;
+        return ++mToken;
+    }
+
+    /**
+     * Marks the preparation identified by {@code token} as done.
+     *
+     * @param token The token returned by {@link #begin()}.
+     * @return {@code true} if the preparation is still current; {@code false} if it is stale and
+     *     the result should be discarded.
+     */
+    boolean complete(int token) {
+        if (token != mToken || mState != STATE_PREPARING) {
+            return false;
+        }
+        mState = STATE_PREPARED;
+        return true;
+    }
+
+    /**
+     * Marks the preparation identified by {@code token} as failed.
+     *
+     * @param token The token returned by {@link #begin()}.
+     * @return {@code true} if the preparation is still current.
+     */
+    boolean fail(int token) {
+        if (token != mToken) {
+            return false;
+        }
+        mState = STATE_ERROR;
+        return true;
+    }
+
+    /** Returns to {@link #STATE_IDLE}, invalidating any preparation in flight. */
+    void reset() {
+        mState = STATE_IDLE;
+        mToken++;
+    }
+
+    int getState() {
+        return mState;
+    }
+
+    boolean isPrepared() {
+        return mState == STATE_PREPARED;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import android.support.annotation.Nullable;
+import android.view.Surface;
+import android.view.View;
+
+/**
+ * The view {@link MovieView} renders the video to, and the lifecycle of its {@link Surface}.
+ */
+abstract class RenderTarget {
+
+    /** Monitors the surface of a {@link RenderTarget}. */
+    interface Callback {
+
+        /** Called when a new surface is available for rendering. */
+        void onSurfaceCreated(Surface surface);
+
+        /** Called when the surface is going away; nothing must be rendered to it any more. */
+        void onSurfaceDestroyed();
+
+        /** Called when a frame of the video reaches the view, if the target can tell. */
+        void onVideoFrame();
+    }
+
+    final Callback mCallback;
+
+    RenderTarget(Callback callback) {
+        mCallback = callback;
+    }
+
+    /** Returns the view showing the video. */
+    abstract View getView();
+
+    /** Returns the surface if it can be rendered to, or {@code null}. */
+    @Nullable
+    abstract Surface getSurface();
+
+    /** Whether {@link Callback#onVideoFrame()} is called for every frame of the video. */
+    abstract boolean reportsVideoFrames();
+
+    /** Whether the surface survives the view being detached from the window and reattached. */
+    abstract boolean isRetainedAcrossDetach();
+
+    /** Called when {@link MovieView} is attached to a window, before anything is drawn. */
+    void onAttachedToWindow() {}
+
+    /** Releases the surface for good, if it is owned by this. */
+    void release() {}
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import android.support.annotation.WorkerThread;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers where each video was left, so that it resumes there after the process is gone.
+ *
+ * <p>Positions are kept in memory and written to an append-only log on a background executor.
+ * A write waits {@link #FLUSH_DELAY_MS} before it goes out, so that the changes made in a burst,
+ * e.g. a pause followed by a skip, share a single sync to disk. The positions changed in that
+ * window are lost if the process dies. Every record stays in the log until it outgrows the live
+ * entries, and the log is then rewritten with only those.
+ *
+ * <p>The log is read in the background when the store is created. Until then, {@link
+ * #get(String)} knows nothing but the positions put since.
+ */
+final class ResumePositionStore {
+
+    /** Runs the disk I/O of the store. It must run the tasks one at a time, in order. */
+    interface Scheduler extends Executor {
+
+        /** Runs a task once the specified delay has passed. */
+        void schedule(Runnable task, long delayMs);
+    }
+
+    /** How long a change waits for the ones following it before it is written. */
+    static final long FLUSH_DELAY_MS = TimeUnit.SECONDS.toMillis(1);
+
+    /** Bumped whenever the file format changes. */
+    private static final int FORMAT_VERSION = 1;
+
+    /** The log is never compacted below this many records. */
+    private static final int MIN_COMPACT_RECORDS = 64;
+
+    private final File mFile;
+
+    private final Scheduler mScheduler;
+
+    private final Object mLock = new Object();
+
+    /** The known positions, in milliseconds. Guarded by {@link #mLock}. */
+    private final Map<String, Integer> mPositions = new HashMap<>();
+
+    /** The changes not written yet; 0 forgets a position. Guarded by {@link #mLock}. */
+    private final Map<String, Integer> mPending = new LinkedHashMap<>();
+
+    /** Whether {@link #mFlush} is waiting on the scheduler. Guarded by {@link #mLock}. */
+    private boolean mFlushScheduled;
+
+    /** Whether the log has been read. Guarded by {@link #mLock}. */
+    private boolean mLoaded;
+
+    /** The number of records in the log. This is only written on the executor. */
+    private volatile int mRecordCount;
+
+    /** Whether the log has to be rewritten before anything is appended to it. */
+    private boolean mNeedsCompaction;
+
+    /** How many times the log has been synced to disk. This is only written on the executor. */
+    private volatile int mSyncCount;
+
+    private final Runnable mFlush =
+            new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            };
+
+    /**
+     * @param file The log. It is created when needed.
+     * @param scheduler Where the disk I/O runs.
+     */
+    ResumePositionStore(File file, Scheduler scheduler) {
+        mFile = file;
+        mScheduler = scheduler;
+        scheduler.execute(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        load();
+                    }
+                });
+    }
+
+    /**
+     * @param key The URI of the video.
+     * @return The position to resume at in milliseconds, or 0 to start from the beginning.
+     */
+    int get(String key) {
+        synchronized (mLock) {
+            final Integer position = mPositions.get(key);
+            return position == null ? 0 : position;
+        }
+    }
+
+    /**
+     * Remembers the position of a video. It is written to disk {@link #FLUSH_DELAY_MS} later.
+     *
+     * @param key The URI of the video.
+     * @param positionMs The position in milliseconds, or 0 to forget it.
+     */
+    void put(String key, int positionMs) {
+        final int position = Math.max(0, positionMs);
+        synchronized (mLock) {
+            final Integer previous =
+                    position > 0 ? mPositions.put(key, position) : mPositions.remove(key);
+            // Until the log is read, even a change that looks like a no-op has to override it.
+            if (mLoaded && (previous == null ? 0 : previous) == position) {
+                return;
+            }
+            mPending.put(key, position);
+            if (mFlushScheduled) {
+                // It goes out with the write already waiting.
+                return;
+            }
+            mFlushScheduled = true;
+        }
+        mScheduler.schedule(mFlush, FLUSH_DELAY_MS);
+    }
+
+    /** The number of records in the log. */
+    int getRecordCount() {
+        return mRecordCount;
+    }
+
+    /** How many times the log has been synced to disk. */
+    int getSyncCount() {
+        return mSyncCount;
+    }
+
+    @WorkerThread
+    private void load() {
+        final Map<String, Integer> loaded = new HashMap<>();
+        int records = 0;
+        if (mFile.exists()) {
+            try {
+                // The log is small enough to be read at once, which also tells a cut record from
+                // the end of the file.
+                final DataInputStream in =
+                        new DataInputStream(
+                                new ByteArrayInputStream(Files.readAllBytes(mFile.toPath())));
+                if (in.readInt() != FORMAT_VERSION) {
+                    throw new IOException("Unknown format");
+                }
+                while (in.available() > 0) {
+                    final String key = in.readUTF();
+                    final int position = in.readInt();
+                    records++;
+                    if (position > 0) {
+                        loaded.put(key, position);
+                    } else {
+                        loaded.remove(key);
+                    }
+                }
+            } catch (IOException e) {
+                // Keep what was read; the rest of the log is dropped by rewriting it.
+                mNeedsCompaction = true;
+            }
+        }
+        mRecordCount = records;
+        synchronized (mLock) {
+            for (Map.Entry<String, Integer> entry : loaded.entrySet()) {
+                // The positions put in the meantime are newer.
+                if (!mPending.containsKey(entry.getKey())) {
+                    mPositions.put(entry.getKey(), entry.getValue());
+                }
+            }
+            mLoaded = true;
+        }
+        if (mNeedsCompaction) {
+            compact();
+        }
+    }
+
+    @WorkerThread
+    private void flush() {
+        final Map<String, Integer> batch;
+        final int liveCount;
+        synchronized (mLock) {
+            batch = new LinkedHashMap<>(mPending);
+            mPending.clear();
+            mFlushScheduled = false;
+            liveCount = mPositions.size();
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        if (mNeedsCompaction
+                || mRecordCount + batch.size() > Math.max(MIN_COMPACT_RECORDS, liveCount * 2)) {
+            // The live positions include the batch.
+            compact();
+        } else {
+            append(batch);
+        }
+    }
+
+    @WorkerThread
+    private void append(Map<String, Integer> batch) {
+        try (FileOutputStream file = new FileOutputStream(mFile, true)) {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+            if (mFile.length() == 0) {
+                out.writeInt(FORMAT_VERSION);
+            }
+            writeRecords(out, batch);
+            out.flush();
+            file.getFD().sync();
+            mSyncCount++;
+            mRecordCount += batch.size();
+        } catch (IOException e) {
+            // The log may end with a partial record now; rewrite it next time.
+            mNeedsCompaction = true;
+        }
+    }
+
+    /** Replaces the log with the live positions. A partially written log is never visible. */
+    @WorkerThread
+    private void compact() {
+        final Map<String, Integer> positions;
+        synchronized (mLock) {
+            positions = new HashMap<>(mPositions);
+        }
+        final File directory = mFile.getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            mNeedsCompaction = true;
+            return;
+        }
+        final File temp = new File(directory, mFile.getName() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temp)) {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+            out.writeInt(FORMAT_VERSION);
+            writeRecords(out, positions);
+            out.flush();
+            file.getFD().sync();
+            mSyncCount++;
+        } catch (IOException e) {
+            temp.delete();
+            mNeedsCompaction = true;
+            return;
+        }
+        mNeedsCompaction = !temp.renameTo(mFile);
+        if (!mNeedsCompaction) {
+            mRecordCount = positions.size();
+        }
+    }
+
+    private static void writeRecords(DataOutputStream out, Map<String, Integer> records)
+            throws IOException {
+        for (Map.Entry<String, Integer> record : records.entrySet()) {
+            out.writeUTF(record.getKey());
+            out.writeInt(record.getValue());
+        }
+    }
+}
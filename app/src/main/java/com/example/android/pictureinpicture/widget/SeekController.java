@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+/**
+ * Issues the seeks of a {@link PlayerEngine} one at a time.
+ *
+ * <p>Every seek flushes the decoder, so seeks requested while another one is in flight are not
+ * queued up. Only the latest of them is kept, and it is issued when the one in flight completes.
+ * Targets are clamped to the duration of the video.
+ */
+final class SeekController {
+
+    /** Whether a seek has been issued to the engine and has not completed yet. */
+    private boolean mSeeking;
+
+    /** The target of the seek in flight. */
+    private int mTarget;
+
+    /** Whether a seek is waiting for the one in flight to complete. */
+    private boolean mHasPending;
+
+    private int mPendingTarget;
+
+    private int mPendingMode;
+
+    /** The number of seeks that were requested but never issued to the engine. */
+    private int mCollapsedCount;
+
+    /**
+     * Seeks to the specified position, or replaces the pending seek if one is in flight.
+     *
+     * @param engine The prepared engine.
+     * @param positionMs The target position in milliseconds.
+     * @param mode Either {@link PlayerEngine#SEEK_CLOSEST_SYNC} or {@link
+     *     PlayerEngine#SEEK_CLOSEST}.
+     */
+    void seekTo(PlayerEngine engine, int positionMs, @PlayerEngine.SeekMode int mode) {
+        final int target = clamp(positionMs, engine.getDuration());
+        if (mSeeking) {
+            if (mHasPending) {
+                mCollapsedCount++;
+            }
+            mHasPending = true;
+            mPendingTarget = target;
+            mPendingMode = mode;
+            return;
+        }
+        issue(engine, target, mode);
+    }
+
+    /**
+     * Called when the seek in flight has completed. Issues the pending seek, if any.
+     *
+     * @return {@code true} if all the requested seeks are done.
+     */
+    boolean onSeekComplete(PlayerEngine engine) {
+        if (!mSeeking) {
+            // Not one of ours, e.g. issued before reset().
+            return false;
+        }
+        if (mHasPending) {
+            mHasPending = false;
+            issue(engine, mPendingTarget, mPendingMode);
+            return false;
+        }
+        mSeeking = false;
+        return true;
+    }
+
+    /** Whether a seek is in flight. */
+    boolean isSeeking() {
+        return mSeeking;
+    }
+
+    /**
+     * Returns the position the video is heading to, so that relative seeks requested in a burst
+     * add up.
+     */
+    int getTargetPosition(PlayerEngine engine) {
+        if (mHasPending) {
+            return mPendingTarget;
+        }
+        if (mSeeking) {
+            return mTarget;
+        }
+        return engine.getCurrentPosition();
+    }
+
+    /** Returns the number of seeks that were replaced by a later one before being issued. */
+    int getCollapsedCount() {
+        return mCollapsedCount;
+    }
+
+    /** Forgets all the seeks, e.g. when the engine is replaced. */
+    void reset() {
+        mSeeking = false;
+        mHasPending = false;
+    }
+
+    private void issue(PlayerEngine engine, int target, int mode) {
+        // The engine may complete the seek synchronously; update the state first.
+        mSeeking = true;
+        mTarget = target;
+        engine.seekTo(target, mode);
+    }
+
+    /** Clamps the position to [0, duration]. A duration of 0 or less means it is unknown. */
+    static int clamp(int positionMs, int durationMs) {
+        if (positionMs < 0) {
+            return 0;
+        }
+        if (durationMs > 0 && positionMs > durationMs) {
+            return durationMs;
+        }
+        return positionMs;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import android.view.Surface;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+import android.view.View;
+
+/**
+ * Renders to a {@link SurfaceView}. The surface is composited by the system without going through
+ * the view hierarchy, but it is destroyed whenever the window hides it or the view is detached.
+ */
+final class SurfaceViewRenderTarget extends RenderTarget implements SurfaceHolder.Callback {
+
+    private final SurfaceView mSurfaceView;
+
+    SurfaceViewRenderTarget(SurfaceView surfaceView, Callback callback) {
+        super(callback);
+        mSurfaceView = surfaceView;
+        surfaceView.getHolder().addCallback(this);
+    }
+
+    @Override
+    View getView() {
+        return mSurfaceView;
+    }
+
+    @Override
+    Surface getSurface() {
+        final Surface surface = mSurfaceView.getHolder().getSurface();
+        return surface != null && surface.isValid() ? surface : null;
+    }
+
+    @Override
+    boolean reportsVideoFrames() {
+        return false;
+    }
+
+    @Override
+    boolean isRetainedAcrossDetach() {
+        return false;
+    }
+
+    @Override
+    void release() {
+        mSurfaceView.getHolder().removeCallback(this);
+    }
+
+    @Override
+    public void surfaceCreated(SurfaceHolder holder) {
+        mCallback.onSurfaceCreated(holder.getSurface());
+    }
+
+    @Override
+    public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+        // Do nothing
+    }
+
+    @Override
+    public void surfaceDestroyed(SurfaceHolder holder) {
+        mCallback.onSurfaceDestroyed();
+    }
+}
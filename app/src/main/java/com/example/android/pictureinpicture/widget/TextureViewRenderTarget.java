@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import android.graphics.SurfaceTexture;
+import android.view.Surface;
+import android.view.TextureView;
+import android.view.View;
+
+/**
+ * Renders to a {@link TextureView} through a {@link SurfaceTexture} owned by this.
+ *
+ * <p>The texture is not released when the view is detached; it is handed back to the view when it
+ * is attached again. The player keeps rendering to the same {@link Surface} the whole time, so
+ * detaching, reattaching and resizing the view never recreate the surface.
+ */
+final class TextureViewRenderTarget extends RenderTarget
+        implements TextureView.SurfaceTextureListener {
+
+    private final TextureView mTextureView;
+
+    /** The texture we own. This is null until the view creates it, and after release(). */
+    private SurfaceTexture mSurfaceTexture;
+
+    private Surface mSurface;
+
+    TextureViewRenderTarget(TextureView textureView, Callback callback) {
+        super(callback);
+        mTextureView = textureView;
+        textureView.setSurfaceTextureListener(this);
+    }
+
+    @Override
+    View getView() {
+        return mTextureView;
+    }
+
+    @Override
+    Surface getSurface() {
+        return mSurface;
+    }
+
+    @Override
+    boolean reportsVideoFrames() {
+        return true;
+    }
+
+    @Override
+    boolean isRetainedAcrossDetach() {
+        return true;
+    }
+
+    @Override
+    void onAttachedToWindow() {
+        if (mSurfaceTexture != null && mTextureView.getSurfaceTexture() != mSurfaceTexture) {
+            // Reuse our texture instead of letting the view create a new one.
+            mTextureView.setSurfaceTexture(mSurfaceTexture);
+        }
+    }
+
+    @Override
+    void release() {
+        if (mSurface != null) {
+            mSurface.release();
+            mSurface = null;
+        }
+        if (mSurfaceTexture != null) {
+            if (mTextureView.getSurfaceTexture() != mSurfaceTexture) {
+                mSurfaceTexture.release();
+            }
+            // Otherwise the view still uses it, and releases it when it is done with it.
+            mSurfaceTexture = null;
+        }
+    }
+
+    @Override
+    public void onSurfaceTextureAvailable(SurfaceTexture surfaceTexture, int width, int height) {
+        mSurfaceTexture = surfaceTexture;
+        mSurface = new Surface(surfaceTexture);
+        mCallback.onSurfaceCreated(mSurface);
+    }
+
+    @Override
+    public void onSurfaceTextureSizeChanged(SurfaceTexture surfaceTexture, int width, int height) {
+        // The buffers are scaled by the view; nothing to do.
+    }
+
+    @Override
+    public boolean onSurfaceTextureDestroyed(SurfaceTexture surfaceTexture) {
+        // Keep our texture; it is released in release().
+        return surfaceTexture != mSurfaceTexture;
+    }
+
+    @Override
+    public void onSurfaceTextureUpdated(SurfaceTexture surfaceTexture) {
+        mCallback.onVideoFrame();
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps the preview thumbnails of a video within a budget of bytes, and serves the one closest to
+ * a position.
+ *
+ * <p>When the budget is exceeded, the thumbnails that were least recently served are evicted.
+ * Evicted thumbnails are kept aside to be drawn over by the next ones, instead of being allocated
+ * again; the one served last is never evicted, as it may still be on screen.
+ *
+ * <p>The thumbnails are added on a background thread and served on the UI thread. Serving a
+ * thumbnail is a lookup and never waits for one to be made. Every {@link #clear()} starts a new
+ * generation, and a thumbnail taken for an earlier one is turned away, so that a video never gets
+ * the thumbnails of the previous one.
+ *
+ * @param <T> The type of the thumbnails.
+ */
+final class ThumbnailCache<T> {
+
+    /** Measures the thumbnails. */
+    interface Sizer<T> {
+
+        /** @return The number of bytes the thumbnail takes. */
+        int sizeOf(T thumbnail);
+    }
+
+    private final long mMaxBytes;
+
+    private final int mMaxReusable;
+
+    private final Sizer<T> mSizer;
+
+    /** The thumbnails by position, in the order they were last used, least recent first. */
+    private final LinkedHashMap<Integer, T> mByUse = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** The same thumbnails, sorted by position. */
+    private final TreeMap<Integer, T> mByPosition = new TreeMap<>();
+
+    /** Evicted thumbnails, to be drawn over. */
+    private final ArrayDeque<T> mReusable = new ArrayDeque<>();
+
+    /** The thumbnail returned by the last {@link #getClosest(int)}. */
+    private T mLastServed;
+
+    private long mBytes;
+
+    private int mEvictionCount;
+
+    /** Bumped by {@link #clear()}. */
+    private int mGeneration;
+
+    /**
+     * @param maxBytes How many bytes the thumbnails may take.
+     * @param maxReusable How many evicted thumbnails are kept to be reused.
+     * @param sizer Measures the thumbnails.
+     */
+    ThumbnailCache(long maxBytes, int maxReusable, Sizer<T> sizer) {
+        mMaxBytes = maxBytes;
+        mMaxReusable = maxReusable;
+        mSizer = sizer;
+    }
+
+    /** Returns the generation to {@link #put(int, int, Object)} the thumbnails of. */
+    synchronized int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Adds the thumbnail of a position, evicting others if the budget is exceeded.
+     *
+     * @param generation The {@link #getGeneration() generation} the thumbnail was taken for.
+     * @return {@code false} if the cache has been cleared since, in which case the thumbnail is not
+     *     added.
+     */
+    synchronized boolean put(int generation, int positionMs, T thumbnail) {
+        if (generation != mGeneration) {
+            recycle(thumbnail);
+            return false;
+        }
+        final T previous = mByPosition.put(positionMs, thumbnail);
+        mByUse.put(positionMs, thumbnail);
+        if (previous != null) {
+            mBytes -= mSizer.sizeOf(previous);
+            recycle(previous);
+        }
+        mBytes += mSizer.sizeOf(thumbnail);
+        trim();
+        return true;
+    }
+
+    /**
+     * Returns the thumbnail closest to a position.
+     *
+     * @return The thumbnail, or {@code null} if there is none yet.
+     */
+    synchronized T getClosest(int positionMs) {
+        final Map.Entry<Integer, T> floor = mByPosition.floorEntry(positionMs);
+        final Map.Entry<Integer, T> ceiling = mByPosition.ceilingEntry(positionMs);
+        final Map.Entry<Integer, T> closest;
+        if (floor == null) {
+            closest = ceiling;
+        } else if (ceiling == null) {
+            closest = floor;
+        } else {
+            closest =
+                    ceiling.getKey() - positionMs < positionMs - floor.getKey() ? ceiling : floor;
+        }
+        if (closest == null) {
+            return null;
+        }
+        // Marks it as used
+        mByUse.get(closest.getKey());
+        mLastServed = closest.getValue();
+        return mLastServed;
+    }
+
+    synchronized boolean contains(int positionMs) {
+        return mByPosition.containsKey(positionMs);
+    }
+
+    /**
+     * Takes an evicted thumbnail to draw the next one over.
+     *
+     * @return The thumbnail, or {@code null} if there is none to reuse.
+     */
+    synchronized T takeReusable() {
+        return mReusable.poll();
+    }
+
+    /**
+     * Evicts all the thumbnails and starts a new generation, e.g. when another video becomes the
+     * current one.
+     */
+    synchronized void clear() {
+        mGeneration++;
+        for (T thumbnail : mByPosition.values()) {
+            recycle(thumbnail);
+        }
+        mByPosition.clear();
+        mByUse.clear();
+        mBytes = 0;
+        mLastServed = null;
+    }
+
+    synchronized int size() {
+        return mByPosition.size();
+    }
+
+    synchronized long getSizeBytes() {
+        return mBytes;
+    }
+
+    /** The number of thumbnails evicted to stay within the budget. */
+    synchronized int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    private void trim() {
+        final Iterator<Map.Entry<Integer, T>> iterator = mByUse.entrySet().iterator();
+        while (mBytes > mMaxBytes && iterator.hasNext()) {
+            final Map.Entry<Integer, T> eldest = iterator.next();
+            if (eldest.getValue() == mLastServed) {
+                continue;
+            }
+            iterator.remove();
+            mByPosition.remove(eldest.getKey());
+            mBytes -= mSizer.sizeOf(eldest.getValue());
+            mEvictionCount++;
+            recycle(eldest.getValue());
+        }
+    }
+
+    private void recycle(T thumbnail) {
+        // The one on screen is not drawn over.
+        if (thumbnail != mLastServed && mReusable.size() < mMaxReusable) {
+            mReusable.add(thumbnail);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.MainThread;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Takes the preview thumbnails of a video at its sync frames, in the background, and keeps them in
+ * a {@link ThumbnailCache}.
+ *
+ * <p>Frames are decoded on a worker thread only. Serving a thumbnail on the UI thread is a lookup
+ * in the cache; until the thumbnail of a position is ready, the closest one is served instead.
+ */
+final class ThumbnailGenerator {
+
+    private static final String TAG = "ThumbnailGenerator";
+
+    /** The width of the thumbnails; previews are small, so this is enough at any density. */
+    private static final int THUMBNAIL_WIDTH = 240; // px
+
+    /** How many bytes the thumbnails of a view may take. */
+    private static final long CACHE_BYTES = 4 * 1024 * 1024;
+
+    /** How many thumbnails are taken of a video. */
+    private static final int MAX_THUMBNAILS = 64;
+
+    /** How many evicted thumbnails are kept to be drawn over. */
+    private static final int MAX_REUSABLE = 4;
+
+    /** Called on the UI thread when a thumbnail has been added to the cache. */
+    interface Listener {
+        void onThumbnailReady(int positionMs);
+    }
+
+    /** Decodes the thumbnails of all the views, one at a time. */
+    private static final Executor sExecutor = Executors.newSingleThreadExecutor();
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    /** Scales the frames down to thumbnails. */
+    private static final Paint sScalePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    private final Context mContext;
+
+    private final Listener mListener;
+
+    private final ThumbnailCache<Bitmap> mCache =
+            new ThumbnailCache<>(
+                    CACHE_BYTES,
+                    // Only drawn over where the retriever cannot scale the frames itself
+                    Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1 ? 0 : MAX_REUSABLE,
+                    new ThumbnailCache.Sizer<Bitmap>() {
+                        @Override
+                        public int sizeOf(Bitmap thumbnail) {
+                            return thumbnail.getAllocationByteCount();
+                        }
+                    });
+
+    /** The video the thumbnails are of. This is only accessed on the UI thread. */
+    private Uri mUri;
+
+    ThumbnailGenerator(Context context, Listener listener) {
+        mContext = context.getApplicationContext();
+        mListener = listener;
+    }
+
+    /**
+     * Starts taking the thumbnails of a video, unless they are already being taken. The ones of
+     * the previous video are dropped.
+     *
+     * @param metadata Where the sync frames are.
+     */
+    @MainThread
+    void start(final Uri uri, VideoMetadata metadata) {
+        if (uri.equals(mUri)) {
+            return;
+        }
+        stop();
+        mUri = uri;
+        final int generation = mCache.getGeneration();
+        final int[] positions = metadata.getThumbnailPositions(MAX_THUMBNAILS);
+        final int width = THUMBNAIL_WIDTH;
+        final int height =
+                metadata.getWidth() > 0
+                        ? Math.max(1, width * metadata.getHeight() / metadata.getWidth())
+                        : width * 9 / 16;
+        sExecutor.execute(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        generate(generation, uri, positions, width, height);
+                    }
+                });
+    }
+
+    /**
+     * Stops taking thumbnails, and drops the ones taken so far. The work in progress is cancelled
+     * by the new generation of the cache.
+     */
+    @MainThread
+    void stop() {
+        mUri = null;
+        mCache.clear();
+    }
+
+    /**
+     * Returns the thumbnail closest to a position.
+     *
+     * @return The thumbnail, or {@code null} if none is ready yet.
+     */
+    @MainThread
+    @Nullable
+    Bitmap getClosest(int positionMs) {
+        return mCache.getClosest(positionMs);
+    }
+
+    @WorkerThread
+    private void generate(int generation, Uri uri, int[] positions, int width, int height) {
+        final MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(mContext, uri);
+            for (final int position : positions) {
+                if (mCache.getGeneration() != generation) {
+                    return;
+                }
+                final Bitmap thumbnail = extract(retriever, position, width, height);
+                if (thumbnail == null) {
+                    continue;
+                }
+                if (!mCache.put(generation, position, thumbnail)) {
+                    return;
+                }
+                sMainHandler.post(
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                if (mCache.getGeneration() == generation) {
+                                    mListener.onThumbnailReady(position);
+                                }
+                            }
+                        });
+            }
+        } catch (RuntimeException e) {
+            // MediaMetadataRetriever reports every failure this way.
+            Log.w(TAG, "Cannot take the thumbnails of " + uri, e);
+        } finally {
+            retriever.release();
+        }
+    }
+
+    @WorkerThread
+    @Nullable
+    private Bitmap extract(
+            MediaMetadataRetriever retriever, int positionMs, int width, int height) {
+        final long timeUs = positionMs * 1000L;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1) {
+            // Scaled by the decoder; the full frame never reaches the heap.
+            return retriever.getScaledFrameAtTime(
+                    timeUs, MediaMetadataRetriever.OPTION_CLOSEST_SYNC, width, height);
+        }
+        final Bitmap frame =
+                retriever.getFrameAtTime(timeUs, MediaMetadataRetriever.OPTION_CLOSEST_SYNC);
+        if (frame == null) {
+            return null;
+        }
+        Bitmap thumbnail = mCache.takeReusable();
+        if (thumbnail == null
+                || thumbnail.getWidth() != width
+                || thumbnail.getHeight() != height) {
+            thumbnail = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
+        }
+        new Canvas(thumbnail)
+                .drawBitmap(frame, null, new Rect(0, 0, width, height), sScalePaint);
+        frame.recycle();
+        return thumbnail;
+    }
+}
@@ -0,0 +1,409 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import android.support.annotation.WorkerThread;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps the bytes of remote videos on disk, so that playing a video again does not download it
+ * again.
+ *
+ * <p>Each video has a directory, with a file for each run of contiguous bytes that has been read.
+ * The runs need not cover the whole video; seeking ahead leaves a gap that is filled if it is ever
+ * played. When the cache grows over its size limit, the videos that were played least recently
+ * are deleted, except the ones being played.
+ *
+ * <p>A video is stored with the validator the server sent for it, i.e. its ETag or its time of
+ * modification. When the server sends another one, the video has changed and its bytes are
+ * dropped.
+ *
+ * <p>The directory is first read when the cache is used. All the methods but {@link
+ * #lock(String)} and {@link #unlock(String)} may do disk I/O, and must not be called on the UI
+ * thread. The cache can be used by several threads.
+ */
+final class VideoCache {
+
+    /** Bumped whenever the format of the metadata file changes. */
+    private static final int FORMAT_VERSION = 2;
+
+    /** The file of a video that holds its key, its size and its validator. */
+    private static final String META_FILE = "meta";
+
+    /** The videos in the cache. */
+    private static class Entry {
+
+        final String key;
+
+        final File directory;
+
+        /** The size of the video in bytes, or -1 if it is not known yet. */
+        long length = -1;
+
+        /** What the server identifies this version of the video with, or null if nothing. */
+        String validator;
+
+        /** The runs of bytes on disk, from their start to their size. */
+        final TreeMap<Long, Long> spans = new TreeMap<>();
+
+        /** When the video was last played, which survives restarts as the time of its directory. */
+        long lastAccess;
+
+        Entry(String key, File directory) {
+            this.key = key;
+            this.directory = directory;
+        }
+    }
+
+    private final File mDirectory;
+
+    private final long mMaxBytes;
+
+    /** The videos, by key. This is null until the directory has been read. */
+    private Map<String, Entry> mEntries;
+
+    /** The number of streams reading each video. These are never evicted. */
+    private final Map<String, Integer> mLocks = new HashMap<>();
+
+    /** The size of all the cached bytes. */
+    private long mCachedBytes;
+
+    /**
+     * @param directory Where the videos are stored. It is created when needed.
+     * @param maxBytes How many bytes may be kept.
+     */
+    VideoCache(File directory, long maxBytes) {
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+    }
+
+    /** Keeps a video from being evicted until {@link #unlock(String)} is called. */
+    synchronized void lock(String key) {
+        final Integer count = mLocks.get(key);
+        mLocks.put(key, count == null ? 1 : count + 1);
+    }
+
+    synchronized void unlock(String key) {
+        final Integer count = mLocks.get(key);
+        if (count == null || count == 1) {
+            mLocks.remove(key);
+        } else {
+            mLocks.put(key, count - 1);
+        }
+    }
+
+    /** Marks a video as just played, so that it is the last one to be evicted. */
+    @WorkerThread
+    synchronized void touch(String key) {
+        final Entry entry = getEntries().get(key);
+        if (entry != null) {
+            entry.lastAccess = System.currentTimeMillis();
+            entry.directory.setLastModified(entry.lastAccess);
+        }
+    }
+
+    /** @return The size of a video in bytes, or -1 if it is not known. */
+    @WorkerThread
+    synchronized long getLength(String key) {
+        final Entry entry = getEntries().get(key);
+        return entry == null ? -1 : entry.length;
+    }
+
+    /** @return The validator of the cached bytes of a video, or null if there is none. */
+    @WorkerThread
+    synchronized String getValidator(String key) {
+        final Entry entry = getEntries().get(key);
+        return entry == null ? null : entry.validator;
+    }
+
+    /**
+     * Checks the cached bytes of a video against the validator the server just sent for it, and
+     * drops them if the video has changed. The validator is kept for the bytes written next.
+     *
+     * @param validator The ETag or the time of modification of the video, or null if the server
+     *     sent neither, in which case the cached bytes are kept.
+     * @return {@code false} if the cached bytes were dropped.
+     */
+    @WorkerThread
+    synchronized boolean validate(String key, String validator) throws IOException {
+        if (validator == null) {
+            return true;
+        }
+        Entry entry = getEntries().get(key);
+        boolean valid = true;
+        if (entry != null && entry.validator != null && !entry.validator.equals(validator)) {
+            remove(entry);
+            entry = null;
+            valid = false;
+        }
+        if (entry == null) {
+            create(key, -1, validator);
+        } else if (entry.validator == null) {
+            entry.validator = validator;
+            writeMeta(entry);
+        }
+        return valid;
+    }
+
+    /**
+     * Reads cached bytes of a video. This only reads up to the end of the run of bytes that
+     * includes the position.
+     *
+     * @return The number of bytes read, or 0 if the byte at the position is not cached.
+     */
+    @WorkerThread
+    synchronized int read(String key, long position, byte[] buffer, int offset, int size)
+            throws IOException {
+        final Entry entry = getEntries().get(key);
+        if (entry == null) {
+            return 0;
+        }
+        final Map.Entry<Long, Long> span = entry.spans.floorEntry(position);
+        if (span == null || span.getKey() + span.getValue() <= position) {
+            return 0;
+        }
+        final int length = (int) Math.min(size, span.getKey() + span.getValue() - position);
+        try (RandomAccessFile file = new RandomAccessFile(spanFile(entry, span.getKey()), "r")) {
+            file.seek(position - span.getKey());
+            file.readFully(buffer, offset, length);
+        }
+        return length;
+    }
+
+    /**
+     * @return The end of the run of cached bytes that includes a position, or the position itself
+     *     if the byte there is not cached.
+     */
+    @WorkerThread
+    synchronized long getCachedEnd(String key, long position) {
+        final Entry entry = getEntries().get(key);
+        final Map.Entry<Long, Long> span = entry == null ? null : entry.spans.floorEntry(position);
+        if (span == null) {
+            return position;
+        }
+        return Math.max(position, span.getKey() + span.getValue());
+    }
+
+    /**
+     * @return The position of the first cached byte after a position, or -1 if there is none.
+     */
+    @WorkerThread
+    synchronized long nextCachedPosition(String key, long position) {
+        final Entry entry = getEntries().get(key);
+        final Long next = entry == null ? null : entry.spans.higherKey(position);
+        return next == null ? -1 : next;
+    }
+
+    /**
+     * Adds bytes of a video that are not cached yet, and evicts other videos if the cache is too
+     * large.
+     *
+     * @param length The size of the video in bytes, or -1 if it is not known.
+     * @param position The position of the first byte in the video.
+     */
+    @WorkerThread
+    synchronized void write(
+            String key, long length, long position, byte[] buffer, int offset, int size)
+            throws IOException {
+        Entry entry = getEntries().get(key);
+        if (entry == null) {
+            entry = create(key, length, null);
+        } else if (entry.length < 0 && length >= 0) {
+            entry.length = length;
+            writeMeta(entry);
+        }
+        // Continue the run that ends here, if there is one.
+        final Map.Entry<Long, Long> previous = entry.spans.floorEntry(position);
+        long start = position;
+        long spanSize = 0;
+        if (previous != null) {
+            final long end = previous.getKey() + previous.getValue();
+            if (end > position) {
+                // Already cached
+                return;
+            }
+            if (end == position) {
+                start = previous.getKey();
+                spanSize = previous.getValue();
+            }
+        }
+        try (FileOutputStream out = new FileOutputStream(spanFile(entry, start), true)) {
+            out.write(buffer, offset, size);
+        }
+        entry.spans.put(start, spanSize + size);
+        mCachedBytes += size;
+        evict(key);
+    }
+
+    /** The number of bytes in the cache. */
+    @WorkerThread
+    synchronized long getCachedBytes() {
+        getEntries();
+        return mCachedBytes;
+    }
+
+    private Map<String, Entry> getEntries() {
+        if (mEntries == null) {
+            mEntries = new HashMap<>();
+            final File[] directories = mDirectory.listFiles();
+            if (directories != null) {
+                for (File directory : directories) {
+                    final Entry entry = readEntry(directory);
+                    if (entry == null) {
+                        // Left behind by a crash, or by another version
+                        deleteDirectory(directory);
+                    } else {
+                        mEntries.put(entry.key, entry);
+                    }
+                }
+            }
+        }
+        return mEntries;
+    }
+
+    private Entry readEntry(File directory) {
+        try (DataInputStream in =
+                new DataInputStream(
+                        new BufferedInputStream(
+                                new FileInputStream(new File(directory, META_FILE))))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            final Entry entry = new Entry(in.readUTF(), directory);
+            entry.length = in.readLong();
+            final String validator = in.readUTF();
+            entry.validator = validator.isEmpty() ? null : validator;
+            entry.lastAccess = directory.lastModified();
+            long cachedBytes = 0;
+            for (File file : directory.listFiles()) {
+                final long start = parseSpanStart(file.getName());
+                if (start >= 0) {
+                    entry.spans.put(start, file.length());
+                    cachedBytes += file.length();
+                } else if (!META_FILE.equals(file.getName())) {
+                    // The temporary metadata of a crashed write
+                    file.delete();
+                }
+            }
+            // Only counted once the entry is known to be valid
+            mCachedBytes += cachedBytes;
+            return entry;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /** @return The position the run in the named file starts at, or -1 if it holds no run. */
+    private static long parseSpanStart(String name) {
+        try {
+            return Long.parseLong(name);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private Entry create(String key, long length, String validator) throws IOException {
+        final File directory = new File(mDirectory, Integer.toHexString(key.hashCode()));
+        for (Entry other : mEntries.values()) {
+            if (other.directory.equals(directory)) {
+                // Another video with the same hash; it goes.
+                remove(other);
+                break;
+            }
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        final Entry entry = new Entry(key, directory);
+        entry.length = length;
+        entry.validator = validator;
+        entry.lastAccess = System.currentTimeMillis();
+        writeMeta(entry);
+        mEntries.put(key, entry);
+        return entry;
+    }
+
+    /** Writes the metadata of a video. A partially written file is never visible. */
+    private static void writeMeta(Entry entry) throws IOException {
+        final File temp = new File(entry.directory, META_FILE + ".tmp");
+        try (DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(entry.key);
+            out.writeLong(entry.length);
+            out.writeUTF(entry.validator == null ? "" : entry.validator);
+        }
+        if (!temp.renameTo(new File(entry.directory, META_FILE))) {
+            temp.delete();
+            throw new IOException("Cannot write the metadata of " + entry.key);
+        }
+    }
+
+    /** Deletes the least recently played videos until the cache fits in its size limit. */
+    private void evict(String current) {
+        while (mCachedBytes > mMaxBytes) {
+            Entry oldest = null;
+            for (Entry entry : mEntries.values()) {
+                if (entry.key.equals(current) || mLocks.containsKey(entry.key)) {
+                    continue;
+                }
+                if (oldest == null || entry.lastAccess < oldest.lastAccess) {
+                    oldest = entry;
+                }
+            }
+            if (oldest == null) {
+                // Everything left is being played.
+                return;
+            }
+            remove(oldest);
+        }
+    }
+
+    private void remove(Entry entry) {
+        for (long size : entry.spans.values()) {
+            mCachedBytes -= size;
+        }
+        mEntries.remove(entry.key);
+        deleteDirectory(entry.directory);
+    }
+
+    private static File spanFile(Entry entry, long start) {
+        return new File(entry.directory, Long.toString(start));
+    }
+
+    private static void deleteDirectory(File directory) {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import android.support.annotation.Nullable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * What is known about a video without preparing it: its format, its duration, its size and where
+ * its sync frames are. This is read from the container once and then cached on disk.
+ */
+public final class VideoMetadata {
+
+    /** The maximum number of sync frames that are remembered for a video. */
+    static final int MAX_KEYFRAMES = 4096;
+
+    private final int mDurationMs;
+    private final int mWidth;
+    private final int mHeight;
+
+    /** The MIME type of the video track, or null if it is not known. */
+    private final String mMimeType;
+
+    /** The positions of the sync frames in milliseconds, in ascending order. */
+    private final int[] mKeyframesMs;
+
+    /**
+     * @param durationMs The duration in milliseconds.
+     * @param width The display width of the video.
+     * @param height The display height of the video.
+     * @param keyframesMs The positions of the sync frames in milliseconds, in ascending order.
+     */
+    public VideoMetadata(int durationMs, int width, int height, int[] keyframesMs) {
+        this(null, durationMs, width, height, keyframesMs);
+    }
+
+    /**
+     * @param mimeType The MIME type of the video track, e.g. {@code video/avc}.
+     * @param durationMs The duration in milliseconds.
+     * @param width The display width of the video.
+     * @param height The display height of the video.
+     * @param keyframesMs The positions of the sync frames in milliseconds, in ascending order.
+     */
+    public VideoMetadata(
+            @Nullable String mimeType, int durationMs, int width, int height, int[] keyframesMs) {
+        mMimeType = mimeType;
+        mDurationMs = durationMs;
+        mWidth = width;
+        mHeight = height;
+        mKeyframesMs = keyframesMs.clone();
+    }
+
+    /** Returns the MIME type of the video track, or {@code null} if it is not known. */
+    @Nullable
+    public String getMimeType() {
+        return mMimeType;
+    }
+
+    public int getDurationMs() {
+        return mDurationMs;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getKeyframeCount() {
+        return mKeyframesMs.length;
+    }
+
+    /**
+     * Picks the sync frame to seek to when moving from one position towards another. This is the
+     * sync frame closest to the target that is still past the starting position in the direction
+     * of the move, so that repeated seeks never land back on the same frame.
+     *
+     * @param fromMs The current position in milliseconds.
+     * @param targetMs The target position in milliseconds.
+     * @return The position of the sync frame, or {@code targetMs} if there is none in that
+     *     direction.
+     */
+    public int snapToKeyframe(int fromMs, int targetMs) {
+        if (targetMs == fromMs || mKeyframesMs.length == 0) {
+            return targetMs;
+        }
+        final boolean forward = targetMs > fromMs;
+        int index = Arrays.binarySearch(mKeyframesMs, targetMs);
+        if (index >= 0) {
+            return mKeyframesMs[index];
+        }
+        // The sync frames right before and right after the target
+        final int after = -index - 1;
+        final int before = after - 1;
+        int best = -1;
+        if (before >= 0 && isPast(mKeyframesMs[before], fromMs, forward)) {
+            best = before;
+        }
+        if (after < mKeyframesMs.length
+                && isPast(mKeyframesMs[after], fromMs, forward)
+                && (best < 0
+                        || mKeyframesMs[after] - targetMs < targetMs - mKeyframesMs[best])) {
+            best = after;
+        }
+        return best < 0 ? targetMs : mKeyframesMs[best];
+    }
+
+    /**
+     * Picks where to take the preview thumbnails of the video: up to {@code maxCount} sync frames
+     * spread over the video, or evenly spaced positions if the sync frames are not known. They are
+     * ordered from coarse to fine, so that taking them in order covers the whole video early.
+     *
+     * @param maxCount The maximum number of thumbnails.
+     * @return The positions in milliseconds.
+     */
+    int[] getThumbnailPositions(int maxCount) {
+        final int keyframes = mKeyframesMs.length;
+        final int count =
+                keyframes > 0 ? Math.min(maxCount, keyframes) : mDurationMs > 0 ? maxCount : 0;
+        final int[] spread = new int[count];
+        for (int i = 0; i < count; i++) {
+            spread[i] =
+                    keyframes > 0
+                            ? mKeyframesMs[(int) ((long) keyframes * i / count)]
+                            : (int) ((long) mDurationMs * i / count);
+        }
+        // Every 2^k-th position, with k going down to 0
+        final int[] ordered = new int[count];
+        final boolean[] taken = new boolean[count];
+        int next = 0;
+        for (int step = Integer.highestOneBit(Math.max(1, count)); step >= 1; step /= 2) {
+            for (int i = 0; i < count; i += step) {
+                if (!taken[i]) {
+                    taken[i] = true;
+                    ordered[next++] = spread[i];
+                }
+            }
+        }
+        return ordered;
+    }
+
+    private static boolean isPast(int positionMs, int fromMs, boolean forward) {
+        return forward ? positionMs > fromMs : positionMs < fromMs;
+    }
+
+    /** Writes this to a stream, to be read back by {@link #readFrom(DataInput)}. */
+    void writeTo(DataOutput out) throws IOException {
+        out.writeUTF(mMimeType == null ? "" : mMimeType);
+        out.writeInt(mDurationMs);
+        out.writeInt(mWidth);
+        out.writeInt(mHeight);
+        out.writeInt(mKeyframesMs.length);
+        for (int keyframe : mKeyframesMs) {
+            out.writeInt(keyframe);
+        }
+    }
+
+    /** Reads what was written by {@link #writeTo(DataOutput)}. */
+    static VideoMetadata readFrom(DataInput in) throws IOException {
+        final String mimeType = in.readUTF();
+        final int durationMs = in.readInt();
+        final int width = in.readInt();
+        final int height = in.readInt();
+        final int count = in.readInt();
+        if (count < 0 || count > MAX_KEYFRAMES) {
+            throw new IOException("Invalid number of sync frames: " + count);
+        }
+        final int[] keyframesMs = new int[count];
+        for (int i = 0; i < count; i++) {
+            keyframesMs[i] = in.readInt();
+        }
+        return new VideoMetadata(
+                mimeType.isEmpty() ? null : mimeType, durationMs, width, height, keyframesMs);
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Stores {@link VideoMetadata} on disk, so that it survives process restarts.
+ *
+ * <p>Entries are keyed by the URI of the video, and stamped with the version of the application and
+ * with the length and modification time of the video. Bundled videos can only change with the
+ * application, but files and documents can be replaced at any time, so an entry is ignored as soon
+ * as any of these differ. All the methods do disk I/O and must not be called on the UI thread.
+ */
+final class VideoMetadataCache {
+
+    /** Bumped whenever the file format changes. */
+    private static final int FORMAT_VERSION = 2;
+
+    private final File mDirectory;
+
+    private final long mVersionStamp;
+
+    /**
+     * @param directory Where the entries are stored. It is created when needed.
+     * @param versionStamp Identifies the version of the videos, e.g. when the application was last
+     *     updated.
+     */
+    VideoMetadataCache(File directory, long versionStamp) {
+        mDirectory = directory;
+        mVersionStamp = versionStamp;
+    }
+
+    /**
+     * Reads the entry for a video.
+     *
+     * @param key The URI of the video.
+     * @param length The current length of the video in bytes.
+     * @param lastModified The current modification time of the video.
+     * @return The metadata, or {@code null} if there is no valid entry.
+     */
+    @WorkerThread
+    @Nullable
+    VideoMetadata load(String key, long length, long lastModified) {
+        final File file = fileFor(key);
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream in =
+                new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() == FORMAT_VERSION
+                    && in.readLong() == mVersionStamp
+                    && key.equals(in.readUTF())
+                    && in.readLong() == length
+                    && in.readLong() == lastModified) {
+                return VideoMetadata.readFrom(in);
+            }
+        } catch (IOException e) {
+            // Fall through; the entry is rewritten when the video is read again.
+        }
+        // Stale, corrupt, or another key with the same hash
+        file.delete();
+        return null;
+    }
+
+    /**
+     * Writes the entry for a video. A partially written entry is never visible to {@link
+     * #load(String, long, long)}.
+     *
+     * @param key The URI of the video.
+     * @param length The length of the video in bytes.
+     * @param lastModified The modification time of the video.
+     * @param metadata The metadata.
+     * @return {@code true} if the entry was written.
+     */
+    @WorkerThread
+    boolean store(String key, long length, long lastModified, VideoMetadata metadata) {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            return false;
+        }
+        final File file = fileFor(key);
+        final File temp = new File(mDirectory, file.getName() + ".tmp");
+        try (DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(mVersionStamp);
+            out.writeUTF(key);
+            out.writeLong(length);
+            out.writeLong(lastModified);
+            metadata.writeTo(out);
+        } catch (IOException e) {
+            temp.delete();
+            return false;
+        }
+        return temp.renameTo(file);
+    }
+
+    private File fileFor(String key) {
+        return new File(mDirectory, Integer.toHexString(key.hashCode()));
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.database.Cursor;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.DocumentsContract;
+import android.provider.OpenableColumns;
+import android.support.annotation.MainThread;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Provides the {@link VideoMetadata} of videos without blocking the UI thread.
+ *
+ * <p>Metadata is kept in memory for the lifetime of the process, and on disk across restarts. A
+ * video that is not in either is read from its container in the background.
+ */
+final class VideoMetadataLoader {
+
+    private static final String TAG = "VideoMetadataLoader";
+
+    /** Receives the metadata loaded by {@link #load(Context, List, Callback)}. */
+    interface Callback {
+        void onMetadataLoaded(Uri uri, VideoMetadata metadata);
+    }
+
+    /** Reads and writes the disk cache, one video at a time. */
+    private static final Executor sExecutor = Executors.newSingleThreadExecutor();
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    /** The metadata loaded so far. This is only accessed on the UI thread. */
+    private static final Map<Uri, VideoMetadata> sLoaded = new HashMap<>();
+
+    /** The videos being loaded. This is only accessed on the UI thread. */
+    private static final Set<Uri> sLoading = new HashSet<>();
+
+    /** Created on the worker thread when first needed. */
+    private static VideoMetadataCache sCache;
+
+    private VideoMetadataLoader() {}
+
+    /**
+     * Returns the metadata of a video if it has already been loaded.
+     *
+     * @return The metadata, or {@code null} if it is not in memory yet.
+     */
+    @MainThread
+    @Nullable
+    static VideoMetadata get(Uri uri) {
+        return sLoaded.get(uri);
+    }
+
+    /**
+     * Loads the metadata of the videos that are not in memory yet.
+     *
+     * @param callback Called on the UI thread for each video as it is loaded.
+     */
+    @MainThread
+    static void load(Context context, List<Uri> uris, final Callback callback) {
+        final Context appContext = context.getApplicationContext();
+        for (final Uri uri : uris) {
+            if (HttpVideoStream.supports(uri.getScheme())) {
+                // Reading the container would download the video around the cache; the engine
+                // tells the size and duration once prepared.
+                continue;
+            }
+            if (sLoaded.containsKey(uri) || !sLoading.add(uri)) {
+                continue;
+            }
+            sExecutor.execute(
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            final VideoMetadata metadata = loadInBackground(appContext, uri);
+                            sMainHandler.post(
+                                    new Runnable() {
+                                        @Override
+                                        public void run() {
+                                            sLoading.remove(uri);
+                                            if (metadata != null) {
+                                                sLoaded.put(uri, metadata);
+                                                callback.onMetadataLoaded(uri, metadata);
+                                            }
+                                        }
+                                    });
+                        }
+                    });
+        }
+    }
+
+    @WorkerThread
+    @Nullable
+    private static VideoMetadata loadInBackground(Context context, Uri uri) {
+        final VideoMetadataCache cache = getCache(context);
+        final String key = uri.toString();
+        final long[] source = describeSource(context, uri);
+        VideoMetadata metadata = source != null ? cache.load(key, source[0], source[1]) : null;
+        if (metadata != null) {
+            return metadata;
+        }
+        try {
+            metadata = extract(context, uri);
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot read the metadata of " + uri, e);
+            return null;
+        }
+        if (metadata != null && source != null) {
+            cache.store(key, source[0], source[1], metadata);
+        }
+        return metadata;
+    }
+
+    /**
+     * Tells what identifies the current content of a video besides its URI.
+     *
+     * @return The length and the modification time of the video, or {@code null} if they are not
+     *     known, in which case the metadata must not be cached.
+     */
+    @WorkerThread
+    @Nullable
+    private static long[] describeSource(Context context, Uri uri) {
+        final String scheme = uri.getScheme();
+        if (ContentResolver.SCHEME_ANDROID_RESOURCE.equals(scheme)) {
+            // Resources only change with the application, which the version stamp covers.
+            return new long[] {0, 0};
+        }
+        if (ContentResolver.SCHEME_FILE.equals(scheme)) {
+            final File file = new File(uri.getPath());
+            final long lastModified = file.lastModified();
+            return lastModified != 0 ? new long[] {file.length(), lastModified} : null;
+        }
+        if (!ContentResolver.SCHEME_CONTENT.equals(scheme)) {
+            return null;
+        }
+        try (Cursor cursor = context.getContentResolver().query(uri, null, null, null, null)) {
+            if (cursor == null || !cursor.moveToFirst()) {
+                return null;
+            }
+            final int size = cursor.getColumnIndex(OpenableColumns.SIZE);
+            final int modified =
+                    cursor.getColumnIndex(DocumentsContract.Document.COLUMN_LAST_MODIFIED);
+            if (size < 0 || modified < 0 || cursor.isNull(size) || cursor.isNull(modified)) {
+                return null;
+            }
+            return new long[] {cursor.getLong(size), cursor.getLong(modified)};
+        } catch (RuntimeException e) {
+            // Providers are free to reject queries.
+            return null;
+        }
+    }
+
+    @WorkerThread
+    private static VideoMetadataCache getCache(Context context) {
+        if (sCache == null) {
+            long versionStamp;
+            try {
+                versionStamp =
+                        context.getPackageManager()
+                                .getPackageInfo(context.getPackageName(), 0)
+                                .lastUpdateTime;
+            } catch (PackageManager.NameNotFoundException e) {
+                versionStamp = 0;
+            }
+            sCache =
+                    new VideoMetadataCache(
+                            new File(context.getCacheDir(), "video_metadata"), versionStamp);
+        }
+        return sCache;
+    }
+
+    /**
+     * Reads the metadata from the container of a video. This only reads the sample tables; no
+     * frame is decoded.
+     *
+     * @return The metadata, or {@code null} if there is no video track.
+     */
+    @WorkerThread
+    @Nullable
+    static VideoMetadata extract(Context context, Uri uri) throws IOException {
+        final MediaExtractor extractor = new MediaExtractor();
+        try {
+            extractor.setDataSource(context, uri, null);
+            for (int track = 0; track < extractor.getTrackCount(); track++) {
+                final MediaFormat format = extractor.getTrackFormat(track);
+                final String mime = format.getString(MediaFormat.KEY_MIME);
+                if (mime == null || !mime.startsWith("video/")) {
+                    continue;
+                }
+                extractor.selectTrack(track);
+                int width = format.getInteger(MediaFormat.KEY_WIDTH);
+                int height = format.getInteger(MediaFormat.KEY_HEIGHT);
+                if (format.containsKey(MediaFormat.KEY_ROTATION)
+                        && format.getInteger(MediaFormat.KEY_ROTATION) % 180 != 0) {
+                    final int swap = width;
+                    width = height;
+                    height = swap;
+                }
+                final long durationUs =
+                        format.containsKey(MediaFormat.KEY_DURATION)
+                                ? format.getLong(MediaFormat.KEY_DURATION)
+                                : 0;
+                return new VideoMetadata(
+                        mime,
+                        (int) (durationUs / 1000),
+                        width,
+                        height,
+                        findKeyframes(extractor));
+            }
+            return null;
+        } finally {
+            extractor.release();
+        }
+    }
+
+    /** Walks the sync samples of the selected track. */
+    private static int[] findKeyframes(MediaExtractor extractor) {
+        int[] keyframesMs = new int[64];
+        int count = 0;
+        long timeUs = 0;
+        long lastUs = -1;
+        while (count < VideoMetadata.MAX_KEYFRAMES) {
+            extractor.seekTo(timeUs, MediaExtractor.SEEK_TO_NEXT_SYNC);
+            final long sampleUs = extractor.getSampleTime();
+            if (sampleUs < 0 || sampleUs <= lastUs) {
+                break;
+            }
+            if (count == keyframesMs.length) {
+                keyframesMs = Arrays.copyOf(keyframesMs, count * 2);
+            }
+            keyframesMs[count++] = (int) (sampleUs / 1000);
+            lastUs = sampleUs;
+            timeUs = sampleUs + 1;
+        }
+        return Arrays.copyOf(keyframesMs, count);
+    }
+}
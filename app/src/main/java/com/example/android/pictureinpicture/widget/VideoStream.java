@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A video read at random positions, for the videos that have no file descriptor, e.g. the ones
+ * streamed over the network. The methods are called on a background thread of the engine, and
+ * may block.
+ */
+public interface VideoStream extends Closeable {
+
+    /**
+     * @return The size of the video in bytes, or -1 if it is not known.
+     * @throws IOException If the size cannot be read.
+     */
+    long getSize() throws IOException;
+
+    /**
+     * Reads bytes of the video. This may read fewer bytes than asked for.
+     *
+     * @param position Where to read from, in bytes from the start of the video.
+     * @param buffer Where to put the bytes.
+     * @param offset The offset in {@code buffer} of the first byte.
+     * @param size The maximum number of bytes to read.
+     * @return The number of bytes read, or -1 at the end of the video.
+     * @throws IOException If the bytes cannot be read.
+     */
+    int readAt(long position, byte[] buffer, int offset, int size) throws IOException;
+}
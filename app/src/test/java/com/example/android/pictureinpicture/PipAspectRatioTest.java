@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PipAspectRatioTest {
+
+    @Test
+    public void ratio_isReduced() {
+        PipAspectRatio ratio = new PipAspectRatio();
+        assertTrue(ratio.update(1920, 1080));
+        assertEquals(16, ratio.getNumerator());
+        assertEquals(9, ratio.getDenominator());
+    }
+
+    @Test
+    public void ratio_isClampedToAllowedRange() {
+        PipAspectRatio ratio = new PipAspectRatio();
+        // A panorama
+        ratio.update(3000, 1000);
+        assertEquals(PipAspectRatio.MAX_NUMERATOR, ratio.getNumerator());
+        assertEquals(PipAspectRatio.MAX_DENOMINATOR, ratio.getDenominator());
+        // A very tall video
+        ratio.update(400, 1920);
+        assertEquals(PipAspectRatio.MAX_DENOMINATOR, ratio.getNumerator());
+        assertEquals(PipAspectRatio.MAX_NUMERATOR, ratio.getDenominator());
+    }
+
+    @Test
+    public void sameRatio_isNotAChange() {
+        PipAspectRatio ratio = new PipAspectRatio();
+        assertTrue(ratio.update(1280, 720));
+        assertFalse(ratio.update(1920, 1080));
+        // Both are clamped to the same ratio.
+        assertTrue(ratio.update(3000, 1000));
+        assertFalse(ratio.update(4000, 1000));
+    }
+
+    @Test
+    public void unknownSize_isIgnored() {
+        PipAspectRatio ratio = new PipAspectRatio();
+        assertFalse(ratio.update(0, 0));
+        assertFalse(ratio.isValid());
+        ratio.update(1280, 720);
+        assertFalse(ratio.update(1280, 0));
+        assertEquals(16, ratio.getNumerator());
+    }
+}
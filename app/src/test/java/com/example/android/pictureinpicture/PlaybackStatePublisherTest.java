@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class PlaybackStatePublisherTest {
+
+    private static final int STATE_PAUSED = 2;
+    private static final int STATE_PLAYING = 3;
+
+    private static final long ACTIONS_PLAY_PAUSE = 0x206;
+    private static final long ACTIONS_ALL = 0x236;
+
+    /** The states received by the media session, as {state, actions, position, mediaId}. */
+    private final List<long[]> mPublished = new ArrayList<>();
+
+    /** The tasks waiting for the next frame. */
+    private final List<Runnable> mFrameTasks = new ArrayList<>();
+
+    /** Whether there is a media session to receive the states. */
+    private boolean mConnected = true;
+
+    private PlaybackStatePublisher mPublisher;
+
+    @Before
+    public void setUp() {
+        mPublisher =
+                new PlaybackStatePublisher(
+                        new PlaybackStatePublisher.Sink() {
+                            @Override
+                            public boolean publish(
+                                    int state, long actions, int position, long mediaId) {
+                                if (!mConnected) {
+                                    return false;
+                                }
+                                mPublished.add(new long[] {state, actions, position, mediaId});
+                                return true;
+                            }
+                        },
+                        new PlaybackStatePublisher.Scheduler() {
+                            @Override
+                            public void schedule(Runnable task) {
+                                mFrameTasks.add(task);
+                            }
+                        });
+    }
+
+    @Test
+    public void burst_isPublishedOncePerFrame() {
+        mPublisher.update(STATE_PLAYING, ACTIONS_ALL, 0, 0);
+        mPublisher.update(STATE_PLAYING, ACTIONS_ALL, 0, 1);
+        mPublisher.update(STATE_PLAYING, ACTIONS_PLAY_PAUSE, 0, 2);
+        assertEquals(1, mFrameTasks.size());
+        assertEquals(0, mPublished.size());
+
+        runFrame();
+        assertEquals(1, mPublished.size());
+        assertState(STATE_PLAYING, ACTIONS_PLAY_PAUSE, 0, 2, mPublished.get(0));
+        assertEquals(3, mPublisher.getRequestCount());
+        assertEquals(2, mPublisher.getSavedCount());
+    }
+
+    @Test
+    public void identicalState_isNotPublishedAgain() {
+        mPublisher.update(STATE_PAUSED, ACTIONS_ALL, 1000, 0);
+        runFrame();
+        mPublisher.update(STATE_PAUSED, ACTIONS_ALL, 1000, 0);
+        runFrame();
+        assertEquals(1, mPublished.size());
+        assertEquals(1, mPublisher.getSavedCount());
+    }
+
+    @Test
+    public void update_keepsPreviousActions() {
+        mPublisher.update(STATE_PLAYING, ACTIONS_ALL, 0, 0);
+        runFrame();
+        mPublisher.update(STATE_PAUSED, 500, 0);
+        runFrame();
+        assertEquals(2, mPublished.size());
+        assertState(STATE_PAUSED, ACTIONS_ALL, 500, 0, mPublished.get(1));
+    }
+
+    @Test
+    public void flush_publishesWithoutWaitingForFrame() {
+        mPublisher.update(STATE_PLAYING, ACTIONS_ALL, 0, 0);
+        mPublisher.flush();
+        assertEquals(1, mPublished.size());
+        // The scheduled task has nothing left to publish.
+        runFrame();
+        assertEquals(1, mPublished.size());
+    }
+
+    @Test
+    public void reset_publishesToNewSession() {
+        mPublisher.update(STATE_PLAYING, ACTIONS_ALL, 0, 0);
+        runFrame();
+        mPublisher.reset();
+        mPublisher.update(STATE_PLAYING, ACTIONS_ALL, 0, 0);
+        runFrame();
+        assertEquals(2, mPublished.size());
+    }
+
+    @Test
+    public void undeliveredState_isPublishedOnNextFlush() {
+        mConnected = false;
+        mPublisher.update(STATE_PLAYING, ACTIONS_ALL, 0, 0);
+        runFrame();
+        assertEquals(0, mPublished.size());
+        assertEquals(0, mPublisher.getPublishCount());
+        // Nothing was saved; the state just did not go anywhere.
+        assertEquals(0, mPublisher.getSavedCount());
+
+        mConnected = true;
+        mPublisher.flush();
+        assertEquals(1, mPublished.size());
+        assertEquals(1, mPublisher.getPublishCount());
+        assertState(STATE_PLAYING, ACTIONS_ALL, 0, 0, mPublished.get(0));
+    }
+
+    @Test
+    public void undeliveredState_isNotTakenAsPublished() {
+        mPublisher.update(STATE_PAUSED, ACTIONS_ALL, 0, 0);
+        runFrame();
+        mConnected = false;
+        mPublisher.update(STATE_PLAYING, ACTIONS_ALL, 0, 0);
+        runFrame();
+        mConnected = true;
+        mPublisher.update(STATE_PAUSED, ACTIONS_ALL, 0, 0);
+        runFrame();
+        // The session never saw the playing state, so paused is not published again.
+        assertEquals(1, mPublished.size());
+        assertEquals(1, mPublisher.getPublishCount());
+    }
+
+    private void runFrame() {
+        final List<Runnable> tasks = new ArrayList<>(mFrameTasks);
+        mFrameTasks.clear();
+        for (Runnable task : tasks) {
+            task.run();
+        }
+    }
+
+    private static void assertState(
+            int state, long actions, int position, long mediaId, long[] actual) {
+        assertEquals(state, actual[0]);
+        assertEquals(actions, actual[1]);
+        assertEquals(position, actual[2]);
+        assertEquals(mediaId, actual[3]);
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class PlaylistActionsTest {
+
+    private static final long PLAY_PAUSE = 1;
+    private static final long NEXT = 2;
+    private static final long PREVIOUS = 4;
+
+    private final PlaylistActions mActions = new PlaylistActions(PLAY_PAUSE, NEXT, PREVIOUS);
+
+    @Test
+    public void skipping_isOnlyOfferedWhereThereIsAVideo() {
+        assertEquals(PLAY_PAUSE, mActions.get(false, false));
+        assertEquals(PLAY_PAUSE | NEXT, mActions.get(false, true));
+        assertEquals(PLAY_PAUSE | PREVIOUS, mActions.get(true, false));
+        assertEquals(PLAY_PAUSE | NEXT | PREVIOUS, mActions.get(true, true));
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class DecodeSchedulerTest {
+
+    private static final long T = 1000000000L; // ns
+
+    private static final long MS = 1000000L; // ns
+
+    private static final long SECOND = 1000 * MS;
+
+    /** 25 frames per second */
+    private static final long FRAME_INTERVAL_US = 40000;
+
+    private static final int SAMPLE_SIZE = 16;
+
+    private MediaClock mClock;
+
+    private FakeCodec mCodec;
+
+    private FakeSampleSource mSource;
+
+    private DecodeScheduler mScheduler;
+
+    private int mFirstOutputCount;
+
+    private long mFirstOutputTimeUs = -1;
+
+    private int mEndCount;
+
+    /** How many bytes the audio sink takes before it is full. */
+    private int mSinkRoom;
+
+    private int mSinkWritten;
+
+    @Before
+    public void setUp() {
+        mClock = new MediaClock();
+        mCodec = new FakeCodec(4, SAMPLE_SIZE);
+        mSource = new FakeSampleSource(10, FRAME_INTERVAL_US, SAMPLE_SIZE);
+        mScheduler = newScheduler(null);
+    }
+
+    @Test
+    public void firstFrame_isShownWhilePaused() {
+        decode(T);
+        assertEquals(DecodeScheduler.IDLE, mScheduler.render(T));
+        assertEquals(1, mCodec.renderCount);
+        assertEquals(T, mCodec.lastRenderTimeNs);
+        assertEquals(1, mFirstOutputCount);
+        assertEquals(0, mFirstOutputTimeUs);
+        // The rest waits for the clock.
+        assertEquals(DecodeScheduler.IDLE, mScheduler.render(T + 500 * MS));
+        assertEquals(1, mCodec.renderCount);
+        assertEquals(3, mScheduler.getPendingCount());
+    }
+
+    @Test
+    public void frames_areReleasedAheadOfTime() {
+        decode(T);
+        mScheduler.render(T);
+        mClock.start(T);
+
+        // The frame at 40ms goes to the display at 20ms.
+        assertEquals(20 * MS, mScheduler.render(T));
+        assertEquals(1, mCodec.renderCount);
+        assertEquals(40 * MS, mScheduler.render(T + 20 * MS));
+        assertEquals(2, mCodec.renderCount);
+        assertEquals(T + 40 * MS, mCodec.lastRenderTimeNs);
+        assertEquals(20000, mScheduler.getQueueLatency().getMax());
+    }
+
+    @Test
+    public void lateFrames_areDropped() {
+        decode(T);
+        mScheduler.render(T);
+        mClock.start(T);
+
+        // 40ms is 60ms late, 80ms is 20ms late and 120ms is 20ms ahead.
+        assertEquals(DecodeScheduler.IDLE, mScheduler.render(T + 100 * MS));
+        assertEquals(1, mScheduler.getDroppedCount());
+        assertEquals(3, mScheduler.getRenderedCount());
+        assertEquals(T + 120 * MS, mCodec.lastRenderTimeNs);
+        assertEquals(0, mCodec.getHeldCount());
+    }
+
+    @Test
+    public void endOfStream_isReportedOnceAllFramesAreOut() {
+        mSource = new FakeSampleSource(3, FRAME_INTERVAL_US, SAMPLE_SIZE);
+        mScheduler = newScheduler(null);
+        decode(T);
+        mClock.start(T);
+        mScheduler.render(T);
+        assertEquals(0, mEndCount);
+
+        mScheduler.render(T + 100 * MS);
+        assertEquals(1, mEndCount);
+        mScheduler.render(T + 200 * MS);
+        assertEquals(1, mEndCount);
+        assertEquals(0, mCodec.getHeldCount());
+    }
+
+    @Test
+    public void preciseSeek_skipsFramesBeforeTarget() {
+        decode(T);
+        mScheduler.render(T);
+
+        // Seeking to 100ms starts from the sync frame at 0.
+        mCodec.flush();
+        mScheduler.flush();
+        mSource.seekTo(0);
+        mScheduler.setSkipUntil(100000);
+        decode(T);
+        assertEquals(3, mScheduler.getSkippedCount());
+        mScheduler.render(T);
+        assertEquals(2, mFirstOutputCount);
+        assertEquals(120000, mFirstOutputTimeUs);
+    }
+
+    @Test
+    public void flush_forgetsPendingBuffers() {
+        decode(T);
+        mScheduler.render(T);
+        mCodec.flush();
+        mScheduler.flush();
+        assertEquals(0, mScheduler.getPendingCount());
+
+        // Releasing a buffer from before the flush would fail.
+        mClock.start(T);
+        mScheduler.render(T + SECOND);
+        decode(T + SECOND);
+        mScheduler.render(T + SECOND);
+        assertEquals(2, mFirstOutputCount);
+    }
+
+    @Test
+    public void withoutSurface_framesAreScheduledButNotShown() {
+        mScheduler.setRenderEnabled(false);
+        decode(T);
+        mScheduler.render(T);
+        assertEquals(1, mScheduler.getRenderedCount());
+        assertEquals(0, mCodec.renderCount);
+        assertEquals(1, mFirstOutputCount);
+    }
+
+    @Test
+    public void audio_isWrittenAsFastAsTheSinkTakesIt() {
+        mScheduler = newScheduler(new Sink());
+        decode(T);
+        mSinkRoom = 24;
+        assertEquals(DecodeScheduler.IDLE, mScheduler.render(T));
+        assertEquals(0, mSinkWritten);
+
+        mClock.start(T);
+        assertEquals(DecodeScheduler.AUDIO_RETRY_NS, mScheduler.render(T));
+        assertEquals(24, mSinkWritten);
+        assertEquals(1, mCodec.discardCount);
+        assertEquals(1, mFirstOutputCount);
+
+        mSinkRoom = 40;
+        assertEquals(DecodeScheduler.IDLE, mScheduler.render(T + 10 * MS));
+        assertEquals(64, mSinkWritten);
+        assertEquals(0, mCodec.getHeldCount());
+        assertEquals(0, mScheduler.getRenderedCount());
+    }
+
+    private void decode(long nowNs) {
+        mCodec.feed(mScheduler);
+        mCodec.drain(mScheduler, nowNs);
+    }
+
+    private DecodeScheduler newScheduler(DecodeScheduler.AudioSink sink) {
+        return new DecodeScheduler(
+                mCodec,
+                mSource,
+                mClock,
+                sink,
+                new DecodeScheduler.Listener() {
+                    @Override
+                    public void onFirstOutput(long timeUs) {
+                        mFirstOutputCount++;
+                        mFirstOutputTimeUs = timeUs;
+                    }
+
+                    @Override
+                    public void onEndOfStream() {
+                        mEndCount++;
+                    }
+                });
+    }
+
+    private class Sink implements DecodeScheduler.AudioSink {
+
+        @Override
+        public int write(ByteBuffer buffer, int size) {
+            final int written = Math.min(size, mSinkRoom);
+            buffer.position(buffer.position() + written);
+            mSinkRoom -= written;
+            mSinkWritten += written;
+            return written;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+public class DecoderCapabilitiesTest {
+
+    private static final VideoMetadata AVC_4K = metadata("video/avc", 3840, 2160);
+    private static final VideoMetadata AVC_1080P = metadata("video/avc", 1920, 1080);
+    private static final VideoMetadata AVC_PORTRAIT = metadata("video/avc", 1080, 1920);
+    private static final VideoMetadata HEVC_1080P = metadata("video/hevc", 1920, 1080);
+    private static final VideoMetadata AVC_8K = metadata("video/avc", 7680, 4320);
+
+    @Rule public final TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() {
+        mDirectory = mTemporaryFolder.getRoot();
+    }
+
+    @Test
+    public void isSupported_checksFormatAndSize() {
+        DecoderCapabilities capabilities = FakeCodecProbe.TYPICAL;
+        assertTrue(capabilities.isSupported(AVC_1080P));
+        assertTrue(capabilities.isSupported(AVC_PORTRAIT));
+        assertTrue(capabilities.isSupported(AVC_4K));
+        assertFalse(capabilities.isSupported(AVC_8K));
+        assertFalse(capabilities.isSupported(HEVC_1080P));
+        // Unknown formats are given a try.
+        assertTrue(capabilities.isSupported(new VideoMetadata(60000, 7680, 4320, new int[0])));
+    }
+
+    @Test
+    public void findDecoder_prefersHardware() {
+        DecoderCapabilities capabilities = FakeCodecProbe.TYPICAL;
+        assertTrue(capabilities.findDecoder("video/avc", 1280, 720).hardware);
+        assertFalse(capabilities.findDecoder("video/avc", 3840, 2160).hardware);
+        assertNull(capabilities.findDecoder("video/hevc", 1280, 720));
+    }
+
+    @Test
+    public void fits_respectsFrameLimit() {
+        DecoderCapabilities.Decoder hardware = FakeCodecProbe.TYPICAL.getDecoders().get(0);
+        assertTrue(hardware.fits(1920, 1080));
+        assertTrue(hardware.fits(1080, 1920));
+        // Within the largest width and height, but too many pixels
+        assertFalse(hardware.fits(3840, 2160));
+        assertFalse(hardware.fits(4096, 4096));
+        assertTrue(hardware.fits(4096, 480));
+    }
+
+    @Test
+    public void pickRendition_prefersHardwareDecodableOne() {
+        DecoderCapabilities capabilities = FakeCodecProbe.TYPICAL;
+        // 8K cannot be decoded and 4K only in software; 1080p is decoded in hardware.
+        assertEquals(2, capabilities.pickRendition(Arrays.asList(AVC_8K, AVC_4K, AVC_1080P)));
+        assertEquals(1, capabilities.pickRendition(Arrays.asList(HEVC_1080P, AVC_4K)));
+        assertEquals(1, capabilities.pickRendition(Arrays.asList(null, AVC_1080P)));
+        assertEquals(-1, capabilities.pickRendition(Arrays.asList(HEVC_1080P, AVC_8K, null)));
+    }
+
+    @Test
+    public void cache_probesOnce() {
+        FakeCodecProbe probe = new FakeCodecProbe();
+        File file = new File(mDirectory, "capabilities");
+        new DecoderCapabilitiesCache(file, "build/1").get(probe);
+        DecoderCapabilities loaded = new DecoderCapabilitiesCache(file, "build/1").get(probe);
+        assertEquals(1, probe.probeCount);
+        assertEquals(3, loaded.getDecoders().size());
+        assertTrue(loaded.isSupported(AVC_4K));
+        assertTrue(loaded.findDecoder("video/avc", 1920, 1080).hardware);
+    }
+
+    @Test
+    public void cache_probesAgainAfterSystemUpdate() {
+        FakeCodecProbe probe = new FakeCodecProbe();
+        File file = new File(mDirectory, "capabilities");
+        new DecoderCapabilitiesCache(file, "build/1").get(probe);
+        probe.capabilities =
+                new DecoderCapabilities(
+                        Arrays.asList(
+                                new DecoderCapabilities.Decoder(
+                                        "OMX.vendor.hevc.decoder",
+                                        "video/hevc",
+                                        3840,
+                                        2160,
+                                        3840 * 2160,
+                                        true)));
+        DecoderCapabilities updated = new DecoderCapabilitiesCache(file, "build/2").get(probe);
+        assertEquals(2, probe.probeCount);
+        assertTrue(updated.isSupported(HEVC_1080P));
+    }
+
+    @Test
+    public void cache_ignoresCorruptEntry() throws IOException {
+        File file = new File(mDirectory, "capabilities");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[] {0, 0, 0, 1, 0});
+        }
+        assertNull(new DecoderCapabilitiesCache(file, "build/1").load());
+        assertFalse(file.exists());
+    }
+
+    private static VideoMetadata metadata(String mimeType, int width, int height) {
+        return new VideoMetadata(mimeType, 60000, width, height, new int[0]);
+    }
+}
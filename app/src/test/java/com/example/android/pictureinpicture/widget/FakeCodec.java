@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A deterministic decoder that gives every queued sample back as it is, in order. Nothing is
+ * decoded until the test says so, on {@link #drain(DecodeScheduler, long)}. Like a real decoder,
+ * it only has a few buffers, and fails when one is used by the wrong side.
+ */
+class FakeCodec implements DecodeScheduler.Codec {
+
+    private static final int FREE = 0;
+    private static final int DECODING = 1;
+    private static final int DECODED = 2;
+
+    private final ByteBuffer[] mBuffers;
+
+    private final int[] mStates;
+
+    // The buffers being decoded, in the order they were queued
+    private final int[] mDecodingIndices;
+    private final int[] mDecodingSizes;
+    private final long[] mDecodingTimesUs;
+    private final boolean[] mDecodingEnds;
+    private int mDecodingHead;
+    private int mDecodingCount;
+
+    int renderCount;
+
+    int discardCount;
+
+    long lastRenderTimeNs;
+
+    FakeCodec(int bufferCount, int bufferSize) {
+        mBuffers = new ByteBuffer[bufferCount];
+        for (int i = 0; i < bufferCount; i++) {
+            mBuffers[i] = ByteBuffer.allocate(bufferSize);
+        }
+        mStates = new int[bufferCount];
+        mDecodingIndices = new int[bufferCount];
+        mDecodingSizes = new int[bufferCount];
+        mDecodingTimesUs = new long[bufferCount];
+        mDecodingEnds = new boolean[bufferCount];
+    }
+
+    /** Hands all the free buffers to the scheduler for input. */
+    void feed(DecodeScheduler scheduler) {
+        for (int i = 0; i < mStates.length; i++) {
+            if (mStates[i] == FREE) {
+                mStates[i] = DECODING;
+                scheduler.onInputBufferAvailable(i);
+            }
+        }
+    }
+
+    /** Hands all the queued samples back to the scheduler, decoded. */
+    void drain(DecodeScheduler scheduler, long nowNs) {
+        while (mDecodingCount > 0) {
+            final int index = mDecodingIndices[mDecodingHead];
+            final int size = mDecodingSizes[mDecodingHead];
+            final long timeUs = mDecodingTimesUs[mDecodingHead];
+            final boolean end = mDecodingEnds[mDecodingHead];
+            mDecodingHead = (mDecodingHead + 1) % mDecodingIndices.length;
+            mDecodingCount--;
+            mStates[index] = DECODED;
+            scheduler.onOutputBufferAvailable(index, 0, size, timeUs, end, nowNs);
+        }
+    }
+
+    /** Takes all the buffers back, as {@link android.media.MediaCodec#flush()} does. */
+    void flush() {
+        for (int i = 0; i < mStates.length; i++) {
+            mStates[i] = FREE;
+        }
+        mDecodingHead = 0;
+        mDecodingCount = 0;
+    }
+
+    /** The number of buffers held by the scheduler. */
+    int getHeldCount() {
+        int count = 0;
+        for (int state : mStates) {
+            if (state == DECODED) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public ByteBuffer getInputBuffer(int index) {
+        check(index, DECODING);
+        mBuffers[index].clear();
+        return mBuffers[index];
+    }
+
+    @Override
+    public void queueInputBuffer(int index, int size, long timeUs, boolean endOfStream) {
+        check(index, DECODING);
+        final int slot = (mDecodingHead + mDecodingCount) % mDecodingIndices.length;
+        mDecodingIndices[slot] = index;
+        mDecodingSizes[slot] = size;
+        mDecodingTimesUs[slot] = timeUs;
+        mDecodingEnds[slot] = endOfStream;
+        mDecodingCount++;
+    }
+
+    @Override
+    public ByteBuffer getOutputBuffer(int index) {
+        check(index, DECODED);
+        mBuffers[index].clear();
+        return mBuffers[index];
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index, boolean render, long renderTimeNs) {
+        check(index, DECODED);
+        mStates[index] = FREE;
+        if (render) {
+            renderCount++;
+            lastRenderTimeNs = renderTimeNs;
+        } else {
+            discardCount++;
+        }
+    }
+
+    private void check(int index, int state) {
+        if (mStates[index] != state) {
+            throw new IllegalStateException("Buffer " + index + " is not yours");
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import java.util.Arrays;
+
+/** A {@link CodecProbe} answering a fixed list of decoders. */
+class FakeCodecProbe implements CodecProbe {
+
+    /**
+     * AVC in hardware up to 1080p and in software up to 4K, and VP9 in software. Like many, the
+     * hardware decoder lists 4096 as its largest width and height, but has a smaller frame limit.
+     */
+    static final DecoderCapabilities TYPICAL =
+            new DecoderCapabilities(
+                    Arrays.asList(
+                            new DecoderCapabilities.Decoder(
+                                    "OMX.vendor.avc.decoder",
+                                    "video/avc",
+                                    4096,
+                                    4096,
+                                    1920 * 1088,
+                                    true),
+                            new DecoderCapabilities.Decoder(
+                                    "OMX.google.h264.decoder",
+                                    "video/avc",
+                                    4096,
+                                    2304,
+                                    4096 * 2304,
+                                    false),
+                            new DecoderCapabilities.Decoder(
+                                    "OMX.google.vp9.decoder",
+                                    "video/x-vnd.on2.vp9",
+                                    1920,
+                                    1080,
+                                    1920 * 1080,
+                                    false)));
+
+    DecoderCapabilities capabilities = TYPICAL;
+
+    int probeCount;
+
+    @Override
+    public DecoderCapabilities probe() {
+        probeCount++;
+        return capabilities;
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import android.content.res.AssetFileDescriptor;
+import android.view.Surface;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A deterministic, in-memory {@link PlayerEngine}. Nothing happens until the test says so: the
+ * preparation completes on {@link #completePrepare()} and time advances on {@link #advance(int)}.
+ */
+class FakePlayerEngine implements PlayerEngine {
+
+    /** Creates {@link FakePlayerEngine} instances and remembers all of them. */
+    static class Factory implements PlayerEngine.Factory {
+
+        final List<FakePlayerEngine> created = new ArrayList<>();
+
+        int duration = 60000;
+        int videoWidth = 1280;
+        int videoHeight = 720;
+
+        @Override
+        public PlayerEngine create() {
+            FakePlayerEngine engine = new FakePlayerEngine(duration, videoWidth, videoHeight);
+            created.add(engine);
+            return engine;
+        }
+
+        FakePlayerEngine last() {
+            return created.get(created.size() - 1);
+        }
+    }
+
+    /** Opens every video as nothing, which is all this engine needs to play it. */
+    static final PlaybackController.VideoOpener OPENER =
+            new PlaybackController.VideoOpener() {
+                @Override
+                public AssetFileDescriptor openVideo(int index) {
+                    return null;
+                }
+            };
+
+    private final int mDuration;
+    private final int mVideoWidth;
+    private final int mVideoHeight;
+
+    private Listener mListener;
+    private Surface mSurface;
+
+    private boolean mHasDataSource;
+    private boolean mPreparing;
+    private boolean mPrepared;
+    private boolean mPlaying;
+    private boolean mReleased;
+    private int mPosition;
+
+    /** Whether a seek is waiting for {@link #completeSeek()}. */
+    private boolean mSeekPending;
+
+    /** Whether seeks complete only on {@link #completeSeek()}, instead of right away. */
+    boolean asyncSeek;
+
+    int lastSeekMode;
+
+    int prepareCount;
+    int startCount;
+    int pauseCount;
+    int seekCount;
+    int resetCount;
+
+    /** Reported by {@link #getDroppedVideoFrameCount()}. */
+    long droppedVideoFrames;
+
+    FakePlayerEngine(int duration, int videoWidth, int videoHeight) {
+        mDuration = duration;
+        mVideoWidth = videoWidth;
+        mVideoHeight = videoHeight;
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public void setSurface(Surface surface) {
+        mSurface = surface;
+    }
+
+    @Override
+    public void setDataSource(AssetFileDescriptor fd) {
+        checkNotReleased();
+        if (mHasDataSource) {
+            throw new IllegalStateException("Data source is already set");
+        }
+        mHasDataSource = true;
+    }
+
+    @Override
+    public void setDataSource(VideoStream stream) {
+        setDataSource((AssetFileDescriptor) null);
+    }
+
+    @Override
+    public void prepareAsync() {
+        checkNotReleased();
+        if (!mHasDataSource || mPreparing || mPrepared) {
+            throw new IllegalStateException("prepareAsync called in a wrong state");
+        }
+        prepareCount++;
+        mPreparing = true;
+    }
+
+    @Override
+    public void start() {
+        checkPrepared();
+        startCount++;
+        mPlaying = true;
+    }
+
+    @Override
+    public void pause() {
+        checkPrepared();
+        pauseCount++;
+        mPlaying = false;
+    }
+
+    @Override
+    public void seekTo(int msec, int mode) {
+        checkPrepared();
+        seekCount++;
+        lastSeekMode = mode;
+        mPosition = Math.max(0, Math.min(msec, mDuration));
+        mSeekPending = true;
+        if (!asyncSeek) {
+            completeSeek();
+        }
+    }
+
+    @Override
+    public boolean isPlaying() {
+        return mPlaying;
+    }
+
+    @Override
+    public int getCurrentPosition() {
+        return mPosition;
+    }
+
+    @Override
+    public int getDuration() {
+        return mPrepared ? mDuration : 0;
+    }
+
+    @Override
+    public int getVideoWidth() {
+        return mPrepared ? mVideoWidth : 0;
+    }
+
+    @Override
+    public int getVideoHeight() {
+        return mPrepared ? mVideoHeight : 0;
+    }
+
+    @Override
+    public long getDroppedVideoFrameCount() {
+        return droppedVideoFrames;
+    }
+
+    @Override
+    public void reset() {
+        checkNotReleased();
+        resetCount++;
+        mHasDataSource = false;
+        mPreparing = false;
+        mPrepared = false;
+        mPlaying = false;
+        mSeekPending = false;
+        mPosition = 0;
+    }
+
+    @Override
+    public void release() {
+        mListener = null;
+        mReleased = true;
+        mPlaying = false;
+    }
+
+    /** Finishes the pending preparation and notifies the listener. */
+    void completePrepare() {
+        if (!mPreparing) {
+            throw new IllegalStateException("Not preparing");
+        }
+        mPreparing = false;
+        mPrepared = true;
+        if (mListener != null) {
+            mListener.onVideoSizeChanged(this, mVideoWidth, mVideoHeight);
+            mListener.onPrepared(this);
+        }
+    }
+
+    /** Fails the pending preparation and notifies the listener. */
+    void failPrepare(int what, int extra) {
+        mPreparing = false;
+        boolean handled = mListener != null && mListener.onError(this, what, extra);
+        if (!handled && mListener != null) {
+            mListener.onCompletion(this);
+        }
+    }
+
+    /** Finishes the pending seek and notifies the listener. */
+    void completeSeek() {
+        if (!mSeekPending) {
+            throw new IllegalStateException("Not seeking");
+        }
+        mSeekPending = false;
+        if (mListener != null) {
+            mListener.onSeekComplete(this);
+        }
+    }
+
+    /** Reports that the first frame has been rendered. */
+    void renderFirstFrame() {
+        if (mListener != null) {
+            mListener.onRenderingStart(this);
+        }
+    }
+
+    /** Lets the specified amount of playback time pass. */
+    void advance(int ms) {
+        if (!mPlaying) {
+            return;
+        }
+        mPosition += ms;
+        if (mPosition >= mDuration) {
+            mPosition = mDuration;
+            mPlaying = false;
+            if (mListener != null) {
+                mListener.onCompletion(this);
+            }
+        }
+    }
+
+    boolean isPreparing() {
+        return mPreparing;
+    }
+
+    boolean isReleased() {
+        return mReleased;
+    }
+
+    Surface getSurface() {
+        return mSurface;
+    }
+
+    private void checkNotReleased() {
+        if (mReleased) {
+            throw new IllegalStateException("Already released");
+        }
+    }
+
+    private void checkPrepared() {
+        checkNotReleased();
+        if (!mPrepared) {
+            throw new IllegalStateException("Not prepared");
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import java.nio.ByteBuffer;
+
+/** A track of samples of the same size at a fixed rate. */
+class FakeSampleSource implements DecodeScheduler.SampleSource {
+
+    private final int mSampleCount;
+
+    private final long mIntervalUs;
+
+    private final int mSampleSize;
+
+    private int mIndex;
+
+    FakeSampleSource(int sampleCount, long intervalUs, int sampleSize) {
+        mSampleCount = sampleCount;
+        mIntervalUs = intervalUs;
+        mSampleSize = sampleSize;
+    }
+
+    /** Goes back to the sample at or before a time. */
+    void seekTo(long timeUs) {
+        mIndex = (int) Math.min(timeUs / mIntervalUs, mSampleCount);
+    }
+
+    @Override
+    public int readSampleData(ByteBuffer buffer) {
+        if (mIndex >= mSampleCount) {
+            return -1;
+        }
+        buffer.position(mSampleSize);
+        return mSampleSize;
+    }
+
+    @Override
+    public long getSampleTime() {
+        return mIndex < mSampleCount ? mIndex * mIntervalUs : -1;
+    }
+
+    @Override
+    public void advance() {
+        mIndex++;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class FrameMonitorTest {
+
+    /** One refresh at 60 Hz */
+    private static final long PERIOD_NS = 16666667;
+
+    @Test
+    public void smoothFrames_dropNothing() {
+        FrameMonitor monitor = new FrameMonitor();
+        monitor.start(0, 60f, false, -1);
+        for (int i = 1; i <= 60; i++) {
+            monitor.onFrame(i * PERIOD_NS);
+        }
+        FrameStats stats = monitor.stop(61 * PERIOD_NS, -1);
+        assertEquals(60, stats.getFrameCount());
+        assertEquals(0, stats.getDroppedFrameCount());
+        assertEquals(59, stats.getFrameIntervals().getCount());
+        assertEquals(1016, stats.getDurationMs());
+    }
+
+    @Test
+    public void longInterval_countsMissedRefreshes() {
+        FrameMonitor monitor = new FrameMonitor();
+        monitor.start(0, 60f, false, -1);
+        monitor.onFrame(PERIOD_NS);
+        // Three refreshes missed
+        monitor.onFrame(5 * PERIOD_NS);
+        // Late by less than half a refresh; still on time
+        monitor.onFrame(6 * PERIOD_NS + PERIOD_NS / 3);
+        FrameStats stats = monitor.stop(7 * PERIOD_NS, -1);
+        assertEquals(3, stats.getDroppedFrameCount());
+        assertTrue(stats.getFrameIntervals().getMax() >= 4 * PERIOD_NS / 1000);
+    }
+
+    @Test
+    public void refreshRate_setsExpectedInterval() {
+        FrameMonitor monitor = new FrameMonitor();
+        monitor.start(0, 30f, false, -1);
+        monitor.onFrame(0);
+        monitor.onFrame(2 * PERIOD_NS);
+        assertEquals(0, monitor.stop(2 * PERIOD_NS, -1).getDroppedFrameCount());
+    }
+
+    @Test
+    public void videoFrames_areCountedOnlyWhenReported() {
+        FrameMonitor monitor = new FrameMonitor();
+        monitor.start(0, 60f, true, 10);
+        monitor.onVideoFrame();
+        monitor.onVideoFrame();
+        FrameStats stats = monitor.stop(PERIOD_NS, 14);
+        assertEquals(2, stats.getVideoFrameCount());
+        assertEquals(4, stats.getDroppedVideoFrameCount());
+
+        monitor.start(0, 60f, false, -1);
+        monitor.onVideoFrame();
+        stats = monitor.stop(PERIOD_NS, -1);
+        assertEquals(-1, stats.getVideoFrameCount());
+        assertEquals(-1, stats.getDroppedVideoFrameCount());
+    }
+
+    @Test
+    public void replacedPlayer_makesDroppedVideoFramesUnknown() {
+        FrameMonitor monitor = new FrameMonitor();
+        monitor.start(0, 60f, true, 10);
+        assertEquals(-1, monitor.stop(PERIOD_NS, 3).getDroppedVideoFrameCount());
+    }
+
+    @Test
+    public void sessions_areIndependent() {
+        FrameMonitor monitor = new FrameMonitor();
+        assertNull(monitor.stop(0, -1));
+        monitor.start(0, 60f, false, -1);
+        monitor.onFrame(PERIOD_NS);
+        monitor.onFrame(10 * PERIOD_NS);
+        monitor.stop(10 * PERIOD_NS, -1);
+        assertFalse(monitor.isRunning());
+        // Frames after the session are ignored.
+        monitor.onFrame(20 * PERIOD_NS);
+
+        monitor.start(100 * PERIOD_NS, 60f, false, -1);
+        monitor.onFrame(101 * PERIOD_NS);
+        FrameStats stats = monitor.stop(101 * PERIOD_NS, -1);
+        assertEquals(1, stats.getFrameCount());
+        assertEquals(0, stats.getDroppedFrameCount());
+    }
+}
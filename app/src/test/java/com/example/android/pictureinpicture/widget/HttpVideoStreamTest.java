@@ -0,0 +1,351 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+/** Streams from a server on the loopback interface that answers range requests. */
+public class HttpVideoStreamTest {
+
+    private static final int SIZE = 100 * 1024;
+
+    private static final byte[] VIDEO = new byte[SIZE];
+
+    /** The same video, as changed on the server. */
+    private static final byte[] CHANGED_VIDEO = new byte[SIZE];
+
+    static {
+        new Random(42).nextBytes(VIDEO);
+        new Random(43).nextBytes(CHANGED_VIDEO);
+    }
+
+    private HttpServer mServer;
+
+    private File mDirectory;
+
+    /** The number of requests the server has answered. */
+    private volatile int mRequests;
+
+    /** What the server sends. */
+    private volatile byte[] mVideo = VIDEO;
+
+    /** The ETag of {@link #mVideo}. */
+    private volatile String mETag = "\"1\"";
+
+    /** Whether the server sends the whole video whatever the range asked for. */
+    private volatile boolean mIgnoresRanges;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = Files.createTempDirectory("video_cache").toFile();
+        mServer =
+                HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        mServer.createContext("/", new RangeHandler());
+        mServer.start();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+        deleteRecursively(mDirectory);
+    }
+
+    @Test
+    public void sequentialReads_useOneRequest() throws IOException {
+        VideoCache cache = new VideoCache(mDirectory, SIZE * 4);
+        try (HttpVideoStream stream = new HttpVideoStream(url("a"), cache)) {
+            assertEquals(SIZE, stream.getSize());
+            assertArrayEquals(VIDEO, readAll(stream));
+            assertEquals(1, stream.getRequestCount());
+        }
+        assertEquals(SIZE, cache.getCachedBytes());
+    }
+
+    @Test
+    public void secondPlay_isReadFromCache() throws IOException {
+        VideoCache cache = new VideoCache(mDirectory, SIZE * 4);
+        try (HttpVideoStream stream = new HttpVideoStream(url("a"), cache)) {
+            readAll(stream);
+        }
+        final int requests = mRequests;
+
+        // After a restart, too
+        VideoCache restarted = new VideoCache(mDirectory, SIZE * 4);
+        try (HttpVideoStream stream = new HttpVideoStream(url("a"), restarted)) {
+            assertEquals(SIZE, stream.getSize());
+            assertArrayEquals(VIDEO, readAll(stream));
+            assertEquals(0, stream.getRequestCount());
+        }
+        assertEquals(requests, mRequests);
+    }
+
+    @Test
+    public void crashedMetadataWrite_keepsCachedBytes() throws IOException {
+        VideoCache cache = new VideoCache(mDirectory, SIZE * 4);
+        try (HttpVideoStream stream = new HttpVideoStream(url("a"), cache)) {
+            readAll(stream);
+        }
+        for (File directory : mDirectory.listFiles()) {
+            assertTrue(new File(directory, "meta.tmp").createNewFile());
+        }
+
+        VideoCache restarted = new VideoCache(mDirectory, SIZE * 4);
+        assertEquals(SIZE, restarted.getCachedBytes());
+        try (HttpVideoStream stream = new HttpVideoStream(url("a"), restarted)) {
+            assertArrayEquals(VIDEO, readAll(stream));
+            assertEquals(0, stream.getRequestCount());
+        }
+    }
+
+    @Test
+    public void seek_requestsRangeAndLaterFillsGap() throws IOException {
+        VideoCache cache = new VideoCache(mDirectory, SIZE * 4);
+        try (HttpVideoStream stream = new HttpVideoStream(url("a"), cache)) {
+            final byte[] buffer = new byte[1000];
+            final int read = stream.readAt(SIZE / 2, buffer, 0, buffer.length);
+            assertTrue(read > 0);
+            assertArrayEquals(
+                    Arrays.copyOfRange(VIDEO, SIZE / 2, SIZE / 2 + read),
+                    Arrays.copyOf(buffer, read));
+            assertEquals(SIZE, stream.getSize());
+
+            // Back to the start: the gap is downloaded, and the cached bytes are reused.
+            assertArrayEquals(VIDEO, readAll(stream));
+            assertEquals(2, stream.getRequestCount());
+        }
+        assertEquals(SIZE, cache.getCachedBytes());
+    }
+
+    @Test
+    public void leastRecentlyPlayed_isEvicted() throws IOException {
+        VideoCache cache = new VideoCache(mDirectory, SIZE * 2);
+        for (String name : new String[] {"a", "b", "c"}) {
+            try (HttpVideoStream stream = new HttpVideoStream(url(name), cache)) {
+                readAll(stream);
+            }
+        }
+        assertEquals(SIZE * 2, cache.getCachedBytes());
+        assertEquals(-1, cache.getLength(url("a").toString()));
+        assertEquals(SIZE, cache.getLength(url("c").toString()));
+    }
+
+    @Test
+    public void openVideo_isNotEvicted() throws IOException {
+        VideoCache cache = new VideoCache(mDirectory, SIZE);
+        try (HttpVideoStream playing = new HttpVideoStream(url("a"), cache)) {
+            readAll(playing);
+            try (HttpVideoStream next = new HttpVideoStream(url("b"), cache)) {
+                readAll(next);
+            }
+            // Over the limit for as long as both are open
+            assertEquals(SIZE, cache.getLength(url("a").toString()));
+        }
+    }
+
+    @Test
+    public void ignoredRange_cachesSkippedBytes() throws IOException {
+        mIgnoresRanges = true;
+        VideoCache cache = new VideoCache(mDirectory, SIZE * 4);
+        try (HttpVideoStream stream = new HttpVideoStream(url("a"), cache)) {
+            final byte[] buffer = new byte[1000];
+            final int read = stream.readAt(SIZE / 2, buffer, 0, buffer.length);
+            assertArrayEquals(
+                    Arrays.copyOfRange(VIDEO, SIZE / 2, SIZE / 2 + read),
+                    Arrays.copyOf(buffer, read));
+            assertEquals(SIZE / 2 + read, cache.getCachedBytes());
+
+            // The start is read from the cache, and the rest from the same response.
+            assertArrayEquals(VIDEO, readAll(stream));
+            assertEquals(1, stream.getRequestCount());
+        }
+        assertEquals(SIZE, cache.getCachedBytes());
+    }
+
+    @Test
+    public void shortSkipAhead_cachesSkippedBytes() throws IOException {
+        VideoCache cache = new VideoCache(mDirectory, SIZE * 4);
+        try (HttpVideoStream stream = new HttpVideoStream(url("a"), cache)) {
+            final byte[] buffer = new byte[1000];
+            assertEquals(1000, stream.readAt(0, buffer, 0, buffer.length));
+            final int read = stream.readAt(SIZE / 2, buffer, 0, buffer.length);
+            assertArrayEquals(
+                    Arrays.copyOfRange(VIDEO, SIZE / 2, SIZE / 2 + read),
+                    Arrays.copyOf(buffer, read));
+            assertEquals(SIZE / 2 + read, cache.getCachedBytes());
+
+            assertArrayEquals(VIDEO, readAll(stream));
+            assertEquals(1, stream.getRequestCount());
+        }
+    }
+
+    @Test
+    public void shortSkipAhead_skipsCachedRuns() throws IOException {
+        VideoCache cache = new VideoCache(mDirectory, SIZE * 4);
+        final byte[] buffer = new byte[1000];
+        try (HttpVideoStream stream = new HttpVideoStream(url("a"), cache)) {
+            stream.readAt(SIZE / 4, buffer, 0, buffer.length);
+        }
+        try (HttpVideoStream stream = new HttpVideoStream(url("a"), cache)) {
+            stream.readAt(0, buffer, 0, buffer.length);
+            final int read = stream.readAt(SIZE / 2, buffer, 0, buffer.length);
+            // Every byte is cached once.
+            assertEquals(SIZE / 2 + read, cache.getCachedBytes());
+            assertArrayEquals(VIDEO, readAll(stream));
+        }
+        assertEquals(SIZE, cache.getCachedBytes());
+    }
+
+    @Test
+    public void changedVideo_dropsCachedBytes() throws IOException {
+        VideoCache cache = new VideoCache(mDirectory, SIZE * 4);
+        try (HttpVideoStream stream = new HttpVideoStream(url("a"), cache)) {
+            readFrom(stream, SIZE / 2);
+        }
+        assertEquals(SIZE / 2, cache.getCachedBytes());
+
+        mVideo = CHANGED_VIDEO;
+        mETag = "\"2\"";
+        try (HttpVideoStream stream = new HttpVideoStream(url("a"), cache)) {
+            assertArrayEquals(CHANGED_VIDEO, readAll(stream));
+        }
+        assertEquals(SIZE, cache.getCachedBytes());
+        assertEquals("\"2\"", cache.getValidator(url("a").toString()));
+    }
+
+    @Test
+    public void changedVideo_isSentWholeForRange() throws IOException {
+        VideoCache cache = new VideoCache(mDirectory, SIZE * 4);
+        try (HttpVideoStream stream = new HttpVideoStream(url("a"), cache)) {
+            final byte[] buffer = new byte[1000];
+            stream.readAt(0, buffer, 0, buffer.length);
+        }
+
+        mVideo = CHANGED_VIDEO;
+        mETag = "\"2\"";
+        // After a restart, too
+        VideoCache restarted = new VideoCache(mDirectory, SIZE * 4);
+        try (HttpVideoStream stream = new HttpVideoStream(url("a"), restarted)) {
+            readFrom(stream, SIZE / 2);
+            // The stale start was replaced on the way to the range.
+            assertArrayEquals(CHANGED_VIDEO, readAll(stream));
+            assertEquals(1, stream.getRequestCount());
+        }
+    }
+
+    @Test
+    public void parseContentRangeSize_handlesUnknownSize() {
+        assertEquals(1000, HttpVideoStream.parseContentRangeSize("bytes 200-999/1000", -1));
+        assertEquals(-1, HttpVideoStream.parseContentRangeSize("bytes 200-999/*", -1));
+        assertEquals(-1, HttpVideoStream.parseContentRangeSize(null, -1));
+    }
+
+    private URL url(String name) throws IOException {
+        return new URL("http://127.0.0.1:" + mServer.getAddress().getPort() + "/" + name);
+    }
+
+    /** Reads the video from a position to its end. */
+    private static void readFrom(HttpVideoStream stream, long start) throws IOException {
+        final byte[] buffer = new byte[8192];
+        long position = start;
+        int read;
+        while ((read = stream.readAt(position, buffer, 0, buffer.length)) > 0) {
+            position += read;
+        }
+        assertEquals(SIZE, position);
+    }
+
+    /** Reads the whole video from the start, the way an engine would. */
+    private static byte[] readAll(HttpVideoStream stream) throws IOException {
+        final byte[] video = new byte[SIZE];
+        final byte[] buffer = new byte[8192];
+        long position = 0;
+        int read;
+        while ((read = stream.readAt(position, buffer, 0, buffer.length)) > 0) {
+            System.arraycopy(buffer, 0, video, (int) position, read);
+            position += read;
+        }
+        assertEquals(SIZE, position);
+        return video;
+    }
+
+    private static void deleteRecursively(File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Serves {@link #mVideo} at every path, honoring {@code Range: bytes=N-} unless {@code
+     * If-Range} names another version.
+     */
+    private class RangeHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            mRequests++;
+            final String range = exchange.getRequestHeaders().getFirst("Range");
+            final String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+            final byte[] video = mVideo;
+            int start = 0;
+            final boolean whole =
+                    range == null
+                            || mIgnoresRanges
+                            || (ifRange != null && !ifRange.equals(mETag));
+            if (!whole && range.startsWith("bytes=")) {
+                start = Integer.parseInt(range.substring(6, range.indexOf('-')));
+            }
+            exchange.getResponseHeaders().set("ETag", mETag);
+            if (whole) {
+                exchange.sendResponseHeaders(200, SIZE);
+            } else {
+                exchange.getResponseHeaders()
+                        .set("Content-Range", "bytes " + start + "-" + (SIZE - 1) + "/" + SIZE);
+                exchange.sendResponseHeaders(206, SIZE - start);
+            }
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(video, start, SIZE - start);
+            } catch (IOException e) {
+                // The client went elsewhere.
+            }
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class IdleTimeoutTest {
+
+    private static final long TIMEOUT = 3000;
+
+    private FakeScheduler mScheduler;
+
+    private IdleTimeout mTimeout;
+
+    private int mRunCount;
+
+    @Before
+    public void setUp() {
+        mScheduler = new FakeScheduler();
+        mTimeout =
+                new IdleTimeout(
+                        mScheduler,
+                        TIMEOUT,
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                mRunCount++;
+                            }
+                        });
+    }
+
+    @Test
+    public void runsAfterTimeout() {
+        mTimeout.restart();
+        mScheduler.advance(TIMEOUT - 1);
+        assertEquals(0, mRunCount);
+        mScheduler.advance(1);
+        assertEquals(1, mRunCount);
+        assertFalse(mTimeout.isActive());
+        // Only once
+        mScheduler.advance(TIMEOUT);
+        assertEquals(1, mRunCount);
+    }
+
+    @Test
+    public void burstOfInteractions_postsOnce() {
+        for (int i = 0; i < 100; i++) {
+            mTimeout.restart();
+            mScheduler.advance(10);
+        }
+        assertEquals(1, mTimeout.getPostCount());
+        assertEquals(0, mRunCount);
+        // The timeout counts from the last interaction.
+        mScheduler.advance(TIMEOUT - 10 - 1);
+        assertEquals(0, mRunCount);
+        mScheduler.advance(1);
+        assertEquals(1, mRunCount);
+        assertEquals(2, mTimeout.getPostCount());
+    }
+
+    @Test
+    public void cancel_keepsTaskFromRunning() {
+        mTimeout.restart();
+        mTimeout.cancel();
+        mScheduler.advance(TIMEOUT);
+        assertEquals(0, mRunCount);
+    }
+
+    @Test
+    public void restartAfterCancel_reusesPendingCallback() {
+        mTimeout.restart();
+        mTimeout.cancel();
+        mScheduler.advance(1000);
+        mTimeout.restart();
+        assertEquals(1, mTimeout.getPostCount());
+        mScheduler.advance(TIMEOUT);
+        assertEquals(1, mRunCount);
+    }
+
+    @Test
+    public void stop_removesPendingCallback() {
+        mTimeout.restart();
+        mTimeout.stop();
+        assertEquals(null, mScheduler.mTask);
+        mTimeout.restart();
+        assertEquals(2, mTimeout.getPostCount());
+        mScheduler.advance(TIMEOUT);
+        assertEquals(1, mRunCount);
+    }
+
+    /** Holds at most one pending task, which is all {@link IdleTimeout} needs. */
+    private static class FakeScheduler implements IdleTimeout.Scheduler {
+
+        private long mNow;
+
+        private Runnable mTask;
+
+        private long mDueAt;
+
+        @Override
+        public long uptimeMillis() {
+            return mNow;
+        }
+
+        @Override
+        public void postDelayed(Runnable task, long delayMs) {
+            mTask = task;
+            mDueAt = mNow + delayMs;
+        }
+
+        @Override
+        public void removeCallbacks(Runnable task) {
+            if (mTask == task) {
+                mTask = null;
+            }
+        }
+
+        void advance(long ms) {
+            final long until = mNow + ms;
+            while (mTask != null && mDueAt <= until) {
+                mNow = mDueAt;
+                final Runnable task = mTask;
+                mTask = null;
+                task.run();
+            }
+            mNow = until;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LetterboxTest {
+
+    @Test
+    public void wideVideo_hasBarsOnTopAndBottom() {
+        Letterbox letterbox = new Letterbox();
+        letterbox.update(1080, 1920, 1280, 720);
+        assertEquals(0, letterbox.getLeft());
+        assertEquals(656, letterbox.getTop());
+        assertEquals(1080, letterbox.getWidth());
+        assertEquals(608, letterbox.getHeight());
+    }
+
+    @Test
+    public void tallVideo_hasBarsOnSides() {
+        Letterbox letterbox = new Letterbox();
+        letterbox.update(1920, 1080, 720, 1280);
+        assertEquals(656, letterbox.getLeft());
+        assertEquals(0, letterbox.getTop());
+        assertEquals(608, letterbox.getWidth());
+        assertEquals(1080, letterbox.getHeight());
+    }
+
+    @Test
+    public void unknownVideoSize_fillsView() {
+        Letterbox letterbox = new Letterbox();
+        letterbox.update(1920, 1080, 0, 0);
+        assertEquals(0, letterbox.getLeft());
+        assertEquals(0, letterbox.getTop());
+        assertEquals(1920, letterbox.getWidth());
+        assertEquals(1080, letterbox.getHeight());
+    }
+
+    @Test
+    public void repeatedMeasurePasses_computeOnce() {
+        Letterbox letterbox = new Letterbox();
+        assertTrue(letterbox.update(1080, 1920, 1280, 720));
+        for (int i = 0; i < 10; i++) {
+            assertFalse(letterbox.update(1080, 1920, 1280, 720));
+        }
+        assertEquals(1, letterbox.getComputeCount());
+        // Entering Picture-in-Picture mode
+        assertTrue(letterbox.update(480, 270, 1280, 720));
+        assertEquals(2, letterbox.getComputeCount());
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long starting and skipping videos blocks the calling thread, with engines that take
+ * a while to prepare on a thread of their own, as MediaPlayer does.
+ */
+public class MainThreadBlockingTest {
+
+    /** How long the slow engines take to prepare. */
+    private static final long SLOW_PREPARE_MS = 200;
+
+    private static final int RUNS = 5;
+
+    /** The completions posted by the engines, run by the test as the main thread would. */
+    private final BlockingQueue<Runnable> mMainQueue = new LinkedBlockingQueue<>();
+
+    @Test
+    public void blockedTime_doesNotGrowWithPrepareTime() throws InterruptedException {
+        // Warms up the classes, so that loading them is not measured.
+        measureBlockedNanos(0);
+
+        final long fast = measureBlockedNanos(0);
+        final long slow = measureBlockedNanos(SLOW_PREPARE_MS);
+        final long slowMs = TimeUnit.NANOSECONDS.toMillis(slow);
+        assertTrue(
+                "blocked for " + slowMs + " ms with a " + SLOW_PREPARE_MS + " ms prepare",
+                slow < fast + TimeUnit.MILLISECONDS.toNanos(SLOW_PREPARE_MS / 2));
+    }
+
+    /**
+     * Starts a video and skips to the next one several times.
+     *
+     * @return The longest time a call to {@link PlaybackController#startVideo()} or {@link
+     *     PlaybackController#skipToNext()} blocked, in nanoseconds.
+     */
+    private long measureBlockedNanos(long prepareMs) throws InterruptedException {
+        final SlowFactory factory = new SlowFactory(prepareMs);
+        final PlaybackController controller =
+                new PlaybackController(
+                        factory, FakePlayerEngine.OPENER, new NoOpPlaybackCallback());
+        // Every skip has to prepare its video.
+        controller.setLookAheadDepth(0);
+        controller.setPlaylist(new Playlist<>(Arrays.asList("a", "b", "c", "d", "e", "f")));
+        controller.open(null);
+        long longest = 0;
+        for (int i = 0; i < RUNS; i++) {
+            final long start = System.nanoTime();
+            if (i == 0) {
+                controller.startVideo();
+            } else {
+                controller.skipToNext();
+            }
+            longest = Math.max(longest, System.nanoTime() - start);
+            awaitPrepared(controller, prepareMs);
+        }
+        controller.close();
+        return longest;
+    }
+
+    /** Runs the posted completions until the current video is prepared. */
+    private void awaitPrepared(PlaybackController controller, long prepareMs)
+            throws InterruptedException {
+        while (controller.getState() == PrepareStateMachine.STATE_PREPARING) {
+            final Runnable completion = mMainQueue.poll(prepareMs + 5000, TimeUnit.MILLISECONDS);
+            assertNotNull("the video was never prepared", completion);
+            completion.run();
+        }
+        assertEquals(PrepareStateMachine.STATE_PREPARED, controller.getState());
+    }
+
+    /** Creates engines that prepare on a thread of their own. */
+    private class SlowFactory extends FakePlayerEngine.Factory {
+
+        private final long mPrepareMs;
+
+        SlowFactory(long prepareMs) {
+            mPrepareMs = prepareMs;
+        }
+
+        @Override
+        public PlayerEngine create() {
+            final FakePlayerEngine engine =
+                    new SlowEngine(duration, videoWidth, videoHeight, mPrepareMs);
+            created.add(engine);
+            return engine;
+        }
+    }
+
+    /** Prepares in the background for a while, then posts its completion to the main queue. */
+    private class SlowEngine extends FakePlayerEngine {
+
+        private final long mPrepareMs;
+
+        private final Runnable mPrepare =
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        sleep(mPrepareMs);
+                        mMainQueue.add(mComplete);
+                    }
+                };
+
+        private final Runnable mComplete =
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        completePrepare();
+                    }
+                };
+
+        SlowEngine(int duration, int videoWidth, int videoHeight, long prepareMs) {
+            super(duration, videoWidth, videoHeight);
+            mPrepareMs = prepareMs;
+        }
+
+        @Override
+        public void prepareAsync() {
+            super.prepareAsync();
+            new Thread(mPrepare).start();
+        }
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class MediaClockTest {
+
+    private static final long T = 1000000000L; // ns
+
+    private static final long SECOND = 1000000000L; // ns
+
+    @Test
+    public void position_advancesOnlyWhileStarted() {
+        MediaClock clock = new MediaClock();
+        clock.setPositionUs(0, T);
+        assertEquals(0, clock.getPositionUs(T + SECOND));
+        clock.start(T);
+        assertEquals(1000000, clock.getPositionUs(T + SECOND));
+        clock.pause(T + SECOND);
+        assertEquals(1000000, clock.getPositionUs(T + 5 * SECOND));
+        clock.start(T + 5 * SECOND);
+        assertEquals(2000000, clock.getPositionUs(T + 6 * SECOND));
+    }
+
+    @Test
+    public void systemTime_followsPosition() {
+        MediaClock clock = new MediaClock();
+        clock.setPositionUs(1000000, T);
+        // Paused, a position is as far away as it is from the current one.
+        assertEquals(T + 2 * SECOND, clock.toSystemNanos(2000000, T + SECOND));
+        clock.start(T);
+        assertEquals(T + SECOND, clock.toSystemNanos(2000000, T + SECOND / 2));
+        assertEquals(T - SECOND, clock.toSystemNanos(0, T));
+    }
+
+    @Test
+    public void sync_followsAudioOnlyPastMaxDrift() {
+        MediaClock clock = new MediaClock();
+        assertFalse(clock.sync(SECOND, T));
+        assertEquals(0, clock.getPositionUs(T));
+
+        clock.start(T);
+        assertFalse(clock.sync(MediaClock.MAX_DRIFT_US, T));
+        assertEquals(0, clock.getPositionUs(T));
+        assertTrue(clock.sync(MediaClock.MAX_DRIFT_US + 1, T));
+        assertEquals(MediaClock.MAX_DRIFT_US + 1, clock.getPositionUs(T));
+        assertTrue(clock.isRunning());
+    }
+}
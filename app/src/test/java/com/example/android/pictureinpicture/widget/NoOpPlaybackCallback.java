@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+/**
+ * A {@link PlaybackController.Callback} that ignores everything. Tests override the calls they
+ * look at.
+ */
+class NoOpPlaybackCallback implements PlaybackController.Callback {
+
+    @Override
+    public void onPrepared() {}
+
+    @Override
+    public void onStarted() {}
+
+    @Override
+    public void onStopped() {}
+
+    @Override
+    public void onError(int what, int extra) {}
+
+    @Override
+    public void onVideoSizeChanged(int width, int height) {}
+
+    @Override
+    public void onPlaylistIndexChanged(int index) {}
+
+    @Override
+    public void onSeekComplete(int positionMs) {}
+
+    @Override
+    public void onFirstFrame() {}
+}
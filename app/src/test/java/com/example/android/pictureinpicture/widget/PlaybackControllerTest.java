@@ -0,0 +1,524 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.res.AssetFileDescriptor;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class PlaybackControllerTest {
+
+    private FakePlayerEngine.Factory mFactory;
+
+    private RecordingCallback mCallback;
+
+    private PlaybackController mController;
+
+    @Before
+    public void setUp() {
+        mFactory = new FakePlayerEngine.Factory();
+        mCallback = new RecordingCallback();
+        mController = new PlaybackController(mFactory, FakePlayerEngine.OPENER, mCallback);
+        mController.setPlaylist(new Playlist<>(Collections.singletonList("video")));
+    }
+
+    @Test
+    public void startVideo_playsWhenPrepared() {
+        mController.open(null);
+        mController.startVideo();
+        FakePlayerEngine engine = mFactory.last();
+        assertEquals(PrepareStateMachine.STATE_PREPARING, mController.getState());
+        assertFalse(mController.isPlaying());
+
+        engine.completePrepare();
+        assertEquals(PrepareStateMachine.STATE_PREPARED, mController.getState());
+        assertEquals(1, mCallback.prepared);
+        assertEquals(1, mCallback.started);
+        assertTrue(mController.isPlaying());
+        assertEquals(1280, mController.getVideoWidth());
+        assertEquals(720, mController.getVideoHeight());
+    }
+
+    @Test
+    public void firstFrame_isReported() {
+        FakePlayerEngine engine = openAndPrepare();
+        assertEquals(0, mCallback.firstFrames);
+        engine.renderFirstFrame();
+        assertEquals(1, mCallback.firstFrames);
+    }
+
+    @Test
+    public void unsupportedItem_failsWithoutPrepare() {
+        mController.setFormatSupport(
+                new PlaybackController.FormatSupport() {
+                    @Override
+                    public boolean isSupported(int index) {
+                        return false;
+                    }
+                });
+        mController.open(null);
+        mController.startVideo();
+        assertEquals(PrepareStateMachine.STATE_ERROR, mController.getState());
+        assertEquals(PlaybackController.ERROR_UNSUPPORTED, mCallback.lastError);
+        assertEquals(0, mFactory.last().prepareCount);
+    }
+
+    @Test
+    public void deniedItem_failsToOpen() {
+        PlaybackController controller =
+                new PlaybackController(
+                        mFactory,
+                        new PlaybackController.VideoOpener() {
+                            @Override
+                            public AssetFileDescriptor openVideo(int index) {
+                                throw new SecurityException("Permission denied");
+                            }
+                        },
+                        mCallback);
+        controller.setPlaylist(new Playlist<>(Collections.singletonList("video")));
+        controller.open(null);
+        controller.startVideo();
+        assertEquals(PrepareStateMachine.STATE_ERROR, controller.getState());
+        assertEquals(PlaybackController.ERROR_OPEN, mCallback.lastError);
+        assertEquals(0, mFactory.last().prepareCount);
+    }
+
+    @Test
+    public void lookAhead_skipsUnsupportedItems() {
+        mController.setPlaylist(new Playlist<>(Arrays.asList("a", "b", "c")));
+        mController.setFormatSupport(
+                new PlaybackController.FormatSupport() {
+                    @Override
+                    public boolean isSupported(int index) {
+                        return index != 1;
+                    }
+                });
+        mController.setLookAheadDepth(2);
+        openAndPrepare();
+        assertEquals(1, mController.getLookAheadSize());
+    }
+
+    @Test
+    public void pauseWhilePreparing_doesNotStart() {
+        mController.open(null);
+        mController.startVideo();
+        mController.pause();
+        mFactory.last().completePrepare();
+        assertFalse(mController.isPlaying());
+        assertEquals(0, mCallback.started);
+        assertEquals(0, mFactory.last().startCount);
+    }
+
+    @Test
+    public void toggle_pausesAndResumes() {
+        openAndPrepare();
+        mController.toggle();
+        assertFalse(mController.isPlaying());
+        assertEquals(1, mCallback.stopped);
+        mController.toggle();
+        assertTrue(mController.isPlaying());
+        assertEquals(2, mCallback.started);
+    }
+
+    @Test
+    public void seekBy_movesRelativeToCurrentPosition() {
+        FakePlayerEngine engine = openAndPrepare();
+        engine.advance(10000);
+        mController.seekBy(5000, PlayerEngine.SEEK_CLOSEST_SYNC);
+        assertEquals(15000, mController.getCurrentPosition());
+        mController.seekBy(-5000, PlayerEngine.SEEK_CLOSEST_SYNC);
+        assertEquals(10000, mController.getCurrentPosition());
+    }
+
+    @Test
+    public void reopen_resumesFromSavedPositionWithoutPlaying() {
+        FakePlayerEngine engine = openAndPrepare();
+        engine.advance(12000);
+        mController.savePosition();
+        mController.close();
+        assertTrue(engine.isReleased());
+
+        mController.open(null);
+        mController.startVideo();
+        FakePlayerEngine reopened = mFactory.last();
+        reopened.completePrepare();
+        assertEquals(12000, mController.getCurrentPosition());
+        assertFalse(mController.isPlaying());
+    }
+
+    @Test
+    public void surfaceChurn_retainedEngineIsNotPreparedAgain() {
+        FakePlayerEngine engine = openAndPrepare();
+        engine.advance(8000);
+
+        // Entering and leaving Picture-in-Picture mode
+        mController.detachSurface();
+        assertEquals(null, engine.getSurface());
+        assertTrue(mController.attachSurface(null));
+
+        assertEquals(1, mFactory.created.size());
+        assertEquals(1, engine.prepareCount);
+        assertEquals(0, engine.seekCount);
+        assertTrue(mController.isPlaying());
+        assertEquals(8000, mController.getCurrentPosition());
+    }
+
+    @Test
+    public void surfaceChurn_releasedEngineIsPreparedAgain() {
+        mController.setRetainEngine(false);
+        FakePlayerEngine engine = openAndPrepare();
+        engine.advance(8000);
+
+        mController.detachSurface();
+        assertTrue(engine.isReleased());
+        assertFalse(mController.attachSurface(null));
+        mController.open(null);
+        mController.startVideo();
+        mFactory.last().completePrepare();
+
+        assertEquals(2, mFactory.created.size());
+        assertEquals(1, mFactory.last().seekCount);
+        assertEquals(8000, mController.getCurrentPosition());
+    }
+
+    @Test
+    public void attachSurface_redrawsPausedFrame() {
+        FakePlayerEngine engine = openAndPrepare();
+        mController.pause();
+        mController.detachSurface();
+        assertTrue(mController.attachSurface(null));
+        assertEquals(1, engine.seekCount);
+    }
+
+    @Test
+    public void skipToNext_swapsToEnginePreparedInAdvance() {
+        mController.setPlaylist(new Playlist<>(Arrays.asList("a", "b", "c")));
+        FakePlayerEngine first = openAndPrepare();
+        assertEquals(1, mController.getLookAheadSize());
+        FakePlayerEngine upcoming = mFactory.last();
+        assertTrue(upcoming.isPreparing());
+        upcoming.completePrepare();
+
+        mController.skipToNext();
+        assertTrue(first.isReleased());
+        assertEquals(1, upcoming.prepareCount);
+        assertEquals(0, upcoming.resetCount);
+        assertTrue(mController.isPlaying());
+        assertEquals(1, mCallback.lastIndex);
+        // The item after that one is now being prepared
+        assertEquals(1, mController.getLookAheadSize());
+        assertEquals(3, mFactory.created.size());
+    }
+
+    @Test
+    public void skipToNext_beforeLookAheadIsPreparedWaitsForIt() {
+        mController.setPlaylist(new Playlist<>(Arrays.asList("a", "b")));
+        openAndPrepare();
+        FakePlayerEngine upcoming = mFactory.last();
+
+        mController.skipToNext();
+        assertEquals(PrepareStateMachine.STATE_PREPARING, mController.getState());
+        upcoming.completePrepare();
+        assertTrue(mController.isPlaying());
+        assertEquals(1, upcoming.prepareCount);
+    }
+
+    @Test
+    public void skipToNext_reportsSizeOfNewItem() {
+        mController.setPlaylist(new Playlist<>(Arrays.asList("a", "b")));
+        mController.open(null);
+        mController.startVideo();
+        // The engine prepared in advance plays a smaller video.
+        mFactory.videoWidth = 640;
+        mFactory.videoHeight = 360;
+        mFactory.last().completePrepare();
+        FakePlayerEngine upcoming = mFactory.last();
+        assertEquals(1280, mController.getVideoWidth());
+        assertEquals(1, mCallback.videoSizeChanges);
+
+        mController.skipToNext();
+        // The size of the previous item is gone while the next one is still preparing.
+        assertEquals(0, mController.getVideoWidth());
+        assertEquals(0, mController.getVideoHeight());
+        assertEquals(2, mCallback.videoSizeChanges);
+        upcoming.completePrepare();
+        assertEquals(640, mController.getVideoWidth());
+        assertEquals(360, mController.getVideoHeight());
+        assertEquals(3, mCallback.videoSizeChanges);
+    }
+
+    @Test
+    public void skipToPrevious_preparesOnDemand() {
+        mController.setPlaylist(new Playlist<>(Arrays.asList("a", "b")));
+        openAndPrepare();
+        mFactory.last().completePrepare();
+        mController.skipToNext();
+        FakePlayerEngine current = mFactory.last();
+
+        mController.skipToPrevious();
+        assertEquals(0, mCallback.lastIndex);
+        assertEquals(2, current.prepareCount);
+        current.completePrepare();
+        assertTrue(mController.isPlaying());
+    }
+
+    @Test
+    public void lookAheadDepth_isConfigurable() {
+        mController.setPlaylist(new Playlist<>(Arrays.asList("a", "b", "c", "d")));
+        mController.setLookAheadDepth(0);
+        openAndPrepare();
+        assertEquals(0, mController.getLookAheadSize());
+        mController.setLookAheadDepth(2);
+        assertEquals(2, mController.getLookAheadSize());
+        mController.close();
+        assertEquals(0, mController.getLookAheadSize());
+    }
+
+    @Test
+    public void completion_continuesWithNextItem() {
+        mController.setPlaylist(new Playlist<>(Arrays.asList("a", "b")));
+        FakePlayerEngine first = openAndPrepare();
+        mFactory.last().completePrepare();
+        first.advance(60000);
+        assertEquals(1, mCallback.lastIndex);
+        assertTrue(mController.isPlaying());
+        assertEquals(0, mCallback.stopped);
+    }
+
+    @Test
+    public void error_isReportedOnce() {
+        mController.open(null);
+        mController.startVideo();
+        mFactory.last().failPrepare(1, -1004);
+        assertEquals(PrepareStateMachine.STATE_ERROR, mController.getState());
+        assertEquals(1, mCallback.errors);
+        assertEquals(0, mCallback.stopped);
+    }
+
+    @Test
+    public void completion_reportsStopped() {
+        FakePlayerEngine engine = openAndPrepare();
+        engine.advance(60000);
+        assertFalse(mController.isPlaying());
+        assertEquals(1, mCallback.stopped);
+    }
+
+    @Test
+    public void videoSize_isReportedOncePerChange() {
+        FakePlayerEngine engine = openAndPrepare();
+        assertEquals(1, mCallback.videoSizeChanges);
+        for (int i = 0; i < 10; i++) {
+            // Every layout pass asks for the size.
+            assertEquals(1280, mController.getVideoWidth());
+        }
+        // Restarting the same video reports the same size again.
+        mController.startVideo();
+        engine.completePrepare();
+        assertEquals(1, mCallback.videoSizeChanges);
+    }
+
+    @Test
+    public void switchPlaylist_keepsOpenVideo() {
+        mController.setPlaylist(new Playlist<>(Arrays.asList("a", "b", "c")));
+        FakePlayerEngine engine = openAndPrepare();
+        mController.skipTo(1);
+        FakePlayerEngine current = mFactory.last();
+        current.completePrepare();
+        current.advance(5000);
+        final int created = mFactory.created.size();
+
+        // Another screen plays "b" on its own.
+        assertTrue(mController.switchPlaylist(new Playlist<>(Collections.singletonList("b"))));
+        assertEquals(0, mCallback.lastIndex);
+        assertTrue(mController.isPlaying());
+        assertEquals(5000, mController.getCurrentPosition());
+        assertEquals(1, current.prepareCount);
+        // Nothing is left to prepare in advance.
+        assertEquals(0, mController.getLookAheadSize());
+        assertEquals(created, mFactory.created.size());
+        assertTrue(engine.isReleased());
+    }
+
+    @Test
+    public void switchPlaylist_withoutOpenVideo_onlySetsPlaylist() {
+        final Playlist<String> playlist = new Playlist<>(Arrays.asList("a", "b"));
+        assertFalse(mController.switchPlaylist(playlist));
+        assertEquals(playlist, mController.getPlaylist());
+        // The open video is not in the new playlist.
+        openAndPrepare();
+        assertFalse(mController.switchPlaylist(new Playlist<>(Collections.singletonList("c"))));
+        assertEquals(-1, mCallback.lastIndex);
+    }
+
+    @Test
+    public void positionStore_resumesInLaterSessionAndPlays() {
+        final MapPositionStore store = new MapPositionStore();
+        mController.setPositionStore(store);
+        FakePlayerEngine engine = openAndPrepare();
+        engine.advance(12000);
+        mController.pause();
+        assertEquals(Integer.valueOf(12000), store.positions.get(0));
+
+        // After the process is gone
+        PlaybackController controller =
+                new PlaybackController(mFactory, FakePlayerEngine.OPENER, new RecordingCallback());
+        controller.setPlaylist(new Playlist<>(Collections.singletonList("video")));
+        controller.setPositionStore(store);
+        controller.open(null);
+        controller.startVideo();
+        mFactory.last().completePrepare();
+        assertEquals(12000, controller.getCurrentPosition());
+        assertTrue(controller.isPlaying());
+    }
+
+    @Test
+    public void positionStore_forgetsFinishedVideo() {
+        final MapPositionStore store = new MapPositionStore();
+        mController.setPositionStore(store);
+        FakePlayerEngine engine = openAndPrepare();
+        engine.advance(30000);
+        mController.savePosition();
+        assertEquals(Integer.valueOf(30000), store.positions.get(0));
+        engine.advance(30000);
+        assertEquals(Integer.valueOf(0), store.positions.get(0));
+    }
+
+    @Test
+    public void positionStore_isNotRestoredOnSkip() {
+        // Stored by video, like the positions of a session
+        final Playlist<String> playlist = new Playlist<>(Arrays.asList("video", "video", "video"));
+        final Map<String, Integer> positions = new HashMap<>();
+        mController.setPlaylist(playlist);
+        mController.setPositionStore(
+                new PlaybackController.PositionStore() {
+                    @Override
+                    public int getPosition(int index) {
+                        final Integer position = positions.get(playlist.get(index));
+                        return position == null ? 0 : position;
+                    }
+
+                    @Override
+                    public void setPosition(int index, int positionMs) {
+                        positions.put(playlist.get(index), positionMs);
+                    }
+                });
+        FakePlayerEngine engine = openAndPrepare();
+        engine.advance(12000);
+
+        mController.skipToNext();
+        mFactory.last().completePrepare();
+        assertEquals(Integer.valueOf(12000), positions.get("video"));
+        assertEquals(1, mController.getPlaylist().getCurrentIndex());
+        assertEquals(0, mController.getCurrentPosition());
+        assertTrue(mController.isPlaying());
+    }
+
+    @Test
+    public void controls_areIgnoredWithoutVideo() {
+        mController.play();
+        assertFalse(mController.pause());
+        mController.toggle();
+        mController.seekBy(5000, PlayerEngine.SEEK_CLOSEST_SYNC);
+        assertEquals(0, mController.getCurrentPosition());
+        assertEquals(0, mCallback.started + mCallback.stopped);
+    }
+
+    private FakePlayerEngine openAndPrepare() {
+        mController.open(null);
+        mController.startVideo();
+        FakePlayerEngine engine = mFactory.created.get(0);
+        engine.completePrepare();
+        return engine;
+    }
+
+    private static class MapPositionStore implements PlaybackController.PositionStore {
+
+        final Map<Integer, Integer> positions = new HashMap<>();
+
+        @Override
+        public int getPosition(int index) {
+            final Integer position = positions.get(index);
+            return position == null ? 0 : position;
+        }
+
+        @Override
+        public void setPosition(int index, int positionMs) {
+            positions.put(index, positionMs);
+        }
+    }
+
+    private static class RecordingCallback implements PlaybackController.Callback {
+
+        int prepared;
+        int started;
+        int stopped;
+        int errors;
+        int lastError;
+        int videoSizeChanges;
+        int firstFrames;
+        int lastIndex = -1;
+
+        @Override
+        public void onPrepared() {
+            prepared++;
+        }
+
+        @Override
+        public void onStarted() {
+            started++;
+        }
+
+        @Override
+        public void onStopped() {
+            stopped++;
+        }
+
+        @Override
+        public void onError(int what, int extra) {
+            errors++;
+            lastError = what;
+        }
+
+        @Override
+        public void onVideoSizeChanged(int width, int height) {
+            videoSizeChanges++;
+        }
+
+        @Override
+        public void onPlaylistIndexChanged(int index) {
+            lastIndex = index;
+        }
+
+        @Override
+        public void onSeekComplete(int positionMs) {}
+
+        @Override
+        public void onFirstFrame() {
+            firstFrames++;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.res.AssetFileDescriptor;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+public class PlaybackMetricsTest {
+
+    private long mNow;
+
+    private PlaybackMetrics mMetrics;
+
+    @Before
+    public void setUp() {
+        mMetrics =
+                new PlaybackMetrics(
+                        new PlaybackMetrics.Clock() {
+                            @Override
+                            public long nanoTime() {
+                                return mNow;
+                            }
+                        });
+    }
+
+    @Test
+    public void histogram_bucketsAreContiguous() {
+        for (int bucket = 0; bucket < LatencyHistogram.BUCKET_COUNT; bucket++) {
+            final long lower = LatencyHistogram.lowerBound(bucket);
+            final long upper = LatencyHistogram.lowerBound(bucket + 1) - 1;
+            assertEquals(bucket, LatencyHistogram.bucketFor(lower));
+            assertEquals(bucket, LatencyHistogram.bucketFor(upper));
+        }
+    }
+
+    @Test
+    public void histogram_percentilesAreWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 100);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(100000, histogram.getMax());
+        assertWithin(50000, histogram.getPercentile(50));
+        assertWithin(99000, histogram.getPercentile(99));
+        assertEquals(50050, histogram.getMean());
+    }
+
+    @Test
+    public void histogram_clampsOutOfRangeValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(2, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(50));
+        assertEquals(LatencyHistogram.MAX_VALUE_US, histogram.getMax());
+    }
+
+    @Test
+    public void span_recordsElapsedMonotonicTime() {
+        mNow = 1000;
+        mMetrics.begin(PlaybackMetrics.METRIC_SEEK);
+        mNow += TimeUnit.MILLISECONDS.toNanos(40);
+        mMetrics.end(PlaybackMetrics.METRIC_SEEK);
+        LatencyHistogram histogram = mMetrics.getHistogram(PlaybackMetrics.METRIC_SEEK);
+        assertEquals(1, histogram.getCount());
+        assertEquals(40000, histogram.getMax());
+    }
+
+    @Test
+    public void span_endWithoutBeginIsIgnored() {
+        mMetrics.end(PlaybackMetrics.METRIC_PREPARE);
+        mMetrics.begin(PlaybackMetrics.METRIC_PREPARE);
+        mMetrics.cancel(PlaybackMetrics.METRIC_PREPARE);
+        mMetrics.end(PlaybackMetrics.METRIC_PREPARE);
+        assertEquals(0, mMetrics.getHistogram(PlaybackMetrics.METRIC_PREPARE).getCount());
+    }
+
+    @Test
+    public void controller_recordsPrepareFirstFrameAndSeek() {
+        FakePlayerEngine.Factory factory = new FakePlayerEngine.Factory();
+        PlaybackController controller =
+                new PlaybackController(factory, FakePlayerEngine.OPENER, new NoOpCallback());
+        controller.setMetrics(mMetrics);
+        controller.setPlaylist(new Playlist<>(Collections.singletonList("video")));
+        controller.open(null);
+
+        controller.startVideo();
+        mNow += TimeUnit.MILLISECONDS.toNanos(120);
+        factory.last().completePrepare();
+        mNow += TimeUnit.MILLISECONDS.toNanos(30);
+        factory.last().renderFirstFrame();
+        controller.seekBy(5000, PlayerEngine.SEEK_CLOSEST_SYNC);
+
+        assertEquals(120000, mMetrics.getHistogram(PlaybackMetrics.METRIC_PREPARE).getMax());
+        assertEquals(30000, mMetrics.getHistogram(PlaybackMetrics.METRIC_FIRST_FRAME).getMax());
+        assertEquals(1, mMetrics.getHistogram(PlaybackMetrics.METRIC_SEEK).getCount());
+    }
+
+    @Test
+    public void controller_recordsOnePrepareSpanPerSkip() {
+        FakePlayerEngine.Factory factory = new FakePlayerEngine.Factory();
+        PlaybackController controller =
+                new PlaybackController(factory, FakePlayerEngine.OPENER, new NoOpCallback());
+        controller.setMetrics(mMetrics);
+        controller.setPlaylist(new Playlist<>(Arrays.asList("first", "second")));
+        controller.open(null);
+        controller.startVideo();
+        factory.last().completePrepare();
+
+        mNow += TimeUnit.MILLISECONDS.toNanos(500);
+        controller.skipTo(1);
+        mNow += TimeUnit.MILLISECONDS.toNanos(80);
+        factory.last().completePrepare();
+
+        LatencyHistogram prepare = mMetrics.getHistogram(PlaybackMetrics.METRIC_PREPARE);
+        assertEquals(2, prepare.getCount());
+        assertEquals(80000, prepare.getMax());
+    }
+
+    @Test
+    public void controller_dropsPrepareSpanOnFailure() {
+        FakePlayerEngine.Factory factory = new FakePlayerEngine.Factory();
+        final boolean[] openFails = new boolean[1];
+        PlaybackController controller =
+                new PlaybackController(
+                        factory,
+                        new PlaybackController.VideoOpener() {
+                            @Override
+                            public AssetFileDescriptor openVideo(int index) throws IOException {
+                                if (openFails[0]) {
+                                    throw new IOException("Gone");
+                                }
+                                return null;
+                            }
+                        },
+                        new NoOpCallback());
+        controller.setMetrics(mMetrics);
+        controller.setPlaylist(new Playlist<>(Collections.singletonList("video")));
+        controller.open(null);
+
+        controller.startVideo();
+        factory.last().failPrepare(1, 0);
+        mMetrics.end(PlaybackMetrics.METRIC_PREPARE);
+
+        openFails[0] = true;
+        controller.startVideo();
+        mMetrics.end(PlaybackMetrics.METRIC_PREPARE);
+        assertEquals(0, mMetrics.getHistogram(PlaybackMetrics.METRIC_PREPARE).getCount());
+    }
+
+    @Test
+    public void dump_printsEveryMetric() {
+        StringWriter out = new StringWriter();
+        mMetrics.dump(new PrintWriter(out), "  ");
+        String dump = out.toString();
+        assertTrue(dump.contains("prepare"));
+        assertTrue(dump.contains("first_frame"));
+        assertTrue(dump.contains("seek"));
+        assertTrue(dump.contains("enter_pip"));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(
+                "expected about " + expected + " but was " + actual,
+                Math.abs(actual - expected) <= expected / LatencyHistogram.SUB_BUCKETS);
+    }
+
+    private static class NoOpCallback implements PlaybackController.Callback {
+
+        @Override
+        public void onPrepared() {}
+
+        @Override
+        public void onStarted() {}
+
+        @Override
+        public void onStopped() {}
+
+        @Override
+        public void onError(int what, int extra) {}
+
+        @Override
+        public void onVideoSizeChanged(int width, int height) {}
+
+        @Override
+        public void onPlaylistIndexChanged(int index) {}
+
+        @Override
+        public void onSeekComplete(int positionMs) {}
+
+        @Override
+        public void onFirstFrame() {}
+    }
+}
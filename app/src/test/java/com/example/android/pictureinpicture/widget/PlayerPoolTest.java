@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.content.res.AssetFileDescriptor;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+public class PlayerPoolTest {
+
+    private FakePlayerEngine.Factory mFactory;
+
+    private PlayerPool mPool;
+
+    @Before
+    public void setUp() {
+        mFactory = new FakePlayerEngine.Factory();
+        mPool = new PlayerPool(mFactory, 2, 1);
+    }
+
+    @Test
+    public void releasedEngine_isReused() {
+        mPool.create().release();
+        FakePlayerEngine engine = mFactory.last();
+        assertEquals(1, engine.resetCount);
+        assertFalse(engine.isReleased());
+
+        mPool.create();
+        assertEquals(1, mFactory.created.size());
+        assertEquals(1, mPool.getHitCount());
+        assertEquals(1, mPool.getMissCount());
+        assertEquals(1, mPool.getActiveCount());
+        assertEquals(0, mPool.getIdleCount());
+    }
+
+    @Test
+    public void otherFactory_sharesBudgetButNotIdleEngines() {
+        FakePlayerEngine.Factory other = new FakePlayerEngine.Factory();
+        PlayerEngine engine = mPool.create(other);
+        assertEquals(1, other.created.size());
+        assertEquals(1, mPool.getAvailableDecoders());
+
+        engine.release();
+        mPool.create();
+        assertEquals(1, mFactory.created.size());
+        assertEquals(0, mPool.getHitCount());
+        mPool.create(other);
+        assertEquals(1, other.created.size());
+        assertEquals(1, mPool.getHitCount());
+        assertEquals(0, mPool.getAvailableDecoders());
+        assertNull(mPool.create(other));
+        assertEquals(1, mPool.getRefusalCount());
+    }
+
+    @Test
+    public void idleEnginesBeyondMax_areReleased() {
+        PlayerEngine first = mPool.create();
+        PlayerEngine second = mPool.create();
+        first.release();
+        second.release();
+        assertEquals(1, mPool.getIdleCount());
+        assertEquals(1, mPool.getEvictionCount());
+        // The least recently released one goes.
+        assertTrue(mFactory.created.get(0).isReleased());
+        assertFalse(mFactory.created.get(1).isReleased());
+    }
+
+    @Test
+    public void trim_releasesIdleEngines() {
+        mPool.create().release();
+        mPool.trim(0);
+        assertEquals(0, mPool.getIdleCount());
+        assertEquals(1, mPool.getEvictionCount());
+        assertTrue(mFactory.last().isReleased());
+    }
+
+    @Test
+    public void releaseTwice_recyclesOnce() {
+        PlayerEngine engine = mPool.create();
+        engine.release();
+        engine.release();
+        assertEquals(0, mPool.getActiveCount());
+        assertEquals(1, mPool.getIdleCount());
+        assertEquals(1, mFactory.last().resetCount);
+    }
+
+    @Test
+    public void listener_isGivenPooledEngine() throws IOException {
+        final PlayerEngine engine = mPool.create();
+        final PlayerEngine[] prepared = new PlayerEngine[1];
+        engine.setListener(
+                new PlayerEngine.Listener() {
+                    @Override
+                    public void onPrepared(PlayerEngine e) {
+                        prepared[0] = e;
+                        e.release();
+                    }
+                });
+        engine.setDataSource((AssetFileDescriptor) null);
+        engine.prepareAsync();
+        mFactory.last().completePrepare();
+        assertSame(engine, prepared[0]);
+        assertEquals(1, mPool.getIdleCount());
+    }
+
+    @Test
+    public void decoderBudget_limitsLookAhead() {
+        PlaybackController controller =
+                new PlaybackController(mPool, FakePlayerEngine.OPENER, new NoOpPlaybackCallback());
+        controller.setDecoderBudget(mPool);
+        controller.setPlaylist(new Playlist<>(Arrays.asList("a", "b", "c", "d")));
+        controller.setLookAheadDepth(3);
+        controller.open(null);
+        controller.startVideo();
+        mFactory.created.get(0).completePrepare();
+        // The current item holds one of the two decoders.
+        assertEquals(1, controller.getLookAheadSize());
+        assertEquals(0, mPool.getAvailableDecoders());
+
+        controller.close();
+        assertEquals(0, mPool.getActiveCount());
+        assertEquals(2, mPool.getAvailableDecoders());
+    }
+
+    @Test
+    public void budget_isNeverExceeded() {
+        mPool.create();
+        mPool.create();
+        assertNull(mPool.create());
+        assertEquals(2, mPool.getActiveCount());
+        assertEquals(1, mPool.getRefusalCount());
+        assertEquals(2, mFactory.created.size());
+    }
+
+    @Test
+    public void preemptibleEngine_givesWayWhenBudgetIsUsedUp() {
+        final PlayerEngine upcoming = mPool.create();
+        final int[] errors = new int[1];
+        upcoming.setListener(
+                new PlayerEngine.Listener() {
+                    @Override
+                    public boolean onError(PlayerEngine engine, int what, int extra) {
+                        errors[0] = what;
+                        engine.release();
+                        return true;
+                    }
+                });
+        mPool.setPreemptible(upcoming, true);
+        mPool.create();
+
+        PlayerEngine current = mPool.create();
+        assertTrue(current != null);
+        assertEquals(PlayerPool.ERROR_PREEMPTED, errors[0]);
+        assertEquals(1, mPool.getPreemptionCount());
+        assertEquals(2, mPool.getActiveCount());
+        // The preempted engine was reused for the new one.
+        assertEquals(2, mFactory.created.size());
+        assertEquals(1, mPool.getHitCount());
+    }
+
+    @Test
+    public void decoderBudget_holdsAcrossControllers() {
+        PlaybackController first =
+                new PlaybackController(mPool, FakePlayerEngine.OPENER, new NoOpPlaybackCallback());
+        first.setDecoderBudget(mPool);
+        first.setPlaylist(new Playlist<>(Arrays.asList("a", "b")));
+        first.open(null);
+        first.startVideo();
+        mFactory.created.get(0).completePrepare();
+        assertEquals(1, first.getLookAheadSize());
+
+        // The look-ahead of the first one gives way.
+        final int[] errors = new int[1];
+        final NoOpPlaybackCallback callback =
+                new NoOpPlaybackCallback() {
+                    @Override
+                    public void onError(int what, int extra) {
+                        errors[0] = what;
+                    }
+                };
+        PlaybackController second =
+                new PlaybackController(mPool, FakePlayerEngine.OPENER, callback);
+        second.setDecoderBudget(mPool);
+        second.setPlaylist(new Playlist<>(Arrays.asList("c")));
+        second.open(null);
+        assertTrue(second.isOpen());
+        assertEquals(0, first.getLookAheadSize());
+        assertEquals(2, mPool.getActiveCount());
+
+        // Nothing is left to give way.
+        PlaybackController third =
+                new PlaybackController(mPool, FakePlayerEngine.OPENER, callback);
+        third.setPlaylist(new Playlist<>(Arrays.asList("d")));
+        third.open(null);
+        assertFalse(third.isOpen());
+        assertEquals(PlaybackController.ERROR_OPEN, errors[0]);
+        assertEquals(2, mPool.getActiveCount());
+    }
+}
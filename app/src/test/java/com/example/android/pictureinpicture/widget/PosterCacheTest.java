@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+public class PosterCacheTest {
+
+    private static final String KEY = "android.resource://com.example/raw/1";
+
+    private static final byte[] IMAGE = {1, 2, 3, 4, 5};
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = Files.createTempDirectory("posters").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        final File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void roundTrips() {
+        PosterCache cache = new PosterCache(mDirectory, 4);
+        assertNull(cache.load(KEY));
+        assertTrue(cache.store(KEY, IMAGE));
+        assertArrayEquals(IMAGE, new PosterCache(mDirectory, 4).load(KEY));
+    }
+
+    @Test
+    public void store_replacesPreviousPoster() {
+        PosterCache cache = new PosterCache(mDirectory, 4);
+        cache.store(KEY, IMAGE);
+        cache.store(KEY, new byte[] {42});
+        assertArrayEquals(new byte[] {42}, cache.load(KEY));
+        assertEquals(1, mDirectory.listFiles().length);
+    }
+
+    @Test
+    public void remove_dropsPoster() {
+        PosterCache cache = new PosterCache(mDirectory, 4);
+        cache.store(KEY, IMAGE);
+        cache.remove(KEY);
+        assertNull(cache.load(KEY));
+    }
+
+    @Test
+    public void ignoresCorruptEntries() throws IOException {
+        PosterCache cache = new PosterCache(mDirectory, 4);
+        cache.store(KEY, IMAGE);
+        final File[] files = mDirectory.listFiles();
+        try (FileOutputStream out = new FileOutputStream(files[0])) {
+            out.write(new byte[] {0, 0, 0, 1, 0, 0, 0});
+        }
+        assertNull(cache.load(KEY));
+        assertEquals(0, mDirectory.listFiles().length);
+    }
+
+    @Test
+    public void store_evictsLeastRecentlyUsed() {
+        PosterCache cache = new PosterCache(mDirectory, 2);
+        cache.store("a", IMAGE);
+        cache.store("b", IMAGE);
+        age("a", 3000);
+        age("b", 2000);
+        // Reading it makes it the most recent one.
+        cache.load("a");
+        cache.store("c", IMAGE);
+        assertEquals(2, mDirectory.listFiles().length);
+        assertNull(cache.load("b"));
+        assertArrayEquals(IMAGE, cache.load("a"));
+        assertArrayEquals(IMAGE, cache.load("c"));
+    }
+
+    /** Moves the last use of an entry into the past, as file times are coarse. */
+    private void age(String key, long ms) {
+        final File file = new File(mDirectory, Integer.toHexString(key.hashCode()));
+        assertTrue(file.setLastModified(System.currentTimeMillis() - ms));
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that a preparation only reports its result while it is the current one, so that a video
+ * restarted or closed while it was still preparing is not touched by the stale completion.
+ */
+public class PrepareStateMachineTest {
+
+    private PrepareStateMachine mStateMachine;
+
+    @Before
+    public void setUp() {
+        mStateMachine = new PrepareStateMachine();
+    }
+
+    @Test
+    public void begin_isPreparingUntilComplete() {
+        int token = mStateMachine.begin();
+        assertEquals(PrepareStateMachine.STATE_PREPARING, mStateMachine.getState());
+        assertFalse(mStateMachine.isPrepared());
+
+        assertTrue(mStateMachine.complete(token));
+        assertEquals(PrepareStateMachine.STATE_PREPARED, mStateMachine.getState());
+        assertTrue(mStateMachine.isPrepared());
+    }
+
+    @Test
+    public void restart_discardsStaleCompletion() {
+        // Rapid skip presses restart the video before the first prepare completes.
+        int stale = mStateMachine.begin();
+        int current = mStateMachine.begin();
+        assertFalse(mStateMachine.complete(stale));
+        assertEquals(PrepareStateMachine.STATE_PREPARING, mStateMachine.getState());
+        assertTrue(mStateMachine.complete(current));
+        assertEquals(PrepareStateMachine.STATE_PREPARED, mStateMachine.getState());
+    }
+
+    @Test
+    public void reset_whilePreparing() {
+        int token = mStateMachine.begin();
+        mStateMachine.reset();
+        assertEquals(PrepareStateMachine.STATE_IDLE, mStateMachine.getState());
+        assertFalse(mStateMachine.complete(token));
+        assertEquals(PrepareStateMachine.STATE_IDLE, mStateMachine.getState());
+    }
+
+    @Test
+    public void fail_onlyAppliesToCurrentPreparation() {
+        int stale = mStateMachine.begin();
+        int current = mStateMachine.begin();
+        assertFalse(mStateMachine.fail(stale));
+        assertEquals(PrepareStateMachine.STATE_PREPARING, mStateMachine.getState());
+        assertTrue(mStateMachine.fail(current));
+        assertEquals(PrepareStateMachine.STATE_ERROR, mStateMachine.getState());
+        assertFalse(mStateMachine.complete(current));
+    }
+}
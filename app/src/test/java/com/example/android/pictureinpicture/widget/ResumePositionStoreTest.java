@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+public class ResumePositionStoreTest {
+
+    private File mDirectory;
+
+    private File mFile;
+
+    private QueueExecutor mExecutor;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = Files.createTempDirectory("resume_positions").toFile();
+        mFile = new File(mDirectory, "log");
+        mExecutor = new QueueExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        final File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void positions_surviveRestart() {
+        ResumePositionStore store = open();
+        store.put("a", 12000);
+        store.put("b", 3000);
+        mExecutor.runAll();
+
+        ResumePositionStore restarted = open();
+        assertEquals(12000, restarted.get("a"));
+        assertEquals(3000, restarted.get("b"));
+        assertEquals(0, restarted.get("c"));
+    }
+
+    @Test
+    public void changesWhileWritePending_areSyncedOnce() {
+        ResumePositionStore store = open();
+        store.put("a", 1000);
+        store.put("a", 2000);
+        store.put("b", 3000);
+        store.put("b", 3000);
+        // Only one write is ever waiting, long enough for a burst to join it.
+        assertEquals(1, mExecutor.tasks.size());
+        assertEquals(ResumePositionStore.FLUSH_DELAY_MS, mExecutor.lastDelayMs);
+        mExecutor.runAll();
+        assertEquals(1, store.getSyncCount());
+        assertEquals(2, store.getRecordCount());
+        assertEquals(2000, open().get("a"));
+    }
+
+    @Test
+    public void zero_forgetsPosition() {
+        ResumePositionStore store = open();
+        store.put("a", 1000);
+        mExecutor.runAll();
+        store.put("a", 0);
+        mExecutor.runAll();
+        assertEquals(0, store.get("a"));
+        assertEquals(0, open().get("a"));
+    }
+
+    @Test
+    public void log_isCompactedToLiveEntries() {
+        ResumePositionStore store = open();
+        for (int i = 1; i <= 1000; i++) {
+            store.put("a", i);
+            mExecutor.runAll();
+        }
+        assertTrue(store.getRecordCount() <= 64);
+        assertEquals(1000, open().get("a"));
+    }
+
+    @Test
+    public void cutRecord_isDroppedAndRestKept() throws IOException {
+        ResumePositionStore store = open();
+        store.put("a", 1000);
+        mExecutor.runAll();
+        store.put("b", 2000);
+        mExecutor.runAll();
+        try (RandomAccessFile file = new RandomAccessFile(mFile, "rw")) {
+            // The process died in the middle of the second write.
+            file.setLength(file.length() - 2);
+        }
+
+        ResumePositionStore restarted = open();
+        assertEquals(1000, restarted.get("a"));
+        assertEquals(0, restarted.get("b"));
+        assertEquals(1, restarted.getRecordCount());
+        restarted.put("c", 3000);
+        mExecutor.runAll();
+        assertEquals(3000, open().get("c"));
+    }
+
+    @Test
+    public void positionsPutBeforeLoad_winOverLog() {
+        ResumePositionStore store = open();
+        store.put("a", 1000);
+        mExecutor.runAll();
+
+        ResumePositionStore restarted = new ResumePositionStore(mFile, mExecutor);
+        restarted.put("a", 5000);
+        assertEquals(5000, restarted.get("a"));
+        mExecutor.runAll();
+        assertEquals(5000, restarted.get("a"));
+        assertEquals(5000, open().get("a"));
+    }
+
+    @Test
+    public void positionsForgottenBeforeLoad_stayForgotten() {
+        ResumePositionStore store = open();
+        store.put("a", 1000);
+        mExecutor.runAll();
+
+        ResumePositionStore restarted = new ResumePositionStore(mFile, mExecutor);
+        restarted.put("a", 0);
+        mExecutor.runAll();
+        assertEquals(0, restarted.get("a"));
+        assertEquals(0, open().get("a"));
+    }
+
+    /** Creates a store and waits until it has read the log. */
+    private ResumePositionStore open() {
+        ResumePositionStore store = new ResumePositionStore(mFile, mExecutor);
+        mExecutor.runAll();
+        return store;
+    }
+
+    /** Runs the tasks when the test says so, one at a time, whatever their delay. */
+    private static class QueueExecutor implements ResumePositionStore.Scheduler {
+
+        final Queue<Runnable> tasks = new ArrayDeque<>();
+
+        long lastDelayMs = -1;
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        @Override
+        public void schedule(Runnable task, long delayMs) {
+            lastDelayMs = delayMs;
+            tasks.add(task);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.poll().run();
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+public class SeekControllerTest {
+
+    private FakePlayerEngine.Factory mFactory;
+
+    private PlaybackController mController;
+
+    private FakePlayerEngine mEngine;
+
+    private int mSeekCompleteCount;
+
+    private int mLastSeekPosition = -1;
+
+    @Before
+    public void setUp() {
+        mFactory = new FakePlayerEngine.Factory();
+        mController = new PlaybackController(mFactory, FakePlayerEngine.OPENER, new SeekCallback());
+        mController.setPlaylist(new Playlist<>(Collections.singletonList("video")));
+        mController.open(null);
+        mController.startVideo();
+        mEngine = mFactory.last();
+        mEngine.completePrepare();
+        mEngine.asyncSeek = true;
+    }
+
+    @Test
+    public void burst_collapsesToLatestTarget() {
+        mController.seekBy(5000, PlayerEngine.SEEK_CLOSEST_SYNC);
+        mController.seekBy(5000, PlayerEngine.SEEK_CLOSEST_SYNC);
+        mController.seekBy(5000, PlayerEngine.SEEK_CLOSEST_SYNC);
+        mController.seekBy(5000, PlayerEngine.SEEK_CLOSEST_SYNC);
+        assertEquals(1, mEngine.seekCount);
+        assertEquals(20000, mController.getCurrentPosition());
+
+        mEngine.completeSeek();
+        assertEquals(2, mEngine.seekCount);
+        assertEquals(0, mSeekCompleteCount);
+        assertEquals(2, mController.getCollapsedSeekCount());
+
+        mEngine.completeSeek();
+        assertEquals(2, mEngine.seekCount);
+        assertEquals(1, mSeekCompleteCount);
+        assertEquals(20000, mLastSeekPosition);
+    }
+
+    @Test
+    public void seek_isClampedToDuration() {
+        mController.seekTo(90000, PlayerEngine.SEEK_CLOSEST);
+        assertEquals(60000, mController.getCurrentPosition());
+        mEngine.completeSeek();
+        mController.seekBy(-70000, PlayerEngine.SEEK_CLOSEST);
+        assertEquals(0, mController.getCurrentPosition());
+        mEngine.completeSeek();
+        assertEquals(0, mLastSeekPosition);
+    }
+
+    @Test
+    public void seek_usesRequestedMode() {
+        mController.seekBy(5000, PlayerEngine.SEEK_CLOSEST_SYNC);
+        assertEquals(PlayerEngine.SEEK_CLOSEST_SYNC, mEngine.lastSeekMode);
+        mController.seekTo(1234, PlayerEngine.SEEK_CLOSEST);
+        mEngine.completeSeek();
+        assertEquals(PlayerEngine.SEEK_CLOSEST, mEngine.lastSeekMode);
+    }
+
+    @Test
+    public void restart_dropsPendingSeeks() {
+        mController.seekBy(5000, PlayerEngine.SEEK_CLOSEST_SYNC);
+        mController.seekBy(5000, PlayerEngine.SEEK_CLOSEST_SYNC);
+        mController.startVideo();
+        mEngine.completePrepare();
+        assertEquals(1, mEngine.seekCount);
+        assertEquals(0, mController.getCurrentPosition());
+    }
+
+    @Test
+    public void clamp_treatsUnknownDurationAsUnbounded() {
+        assertEquals(0, SeekController.clamp(-1, 1000));
+        assertEquals(1000, SeekController.clamp(2000, 1000));
+        assertEquals(2000, SeekController.clamp(2000, 0));
+    }
+
+    private class SeekCallback implements PlaybackController.Callback {
+
+        @Override
+        public void onPrepared() {}
+
+        @Override
+        public void onStarted() {}
+
+        @Override
+        public void onStopped() {}
+
+        @Override
+        public void onError(int what, int extra) {}
+
+        @Override
+        public void onVideoSizeChanged(int width, int height) {}
+
+        @Override
+        public void onPlaylistIndexChanged(int index) {}
+
+        @Override
+        public void onSeekComplete(int positionMs) {
+            mSeekCompleteCount++;
+            mLastSeekPosition = positionMs;
+        }
+
+        @Override
+        public void onFirstFrame() {}
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ThumbnailCacheTest {
+
+    private static final ThumbnailCache.Sizer<byte[]> SIZER =
+            new ThumbnailCache.Sizer<byte[]>() {
+                @Override
+                public int sizeOf(byte[] thumbnail) {
+                    return thumbnail.length;
+                }
+            };
+
+    @Test
+    public void getClosest_picksNearestPosition() {
+        ThumbnailCache<byte[]> cache = new ThumbnailCache<>(1000, 0, SIZER);
+        assertNull(cache.getClosest(0));
+        byte[] first = new byte[10];
+        byte[] second = new byte[10];
+        cache.put(0, 0, first);
+        cache.put(0, 4000, second);
+        assertSame(first, cache.getClosest(1999));
+        assertSame(second, cache.getClosest(2001));
+        assertSame(second, cache.getClosest(90000));
+    }
+
+    @Test
+    public void put_evictsLeastRecentlyServed() {
+        ThumbnailCache<byte[]> cache = new ThumbnailCache<>(30, 0, SIZER);
+        cache.put(0, 0, new byte[10]);
+        cache.put(0, 1000, new byte[10]);
+        cache.put(0, 2000, new byte[10]);
+        cache.getClosest(0);
+        cache.getClosest(2000);
+        cache.put(0, 3000, new byte[10]);
+        assertFalse(cache.contains(1000));
+        assertTrue(cache.contains(0));
+        assertEquals(30, cache.getSizeBytes());
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void put_keepsThumbnailOnScreen() {
+        ThumbnailCache<byte[]> cache = new ThumbnailCache<>(20, 4, SIZER);
+        byte[] shown = new byte[10];
+        cache.put(0, 0, shown);
+        assertSame(shown, cache.getClosest(0));
+        cache.put(0, 1000, new byte[10]);
+        cache.put(0, 2000, new byte[10]);
+        // The eldest is skipped; the next one goes.
+        assertTrue(cache.contains(0));
+        assertFalse(cache.contains(1000));
+        byte[] reusable = cache.takeReusable();
+        assertTrue(reusable != shown);
+        assertNull(cache.takeReusable());
+    }
+
+    @Test
+    public void evictedThumbnails_areReused() {
+        ThumbnailCache<byte[]> cache = new ThumbnailCache<>(10, 1, SIZER);
+        byte[] first = new byte[10];
+        cache.put(0, 0, first);
+        cache.put(0, 1000, new byte[10]);
+        cache.put(0, 2000, new byte[10]);
+        // Only one is kept aside.
+        assertSame(first, cache.takeReusable());
+        assertNull(cache.takeReusable());
+        assertEquals(2, cache.getEvictionCount());
+    }
+
+    @Test
+    public void clear_dropsEverything() {
+        ThumbnailCache<byte[]> cache = new ThumbnailCache<>(100, 4, SIZER);
+        cache.put(0, 0, new byte[10]);
+        cache.put(0, 1000, new byte[10]);
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getSizeBytes());
+        assertNull(cache.getClosest(0));
+    }
+
+    @Test
+    public void put_rejectsThumbnailsOfEarlierGeneration() {
+        ThumbnailCache<byte[]> cache = new ThumbnailCache<>(100, 4, SIZER);
+        int generation = cache.getGeneration();
+        assertTrue(cache.put(generation, 0, new byte[10]));
+        cache.clear();
+        byte[] stale = new byte[10];
+        assertFalse(cache.put(generation, 1000, stale));
+        assertEquals(0, cache.size());
+        assertNull(cache.getClosest(1000));
+        assertTrue(cache.put(cache.getGeneration(), 1000, new byte[10]));
+        assertEquals(1, cache.size());
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+
+public class VideoMetadataTest {
+
+    private static final String KEY = "android.resource://com.example/raw/1";
+
+    /** Sync frames every 4 seconds. */
+    private static final VideoMetadata METADATA =
+            new VideoMetadata(60000, 1920, 1080, new int[] {0, 4000, 8000, 12000, 16000});
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = Files.createTempDirectory("video_metadata").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        final File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void snap_picksClosestKeyframeInDirectionOfMove() {
+        assertEquals(4000, METADATA.snapToKeyframe(0, 5000));
+        assertEquals(8000, METADATA.snapToKeyframe(4000, 7000));
+        assertEquals(4000, METADATA.snapToKeyframe(8000, 3000));
+        assertEquals(12000, METADATA.snapToKeyframe(12000, 12000));
+    }
+
+    @Test
+    public void snap_neverLandsBackOnStartingFrame() {
+        // The closest sync frame to 5000 is 4000, which is where we are.
+        assertEquals(8000, METADATA.snapToKeyframe(4000, 5000));
+        assertEquals(0, METADATA.snapToKeyframe(4000, 3000));
+        // Nothing past the last sync frame
+        assertEquals(21000, METADATA.snapToKeyframe(16000, 21000));
+    }
+
+    @Test
+    public void thumbnails_coverVideoFromCoarseToFine() {
+        VideoMetadata metadata =
+                new VideoMetadata(
+                        60000,
+                        1920,
+                        1080,
+                        new int[] {0, 4000, 8000, 12000, 16000, 20000, 24000, 28000});
+        assertArrayEquals(
+                new int[] {0, 16000, 8000, 24000, 4000, 12000, 20000, 28000},
+                metadata.getThumbnailPositions(100));
+        // Every other sync frame
+        assertArrayEquals(
+                new int[] {0, 16000, 8000, 24000}, metadata.getThumbnailPositions(4));
+    }
+
+    @Test
+    public void thumbnails_areEvenlySpacedWithoutSyncFrames() {
+        VideoMetadata metadata = new VideoMetadata(40000, 1920, 1080, new int[0]);
+        assertArrayEquals(
+                new int[] {0, 20000, 10000, 30000}, metadata.getThumbnailPositions(4));
+        assertEquals(0, new VideoMetadata(0, 0, 0, new int[0]).getThumbnailPositions(4).length);
+    }
+
+    @Test
+    public void cache_roundTrips() {
+        VideoMetadataCache cache = new VideoMetadataCache(mDirectory, 1);
+        assertEquals(null, cache.load(KEY, 0, 0));
+        assertTrue(cache.store(KEY, 0, 0, METADATA));
+
+        VideoMetadata loaded = new VideoMetadataCache(mDirectory, 1).load(KEY, 0, 0);
+        assertEquals(60000, loaded.getDurationMs());
+        assertEquals(1920, loaded.getWidth());
+        assertEquals(1080, loaded.getHeight());
+        assertEquals(5, loaded.getKeyframeCount());
+        assertEquals(8000, loaded.snapToKeyframe(4000, 5000));
+    }
+
+    @Test
+    public void cache_keepsMimeType() {
+        VideoMetadataCache cache = new VideoMetadataCache(mDirectory, 1);
+        cache.store(KEY, 0, 0, new VideoMetadata("video/avc", 60000, 1920, 1080, new int[0]));
+        assertEquals("video/avc", cache.load(KEY, 0, 0).getMimeType());
+        cache.store(KEY, 0, 0, METADATA);
+        assertEquals(null, cache.load(KEY, 0, 0).getMimeType());
+    }
+
+    @Test
+    public void cache_ignoresEntriesOfAnotherVersion() {
+        new VideoMetadataCache(mDirectory, 1).store(KEY, 0, 0, METADATA);
+        assertEquals(null, new VideoMetadataCache(mDirectory, 2).load(KEY, 0, 0));
+        // The stale entry is gone for good.
+        assertEquals(null, new VideoMetadataCache(mDirectory, 1).load(KEY, 0, 0));
+    }
+
+    @Test
+    public void cache_ignoresEntriesOfAChangedVideo() {
+        VideoMetadataCache cache = new VideoMetadataCache(mDirectory, 1);
+        cache.store(KEY, 1000, 5, METADATA);
+        assertEquals(60000, cache.load(KEY, 1000, 5).getDurationMs());
+        assertEquals(null, cache.load(KEY, 1000, 6));
+        cache.store(KEY, 1000, 5, METADATA);
+        assertEquals(null, cache.load(KEY, 2000, 5));
+        assertEquals(null, cache.load(KEY, 1000, 5));
+    }
+
+    @Test
+    public void cache_ignoresCorruptEntries() throws IOException {
+        VideoMetadataCache cache = new VideoMetadataCache(mDirectory, 1);
+        cache.store(KEY, 0, 0, METADATA);
+        final File[] files = mDirectory.listFiles();
+        assertEquals(1, files.length);
+        try (FileOutputStream out = new FileOutputStream(files[0])) {
+            out.write(new byte[] {0, 0, 0, 1, 42});
+        }
+        assertEquals(null, cache.load(KEY, 0, 0));
+    }
+
+    @Test
+    public void controller_answersSizeAndDurationBeforePrepare() {
+        FakePlayerEngine.Factory factory = new FakePlayerEngine.Factory();
+        PlaybackController controller = newController(factory);
+        controller.open(null);
+        controller.startVideo();
+        assertEquals(1920, controller.getVideoWidth());
+        assertEquals(1080, controller.getVideoHeight());
+        assertEquals(60000, controller.getDuration());
+
+        // The engine is trusted once prepared.
+        factory.last().completePrepare();
+        assertEquals(1280, controller.getVideoWidth());
+    }
+
+    @Test
+    public void controller_snapsScrubbingToKeyframes() {
+        FakePlayerEngine.Factory factory = new FakePlayerEngine.Factory();
+        PlaybackController controller = newController(factory);
+        controller.open(null);
+        controller.startVideo();
+        factory.last().completePrepare();
+        factory.last().advance(4000);
+
+        controller.seekBy(1000, PlayerEngine.SEEK_CLOSEST_SYNC);
+        assertEquals(8000, controller.getCurrentPosition());
+        // Precise seeks go exactly where they are asked to.
+        controller.seekBy(1000, PlayerEngine.SEEK_CLOSEST);
+        assertEquals(9000, controller.getCurrentPosition());
+    }
+
+    private static PlaybackController newController(FakePlayerEngine.Factory factory) {
+        PlaybackController controller =
+                new PlaybackController(factory, FakePlayerEngine.OPENER, new NoOpCallback());
+        controller.setPlaylist(new Playlist<>(Collections.singletonList(KEY)));
+        controller.setMetadataSource(
+                new PlaybackController.MetadataSource() {
+                    @Override
+                    public VideoMetadata getMetadata(int index) {
+                        return METADATA;
+                    }
+                });
+        return controller;
+    }
+
+    private static class NoOpCallback implements PlaybackController.Callback {
+
+        @Override
+        public void onPrepared() {}
+
+        @Override
+        public void onStarted() {}
+
+        @Override
+        public void onStopped() {}
+
+        @Override
+        public void onError(int what, int extra) {}
+
+        @Override
+        public void onVideoSizeChanged(int width, int height) {}
+
+        @Override
+        public void onPlaylistIndexChanged(int index) {}
+
+        @Override
+        public void onSeekComplete(int positionMs) {}
+
+        @Override
+        public void onFirstFrame() {}
+    }
+}
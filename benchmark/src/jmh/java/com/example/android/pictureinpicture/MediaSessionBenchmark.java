@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture;
+
+import com.example.android.pictureinpicture.widget.Playlist;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Collections;
+
+/**
+ * Measures the work of the media session callbacks when skipping through a playlist: moving to
+ * the next video, computing the available actions and publishing the playback state.
+ */
+@State(Scope.Thread)
+public class MediaSessionBenchmark {
+
+    // Same values as in PlaybackStateCompat
+    private static final long ACTION_PAUSE = 1 << 1;
+    private static final long ACTION_PLAY = 1 << 2;
+    private static final long ACTION_SKIP_TO_PREVIOUS = 1 << 4;
+    private static final long ACTION_SKIP_TO_NEXT = 1 << 5;
+    private static final long ACTION_PLAY_PAUSE = 1 << 9;
+    private static final int STATE_PLAYING = 3;
+
+    /** How many skips land within one frame. */
+    private static final int SKIP_BURST = 4;
+
+    private final PlaylistActions mActions =
+            new PlaylistActions(
+                    ACTION_PLAY | ACTION_PAUSE | ACTION_PLAY_PAUSE,
+                    ACTION_SKIP_TO_NEXT,
+                    ACTION_SKIP_TO_PREVIOUS);
+
+    private Playlist<String> mPlaylist;
+
+    private PlaybackStatePublisher mPublisher;
+
+    /** The task scheduled for the next frame. */
+    private Runnable mFrame;
+
+    private long mPublished;
+
+    @Setup
+    public void setUp() {
+        mPlaylist = new Playlist<>(Collections.nCopies(10, "video"));
+        mPublisher =
+                new PlaybackStatePublisher(
+                        new PlaybackStatePublisher.Sink() {
+                            @Override
+                            public boolean publish(
+                                    int state, long actions, int position, long mediaId) {
+                                mPublished += actions + mediaId;
+                                return true;
+                            }
+                        },
+                        new PlaybackStatePublisher.Scheduler() {
+                            @Override
+                            public void schedule(Runnable task) {
+                                mFrame = task;
+                            }
+                        });
+    }
+
+    @Benchmark
+    public long skipToNext() {
+        int index = mPlaylist.peekIndex(1);
+        if (index == -1) {
+            index = 0;
+        }
+        mPlaylist.moveTo(index);
+        final long actions = mActions.get(mPlaylist.hasPrevious(), mPlaylist.hasNext());
+        mPublisher.update(STATE_PLAYING, actions, 0, index);
+        return actions;
+    }
+
+    /** Rapid skip presses, published at the next frame. */
+    @Benchmark
+    public long skipBurst() {
+        for (int i = 0; i < SKIP_BURST; i++) {
+            skipToNext();
+        }
+        mFrame.run();
+        return mPublished;
+    }
+}
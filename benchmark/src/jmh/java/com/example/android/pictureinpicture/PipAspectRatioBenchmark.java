@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures the aspect ratio math of {@link PipController}, which runs whenever the video size
+ * changes while in Picture-in-Picture mode.
+ */
+@State(Scope.Thread)
+public class PipAspectRatioBenchmark {
+
+    private final PipAspectRatio mAspectRatio = new PipAspectRatio();
+
+    private int mVideo;
+
+    /** Videos of the same shape; nothing is published again. */
+    @Benchmark
+    public boolean sameShape() {
+        mVideo++;
+        return (mVideo & 1) == 0
+                ? mAspectRatio.update(1920, 1080)
+                : mAspectRatio.update(1280, 720);
+    }
+
+    /** Videos of different shapes, one of them out of the allowed range. */
+    @Benchmark
+    public boolean otherShape() {
+        mVideo++;
+        return (mVideo & 1) == 0
+                ? mAspectRatio.update(1920, 1080)
+                : mAspectRatio.update(3000, 1000);
+    }
+}
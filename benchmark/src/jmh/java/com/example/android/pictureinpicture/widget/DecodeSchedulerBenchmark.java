@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures the decode pipeline of {@link MediaCodecEngine}, with a decoder that gives samples back
+ * as they are. The allocation rate should stay at zero. The dropped frames are reported with the
+ * results, as the {@link Drops} counter; how long the frames waited for their time is printed
+ * after each iteration, since JMH would sum percentiles reported as counters.
+ */
+@State(Scope.Thread)
+public class DecodeSchedulerBenchmark {
+
+    /** 60 frames per second */
+    private static final long FRAME_INTERVAL_US = 16667;
+
+    /** As many as a typical hardware decoder hands out. */
+    private static final int BUFFER_COUNT = 4;
+
+    private static final int SAMPLE_SIZE = 4096;
+
+    private FakeCodec mCodec;
+
+    private DecodeScheduler mScheduler;
+
+    private long mNowNs;
+
+    /** How many frames were dropped in an iteration. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Drops {
+
+        public long droppedFrames;
+
+        /** Read at the end of each iteration. */
+        DecodeScheduler scheduler;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            droppedFrames = 0;
+            scheduler = null;
+        }
+
+        @TearDown(Level.Iteration)
+        public void read() {
+            if (scheduler != null) {
+                droppedFrames = scheduler.getDroppedCount();
+            }
+        }
+    }
+
+    /** Every iteration starts with an empty pipeline and empty statistics. */
+    @Setup(Level.Iteration)
+    public void setUp() {
+        final MediaClock clock = new MediaClock();
+        mNowNs = 0;
+        mCodec = new FakeCodec(BUFFER_COUNT, SAMPLE_SIZE);
+        mScheduler =
+                new DecodeScheduler(
+                        mCodec,
+                        new FakeSampleSource(Integer.MAX_VALUE, FRAME_INTERVAL_US, SAMPLE_SIZE),
+                        clock,
+                        null,
+                        new DecodeScheduler.Listener() {
+                            @Override
+                            public void onFirstOutput(long timeUs) {}
+
+                            @Override
+                            public void onEndOfStream() {}
+                        });
+        clock.start(mNowNs);
+    }
+
+    /** Reading the histogram every frame would skew it, so it is read once per iteration. */
+    @TearDown(Level.Iteration)
+    public void printQueueLatency() {
+        final LatencyHistogram latency = mScheduler.getQueueLatency();
+        System.out.printf(
+                "queue latency: p50 %d us, p99 %d us%n",
+                latency.getPercentile(50), latency.getPercentile(99));
+    }
+
+    /** One frame at the display rate: read, decoded and released when it is due. */
+    @Benchmark
+    public int frame(Drops drops) {
+        drops.scheduler = mScheduler;
+        mCodec.feed(mScheduler);
+        mCodec.drain(mScheduler, mNowNs);
+        mNowNs += FRAME_INTERVAL_US * 1000;
+        mScheduler.render(mNowNs);
+        return mScheduler.getRenderedCount();
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Measures the timeout that hides the controls of {@link MovieView} on every tap. */
+@State(Scope.Thread)
+public class IdleTimeoutBenchmark {
+
+    private static final long TIMEOUT_CONTROLS = 3000; // ms
+
+    /** The time between two taps while scrubbing. */
+    private static final long TAP_INTERVAL = 50; // ms
+
+    private IdleTimeout mTimeout;
+
+    private long mNow;
+
+    private Runnable mPending;
+
+    private long mDueAt;
+
+    @Setup
+    public void setUp() {
+        mTimeout =
+                new IdleTimeout(
+                        new IdleTimeout.Scheduler() {
+                            @Override
+                            public long uptimeMillis() {
+                                return mNow;
+                            }
+
+                            @Override
+                            public void postDelayed(Runnable task, long delayMs) {
+                                mPending = task;
+                                mDueAt = mNow + delayMs;
+                            }
+
+                            @Override
+                            public void removeCallbacks(Runnable task) {
+                                mPending = null;
+                            }
+                        },
+                        TIMEOUT_CONTROLS,
+                        new Runnable() {
+                            @Override
+                            public void run() {}
+                        });
+    }
+
+    /** One tap of a scrubbing burst; the pending callback runs whenever it is due. */
+    @Benchmark
+    public int tap() {
+        mNow += TAP_INTERVAL;
+        if (mPending != null && mDueAt <= mNow) {
+            final Runnable task = mPending;
+            mPending = null;
+            task.run();
+        }
+        mTimeout.restart();
+        return mTimeout.getPostCount();
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/** Measures the letterbox math that runs on every measure pass of {@link MovieView}. */
+@State(Scope.Thread)
+public class LetterboxBenchmark {
+
+    private final Letterbox mLetterbox = new Letterbox();
+
+    private boolean mPictureInPicture;
+
+    /** Measure passes that do not change anything, e.g. when the controls are shown. */
+    @Benchmark
+    public int remeasure() {
+        mLetterbox.update(1080, 1920, 1280, 720);
+        return mLetterbox.getTop();
+    }
+
+    /** Entering and leaving Picture-in-Picture mode. */
+    @Benchmark
+    public int resize() {
+        mPictureInPicture = !mPictureInPicture;
+        if (mPictureInPicture) {
+            mLetterbox.update(480, 270, 1280, 720);
+        } else {
+            mLetterbox.update(1080, 1920, 1280, 720);
+        }
+        return mLetterbox.getTop();
+    }
+}
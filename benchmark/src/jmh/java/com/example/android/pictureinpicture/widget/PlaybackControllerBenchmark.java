@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.pictureinpicture.widget;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+
+/** Measures the control paths of {@link PlaybackController} that {@link MovieView} drives. */
+@State(Scope.Thread)
+public class PlaybackControllerBenchmark {
+
+    private static final int SCRUB_STEP = 5000; // ms
+
+    /** How many scrubbing steps land while one seek is in flight. */
+    private static final int SCRUB_BURST = 4;
+
+    private FakePlayerEngine mEngine;
+
+    private PlaybackController mController;
+
+    private int mDirection = 1;
+
+    @Setup
+    public void setUp() {
+        final FakePlayerEngine.Factory factory = new FakePlayerEngine.Factory();
+        mController = new PlaybackController(factory, FakePlayerEngine.OPENER, new NoOpCallback());
+        mController.setPlaylist(new Playlist<>(Arrays.asList("a", "b", "c")));
+        mController.open(null);
+        mController.startVideo();
+        mEngine = factory.last();
+        mEngine.completePrepare();
+        mEngine.asyncSeek = true;
+    }
+
+    @Benchmark
+    public boolean toggle() {
+        mController.toggle();
+        return mController.isPlaying();
+    }
+
+    /** A burst of fast forward taps, collapsed behind the seek in flight. */
+    @Benchmark
+    public int scrub() {
+        // Go back and forth so the position is not stuck at either end of the video.
+        final int position = mController.getCurrentPosition();
+        if (position + SCRUB_STEP * SCRUB_BURST > mEngine.getDuration()) {
+            mDirection = -1;
+        } else if (position - SCRUB_STEP * SCRUB_BURST < 0) {
+            mDirection = 1;
+        }
+        for (int i = 0; i < SCRUB_BURST; i++) {
+            mController.seekBy(SCRUB_STEP * mDirection, PlayerEngine.SEEK_CLOSEST_SYNC);
+        }
+        // The seek in flight, then the collapsed one.
+        mEngine.completeSeek();
+        mEngine.completeSeek();
+        return mController.getCurrentPosition();
+    }
+
+    private static class NoOpCallback implements PlaybackController.Callback {
+
+        @Override
+        public void onPrepared() {}
+
+        @Override
+        public void onStarted() {}
+
+        @Override
+        public void onStopped() {}
+
+        @Override
+        public void onError(int what, int extra) {}
+
+        @Override
+        public void onVideoSizeChanged(int width, int height) {}
+
+        @Override
+        public void onPlaylistIndexChanged(int index) {}
+
+        @Override
+        public void onSeekComplete(int positionMs) {}
+
+        @Override
+        public void onFirstFrame() {}
+    }
+}